@@ -3,7 +3,7 @@
 
 source $HOME/.bash_profile
 
-export JAVA_OPTS='-Xms256M -Xmx1536M -XX:NewSize=128m -XX:MaxNewSize=512m -XX:+CMSPermGenSweepingEnabled -XX:PermSize=128m -XX:MaxPermSize=256m -XX:+CMSClassUnloadingEnabled -XX:+UseConcMarkSweepGC'
+export JAVA_OPTS='-Xms256M -Xmx1536M -XX:NewSize=128m -XX:MaxNewSize=512m -XX:+CMSPermGenSweepingEnabled -XX:PermSize=128m -XX:MaxPermSize=256m -XX:+CMSClassUnloadingEnabled -XX:+UseConcMarkSweepGC -XX:MaxDirectMemorySize=640m'
 
 #Doing this for Java to be able to pick up HOSTNAME as a System PROPERTY
 export HOSTNAME=$HOSTNAME
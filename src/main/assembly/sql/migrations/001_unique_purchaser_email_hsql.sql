@@ -0,0 +1,5 @@
+-- Unique purchaser email, required by PUT rest/members/byemail (update, then insert the members not found).
+-- Emails are unique by contract already; list any duplicates and resolve them before adding the index:
+--   SELECT Email, COUNT(*) FROM tbl_purchaser WHERE Email IS NOT NULL GROUP BY Email HAVING COUNT(*) > 1;
+-- NULL emails are not affected, any number of purchasers may have none.
+CREATE UNIQUE INDEX ux_purchaser_email ON tbl_purchaser(Email);
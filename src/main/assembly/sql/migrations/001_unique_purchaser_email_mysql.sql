@@ -0,0 +1,7 @@
+-- Unique purchaser email, required by PUT rest/members/byemail (INSERT ... ON DUPLICATE KEY UPDATE).
+-- Emails are unique by contract already; list any duplicates and resolve them before adding the index:
+--   SELECT Email, COUNT(*) FROM tbl_purchaser WHERE Email IS NOT NULL GROUP BY Email HAVING COUNT(*) > 1;
+-- NULL emails are not affected, any number of purchasers may have none.
+USE PUBLIC;
+
+ALTER TABLE `tbl_purchaser` ADD UNIQUE KEY `ux_purchaser_email` (`Email`);
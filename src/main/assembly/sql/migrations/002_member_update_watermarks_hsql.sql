@@ -0,0 +1,4 @@
+-- Indexes of GET rest/members/changes, which pages the purchasers and households written since a
+-- watermark by (Latest_Record_Update, id): each page is a range scan from the watermark on.
+CREATE INDEX ix_purchaser_updated ON tbl_purchaser(Latest_Record_Update,PurchaserID);
+CREATE INDEX ix_household_updated ON tbl_household(Latest_Record_Update,HouseHoldID);
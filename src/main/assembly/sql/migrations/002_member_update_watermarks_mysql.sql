@@ -0,0 +1,7 @@
+-- Indexes of GET rest/members/changes, which pages the purchasers and households written since a
+-- watermark by (Latest_Record_Update, id): each page is a range scan from the watermark on.
+-- On large tables run it off-peak, or with an online schema change tool.
+USE PUBLIC;
+
+ALTER TABLE `tbl_purchaser` ADD KEY `ix_purchaser_updated` (`Latest_Record_Update`, `PurchaserID`);
+ALTER TABLE `tbl_household` ADD KEY `ix_household_updated` (`Latest_Record_Update`, `HouseHoldID`);
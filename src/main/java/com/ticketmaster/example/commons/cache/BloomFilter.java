@@ -0,0 +1,141 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BloomFilter -
+ * A thread-safe Bloom filter of long keys. mightContain never answers false
+ * for a key that was put; it answers true for a key that was not put with
+ * about the false positive rate the filter was sized for, as long as no more
+ * than the expected number of keys are put. Keys cannot be removed.
+ */
+public class BloomFilter {
+
+	private static final double LN2 = Math.log(2);
+
+	private final AtomicLongArray words;
+
+	private final long bitCount;
+
+	private final int hashCount;
+
+	private final long expectedInsertions;
+
+	private final AtomicLong setBits = new AtomicLong();
+
+	/**
+	 * @param expectedInsertions
+	 *          number of keys the filter is sized for
+	 * @param falsePositiveRate
+	 *          probability of mightContain answering true for a key not put,
+	 *          between 0 and 1 exclusive
+	 */
+	public BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+		if (expectedInsertions < 1) {
+			throw new IllegalArgumentException("expectedInsertions must be positive: " + expectedInsertions);
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+		}
+		this.expectedInsertions = expectedInsertions;
+		final long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+		final int wordCount = (int) Math.min(Integer.MAX_VALUE, (bits + 63) / 64);
+		this.words = new AtomicLongArray(wordCount);
+		this.bitCount = wordCount * 64L;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * LN2));
+	}
+
+	/**
+	 * @param key
+	 *          the key to add
+	 */
+	public void put(final long key) {
+		final long hash1 = mix(key);
+		final long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			final long bit = bit(hash1, hash2, i);
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+			long current;
+			while (((current = words.get(word)) & mask) == 0) {
+				if (words.compareAndSet(word, current, current | mask)) {
+					setBits.incrementAndGet();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 *          the key to look up
+	 * @return false if the key was certainly never put
+	 */
+	public boolean mightContain(final long key) {
+		final long hash1 = mix(key);
+		final long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			final long bit = bit(hash1, hash2, i);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Position of the i-th hash by double hashing.
+	 */
+	private long bit(final long hash1, final long hash2, final int i) {
+		return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreads sequential ids over the whole range.
+	 */
+	private static long mix(final long key) {
+		long hash = key;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return the false positive rate to expect from the bits set so far
+	 */
+	public double getCurrentFalsePositiveRate() {
+		return Math.pow((double) setBits.get() / bitCount, hashCount);
+	}
+
+	/**
+	 * @return estimated number of distinct keys put, from the bits set
+	 */
+	public long getApproximateCount() {
+		final long set = Math.min(setBits.get(), bitCount - 1);
+		return Math.round(-(double) bitCount / hashCount * Math.log(1 - (double) set / bitCount));
+	}
+
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	public long getBitCount() {
+		return bitCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * @return bytes held by the bit array
+	 */
+	public long getSizeInBytes() {
+		return bitCount / 8;
+	}
+
+}
@@ -0,0 +1,250 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.statistics.LiveCacheStatistics;
+
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CacheRegionAdministrator -
+ * Reports the live statistics of every region of a cache manager together
+ * with the Hibernate session factory statistics, and resizes regions at
+ * runtime.
+ * <p>
+ * Capacity and time to live/idle are dynamic properties of an Ehcache
+ * configuration: a smaller capacity is enforced by evicting on the next puts,
+ * and a new time to live applies to the entries already cached that carry no
+ * lifespan of their own. Only the heap tier of an {@link OffHeapTieredEhcache}
+ * is resized. Changes last until the next restart; carry the values found
+ * under live traffic over to ehcache.xml.
+ */
+public class CacheRegionAdministrator {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(CacheRegionAdministrator.class);
+
+	private CacheManager cacheManager;
+
+	private EntityManagerFactory entityManagerFactory;
+
+	private boolean statisticsEnabled = true;
+
+	/**
+	 * Turns the statistics of every region on or off; called by the container
+	 * once properties are set.
+	 */
+	public void start() {
+		for (String name : cacheManager.getCacheNames()) {
+			cacheManager.getEhcache(name).setStatisticsEnabled(statisticsEnabled);
+		}
+		LOG.info("start() > Statistics of {} cache regions {}", Integer.valueOf(cacheManager.getCacheNames().length),
+				statisticsEnabled ? "enabled" : "disabled");
+	}
+
+	/**
+	 * @return statistics of the Hibernate session factory and of every region
+	 *         keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		final Statistics hibernateStatistics = getHibernateStatistics();
+		if (hibernateStatistics != null) {
+			statistics.put("hibernate", getHibernateStatistics(hibernateStatistics));
+		}
+		final Map<String, Object> regions = new TreeMap<String, Object>();
+		for (String name : cacheManager.getCacheNames()) {
+			regions.put(name, getRegionStatistics(name));
+		}
+		statistics.put("regions", regions);
+		return statistics;
+	}
+
+	/**
+	 * @param name
+	 *          name of the region
+	 * @return configuration, size, hits, misses and evictions of the region,
+	 *         and what Hibernate recorded for it
+	 * @throws IllegalArgumentException
+	 *           if there is no such region
+	 */
+	public Map<String, Object> getRegionStatistics(final String name) {
+		final Ehcache cache = getRegion(name);
+		final CacheConfiguration configuration = cache.getCacheConfiguration();
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("maxEntries", Long.valueOf(configuration.getMaxEntriesLocalHeap()));
+		statistics.put("eternal", Boolean.valueOf(configuration.isEternal()));
+		statistics.put("timeToLiveSeconds", Long.valueOf(configuration.getTimeToLiveSeconds()));
+		statistics.put("timeToIdleSeconds", Long.valueOf(configuration.getTimeToIdleSeconds()));
+		statistics.put("size", Integer.valueOf(cache.getSize()));
+		statistics.put("statisticsEnabled", Boolean.valueOf(cache.isStatisticsEnabled()));
+
+		final LiveCacheStatistics live = cache.getLiveCacheStatistics();
+		if (live != null && cache.isStatisticsEnabled()) {
+			final long hits = live.getCacheHitCount();
+			final long misses = live.getCacheMissCount();
+			statistics.put("hits", Long.valueOf(hits));
+			statistics.put("misses", Long.valueOf(misses));
+			statistics.put("missesExpired", Long.valueOf(live.getCacheMissCountExpired()));
+			statistics.put("hitRatio", Double.valueOf(hits + misses == 0 ? 0 : (double) hits / (hits + misses)));
+			statistics.put("puts", Long.valueOf(live.getPutCount()));
+			statistics.put("updates", Long.valueOf(live.getUpdateCount()));
+			statistics.put("removals", Long.valueOf(live.getRemovedCount()));
+			statistics.put("evictions", Long.valueOf(live.getEvictedCount()));
+			statistics.put("expirations", Long.valueOf(live.getExpiredCount()));
+			statistics.put("averageGetMillis", Float.valueOf(live.getAverageGetTimeMillis()));
+		}
+		if (cache instanceof OffHeapTieredEhcache) {
+			statistics.put("tiers", ((OffHeapTieredEhcache) cache).getTierStatistics());
+		}
+
+		final Statistics hibernateStatistics = getHibernateStatistics();
+		if (hibernateStatistics != null && hibernateStatistics.isStatisticsEnabled()) {
+			for (String region : hibernateStatistics.getSecondLevelCacheRegionNames()) {
+				if (region.equals(name)) {
+					final SecondLevelCacheStatistics regionStatistics = hibernateStatistics
+							.getSecondLevelCacheStatistics(region);
+					final Map<String, Object> hibernate = new LinkedHashMap<String, Object>();
+					hibernate.put("hits", Long.valueOf(regionStatistics.getHitCount()));
+					hibernate.put("misses", Long.valueOf(regionStatistics.getMissCount()));
+					hibernate.put("puts", Long.valueOf(regionStatistics.getPutCount()));
+					statistics.put("hibernate", hibernate);
+				}
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Changes the capacity and lifespan of a region; null leaves a value as it
+	 * is.
+	 *
+	 * @param name
+	 *          name of the region
+	 * @param maxEntries
+	 *          entries kept on the heap, 0 for no limit
+	 * @param timeToLiveSeconds
+	 *          seconds an entry is kept after its creation, 0 for no limit
+	 * @param timeToIdleSeconds
+	 *          seconds an entry is kept after its last access, 0 for no limit
+	 * @return the statistics of the resized region
+	 * @throws IllegalArgumentException
+	 *           if there is no such region, a value is negative, or a lifespan
+	 *           is given for an eternal region
+	 */
+	public Map<String, Object> resize(final String name, final Long maxEntries, final Long timeToLiveSeconds,
+			final Long timeToIdleSeconds) {
+		final Ehcache cache = getRegion(name);
+		final CacheConfiguration configuration = cache.getCacheConfiguration();
+		if (maxEntries != null && maxEntries.longValue() < 0 || timeToLiveSeconds != null
+				&& timeToLiveSeconds.longValue() < 0 || timeToIdleSeconds != null && timeToIdleSeconds.longValue() < 0) {
+			throw new IllegalArgumentException("Cache region sizes and lifespans cannot be negative");
+		}
+		if (configuration.isEternal() && (timeToLiveSeconds != null || timeToIdleSeconds != null)) {
+			throw new IllegalArgumentException("Cache region " + name + " is eternal, its entries do not expire");
+		}
+
+		if (maxEntries != null) {
+			configuration.setMaxEntriesLocalHeap(maxEntries.longValue());
+		}
+		if (timeToLiveSeconds != null) {
+			configuration.setTimeToLiveSeconds(timeToLiveSeconds.longValue());
+		}
+		if (timeToIdleSeconds != null) {
+			configuration.setTimeToIdleSeconds(timeToIdleSeconds.longValue());
+		}
+		LOG.info("resize() > Cache region {} resized to maxEntries={}, timeToLiveSeconds={}, timeToIdleSeconds={}",
+				new Object[] { name, Long.valueOf(configuration.getMaxEntriesLocalHeap()),
+						Long.valueOf(configuration.getTimeToLiveSeconds()),
+						Long.valueOf(configuration.getTimeToIdleSeconds()) });
+		return getRegionStatistics(name);
+	}
+
+	/**
+	 * @param name
+	 *          name of the region
+	 * @return true if the cache manager has the region
+	 */
+	public boolean hasRegion(final String name) {
+		return name != null && cacheManager.getEhcache(name) != null;
+	}
+
+	private Ehcache getRegion(final String name) {
+		final Ehcache cache = name == null ? null : cacheManager.getEhcache(name);
+		if (cache == null) {
+			throw new IllegalArgumentException("No cache region named " + name);
+		}
+		return cache;
+	}
+
+	private Statistics getHibernateStatistics() {
+		if (entityManagerFactory == null) {
+			return null;
+		}
+		return ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory().getStatistics();
+	}
+
+	private static Map<String, Object> getHibernateStatistics(final Statistics hibernateStatistics) {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("statisticsEnabled", Boolean.valueOf(hibernateStatistics.isStatisticsEnabled()));
+		statistics.put("startTime", Long.valueOf(hibernateStatistics.getStartTime()));
+		statistics.put("queriesExecuted", Long.valueOf(hibernateStatistics.getQueryExecutionCount()));
+		statistics.put("queryMaxMillis", Long.valueOf(hibernateStatistics.getQueryExecutionMaxTime()));
+		statistics.put("queryMaxMillisQuery", hibernateStatistics.getQueryExecutionMaxTimeQueryString());
+		statistics.put("queryCacheHits", Long.valueOf(hibernateStatistics.getQueryCacheHitCount()));
+		statistics.put("queryCacheMisses", Long.valueOf(hibernateStatistics.getQueryCacheMissCount()));
+		statistics.put("queryCachePuts", Long.valueOf(hibernateStatistics.getQueryCachePutCount()));
+		statistics.put("entityLoads", Long.valueOf(hibernateStatistics.getEntityLoadCount()));
+		statistics.put("entityFetches", Long.valueOf(hibernateStatistics.getEntityFetchCount()));
+		statistics.put("entityInserts", Long.valueOf(hibernateStatistics.getEntityInsertCount()));
+		statistics.put("entityUpdates", Long.valueOf(hibernateStatistics.getEntityUpdateCount()));
+		statistics.put("entityDeletes", Long.valueOf(hibernateStatistics.getEntityDeleteCount()));
+		statistics.put("collectionLoads", Long.valueOf(hibernateStatistics.getCollectionLoadCount()));
+		statistics.put("collectionFetches", Long.valueOf(hibernateStatistics.getCollectionFetchCount()));
+		statistics.put("secondLevelCacheHits", Long.valueOf(hibernateStatistics.getSecondLevelCacheHitCount()));
+		statistics.put("secondLevelCacheMisses", Long.valueOf(hibernateStatistics.getSecondLevelCacheMissCount()));
+		statistics.put("secondLevelCachePuts", Long.valueOf(hibernateStatistics.getSecondLevelCachePutCount()));
+		statistics.put("statementsPrepared", Long.valueOf(hibernateStatistics.getPrepareStatementCount()));
+		statistics.put("transactions", Long.valueOf(hibernateStatistics.getTransactionCount()));
+		statistics.put("optimisticFailures", Long.valueOf(hibernateStatistics.getOptimisticFailureCount()));
+		return statistics;
+	}
+
+	public CacheManager getCacheManager() {
+		return cacheManager;
+	}
+
+	public void setCacheManager(CacheManager cacheManager) {
+		this.cacheManager = cacheManager;
+	}
+
+	public EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
+	public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	public boolean isStatisticsEnabled() {
+		return statisticsEnabled;
+	}
+
+	public void setStatisticsEnabled(boolean statisticsEnabled) {
+		this.statisticsEnabled = statisticsEnabled;
+	}
+
+}
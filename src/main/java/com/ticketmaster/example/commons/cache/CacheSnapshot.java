@@ -0,0 +1,489 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.hibernate.EntityMode;
+import org.hibernate.cache.CacheKey;
+import org.hibernate.type.StandardBasicTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CacheSnapshot -
+ * Keeps the hot part of entity cache regions across restarts. The on-heap
+ * entries of every configured region are written, hottest first, to a
+ * memory-mapped file on a periodic checkpoint and when the context closes
+ * (Tomcat closes it from its shutdown hook); on startup the file is mapped and
+ * read sequentially back into the regions before any request is served.
+ *
+ * Entries keep their original expiry: the ones still live are restored with
+ * their remaining time to live, so a restart serves no staler data than the
+ * running process would have. Ids of the expired ones are kept, by hit count,
+ * as hot ids for {@link #getHotIds(String)}, e.g. for a cache warm-up to load.
+ * Soft locks of entries being updated are never written.
+ *
+ * Only numeric keys and Hibernate cache keys of numeric ids are kept. Values
+ * go through the configured {@link CacheValueCodec}.
+ */
+public class CacheSnapshot {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(CacheSnapshot.class);
+
+	private static final int MAGIC = 0x4d435331; // MCS1
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Hibernate's read-write strategy puts this while an entry is being updated
+	 */
+	private static final String SOFT_LOCK_CLASS = "net.sf.ehcache.hibernate.strategy.AbstractReadWriteEhcacheAccessStrategy$Lock";
+
+	private static final long ETERNAL = 0;
+
+	private static final int NO_VALUE = -1;
+
+	private CacheManager cacheManager;
+
+	private List<String> regions = new ArrayList<String>();
+
+	private CacheValueCodec codec = new SerializationCacheValueCodec();
+
+	private String file;
+
+	private boolean enabled = true;
+
+	private long checkpointIntervalSeconds = 300;
+
+	private ScheduledExecutorService scheduler;
+
+	private final Map<String, Set<Long>> restoredIds = new HashMap<String, Set<Long>>();
+
+	private final Map<String, List<Long>> hotIds = new HashMap<String, List<Long>>();
+
+	private final AtomicLong checkpointCount = new AtomicLong();
+
+	private volatile int lastEntries;
+
+	private volatile long lastBytes;
+
+	private volatile long lastCheckpointMillis;
+
+	private volatile long lastCheckpointDuration;
+
+	private volatile int restoredCount;
+
+	private volatile int expiredCount;
+
+	/**
+	 * Restores the snapshot and schedules the checkpoints; called by the
+	 * container once properties are set.
+	 */
+	public void start() {
+		if (!enabled) {
+			LOG.info("start() > cache snapshot disabled");
+			return;
+		}
+		restore();
+
+		if (checkpointIntervalSeconds > 0) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "cache-snapshot");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkpoint();
+					} catch (Exception e) {
+						LOG.warn("checkpoint() > Cache snapshot failed: {}", e);
+					}
+				}
+			}, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops the checkpoints and writes a last snapshot; called by the container
+	 * before the cache manager shuts down.
+	 */
+	public void shutdown() {
+		if (!enabled) {
+			return;
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		try {
+			checkpoint();
+		} catch (Exception e) {
+			LOG.warn("shutdown() > Final cache snapshot failed: {}", e);
+		}
+	}
+
+	/**
+	 * Writes the on-heap entries of all regions to a new snapshot file, which
+	 * then replaces the previous one.
+	 *
+	 * @return number of entries written
+	 */
+	public synchronized int checkpoint() throws IOException {
+		final long start = System.currentTimeMillis();
+		final List<Record> records = new ArrayList<Record>();
+		final List<String> entityNames = new ArrayList<String>(regions.size());
+		for (int index = 0; index < regions.size(); index++) {
+			entityNames.add(collect(index, records));
+		}
+		Collections.sort(records, new Comparator<Record>() {
+			@Override
+			public int compare(final Record left, final Record right) {
+				return left.hits < right.hits ? 1 : left.hits == right.hits ? 0 : -1;
+			}
+		});
+
+		long size = 4 + 4 + 8 + 4 + 4;
+		final byte[][] names = new byte[regions.size() * 2][];
+		for (int index = 0; index < regions.size(); index++) {
+			names[index * 2] = regions.get(index).getBytes(UTF8);
+			names[index * 2 + 1] = entityNames.get(index).getBytes(UTF8);
+			size += 2 + names[index * 2].length + 2 + names[index * 2 + 1].length;
+		}
+		for (Record record : records) {
+			size += 1 + 8 + 8 + 8 + 4 + (record.value == null ? 0 : record.value.length);
+		}
+
+		final File target = new File(file);
+		final File temporary = new File(file + ".tmp");
+		final RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+		try {
+			output.setLength(size);
+			final MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(FORMAT_VERSION);
+			buffer.putLong(start);
+			buffer.putInt(regions.size());
+			for (byte[] name : names) {
+				buffer.putShort((short) name.length);
+				buffer.put(name);
+			}
+			buffer.putInt(records.size());
+			for (Record record : records) {
+				buffer.put((byte) record.region);
+				buffer.putLong(record.id);
+				buffer.putLong(record.hits);
+				buffer.putLong(record.expiry);
+				if (record.value == null) {
+					buffer.putInt(NO_VALUE);
+				} else {
+					buffer.putInt(record.value.length);
+					buffer.put(record.value);
+				}
+			}
+			buffer.force();
+		} finally {
+			output.close();
+		}
+		if (!temporary.renameTo(target)) {
+			target.delete();
+			if (!temporary.renameTo(target)) {
+				throw new IOException("Cannot replace cache snapshot " + target);
+			}
+		}
+
+		checkpointCount.incrementAndGet();
+		lastEntries = records.size();
+		lastBytes = size;
+		lastCheckpointMillis = start;
+		lastCheckpointDuration = System.currentTimeMillis() - start;
+		LOG.info("checkpoint() > {} entries, {} bytes in {}ms", new Object[] { lastEntries, lastBytes,
+				lastCheckpointDuration });
+		return records.size();
+	}
+
+	/**
+	 * Adds the entries of a region to the records.
+	 *
+	 * @return the entity name of the region's keys, empty if they are plain ids
+	 */
+	private String collect(final int index, final List<Record> records) {
+		final Ehcache cache = cacheManager.getEhcache(regions.get(index));
+		String entityName = "";
+		if (cache == null) {
+			LOG.warn("collect() > No cache region {}", regions.get(index));
+			return entityName;
+		}
+
+		for (Object key : cache.getKeys()) {
+			final Long id = idOf(key);
+			final Element element = id == null ? null : cache.getQuiet(key);
+			if (element == null || element.isExpired() || element.getObjectValue() == null
+					|| SOFT_LOCK_CLASS.equals(element.getObjectValue().getClass().getName())) {
+				continue;
+			}
+			if (key instanceof CacheKey) {
+				entityName = ((CacheKey) key).getEntityOrRoleName();
+			}
+
+			byte[] value;
+			try {
+				value = codec.encode(element.getObjectValue());
+			} catch (RuntimeException e) {
+				LOG.debug("collect() > Keeping only the key of {}: {}", key, e);
+				value = null;
+			}
+			records.add(new Record(index, id.longValue(), element.getHitCount(),
+					element.isEternal() ? ETERNAL : element.getExpirationTime(), value));
+		}
+		return entityName;
+	}
+
+	/**
+	 * Maps the snapshot file and puts its live entries back into the regions.
+	 */
+	synchronized void restore() {
+		final File source = new File(file);
+		if (!source.isFile()) {
+			LOG.info("restore() > No cache snapshot at {}", source);
+			return;
+		}
+
+		final long start = System.currentTimeMillis();
+		try {
+			final RandomAccessFile input = new RandomAccessFile(source, "r");
+			try {
+				final MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+				// one sequential read-ahead of the whole file
+				buffer.load();
+				restore(buffer, start);
+			} finally {
+				input.close();
+			}
+		} catch (Exception e) {
+			LOG.warn("restore() > Ignoring unreadable cache snapshot {}: {}", source, e);
+			return;
+		}
+		LOG.info("restore() > {} entries restored, {} expired kept as hot ids, in {}ms", new Object[] { restoredCount,
+				expiredCount, System.currentTimeMillis() - start });
+	}
+
+	private void restore(final MappedByteBuffer buffer, final long now) {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+			throw new IllegalStateException("not a cache snapshot");
+		}
+		final long created = buffer.getLong();
+		final int regionCount = buffer.getInt();
+		final Ehcache[] caches = new Ehcache[regionCount];
+		final String[] regionNames = new String[regionCount];
+		final String[] entityNames = new String[regionCount];
+		for (int index = 0; index < regionCount; index++) {
+			regionNames[index] = readString(buffer);
+			entityNames[index] = readString(buffer);
+			caches[index] = regions.contains(regionNames[index]) ? cacheManager.getEhcache(regionNames[index]) : null;
+			restoredIds.put(regionNames[index], new HashSet<Long>());
+			hotIds.put(regionNames[index], new ArrayList<Long>());
+		}
+		LOG.info("restore() > Snapshot taken {}s ago", (now - created) / 1000);
+
+		final int entries = buffer.getInt();
+		for (int entry = 0; entry < entries; entry++) {
+			final int index = buffer.get();
+			final long id = buffer.getLong();
+			buffer.getLong(); // hits, the records are in hit order
+			final long expiry = buffer.getLong();
+			final int length = buffer.getInt();
+			byte[] value = null;
+			if (length != NO_VALUE) {
+				value = new byte[length];
+				buffer.get(value);
+			}
+
+			final Ehcache cache = caches[index];
+			if (cache == null) {
+				continue;
+			}
+			final long remainingMillis = expiry == ETERNAL ? Long.MAX_VALUE : expiry - now;
+			if (value == null || remainingMillis < 1000) {
+				hotIds.get(regionNames[index]).add(Long.valueOf(id));
+				expiredCount++;
+				continue;
+			}
+
+			final Object decoded;
+			try {
+				decoded = codec.decode(value);
+			} catch (RuntimeException e) {
+				hotIds.get(regionNames[index]).add(Long.valueOf(id));
+				continue;
+			}
+			final Element element = new Element(key(entityNames[index], id), decoded);
+			if (expiry != ETERNAL) {
+				element.setTimeToLive((int) Math.min(Integer.MAX_VALUE, remainingMillis / 1000));
+			}
+			// only fill what nothing else has loaded meanwhile
+			if (cache.putIfAbsent(element) == null) {
+				restoredIds.get(regionNames[index]).add(Long.valueOf(id));
+				restoredCount++;
+			}
+		}
+	}
+
+	private static String readString(final MappedByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static Long idOf(final Object key) {
+		final Object id = key instanceof CacheKey ? ((CacheKey) key).getKey() : key;
+		return id instanceof Number ? Long.valueOf(((Number) id).longValue()) : null;
+	}
+
+	private static Serializable key(final String entityName, final long id) {
+		if (entityName.length() == 0) {
+			return Long.valueOf(id);
+		}
+		return new CacheKey(Long.valueOf(id), StandardBasicTypes.LONG, entityName, EntityMode.POJO, null);
+	}
+
+	/**
+	 * @param region
+	 *          name of the cache region
+	 * @return ids the snapshot held but could not restore, hottest first
+	 */
+	public List<Long> getHotIds(final String region) {
+		final List<Long> ids = hotIds.get(region);
+		return ids == null ? new ArrayList<Long>() : Collections.unmodifiableList(ids);
+	}
+
+	/**
+	 * @param region
+	 *          name of the cache region
+	 * @return ids restored into the region on startup
+	 */
+	public Set<Long> getRestoredIds(final String region) {
+		final Set<Long> ids = restoredIds.get(region);
+		return ids == null ? new HashSet<Long>() : Collections.unmodifiableSet(ids);
+	}
+
+	/**
+	 * @return restore and checkpoint counts keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("file", file);
+		statistics.put("restored", Integer.valueOf(restoredCount));
+		statistics.put("expired", Integer.valueOf(expiredCount));
+		statistics.put("checkpoints", Long.valueOf(checkpointCount.get()));
+		statistics.put("lastCheckpointMillis", Long.valueOf(lastCheckpointMillis));
+		statistics.put("lastCheckpointDuration", Long.valueOf(lastCheckpointDuration));
+		statistics.put("lastEntries", Integer.valueOf(lastEntries));
+		statistics.put("lastBytes", Long.valueOf(lastBytes));
+		return statistics;
+	}
+
+	public CacheManager getCacheManager() {
+		return cacheManager;
+	}
+
+	public void setCacheManager(CacheManager cacheManager) {
+		this.cacheManager = cacheManager;
+	}
+
+	public List<String> getRegions() {
+		return regions;
+	}
+
+	public void setRegions(List<String> regions) {
+		if (regions.size() > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("At most " + Byte.MAX_VALUE + " regions");
+		}
+		this.regions = regions;
+	}
+
+	public CacheValueCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(CacheValueCodec codec) {
+		this.codec = codec;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getCheckpointIntervalSeconds() {
+		return checkpointIntervalSeconds;
+	}
+
+	public void setCheckpointIntervalSeconds(long checkpointIntervalSeconds) {
+		this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+	}
+
+	/**
+	 * One cache entry to write
+	 */
+	private static final class Record {
+
+		private final int region;
+		private final long id;
+		private final long hits;
+		private final long expiry;
+		private final byte[] value;
+
+		private Record(final int region, final long id, final long hits, final long expiry, final byte[] value) {
+			this.region = region;
+			this.id = id;
+			this.hits = hits;
+			this.expiry = expiry;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.ticketmaster.example.commons.cache;
+
+/**
+ * CacheValueCodec -
+ * Turns cached values into bytes for storage outside of the heap and back.
+ */
+public interface CacheValueCodec {
+
+	/**
+	 * @param value
+	 *          cached value
+	 * @return encoded bytes, null if the value cannot be encoded
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * @param bytes
+	 *          bytes produced by {@link #encode(Object)}
+	 * @return the decoded value
+	 */
+	Object decode(byte[] bytes);
+
+}
@@ -0,0 +1,95 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.util.Properties;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.constructs.CacheDecoratorFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OffHeapCacheDecoratorFactory -
+ * Wraps a cache declared in ehcache.xml in an {@link OffHeapTieredEhcache}:
+ *
+ * <pre>
+ * &lt;cacheDecoratorFactory
+ *     class="com.ticketmaster.example.commons.cache.OffHeapCacheDecoratorFactory"
+ *     properties="maxBytes=256m,slotSize=512,segments=16" /&gt;
+ * </pre>
+ *
+ * <code>maxBytes</code> accepts k, m and g suffixes; <code>codec</code> names
+ * a {@link CacheValueCodec} class, Java serialization by default. The
+ * decorated cache keeps the name of the cache and replaces it in the
+ * CacheManager, so Hibernate regions pick it up unchanged. The JVM needs
+ * <code>-XX:MaxDirectMemorySize</code> of at least the sum of all maxBytes.
+ */
+public class OffHeapCacheDecoratorFactory extends CacheDecoratorFactory {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(OffHeapCacheDecoratorFactory.class);
+
+	private static final String DEFAULT_MAX_BYTES = "64m";
+	private static final String DEFAULT_SLOT_SIZE = "512";
+	private static final String DEFAULT_SEGMENTS = "16";
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.CacheDecoratorFactory#createDecoratedEhcache(net.sf.ehcache.Ehcache, java.util.Properties)
+	 */
+	@Override
+	public Ehcache createDecoratedEhcache(final Ehcache cache, final Properties properties) {
+		final Properties settings = properties == null ? new Properties() : properties;
+		final long maxBytes = parseBytes(settings.getProperty("maxBytes", DEFAULT_MAX_BYTES).trim());
+		final int slotSize = (int) parseBytes(settings.getProperty("slotSize", DEFAULT_SLOT_SIZE).trim());
+		final int segments = Integer.parseInt(settings.getProperty("segments", DEFAULT_SEGMENTS).trim());
+
+		final OffHeapStore store = new OffHeapStore(maxBytes, slotSize, segments);
+		LOG.info("createDecoratedEhcache() > {} tiered over {} bytes off-heap in {} byte slots",
+				new Object[] { cache.getName(), store.getCapacityBytes(), slotSize });
+		return new OffHeapTieredEhcache(cache, store, createCodec(settings.getProperty("codec")));
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.CacheDecoratorFactory#createDefaultDecoratedEhcache(net.sf.ehcache.Ehcache, java.util.Properties)
+	 */
+	@Override
+	public Ehcache createDefaultDecoratedEhcache(final Ehcache cache, final Properties properties) {
+		return createDecoratedEhcache(cache, properties);
+	}
+
+	private static CacheValueCodec createCodec(final String className) {
+		if (className == null || className.trim().length() == 0) {
+			return new SerializationCacheValueCodec();
+		}
+		try {
+			return (CacheValueCodec) Class.forName(className.trim(), true, OffHeapCacheDecoratorFactory.class.getClassLoader())
+					.newInstance();
+		} catch (Exception e) {
+			throw new CacheException("Cannot create cache value codec " + className, e);
+		}
+	}
+
+	/**
+	 * @param value
+	 *          byte count with an optional k, m or g suffix
+	 * @return number of bytes
+	 */
+	static long parseBytes(final String value) {
+		final char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+		final String digits = value.substring(0, value.length() - 1);
+		switch (unit) {
+		case 'k':
+			return Long.parseLong(digits) << 10;
+		case 'm':
+			return Long.parseLong(digits) << 20;
+		case 'g':
+			return Long.parseLong(digits) << 30;
+		default:
+			return Long.parseLong(value);
+		}
+	}
+
+}
@@ -0,0 +1,420 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OffHeapStore -
+ * Byte records keyed by a primitive long, held in direct ByteBuffers outside
+ * of the Java heap so millions of entries add nothing for the collector to
+ * trace.
+ *
+ * The arena is cut into segments, each with its own lock, and every segment
+ * into fixed size slots of <code>slotSize</code> bytes; a record takes one slot
+ * and records larger than a slot are not stored. The per-slot bookkeeping
+ * (key, length, reference bit) and the key index (open addressing, linear
+ * probing) are primitive arrays, so the heap cost is a few arrays per segment
+ * regardless of the entry count.
+ *
+ * When a segment is full the clock hand sweeps its slots, clearing reference
+ * bits set by reads and evicting the first slot not read since the last sweep.
+ */
+public class OffHeapStore {
+
+	/**
+	 * Largest direct buffer per segment
+	 */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	private static final int FREE = -1;
+
+	private final Segment[] segments;
+
+	private final int slotSize;
+
+	private final long capacityBytes;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong oversizedCount = new AtomicLong();
+
+	/**
+	 * @param maxBytes
+	 *          size of the arena in bytes
+	 * @param slotSize
+	 *          bytes per record slot
+	 * @param concurrency
+	 *          minimum number of independently locked segments
+	 */
+	public OffHeapStore(final long maxBytes, final int slotSize, final int concurrency) {
+		if (slotSize <= 0 || maxBytes < slotSize) {
+			throw new IllegalArgumentException("maxBytes " + maxBytes + " must hold at least one slot of " + slotSize);
+		}
+		int count = Math.max(1, concurrency);
+		while (maxBytes / count > MAX_SEGMENT_BYTES) {
+			count++;
+		}
+		final int slotsPerSegment = (int) Math.max(1, maxBytes / count / slotSize);
+
+		this.slotSize = slotSize;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(slotsPerSegment, slotSize);
+		}
+		this.capacityBytes = (long) slotsPerSegment * slotSize * count;
+	}
+
+	private Segment segmentFor(final long key) {
+		return segments[(spread(key) & Integer.MAX_VALUE) % segments.length];
+	}
+
+	private static int spread(final long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @param key
+	 *          record key
+	 * @return a copy of the record, null if absent
+	 */
+	public byte[] get(final long key) {
+		final byte[] value = segmentFor(key).get(key);
+		(value == null ? missCount : hitCount).incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Stores or replaces the record, evicting another record of the segment if
+	 * it is full.
+	 * @param key
+	 *          record key
+	 * @param value
+	 *          record bytes
+	 * @return false if the record is larger than a slot and was not stored (any
+	 *         previous record for the key is removed)
+	 */
+	public boolean put(final long key, final byte[] value) {
+		final Segment segment = segmentFor(key);
+		if (value.length > slotSize) {
+			oversizedCount.incrementAndGet();
+			segment.remove(key);
+			return false;
+		}
+		putCount.incrementAndGet();
+		if (segment.put(key, value)) {
+			evictionCount.incrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * @param key
+	 *          record key
+	 * @return true if a record was removed
+	 */
+	public boolean remove(final long key) {
+		return segmentFor(key).remove(key);
+	}
+
+	/**
+	 * @param key
+	 *          record key
+	 * @return true if a record is held for the key, without marking it as read
+	 */
+	public boolean containsKey(final long key) {
+		return segmentFor(key).contains(key);
+	}
+
+	/**
+	 * Removes every record.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @return number of records held
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return bytes of record data held, excluding unused slot space
+	 */
+	public long usedBytes() {
+		long used = 0;
+		for (Segment segment : segments) {
+			used += segment.usedBytes();
+		}
+		return used;
+	}
+
+	public long getCapacityBytes() {
+		return capacityBytes;
+	}
+
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	/**
+	 * Live store statistics.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final long hits = hitCount.get();
+		final long misses = missCount.get();
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("entries", Long.valueOf(size()));
+		statistics.put("usedBytes", Long.valueOf(usedBytes()));
+		statistics.put("capacityBytes", Long.valueOf(capacityBytes));
+		statistics.put("slotSize", Integer.valueOf(slotSize));
+		statistics.put("segments", Integer.valueOf(segments.length));
+		statistics.put("hits", Long.valueOf(hits));
+		statistics.put("misses", Long.valueOf(misses));
+		statistics.put("hitRatio", Double.valueOf(hits + misses == 0 ? 0d : (double) hits / (hits + misses)));
+		statistics.put("puts", Long.valueOf(putCount.get()));
+		statistics.put("evictions", Long.valueOf(evictionCount.get()));
+		statistics.put("oversized", Long.valueOf(oversizedCount.get()));
+		return statistics;
+	}
+
+	/**
+	 * One locked part of the arena.
+	 */
+	private static final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final ByteBuffer data;
+		private final int slotSize;
+
+		private final long[] slotKeys;
+		private final int[] slotLengths;
+		private final boolean[] referenced;
+
+		private final int[] freeSlots;
+		private int freeCount;
+
+		private final long[] indexKeys;
+		private final int[] indexSlots;
+		private final int indexMask;
+
+		private int hand;
+		private int size;
+		private long usedBytes;
+
+		Segment(final int slots, final int slotSize) {
+			this.slotSize = slotSize;
+			this.data = ByteBuffer.allocateDirect(slots * slotSize);
+			this.slotKeys = new long[slots];
+			this.slotLengths = new int[slots];
+			this.referenced = new boolean[slots];
+			this.freeSlots = new int[slots];
+
+			int capacity = Integer.highestOneBit(Math.max(2, slots * 2 - 1)) << 1;
+			this.indexKeys = new long[capacity];
+			this.indexSlots = new int[capacity];
+			this.indexMask = capacity - 1;
+			reset();
+		}
+
+		private void reset() {
+			Arrays.fill(slotLengths, FREE);
+			Arrays.fill(referenced, false);
+			Arrays.fill(indexSlots, FREE);
+			for (int i = 0; i < freeSlots.length; i++) {
+				freeSlots[i] = freeSlots.length - 1 - i;
+			}
+			freeCount = freeSlots.length;
+			hand = 0;
+			size = 0;
+			usedBytes = 0;
+		}
+
+		byte[] get(final long key) {
+			lock.lock();
+			try {
+				final int position = find(key);
+				if (position < 0) {
+					return null;
+				}
+				final int slot = indexSlots[position];
+				referenced[slot] = true;
+				final byte[] value = new byte[slotLengths[slot]];
+				final ByteBuffer view = data.duplicate();
+				view.position(slot * slotSize);
+				view.get(value);
+				return value;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return true if another record was evicted to make room
+		 */
+		boolean put(final long key, final byte[] value) {
+			lock.lock();
+			try {
+				boolean evicted = false;
+				int slot;
+				final int position = find(key);
+				if (position >= 0) {
+					slot = indexSlots[position];
+					usedBytes -= slotLengths[slot];
+				} else {
+					if (freeCount == 0) {
+						evictOne();
+						evicted = true;
+					}
+					slot = freeSlots[--freeCount];
+					insert(key, slot);
+					slotKeys[slot] = key;
+					size++;
+				}
+
+				final ByteBuffer view = data.duplicate();
+				view.position(slot * slotSize);
+				view.put(value);
+				slotLengths[slot] = value.length;
+				referenced[slot] = false;
+				usedBytes += value.length;
+				return evicted;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean remove(final long key) {
+			lock.lock();
+			try {
+				final int position = find(key);
+				if (position < 0) {
+					return false;
+				}
+				release(position);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean contains(final long key) {
+			lock.lock();
+			try {
+				return find(key) >= 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				reset();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return size;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long usedBytes() {
+			lock.lock();
+			try {
+				return usedBytes;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Clock sweep: gives read slots a second chance, frees the first unread one.
+		 */
+		private void evictOne() {
+			while (true) {
+				final int slot = hand;
+				hand = (hand + 1) % slotKeys.length;
+				if (referenced[slot]) {
+					referenced[slot] = false;
+				} else {
+					release(find(slotKeys[slot]));
+					return;
+				}
+			}
+		}
+
+		private void release(final int position) {
+			final int slot = indexSlots[position];
+			usedBytes -= slotLengths[slot];
+			slotLengths[slot] = FREE;
+			referenced[slot] = false;
+			freeSlots[freeCount++] = slot;
+			size--;
+			delete(position);
+		}
+
+		private int find(final long key) {
+			int position = spread(key) & indexMask;
+			while (indexSlots[position] != FREE) {
+				if (indexKeys[position] == key) {
+					return position;
+				}
+				position = (position + 1) & indexMask;
+			}
+			return -1;
+		}
+
+		private void insert(final long key, final int slot) {
+			int position = spread(key) & indexMask;
+			while (indexSlots[position] != FREE) {
+				position = (position + 1) & indexMask;
+			}
+			indexKeys[position] = key;
+			indexSlots[position] = slot;
+		}
+
+		/**
+		 * Removes the index entry, shifting later entries of the probe run back
+		 * so lookups never stop early at the hole.
+		 */
+		private void delete(final int position) {
+			int hole = position;
+			int next = (hole + 1) & indexMask;
+			while (indexSlots[next] != FREE) {
+				final int home = spread(indexKeys[next]) & indexMask;
+				// move the entry into the hole unless its home lies cyclically in (hole, next]
+				if (hole <= next ? (home <= hole || home > next) : (home <= hole && home > next)) {
+					indexKeys[hole] = indexKeys[next];
+					indexSlots[hole] = indexSlots[next];
+					hole = next;
+				}
+				next = (next + 1) & indexMask;
+			}
+			indexSlots[hole] = FREE;
+		}
+	}
+
+}
@@ -0,0 +1,468 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
+
+import org.hibernate.cache.CacheKey;
+
+/**
+ * OffHeapTieredEhcache -
+ * Puts an {@link OffHeapStore} under an on-heap Ehcache region. The heap
+ * region stays small and holds the hot entries; the off-heap tier holds an
+ * encoded copy of every entry written.
+ *
+ * Writes go to both tiers. A heap miss is answered from the off-heap tier and
+ * the entry promoted back to the heap with its remaining time to live; entries
+ * dropped by the heap's own eviction therefore stay available. Removal and
+ * clearing apply to both tiers, and each key's operations are serialized by a
+ * striped lock so a promotion cannot resurrect a removed or replaced entry.
+ *
+ * Only keys with a numeric identity are tiered: Hibernate {@link CacheKey}s
+ * of numeric ids or plain numbers. Other keys live on the heap only.
+ */
+public class OffHeapTieredEhcache extends EhcacheDecoratorAdapter {
+
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Bytes of the expiry time preceding the encoded value
+	 */
+	private static final int HEADER_BYTES = 8;
+
+	private final OffHeapStore store;
+
+	private final CacheValueCodec codec;
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	private final AtomicLong promotionCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+	private final AtomicLong encodeFailureCount = new AtomicLong();
+
+	/**
+	 * @param underlyingCache
+	 *          the on-heap cache
+	 * @param store
+	 *          the off-heap tier
+	 * @param codec
+	 *          codec for the cached values
+	 */
+	public OffHeapTieredEhcache(final Ehcache underlyingCache, final OffHeapStore store, final CacheValueCodec codec) {
+		super(underlyingCache);
+		this.store = store;
+		this.codec = codec;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * @param key
+	 *          cache key
+	 * @return the numeric identity of the key, null if it has none
+	 */
+	protected Long tierKey(final Object key) {
+		Object id = key;
+		if (key instanceof CacheKey) {
+			id = ((CacheKey) key).getKey();
+		}
+		if (id instanceof Long || id instanceof Integer || id instanceof Short) {
+			return Long.valueOf(((Number) id).longValue());
+		}
+		return null;
+	}
+
+	private Object lockFor(final long id) {
+		return locks[(int) ((id ^ (id >>> 32)) & (LOCK_STRIPES - 1))];
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#get(java.lang.Object)
+	 */
+	@Override
+	public Element get(final Object key) {
+		final Element element = underlyingCache.get(key);
+		if (element != null || key == null) {
+			return element;
+		}
+		final Long id = tierKey(key);
+		if (id == null) {
+			return null;
+		}
+		synchronized (lockFor(id)) {
+			final Element current = underlyingCache.get(key);
+			if (current != null) {
+				return current;
+			}
+			final Element loaded = load(key, id);
+			if (loaded != null) {
+				underlyingCache.put(loaded);
+				promotionCount.incrementAndGet();
+			}
+			return loaded;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#get(java.io.Serializable)
+	 */
+	@Override
+	public Element get(final Serializable key) {
+		return get((Object) key);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#getQuiet(java.lang.Object)
+	 */
+	@Override
+	public Element getQuiet(final Object key) {
+		final Element element = underlyingCache.getQuiet(key);
+		if (element != null || key == null) {
+			return element;
+		}
+		final Long id = tierKey(key);
+		return id == null ? null : load(key, id);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#getQuiet(java.io.Serializable)
+	 */
+	@Override
+	public Element getQuiet(final Serializable key) {
+		return getQuiet((Object) key);
+	}
+
+	/**
+	 * Reads and decodes the off-heap copy, dropping it if it has expired.
+	 */
+	private Element load(final Object key, final long id) {
+		final byte[] record = store.get(id);
+		if (record == null) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		final long expirationTime = buffer.getLong();
+		final long remaining = expirationTime - System.currentTimeMillis();
+		if (remaining <= 0) {
+			store.remove(id);
+			expiredCount.incrementAndGet();
+			return null;
+		}
+
+		final byte[] encoded = new byte[record.length - HEADER_BYTES];
+		buffer.get(encoded);
+		final Element element = new Element(key, codec.decode(encoded));
+		if (expirationTime != Long.MAX_VALUE) {
+			element.setTimeToLive((int) Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+		}
+		return element;
+	}
+
+	/**
+	 * Writes the off-heap copy of an element already put on the heap, which has
+	 * applied the cache's default lifespan to it.
+	 */
+	private void store(final long id, final Element element) {
+		final byte[] encoded = element.getObjectValue() == null ? null : codec.encode(element.getObjectValue());
+		if (encoded == null) {
+			encodeFailureCount.incrementAndGet();
+			store.remove(id);
+			return;
+		}
+		final ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + encoded.length);
+		record.putLong(element.getExpirationTime());
+		record.put(encoded);
+		store.put(id, record.array());
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#put(net.sf.ehcache.Element)
+	 */
+	@Override
+	public void put(final Element element) {
+		put(element, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#put(net.sf.ehcache.Element, boolean)
+	 */
+	@Override
+	public void put(final Element element, final boolean doNotNotifyCacheReplicators) {
+		final Long id = element == null ? null : tierKey(element.getObjectKey());
+		if (id == null) {
+			underlyingCache.put(element, doNotNotifyCacheReplicators);
+			return;
+		}
+		synchronized (lockFor(id)) {
+			underlyingCache.put(element, doNotNotifyCacheReplicators);
+			store(id, element);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#putQuiet(net.sf.ehcache.Element)
+	 */
+	@Override
+	public void putQuiet(final Element element) {
+		final Long id = element == null ? null : tierKey(element.getObjectKey());
+		if (id == null) {
+			underlyingCache.putQuiet(element);
+			return;
+		}
+		synchronized (lockFor(id)) {
+			underlyingCache.putQuiet(element);
+			store(id, element);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#putAll(java.util.Collection)
+	 */
+	@Override
+	public void putAll(final Collection<Element> elements) {
+		for (Element element : elements) {
+			put(element);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#putIfAbsent(net.sf.ehcache.Element)
+	 */
+	@Override
+	public Element putIfAbsent(final Element element) {
+		return putIfAbsent(element, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#putIfAbsent(net.sf.ehcache.Element, boolean)
+	 */
+	@Override
+	public Element putIfAbsent(final Element element, final boolean doNotNotifyCacheReplicators) {
+		final Long id = tierKey(element.getObjectKey());
+		if (id == null) {
+			return underlyingCache.putIfAbsent(element, doNotNotifyCacheReplicators);
+		}
+		synchronized (lockFor(id)) {
+			final Element current = get(element.getObjectKey());
+			if (current != null) {
+				return current;
+			}
+			put(element, doNotNotifyCacheReplicators);
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#replace(net.sf.ehcache.Element)
+	 */
+	@Override
+	public Element replace(final Element element) {
+		final Long id = tierKey(element.getObjectKey());
+		if (id == null) {
+			return underlyingCache.replace(element);
+		}
+		synchronized (lockFor(id)) {
+			get(element.getObjectKey());
+			final Element previous = underlyingCache.replace(element);
+			if (previous != null) {
+				store(id, element);
+			}
+			return previous;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#replace(net.sf.ehcache.Element, net.sf.ehcache.Element)
+	 */
+	@Override
+	public boolean replace(final Element old, final Element element) {
+		final Long id = tierKey(element.getObjectKey());
+		if (id == null) {
+			return underlyingCache.replace(old, element);
+		}
+		synchronized (lockFor(id)) {
+			get(element.getObjectKey());
+			final boolean replaced = underlyingCache.replace(old, element);
+			if (replaced) {
+				store(id, element);
+			}
+			return replaced;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(final Object key) {
+		return remove(key, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#remove(java.io.Serializable)
+	 */
+	@Override
+	public boolean remove(final Serializable key) {
+		return remove((Object) key, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#remove(java.io.Serializable, boolean)
+	 */
+	@Override
+	public boolean remove(final Serializable key, final boolean doNotNotifyCacheReplicators) {
+		return remove((Object) key, doNotNotifyCacheReplicators);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#remove(java.lang.Object, boolean)
+	 */
+	@Override
+	public boolean remove(final Object key, final boolean doNotNotifyCacheReplicators) {
+		final Long id = key == null ? null : tierKey(key);
+		if (id == null) {
+			return underlyingCache.remove(key, doNotNotifyCacheReplicators);
+		}
+		synchronized (lockFor(id)) {
+			final boolean removed = underlyingCache.remove(key, doNotNotifyCacheReplicators);
+			return store.remove(id) || removed;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeQuiet(java.lang.Object)
+	 */
+	@Override
+	public boolean removeQuiet(final Object key) {
+		final Long id = key == null ? null : tierKey(key);
+		if (id == null) {
+			return underlyingCache.removeQuiet(key);
+		}
+		synchronized (lockFor(id)) {
+			final boolean removed = underlyingCache.removeQuiet(key);
+			return store.remove(id) || removed;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeQuiet(java.io.Serializable)
+	 */
+	@Override
+	public boolean removeQuiet(final Serializable key) {
+		return removeQuiet((Object) key);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeAndReturnElement(java.lang.Object)
+	 */
+	@Override
+	public Element removeAndReturnElement(final Object key) {
+		final Long id = key == null ? null : tierKey(key);
+		if (id == null) {
+			return super.removeAndReturnElement(key);
+		}
+		synchronized (lockFor(id)) {
+			Element element = underlyingCache.getQuiet(key);
+			if (element == null) {
+				element = load(key, id);
+			}
+			underlyingCache.remove(key);
+			store.remove(id);
+			return element;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeElement(net.sf.ehcache.Element)
+	 */
+	@Override
+	public boolean removeElement(final Element element) {
+		final Long id = tierKey(element.getObjectKey());
+		if (id == null) {
+			return underlyingCache.removeElement(element);
+		}
+		synchronized (lockFor(id)) {
+			get(element.getObjectKey());
+			final boolean removed = underlyingCache.removeElement(element);
+			if (removed) {
+				store.remove(id);
+			}
+			return removed;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<?> keys) {
+		removeAll(keys, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeAll(java.util.Collection, boolean)
+	 */
+	@Override
+	public void removeAll(final Collection<?> keys, final boolean doNotNotifyCacheReplicators) {
+		for (Object key : keys) {
+			remove(key, doNotNotifyCacheReplicators);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeAll()
+	 */
+	@Override
+	public void removeAll() {
+		removeAll(false);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#removeAll(boolean)
+	 */
+	@Override
+	public void removeAll(final boolean doNotNotifyCacheReplicators) {
+		underlyingCache.removeAll(doNotNotifyCacheReplicators);
+		store.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.ehcache.constructs.EhcacheDecoratorAdapter#isKeyInCache(java.lang.Object)
+	 */
+	@Override
+	public boolean isKeyInCache(final Object key) {
+		if (underlyingCache.isKeyInCache(key)) {
+			return true;
+		}
+		final Long id = key == null ? null : tierKey(key);
+		return id != null && store.containsKey(id);
+	}
+
+	public OffHeapStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Live statistics of both tiers.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getTierStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("name", getName());
+		statistics.put("heapEntries", Long.valueOf(underlyingCache.getMemoryStoreSize()));
+		statistics.put("promotions", Long.valueOf(promotionCount.get()));
+		statistics.put("expired", Long.valueOf(expiredCount.get()));
+		statistics.put("encodeFailures", Long.valueOf(encodeFailureCount.get()));
+		statistics.put("offHeap", store.getStatistics());
+		return statistics;
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SerializationCacheValueCodec -
+ * Codec using Java serialization, for any Serializable value.
+ */
+public class SerializationCacheValueCodec implements CacheValueCodec {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(SerializationCacheValueCodec.class);
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.CacheValueCodec#encode(java.lang.Object)
+	 */
+	@Override
+	public byte[] encode(final Object value) {
+		if (!(value instanceof Serializable)) {
+			return null;
+		}
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			LOG.warn("encode() > Cannot serialize {}: {}", value.getClass().getName(), e.getMessage());
+			return null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.CacheValueCodec#decode(byte[])
+	 */
+	@Override
+	public Object decode(final byte[] bytes) {
+		try {
+			final ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot deserialize cached value", e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Cannot deserialize cached value", e);
+		}
+	}
+
+	/**
+	 * Resolves classes through the loader of the web application rather than
+	 * the one of the caller on the stack.
+	 */
+	private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+		ClassLoaderObjectInputStream(final InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try {
+				return Class.forName(desc.getName(), false, SerializationCacheValueCodec.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+
+}
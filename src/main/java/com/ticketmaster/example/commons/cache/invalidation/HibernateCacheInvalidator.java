@@ -0,0 +1,241 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.EntityMode;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.event.EventListeners;
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+import org.hibernate.impl.SessionFactoryImpl;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * HibernateCacheInvalidator -
+ * Publishes the committed inserts, updates and deletes of second-level cached
+ * entities to an {@link InvalidationBus}, and evicts what the peers changed
+ * from the local second-level cache.
+ * <p>
+ * The post-commit listeners of Hibernate 3.6 also fire for rolled back
+ * identity inserts, so changes are collected by the flush-time listeners and
+ * only published from a Spring afterCommit callback. Rows written with JDBC
+ * fire no listener; their writer announces them through
+ * {@link #changedWithoutHibernate}.
+ */
+public class HibernateCacheInvalidator implements InvalidationListener, PostInsertEventListener,
+		PostUpdateEventListener, PostDeleteEventListener {
+
+	private static final long serialVersionUID = 2870185432297031648L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(HibernateCacheInvalidator.class);
+
+	private transient EntityManagerFactory entityManagerFactory;
+
+	private transient InvalidationBus bus;
+
+	private transient SessionFactoryImplementor sessionFactory;
+
+	/**
+	 * Registers with the session factory and the bus; called by the container
+	 * once properties are set.
+	 */
+	public void start() {
+		final EventListeners listeners = ((SessionFactoryImpl) getSessionFactory()).getEventListeners();
+		listeners.setPostInsertEventListeners(append(listeners.getPostInsertEventListeners(),
+				new PostInsertEventListener[] { this }));
+		listeners.setPostUpdateEventListeners(append(listeners.getPostUpdateEventListeners(),
+				new PostUpdateEventListener[] { this }));
+		listeners.setPostDeleteEventListeners(append(listeners.getPostDeleteEventListeners(),
+				new PostDeleteEventListener[] { this }));
+		bus.addListener(this);
+	}
+
+	/**
+	 * Unregisters from the session factory.
+	 */
+	public void shutdown() {
+		final EventListeners listeners = ((SessionFactoryImpl) getSessionFactory()).getEventListeners();
+		listeners.setPostInsertEventListeners(remove(listeners.getPostInsertEventListeners()));
+		listeners.setPostUpdateEventListeners(remove(listeners.getPostUpdateEventListeners()));
+		listeners.setPostDeleteEventListeners(remove(listeners.getPostDeleteEventListeners()));
+	}
+
+	private static <T> T[] append(final T[] existing, final T[] added) {
+		final T[] listeners = Arrays.copyOf(existing, existing.length + added.length);
+		System.arraycopy(added, 0, listeners, existing.length, added.length);
+		return listeners;
+	}
+
+	private <T> T[] remove(final T[] existing) {
+		final List<T> listeners = new ArrayList<T>(Arrays.asList(existing));
+		listeners.remove(this);
+		return listeners.toArray(Arrays.copyOf(existing, listeners.size()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.hibernate.event.PostInsertEventListener#onPostInsert(org.hibernate.event.PostInsertEvent)
+	 */
+	@Override
+	public void onPostInsert(final PostInsertEvent event) {
+		changed(event.getPersister(), event.getId(), event.getEntity(), false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.hibernate.event.PostUpdateEventListener#onPostUpdate(org.hibernate.event.PostUpdateEvent)
+	 */
+	@Override
+	public void onPostUpdate(final PostUpdateEvent event) {
+		changed(event.getPersister(), event.getId(), event.getEntity(), false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.hibernate.event.PostDeleteEventListener#onPostDelete(org.hibernate.event.PostDeleteEvent)
+	 */
+	@Override
+	public void onPostDelete(final PostDeleteEvent event) {
+		changed(event.getPersister(), event.getId(), event.getEntity(), true);
+	}
+
+	/**
+	 * Remembers a flushed change until its transaction commits.
+	 */
+	private void changed(final EntityPersister persister, final Serializable id, final Object entity,
+			final boolean deleted) {
+		if (!persister.hasCache()) {
+			return;
+		}
+		Integer version = null;
+		if (!deleted && persister.isVersioned()) {
+			final Object value = persister.getVersion(entity, EntityMode.POJO);
+			if (value instanceof Integer) {
+				version = (Integer) value;
+			}
+		}
+		collect(new Invalidation(persister.getEntityName(), id, version, deleted, 0));
+	}
+
+	/**
+	 * Publishes a change of a cached entity written without Hibernate, e.g. by
+	 * JDBC in a Hibernate transaction, once the transaction commits.
+	 *
+	 * @param entityName
+	 *          Hibernate entity name
+	 * @param id
+	 *          identifier of the entity
+	 * @param version
+	 *          version after the change, null if not versioned
+	 * @param deleted
+	 *          true if the entity was deleted
+	 */
+	public void changedWithoutHibernate(final String entityName, final Serializable id, final Integer version,
+			final boolean deleted) {
+		collect(new Invalidation(entityName, id, version, deleted, 0));
+	}
+
+	/**
+	 * Remembers a change until its transaction commits, or publishes it now
+	 * outside a transaction.
+	 */
+	private void collect(final Invalidation change) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			bus.publish(committed(change, System.currentTimeMillis()));
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		List<Invalidation> changes = (List<Invalidation>) TransactionSynchronizationManager.getResource(this);
+		if (changes == null) {
+			final List<Invalidation> transactionChanges = new ArrayList<Invalidation>();
+			TransactionSynchronizationManager.bindResource(this, transactionChanges);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					final long commitMillis = System.currentTimeMillis();
+					for (Invalidation invalidation : transactionChanges) {
+						bus.publish(committed(invalidation, commitMillis));
+					}
+				}
+
+				@Override
+				public void afterCompletion(final int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(HibernateCacheInvalidator.this);
+				}
+			});
+			changes = transactionChanges;
+		}
+		changes.add(change);
+	}
+
+	private static Invalidation committed(final Invalidation change, final long commitMillis) {
+		return new Invalidation(change.getEntityName(), change.getId(), change.getVersion(), change.isDeleted(),
+				commitMillis);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationListener#onInvalidations(java.util.List)
+	 */
+	@Override
+	public void onInvalidations(final List<Invalidation> invalidations) {
+		final SessionFactoryImplementor factory = getSessionFactory();
+		final Set<Serializable> spaces = new LinkedHashSet<Serializable>();
+		for (Invalidation invalidation : invalidations) {
+			final EntityPersister persister;
+			try {
+				persister = factory.getEntityPersister(invalidation.getEntityName());
+			} catch (RuntimeException e) {
+				LOG.debug("onInvalidations() > Unknown entity {}", invalidation.getEntityName());
+				continue;
+			}
+			if (invalidation.getId() == null) {
+				factory.getCache().evictEntityRegion(invalidation.getEntityName());
+			} else {
+				factory.getCache().evictEntity(invalidation.getEntityName(), invalidation.getId());
+			}
+			spaces.addAll(Arrays.asList(persister.getQuerySpaces()));
+		}
+		// cached query results over the changed tables are stale as well
+		if (!spaces.isEmpty() && factory.getUpdateTimestampsCache() != null) {
+			factory.getUpdateTimestampsCache().invalidate(spaces.toArray(new Serializable[spaces.size()]));
+		}
+	}
+
+	private SessionFactoryImplementor getSessionFactory() {
+		if (sessionFactory == null) {
+			sessionFactory = (SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory)
+					.getSessionFactory();
+		}
+		return sessionFactory;
+	}
+
+	public EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
+	public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	public InvalidationBus getBus() {
+		return bus;
+	}
+
+	public void setBus(InvalidationBus bus) {
+		this.bus = bus;
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.Serializable;
+
+/**
+ * Invalidation -
+ * A committed change of one cached entity that peers must evict.
+ */
+public class Invalidation implements Serializable {
+
+	private static final long serialVersionUID = -6203417953271449120L;
+
+	private final String entityName;
+
+	private final Serializable id;
+
+	private final Integer version;
+
+	private final boolean deleted;
+
+	private final long commitMillis;
+
+	/**
+	 * @param entityName
+	 *          Hibernate entity name
+	 * @param id
+	 *          identifier of the entity, a Long, Integer or String; null for
+	 *          every entity of the name
+	 * @param version
+	 *          version after the change, null if not versioned
+	 * @param deleted
+	 *          true if the entity was deleted
+	 * @param commitMillis
+	 *          time of the commit in epoch millis
+	 */
+	public Invalidation(final String entityName, final Serializable id, final Integer version, final boolean deleted,
+			final long commitMillis) {
+		this.entityName = entityName;
+		this.id = id;
+		this.version = version;
+		this.deleted = deleted;
+		this.commitMillis = commitMillis;
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	public Serializable getId() {
+		return id;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public long getCommitMillis() {
+		return commitMillis;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Invalidation [entityName=" + entityName + ", id=" + id + ", version=" + version + ", deleted=" + deleted
+				+ "]";
+	}
+
+}
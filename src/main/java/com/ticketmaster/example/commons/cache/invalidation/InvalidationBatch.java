@@ -0,0 +1,183 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InvalidationBatch -
+ * The invalidations one node sends at once. Encoded with a fixed binary
+ * layout rather than Java serialization, so a datagram from the network can
+ * only ever decode into ids and names. An id of another type is sent without
+ * its value, so peers evict every entity of that name instead of losing the
+ * rest of the batch.
+ */
+public class InvalidationBatch {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InvalidationBatch.class);
+
+	private static final int MAGIC = 0x49564231; // IVB1
+
+	private static final byte ID_ANY = 0;
+	private static final byte ID_LONG = 1;
+	private static final byte ID_INTEGER = 2;
+	private static final byte ID_STRING = 3;
+
+	private static final int NO_VERSION = Integer.MIN_VALUE;
+
+	private final String origin;
+
+	private final long sequence;
+
+	private final long sentMillis;
+
+	private final List<Invalidation> invalidations;
+
+	/**
+	 * @param origin
+	 *          id of the sending node
+	 * @param sequence
+	 *          number of the batch on the sending node
+	 * @param sentMillis
+	 *          time of sending in epoch millis
+	 * @param invalidations
+	 *          the changes
+	 */
+	public InvalidationBatch(final String origin, final long sequence, final long sentMillis,
+			final List<Invalidation> invalidations) {
+		this.origin = origin;
+		this.sequence = sequence;
+		this.sentMillis = sentMillis;
+		this.invalidations = invalidations;
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getSentMillis() {
+		return sentMillis;
+	}
+
+	public List<Invalidation> getInvalidations() {
+		return invalidations;
+	}
+
+	/**
+	 * @return the batch in its wire format
+	 */
+	public byte[] encode() {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + invalidations.size() * 64);
+		final DataOutputStream output = new DataOutputStream(bytes);
+		try {
+			output.writeInt(MAGIC);
+			output.writeUTF(origin);
+			output.writeLong(sequence);
+			output.writeLong(sentMillis);
+			output.writeInt(invalidations.size());
+
+			// entity names repeat, each is written once and then referenced by index
+			final List<String> names = new ArrayList<String>();
+			for (Invalidation invalidation : invalidations) {
+				final int name = names.indexOf(invalidation.getEntityName());
+				if (name < 0) {
+					output.writeShort(names.size());
+					output.writeUTF(invalidation.getEntityName());
+					names.add(invalidation.getEntityName());
+				} else {
+					output.writeShort(name);
+				}
+
+				final Serializable id = invalidation.getId();
+				if (id instanceof Long) {
+					output.writeByte(ID_LONG);
+					output.writeLong(((Long) id).longValue());
+				} else if (id instanceof Integer) {
+					output.writeByte(ID_INTEGER);
+					output.writeInt(((Integer) id).intValue());
+				} else if (id instanceof String) {
+					output.writeByte(ID_STRING);
+					output.writeUTF((String) id);
+				} else {
+					if (id != null) {
+						LOG.warn("encode() > Unsupported id type {}, peers evict all of {}", id.getClass().getName(),
+								invalidation.getEntityName());
+					}
+					output.writeByte(ID_ANY);
+				}
+				output.writeInt(invalidation.getVersion() == null ? NO_VERSION : invalidation.getVersion().intValue());
+				output.writeBoolean(invalidation.isDeleted());
+				output.writeLong(invalidation.getCommitMillis());
+			}
+			output.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot encode invalidation batch", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes
+	 *          a batch in its wire format
+	 * @return the batch
+	 * @throws IOException
+	 *           if the bytes are not a batch
+	 */
+	public static InvalidationBatch decode(final byte[] bytes) throws IOException {
+		final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not an invalidation batch");
+		}
+		final String origin = input.readUTF();
+		final long sequence = input.readLong();
+		final long sentMillis = input.readLong();
+		final int count = input.readInt();
+		if (count < 0 || count > bytes.length) {
+			throw new IOException("Corrupt invalidation batch");
+		}
+
+		final List<String> names = new ArrayList<String>();
+		final List<Invalidation> invalidations = new ArrayList<Invalidation>(count);
+		for (int index = 0; index < count; index++) {
+			final int name = input.readUnsignedShort();
+			if (name == names.size()) {
+				names.add(input.readUTF());
+			} else if (name > names.size()) {
+				throw new IOException("Corrupt invalidation batch");
+			}
+
+			final Serializable id;
+			final byte idType = input.readByte();
+			if (idType == ID_LONG) {
+				id = Long.valueOf(input.readLong());
+			} else if (idType == ID_INTEGER) {
+				id = Integer.valueOf(input.readInt());
+			} else if (idType == ID_STRING) {
+				id = input.readUTF();
+			} else if (idType == ID_ANY) {
+				id = null;
+			} else {
+				throw new IOException("Corrupt invalidation batch");
+			}
+			final int version = input.readInt();
+			final boolean deleted = input.readBoolean();
+			final long commitMillis = input.readLong();
+			invalidations.add(new Invalidation(names.get(name), id, version == NO_VERSION ? null : Integer.valueOf(version),
+					deleted, commitMillis));
+		}
+		return new InvalidationBatch(origin, sequence, sentMillis, invalidations);
+	}
+
+}
@@ -0,0 +1,373 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * InvalidationBus -
+ * Batches the invalidations committed on this node and publishes them to the
+ * peers through an {@link InvalidationTransport}; hands the batches of the
+ * peers to the registered {@link InvalidationListener}s.
+ * <p>
+ * Publishing never blocks the committing thread: invalidations are queued and
+ * a single flusher waits up to flushIntervalMillis to collect a batch, keeping
+ * one invalidation per entity. When the queue is full invalidations are
+ * dropped and counted, peers then rely on the expiry of their entries.
+ */
+public class InvalidationBus {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+
+	private InvalidationTransport transport;
+
+	private String nodeId;
+
+	private boolean enabled = true;
+
+	private int maxBatchSize = 256;
+
+	private long flushIntervalMillis = 20;
+
+	private int maxPending = 65536;
+
+	private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+	private BlockingQueue<Invalidation> pending;
+
+	private Thread flusher;
+
+	private volatile boolean running;
+
+	private volatile boolean connected;
+
+	private long sequence;
+
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong batchesSent = new AtomicLong();
+	private final AtomicLong sendFailures = new AtomicLong();
+	private final AtomicLong batchesReceived = new AtomicLong();
+	private final AtomicLong receiveFailures = new AtomicLong();
+	private final AtomicLong appliedCount = new AtomicLong();
+	private final AtomicLong lagTotalMillis = new AtomicLong();
+	private final AtomicLong lagMaxMillis = new AtomicLong();
+
+	/**
+	 * Connects the transport and starts the flusher; called by the container
+	 * once properties are set. A transport that cannot connect is logged, not
+	 * thrown, so a node without a network still starts with local caching only.
+	 */
+	public void start() {
+		if (nodeId == null) {
+			nodeId = defaultNodeId();
+		}
+		if (!enabled) {
+			LOG.info("start() > cache invalidation bus disabled");
+			return;
+		}
+
+		pending = new ArrayBlockingQueue<Invalidation>(maxPending);
+		try {
+			transport.start(this);
+			connected = true;
+		} catch (IOException e) {
+			LOG.error("start() > Cannot start invalidation transport, peers will not be invalidated: {}", e);
+		}
+
+		running = true;
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "cache-invalidation-bus");
+		flusher.setDaemon(true);
+		flusher.start();
+		LOG.info("start() > cache invalidation bus started as node {}", nodeId);
+	}
+
+	/**
+	 * Sends what is still queued and disconnects.
+	 */
+	public void shutdown() {
+		running = false;
+		if (flusher != null) {
+			flusher.interrupt();
+			try {
+				flusher.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush(new ArrayList<Invalidation>());
+			flusher = null;
+		}
+		if (connected) {
+			transport.shutdown();
+			connected = false;
+		}
+	}
+
+	/**
+	 * Queues a committed change for the peers.
+	 *
+	 * @param invalidation
+	 *          the change
+	 */
+	public void publish(final Invalidation invalidation) {
+		if (!running) {
+			return;
+		}
+		if (pending.offer(invalidation)) {
+			publishedCount.incrementAndGet();
+		} else if (droppedCount.incrementAndGet() % 1000 == 1) {
+			LOG.warn("publish() > Invalidation queue full, {} invalidations dropped so far", droppedCount.get());
+		}
+	}
+
+	/**
+	 * Waits for the first invalidation of a batch, lingers for the rest and
+	 * sends.
+	 */
+	private void flushLoop() {
+		final List<Invalidation> drained = new ArrayList<Invalidation>();
+		while (running) {
+			try {
+				final Invalidation first = pending.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				drained.add(first);
+				final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+				long remaining;
+				while (drained.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+					final Invalidation next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					drained.add(next);
+					pending.drainTo(drained, maxBatchSize - drained.size());
+				}
+			} catch (InterruptedException e) {
+				// shutting down, what was drained is sent below
+			}
+			flush(drained);
+		}
+	}
+
+	/**
+	 * Coalesces the drained and the still queued invalidations and sends them.
+	 *
+	 * @param drained
+	 *          taken from the queue; cleared afterwards
+	 */
+	private synchronized void flush(final List<Invalidation> drained) {
+		pending.drainTo(drained);
+		if (drained.isEmpty()) {
+			return;
+		}
+
+		final Map<String, Invalidation> coalesced = new LinkedHashMap<String, Invalidation>();
+		for (Invalidation invalidation : drained) {
+			final String key = invalidation.getEntityName() + '#' + invalidation.getId();
+			coalesced.put(key, merge(coalesced.get(key), invalidation));
+		}
+		drained.clear();
+
+		final List<Invalidation> invalidations = new ArrayList<Invalidation>(coalesced.values());
+		for (int from = 0; from < invalidations.size(); from += maxBatchSize) {
+			final List<Invalidation> batch = invalidations.subList(from, Math.min(from + maxBatchSize, invalidations.size()));
+			send(new InvalidationBatch(nodeId, ++sequence, System.currentTimeMillis(), batch));
+		}
+	}
+
+	/**
+	 * Keeps the newest version, the earliest commit time and any deletion.
+	 */
+	private static Invalidation merge(final Invalidation previous, final Invalidation next) {
+		if (previous == null) {
+			return next;
+		}
+		final Integer version;
+		if (previous.getVersion() == null) {
+			version = next.getVersion();
+		} else if (next.getVersion() == null) {
+			version = previous.getVersion();
+		} else {
+			version = Integer.valueOf(Math.max(previous.getVersion().intValue(), next.getVersion().intValue()));
+		}
+		return new Invalidation(next.getEntityName(), next.getId(), version, previous.isDeleted() || next.isDeleted(),
+				Math.min(previous.getCommitMillis(), next.getCommitMillis()));
+	}
+
+	private void send(final InvalidationBatch batch) {
+		if (!connected) {
+			sendFailures.incrementAndGet();
+			return;
+		}
+		try {
+			transport.publish(batch.encode());
+			batchesSent.incrementAndGet();
+			sentCount.addAndGet(batch.getInvalidations().size());
+		} catch (IOException e) {
+			sendFailures.incrementAndGet();
+			LOG.warn("send() > Cannot send {} invalidations: {}", batch.getInvalidations().size(), e);
+		} catch (RuntimeException e) {
+			sendFailures.incrementAndGet();
+			LOG.warn("send() > Cannot send {} invalidations: {}", batch.getInvalidations().size(), e);
+		}
+	}
+
+	/**
+	 * Applies a batch received by the transport; batches of this node are
+	 * ignored.
+	 *
+	 * @param bytes
+	 *          the encoded batch
+	 */
+	public void receive(final byte[] bytes) {
+		final InvalidationBatch batch;
+		try {
+			batch = InvalidationBatch.decode(bytes);
+		} catch (IOException e) {
+			receiveFailures.incrementAndGet();
+			LOG.warn("receive() > Discarding {} bytes: {}", bytes.length, e.getMessage());
+			return;
+		}
+		if (nodeId.equals(batch.getOrigin())) {
+			return;
+		}
+		batchesReceived.incrementAndGet();
+
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.onInvalidations(batch.getInvalidations());
+			} catch (RuntimeException e) {
+				LOG.warn("receive() > Listener {} failed: {}", listener, e);
+			}
+		}
+
+		final long now = System.currentTimeMillis();
+		for (Invalidation invalidation : batch.getInvalidations()) {
+			final long lag = Math.max(0, now - invalidation.getCommitMillis());
+			lagTotalMillis.addAndGet(lag);
+			long max;
+			while (lag > (max = lagMaxMillis.get()) && !lagMaxMillis.compareAndSet(max, lag)) {
+				// retry
+			}
+		}
+		appliedCount.addAndGet(batch.getInvalidations().size());
+	}
+
+	/**
+	 * @param listener
+	 *          receives the invalidations of the peers
+	 */
+	public void addListener(final InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @return counters and lag of the bus keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		final long applied = appliedCount.get();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("connected", Boolean.valueOf(connected));
+		statistics.put("nodeId", nodeId);
+		statistics.put("pending", Integer.valueOf(pending == null ? 0 : pending.size()));
+		statistics.put("published", Long.valueOf(publishedCount.get()));
+		statistics.put("dropped", Long.valueOf(droppedCount.get()));
+		statistics.put("sent", Long.valueOf(sentCount.get()));
+		statistics.put("batchesSent", Long.valueOf(batchesSent.get()));
+		statistics.put("sendFailures", Long.valueOf(sendFailures.get()));
+		statistics.put("batchesReceived", Long.valueOf(batchesReceived.get()));
+		statistics.put("receiveFailures", Long.valueOf(receiveFailures.get()));
+		statistics.put("applied", Long.valueOf(applied));
+		statistics.put("lagAvgMillis", Long.valueOf(applied == 0 ? 0 : lagTotalMillis.get() / applied));
+		statistics.put("lagMaxMillis", Long.valueOf(lagMaxMillis.get()));
+		return statistics;
+	}
+
+	private static String defaultNodeId() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (IOException e) {
+			host = "unknown";
+		}
+		return host + "-" + Integer.toHexString(new Random().nextInt());
+	}
+
+	public InvalidationTransport getTransport() {
+		return transport;
+	}
+
+	public void setTransport(InvalidationTransport transport) {
+		this.transport = transport;
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	public void setFlushIntervalMillis(long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	public List<InvalidationListener> getListeners() {
+		return listeners;
+	}
+
+	public void setListeners(List<InvalidationListener> listeners) {
+		this.listeners.clear();
+		this.listeners.addAll(listeners);
+	}
+
+}
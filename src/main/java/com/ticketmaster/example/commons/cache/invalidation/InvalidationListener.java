@@ -0,0 +1,20 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.util.List;
+
+/**
+ * InvalidationListener -
+ * Applies the invalidations received from peers to a local cache.
+ */
+public interface InvalidationListener {
+
+	/**
+	 * Called on the transport's thread for every batch received from a peer.
+	 * Implementations should be quick and must not throw.
+	 *
+	 * @param invalidations
+	 *          changes committed on the peer, at most one per entity
+	 */
+	void onInvalidations(List<Invalidation> invalidations);
+
+}
@@ -0,0 +1,37 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.IOException;
+
+/**
+ * InvalidationTransport -
+ * Carries invalidation batches between the nodes of a cluster. Delivery is
+ * best effort: a lost batch leaves peers stale until their entries expire.
+ */
+public interface InvalidationTransport {
+
+	/**
+	 * Connects to the peers and starts handing their batches to the bus.
+	 *
+	 * @param bus
+	 *          receives the batches of the peers; own batches may be delivered too
+	 * @throws IOException
+	 *           if the transport cannot be opened
+	 */
+	void start(InvalidationBus bus) throws IOException;
+
+	/**
+	 * Sends a batch to all peers.
+	 *
+	 * @param batch
+	 *          encoded with {@link InvalidationBatch#encode()}
+	 * @throws IOException
+	 *           if the batch could not be sent
+	 */
+	void publish(byte[] batch) throws IOException;
+
+	/**
+	 * Disconnects from the peers.
+	 */
+	void shutdown();
+
+}
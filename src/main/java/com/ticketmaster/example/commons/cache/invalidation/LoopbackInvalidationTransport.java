@@ -0,0 +1,75 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LoopbackInvalidationTransport -
+ * Connects the buses of one JVM that share a channel name; for tests and
+ * benchmarks. Batches are delivered synchronously on the publishing thread,
+ * in their encoded form like on the network.
+ */
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+	private static final ConcurrentMap<String, List<InvalidationBus>> CHANNELS = new ConcurrentHashMap<String, List<InvalidationBus>>();
+
+	private String channel = "default";
+
+	private InvalidationBus bus;
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#start(com.ticketmaster.example.commons.cache.invalidation.InvalidationBus)
+	 */
+	@Override
+	public void start(final InvalidationBus bus) throws IOException {
+		this.bus = bus;
+		List<InvalidationBus> members = CHANNELS.get(channel);
+		if (members == null) {
+			final List<InvalidationBus> created = new CopyOnWriteArrayList<InvalidationBus>();
+			members = CHANNELS.putIfAbsent(channel, created);
+			if (members == null) {
+				members = created;
+			}
+		}
+		members.add(bus);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#publish(byte[])
+	 */
+	@Override
+	public void publish(final byte[] batch) throws IOException {
+		final List<InvalidationBus> members = CHANNELS.get(channel);
+		if (members == null) {
+			throw new IOException("Loopback channel " + channel + " is closed");
+		}
+		for (InvalidationBus member : members) {
+			if (member != bus) {
+				member.receive(batch);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		final List<InvalidationBus> members = CHANNELS.get(channel);
+		if (members != null) {
+			members.remove(bus);
+		}
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	public void setChannel(String channel) {
+		this.channel = channel;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MulticastInvalidationTransport -
+ * Sends every batch as one UDP datagram to a multicast group all nodes of the
+ * cluster join. Needs no broker; a lost datagram is not resent.
+ */
+public class MulticastInvalidationTransport implements InvalidationTransport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MulticastInvalidationTransport.class);
+
+	/** Largest UDP payload over IPv4. */
+	private static final int MAX_DATAGRAM = 65507;
+
+	private String group = "239.255.20.37";
+
+	private int port = 45588;
+
+	private int timeToLive = 1;
+
+	private InetAddress groupAddress;
+
+	private MulticastSocket socket;
+
+	private Thread receiver;
+
+	private volatile boolean running;
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#start(com.ticketmaster.example.commons.cache.invalidation.InvalidationBus)
+	 */
+	@Override
+	public void start(final InvalidationBus bus) throws IOException {
+		groupAddress = InetAddress.getByName(group);
+		socket = new MulticastSocket(port);
+		socket.setTimeToLive(timeToLive);
+		try {
+			socket.joinGroup(groupAddress);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		running = true;
+		receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receive(bus);
+			}
+		}, "cache-invalidation-multicast");
+		receiver.setDaemon(true);
+		receiver.start();
+		LOG.info("start() > joined invalidation group {}:{}", group, port);
+	}
+
+	private void receive(final InvalidationBus bus) {
+		final byte[] buffer = new byte[MAX_DATAGRAM];
+		while (running) {
+			final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+			} catch (IOException e) {
+				if (running) {
+					LOG.warn("receive() > Cannot receive invalidations: {}", e);
+				}
+				continue;
+			}
+			bus.receive(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#publish(byte[])
+	 */
+	@Override
+	public void publish(final byte[] batch) throws IOException {
+		if (batch.length > MAX_DATAGRAM) {
+			throw new IOException("Invalidation batch of " + batch.length + " bytes exceeds a datagram, lower maxBatchSize");
+		}
+		socket.send(new DatagramPacket(batch, batch.length, groupAddress, port));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationTransport#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		running = false;
+		if (socket != null) {
+			try {
+				socket.leaveGroup(groupAddress);
+			} catch (IOException e) {
+				LOG.debug("shutdown() > Cannot leave invalidation group: {}", e.getMessage());
+			}
+			socket.close();
+		}
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public int getTimeToLive() {
+		return timeToLive;
+	}
+
+	public void setTimeToLive(int timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+}
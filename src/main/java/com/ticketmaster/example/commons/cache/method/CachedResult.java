@@ -0,0 +1,35 @@
+package com.ticketmaster.example.commons.cache.method;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CachedResult -
+ * Caches the result of a method in the method cache, keyed by the method and
+ * its arguments. Arguments must implement equals and hashCode; null results,
+ * results that are not Serializable and exceptions are not cached. Calls made
+ * inside a read-write transaction bypass the cache.
+ *
+ * @see MethodCacheAspect
+ * @see EvictCachedResults
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CachedResult {
+
+	/**
+	 * @return the group the results belong to, evicted together by
+	 *         {@link EvictCachedResults}
+	 */
+	String group();
+
+	/**
+	 * @return seconds a result is kept, 0 for the default of the cache region
+	 */
+	int timeToLiveSeconds() default 0;
+
+}
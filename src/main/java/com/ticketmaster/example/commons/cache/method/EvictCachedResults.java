@@ -0,0 +1,27 @@
+package com.ticketmaster.example.commons.cache.method;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * EvictCachedResults -
+ * Evicts the cached results of groups once a method returns normally, and
+ * again after the surrounding transaction commits.
+ *
+ * @see MethodCacheAspect
+ * @see CachedResult
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface EvictCachedResults {
+
+	/**
+	 * @return the groups whose results are evicted
+	 */
+	String[] groups();
+
+}
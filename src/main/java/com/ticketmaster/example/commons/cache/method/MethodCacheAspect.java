@@ -0,0 +1,269 @@
+package com.ticketmaster.example.commons.cache.method;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.ticketmaster.example.commons.cache.invalidation.Invalidation;
+import com.ticketmaster.example.commons.cache.invalidation.InvalidationListener;
+
+/**
+ * MethodCacheAspect -
+ * Caches the results of methods annotated with {@link CachedResult} and
+ * evicts them on methods annotated with {@link EvictCachedResults}.
+ * <p>
+ * Ordered before the transaction advice, so a hit does not begin a
+ * transaction. Calls inside a read-write transaction bypass the cache: they
+ * may see their own uncommitted changes, and must not act on stale results.
+ * Results are evicted by group; a group is evicted on peers as well when one
+ * of the entities mapped to it in entityGroups is invalidated.
+ */
+@Aspect
+public class MethodCacheAspect implements Ordered, InvalidationListener {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MethodCacheAspect.class);
+
+	private Ehcache cache;
+
+	private boolean enabled = true;
+
+	private int order = 0;
+
+	private Map<String, List<String>> entityGroups = new HashMap<String, List<String>>();
+
+	private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final ConcurrentMap<String, MethodStatistics> methodStatistics = new ConcurrentHashMap<String, MethodStatistics>();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Returns the cached result of the call, or proceeds and caches it.
+	 *
+	 * @param joinPoint
+	 *          the call
+	 * @param cachedResult
+	 *          annotation of the method
+	 * @return the result
+	 * @throws Throwable
+	 *           thrown by the method
+	 */
+	@Around("@annotation(cachedResult)")
+	public Object cache(final ProceedingJoinPoint joinPoint, final CachedResult cachedResult) throws Throwable {
+		final String method = signature(joinPoint);
+		final MethodStatistics statistics = statistics(method);
+		if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()
+				&& !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			statistics.bypassed.incrementAndGet();
+			return joinPoint.proceed();
+		}
+
+		// the generation is taken before the call, a result computed while the
+		// group is evicted lands on a key nobody reads
+		final MethodCacheKey key = new MethodCacheKey(method, generation(cachedResult.group()).get(),
+				joinPoint.getArgs());
+		final Element element = cache.get(key);
+		if (element != null) {
+			statistics.hits.incrementAndGet();
+			return element.getObjectValue();
+		}
+		statistics.misses.incrementAndGet();
+
+		final Object result = joinPoint.proceed();
+		if (result instanceof Serializable) {
+			final Element computed = new Element(key, result);
+			if (cachedResult.timeToLiveSeconds() > 0) {
+				computed.setTimeToLive(cachedResult.timeToLiveSeconds());
+			}
+			cache.put(computed);
+		} else if (result != null) {
+			statistics.uncacheable.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Evicts the groups of a method that returned, and again once its
+	 * transaction commits.
+	 *
+	 * @param joinPoint
+	 *          the call
+	 * @param evictCachedResults
+	 *          annotation of the method
+	 */
+	@AfterReturning("@annotation(evictCachedResults)")
+	public void evict(final JoinPoint joinPoint, final EvictCachedResults evictCachedResults) {
+		final String[] groups = evictCachedResults.groups();
+		evictGroups(groups);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					evictGroups(groups);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param groups
+	 *          groups whose cached results are dropped
+	 */
+	public void evictGroups(final String... groups) {
+		for (String group : groups) {
+			generation(group).incrementAndGet();
+			evictionCount.incrementAndGet();
+			LOG.debug("evictGroups() > Evicted method cache group {}", group);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationListener#onInvalidations(java.util.List)
+	 */
+	@Override
+	public void onInvalidations(final List<Invalidation> invalidations) {
+		for (Invalidation invalidation : invalidations) {
+			final List<String> groups = entityGroups.get(invalidation.getEntityName());
+			if (groups != null) {
+				evictGroups(groups.toArray(new String[groups.size()]));
+			}
+		}
+	}
+
+	private AtomicLong generation(final String group) {
+		AtomicLong generation = generations.get(group);
+		if (generation == null) {
+			final AtomicLong created = new AtomicLong();
+			generation = generations.putIfAbsent(group, created);
+			if (generation == null) {
+				generation = created;
+			}
+		}
+		return generation;
+	}
+
+	private MethodStatistics statistics(final String method) {
+		MethodStatistics statistics = methodStatistics.get(method);
+		if (statistics == null) {
+			final MethodStatistics created = new MethodStatistics();
+			statistics = methodStatistics.putIfAbsent(method, created);
+			if (statistics == null) {
+				statistics = created;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Declaring type, name and parameter types, so overloads get their own keys.
+	 */
+	private static String signature(final JoinPoint joinPoint) {
+		final MethodSignature signature = (MethodSignature) joinPoint.getSignature();
+		final StringBuilder builder = new StringBuilder(signature.getDeclaringTypeName()).append('.')
+				.append(signature.getName()).append('(');
+		final Class<?>[] parameterTypes = signature.getParameterTypes();
+		for (int index = 0; index < parameterTypes.length; index++) {
+			if (index > 0) {
+				builder.append(',');
+			}
+			builder.append(parameterTypes[index].getSimpleName());
+		}
+		return builder.append(')').toString();
+	}
+
+	/**
+	 * @return hits and misses of every cached method keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("entries", Integer.valueOf(cache.getSize()));
+		statistics.put("groupEvictions", Long.valueOf(evictionCount.get()));
+		final Map<String, Object> methods = new TreeMap<String, Object>();
+		for (Map.Entry<String, MethodStatistics> entry : methodStatistics.entrySet()) {
+			final long hits = entry.getValue().hits.get();
+			final long misses = entry.getValue().misses.get();
+			final Map<String, Object> method = new LinkedHashMap<String, Object>();
+			method.put("hits", Long.valueOf(hits));
+			method.put("misses", Long.valueOf(misses));
+			method.put("hitRatio", Double.valueOf(hits + misses == 0 ? 0 : (double) hits / (hits + misses)));
+			method.put("bypassed", Long.valueOf(entry.getValue().bypassed.get()));
+			method.put("uncacheable", Long.valueOf(entry.getValue().uncacheable.get()));
+			methods.put(entry.getKey(), method);
+		}
+		statistics.put("methods", methods);
+		return statistics;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.core.Ordered#getOrder()
+	 */
+	@Override
+	public int getOrder() {
+		return order;
+	}
+
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	public Ehcache getCache() {
+		return cache;
+	}
+
+	public void setCache(Ehcache cache) {
+		this.cache = cache;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public Map<String, List<String>> getEntityGroups() {
+		return entityGroups;
+	}
+
+	public void setEntityGroups(Map<String, List<String>> entityGroups) {
+		this.entityGroups = entityGroups;
+	}
+
+	/**
+	 * Counters of one cached method
+	 */
+	private static final class MethodStatistics {
+
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong bypassed = new AtomicLong();
+		private final AtomicLong uncacheable = new AtomicLong();
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.ticketmaster.example.commons.cache.method;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * MethodCacheKey -
+ * Key of a cached method result: the method, its arguments and the generation
+ * of its group at the time of the call. Evicting a group starts a new
+ * generation, which leaves the old keys unreachable until they expire.
+ */
+public final class MethodCacheKey implements Serializable {
+
+	private static final long serialVersionUID = 3466240218811549026L;
+
+	private final String method;
+
+	private final long generation;
+
+	private final Object[] arguments;
+
+	private final int hash;
+
+	/**
+	 * @param method
+	 *          signature of the method
+	 * @param generation
+	 *          generation of the method's group
+	 * @param arguments
+	 *          arguments of the call
+	 */
+	public MethodCacheKey(final String method, final long generation, final Object[] arguments) {
+		this.method = method;
+		this.generation = generation;
+		this.arguments = arguments == null ? new Object[0] : arguments.clone();
+		this.hash = 31 * (31 * method.hashCode() + (int) (generation ^ generation >>> 32))
+				+ Arrays.deepHashCode(this.arguments);
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MethodCacheKey)) {
+			return false;
+		}
+		final MethodCacheKey other = (MethodCacheKey) obj;
+		return hash == other.hash && generation == other.generation && method.equals(other.method)
+				&& Arrays.deepEquals(arguments, other.arguments);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return method + "#" + generation + Arrays.deepToString(arguments);
+	}
+
+}
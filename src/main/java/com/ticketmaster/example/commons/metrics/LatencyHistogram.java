@@ -0,0 +1,115 @@
+package com.ticketmaster.example.commons.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram -
+ * A lock-free latency histogram with 26 power-of-two microsecond buckets
+ * bounded by 1us, 2us, 4us ... 2^25us (~33.5s), plus an overflow bucket for
+ * slower samples. Percentiles are reported as the upper bound of the bucket
+ * they fall in, so they are accurate to within a factor of two (and never
+ * above the maximum); percentiles in the overflow bucket report the maximum.
+ * That is enough to size pools and spot regressions.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Bounded buckets plus the overflow bucket
+	 */
+	private static final int BUCKETS = 27;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records one sample.
+	 * @param nanos
+	 *          elapsed time in nanoseconds
+	 */
+	public void record(final long nanos) {
+		final long sample = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(sample));
+		count.incrementAndGet();
+		totalNanos.addAndGet(sample);
+
+		long max = maxNanos.get();
+		while (sample > max && !maxNanos.compareAndSet(max, sample)) {
+			max = maxNanos.get();
+		}
+	}
+
+	private static int bucketOf(final long nanos) {
+		final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		if (micros <= 1) {
+			return 0;
+		}
+		final int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	private static double upperBoundMillis(final int bucket) {
+		return (1L << bucket) / 1000d;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		final long n = count.get();
+		return n == 0 ? 0d : totalNanos.get() / (n * 1000000d);
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1000000d;
+	}
+
+	/**
+	 * @param percentile
+	 *          between 0 and 100
+	 * @return upper bound in milliseconds of the bucket holding the percentile, 0 if empty
+	 */
+	public double getPercentileMillis(final double percentile) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0d;
+		}
+
+		final long rank = (long) Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundMillis(i), getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * Summary of the histogram.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("count", Long.valueOf(getCount()));
+		statistics.put("meanMillis", Double.valueOf(getMeanMillis()));
+		statistics.put("p50Millis", Double.valueOf(getPercentileMillis(50)));
+		statistics.put("p90Millis", Double.valueOf(getPercentileMillis(90)));
+		statistics.put("p99Millis", Double.valueOf(getPercentileMillis(99)));
+		statistics.put("maxMillis", Double.valueOf(getMaxMillis()));
+		return statistics;
+	}
+
+}
@@ -216,6 +216,49 @@ public interface GenericDao<T, PK extends Serializable> {
 	List<T> findNamedParameter(String query, int offset, int limit,
 			NamedQueryParameter... args);
 
+	/**
+	 * Finds the values selected by a query that does not return entities: a
+	 * single column, or a constructor expression
+	 * (<code>select new Dto(o.id, o.name) ...</code>). No entity is
+	 * instantiated or managed.
+	 * @param query
+	 *           represents query to be executed against database
+	 * @param resultType
+	 *           type of the values selected
+	 * @param offset
+	 *           number of rows to offset query.
+	 * @param limit
+	 *           limits the result, 0 for all
+	 * @param args
+	 *           represents one OR many NamedQueryParameter having parameter name,value and type
+	 * @return List<R>
+	 *           Returns the values selected
+	 * @throws ClassCastException if the query selects something else
+	 */
+	<R> List<R> findProjection(String query, Class<R> resultType, int offset, int limit,
+			NamedQueryParameter... args);
+
+	/**
+	 * Finds the columns selected by a query and maps each row to a new bean.
+	 * No entity is instantiated or managed.
+	 * @param query
+	 *           represents query to be executed against database, selecting
+	 *           the columns in the order of the properties of the projection
+	 * @param projection
+	 *           maps the columns of a row to a bean
+	 * @param offset
+	 *           number of rows to offset query.
+	 * @param limit
+	 *           limits the result, 0 for all
+	 * @param args
+	 *           represents one OR many NamedQueryParameter having parameter name,value and type
+	 * @return List<R>
+	 *           Returns a bean for each row
+	 * @see Projection
+	 */
+	<R> List<R> findProjection(String query, Projection<R> projection, int offset, int limit,
+			NamedQueryParameter... args);
+
 	/**
 	 * Finds the instance of T by named queries
 	 * @param queryName
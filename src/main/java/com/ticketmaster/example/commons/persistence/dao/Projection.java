@@ -0,0 +1,216 @@
+package com.ticketmaster.example.commons.persistence.dao;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Projection -
+ * Maps the rows of a query selecting a few columns to new instances of a
+ * plain bean, without instantiating, snapshotting or managing entities.
+ * Column <i>n</i> of a row is set to property <i>n</i>; a nested property
+ * such as <code>address.city</code> creates the nested bean on the first
+ * non-null value, so a row whose address columns are all null leaves the
+ * address null. Numbers are converted to the numeric type of the property.
+ * <p>
+ * Setters are looked up once, a projection is immutable and can be shared.
+ *
+ * @param <R>
+ *          type of the beans, with a public no-arg constructor
+ * @see GenericDao#findProjection(String, Projection, int, int, NamedQueryParameter...)
+ */
+public class Projection<R> {
+
+	private final Class<R> type;
+
+	private final String[] properties;
+
+	private final Constructor<R> constructor;
+
+	private final PropertyPath[] paths;
+
+	/**
+	 * @param type
+	 *          type of the beans
+	 * @param properties
+	 *          the property set from each column, in the order of the columns
+	 * @throws IllegalArgumentException
+	 *           if the type cannot be instantiated or a property has no setter
+	 */
+	public Projection(final Class<R> type, final String... properties) {
+		this.type = type;
+		this.properties = properties.clone();
+		this.constructor = constructor(type);
+		this.paths = new PropertyPath[properties.length];
+		for (int index = 0; index < properties.length; index++) {
+			paths[index] = new PropertyPath(type, properties[index]);
+		}
+	}
+
+	/**
+	 * @param row
+	 *          the columns of a row, a single value if there is one column
+	 * @return a new bean holding the columns
+	 */
+	public R map(final Object row) {
+		final Object[] columns = row instanceof Object[] ? (Object[]) row : new Object[] { row };
+		if (columns.length != paths.length) {
+			throw new IllegalArgumentException("Expected " + paths.length + " columns for " + type.getSimpleName()
+					+ ", got " + columns.length);
+		}
+		final R bean = newInstance(constructor);
+		for (int index = 0; index < paths.length; index++) {
+			paths[index].set(bean, columns[index]);
+		}
+		return bean;
+	}
+
+	/**
+	 * @param rows
+	 *          rows returned by a query
+	 * @return a new bean for each row, in the same order
+	 */
+	public List<R> map(final List<?> rows) {
+		final List<R> beans = new ArrayList<R>(rows.size());
+		for (Object row : rows) {
+			beans.add(map(row));
+		}
+		return beans;
+	}
+
+	public Class<R> getType() {
+		return type;
+	}
+
+	public String[] getProperties() {
+		return properties.clone();
+	}
+
+	private static <B> Constructor<B> constructor(final Class<B> type) {
+		try {
+			return type.getConstructor();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public no-arg constructor", e);
+		}
+	}
+
+	private static <B> B newInstance(final Constructor<B> constructor) {
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Cannot instantiate " + constructor.getDeclaringClass().getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot instantiate " + constructor.getDeclaringClass().getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot instantiate " + constructor.getDeclaringClass().getName(),
+					e.getTargetException());
+		}
+	}
+
+	/**
+	 * Getters of the nested beans and setter of the leaf of a dotted property
+	 */
+	private static final class PropertyPath {
+
+		private final String name;
+		private final Method[] getters;
+		private final Method[] setters;
+		private final Constructor<?>[] constructors;
+		private final Method leaf;
+		private final Class<?> leafType;
+
+		PropertyPath(final Class<?> type, final String name) {
+			this.name = name;
+			final String[] steps = name.split("\\.");
+			getters = new Method[steps.length - 1];
+			setters = new Method[steps.length - 1];
+			constructors = new Constructor<?>[steps.length - 1];
+			Class<?> owner = type;
+			for (int index = 0; index < steps.length - 1; index++) {
+				final PropertyDescriptor descriptor = descriptor(owner, steps[index], name);
+				getters[index] = descriptor.getReadMethod();
+				setters[index] = descriptor.getWriteMethod();
+				if (getters[index] == null) {
+					throw new IllegalArgumentException("No getter for " + steps[index] + " of " + name);
+				}
+				owner = descriptor.getPropertyType();
+				constructors[index] = constructor(owner);
+			}
+			leaf = descriptor(owner, steps[steps.length - 1], name).getWriteMethod();
+			leafType = leaf.getParameterTypes()[0];
+		}
+
+		private static PropertyDescriptor descriptor(final Class<?> owner, final String step, final String name) {
+			final BeanInfo beanInfo;
+			try {
+				beanInfo = Introspector.getBeanInfo(owner);
+			} catch (IntrospectionException e) {
+				throw new IllegalArgumentException("Cannot introspect " + owner.getName(), e);
+			}
+			for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+				if (descriptor.getName().equals(step) && descriptor.getWriteMethod() != null) {
+					return descriptor;
+				}
+			}
+			throw new IllegalArgumentException("No setter for " + step + " of " + name + " in " + owner.getName());
+		}
+
+		void set(final Object bean, final Object value) {
+			if (value == null && leafType.isPrimitive()) {
+				return;
+			}
+			try {
+				Object target = bean;
+				for (int index = 0; index < getters.length; index++) {
+					Object nested = getters[index].invoke(target);
+					if (nested == null) {
+						if (value == null) {
+							return;
+						}
+						nested = newInstance(constructors[index]);
+						setters[index].invoke(target, nested);
+					}
+					target = nested;
+				}
+				leaf.invoke(target, convert(value));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("Cannot set " + name, e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("Cannot set " + name, e.getTargetException());
+			}
+		}
+
+		private Object convert(final Object value) {
+			if (!(value instanceof Number) || leafType.isInstance(value)) {
+				return value;
+			}
+			final Number number = (Number) value;
+			if (leafType == Long.class || leafType == long.class) {
+				return Long.valueOf(number.longValue());
+			}
+			if (leafType == Integer.class || leafType == int.class) {
+				return Integer.valueOf(number.intValue());
+			}
+			if (leafType == Short.class || leafType == short.class) {
+				return Short.valueOf(number.shortValue());
+			}
+			if (leafType == Double.class || leafType == double.class) {
+				return Double.valueOf(number.doubleValue());
+			}
+			if (leafType == Float.class || leafType == float.class) {
+				return Float.valueOf(number.floatValue());
+			}
+			if (leafType == Boolean.class || leafType == boolean.class) {
+				return Boolean.valueOf(number.intValue() != 0);
+			}
+			return value;
+		}
+	}
+
+}
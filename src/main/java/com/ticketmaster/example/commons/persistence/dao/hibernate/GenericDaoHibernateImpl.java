@@ -20,6 +20,7 @@ import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 
 import com.ticketmaster.example.commons.persistence.dao.GenericDao;
 import com.ticketmaster.example.commons.persistence.dao.NamedQueryParameter;
+import com.ticketmaster.example.commons.persistence.dao.Projection;
 import com.ticketmaster.example.commons.persistence.dao.QueryParameter;
 import com.ticketmaster.example.commons.persistence.dao.QueryParameter.TemporalType;
 import com.ticketmaster.example.commons.persistence.exceptions.StaleObjectException;
@@ -1421,6 +1422,76 @@ public class GenericDaoHibernateImpl<T, PK extends Serializable> implements
 
 	}
 
+	/**
+	 * Finds the values selected by a query that does not return entities
+	 * @param query
+	 *           represents query to be executed against database
+	 * @param resultType
+	 *           type of the values selected
+	 * @param offset
+	 *           number of rows to offset query.
+	 * @param limit
+	 *           limits the result
+	 * @param args
+	 *           represents one OR many NamedQueryParameter having parameter name,value and type
+	 * @return List<R>
+	 *           Returns the values selected
+	 * @see NamedQueryParameter
+	 */
+	@Override
+	public <R> List<R> findProjection(String query, Class<R> resultType, int offset, int limit,
+			NamedQueryParameter... args) {
+		final List<?> rows = getProjectionQuery(query, offset, limit, args).getResultList();
+		for (Object row : rows) {
+			resultType.cast(row);
+		}
+		@SuppressWarnings("unchecked")
+		List<R> result = (List<R>) rows;
+
+		return result;
+	}
+
+	/**
+	 * Finds the columns selected by a query and maps each row to a new bean
+	 * @param query
+	 *           represents query to be executed against database
+	 * @param projection
+	 *           maps the columns of a row to a bean
+	 * @param offset
+	 *           number of rows to offset query.
+	 * @param limit
+	 *           limits the result
+	 * @param args
+	 *           represents one OR many NamedQueryParameter having parameter name,value and type
+	 * @return List<R>
+	 *           Returns a bean for each row
+	 * @see Projection
+	 */
+	@Override
+	public <R> List<R> findProjection(String query, Projection<R> projection, int offset, int limit,
+			NamedQueryParameter... args) {
+		return projection.map(getProjectionQuery(query, offset, limit, args).getResultList());
+	}
+
+	/**
+	 * A cached projection holds its rows themselves, a hit does not load
+	 * entities one by one.
+	 */
+	private Query getProjectionQuery(String query, int offset, int limit,
+			NamedQueryParameter... args) {
+		Query q = getTransactionalEntityManager().createQuery(query);
+		((QueryImpl<?>) q).getHibernateQuery().setCacheable(queryCacheEnabled);
+		populateQueryNamedParameter(q, args);
+
+		if (offset > 0) {
+			q.setFirstResult(offset);
+		}
+		if (limit > 0) {
+			q.setMaxResults(limit);
+		}
+		return q;
+	}
+
 	/**
 	 * Finds instances of T having positional parameter in query
 	 * @param query
@@ -0,0 +1,22 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CountStatements -
+ * Counts the statements executed by a call of the annotated method, or of any
+ * method of the annotated class, and flags the ones repeated in the call.
+ * Calls made while a scope is open count towards the outer one.
+ *
+ * @see StatementCountingAspect
+ * @see StatementCounter
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface CountStatements {
+}
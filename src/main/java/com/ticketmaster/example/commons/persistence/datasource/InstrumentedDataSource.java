@@ -0,0 +1,371 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.commons.metrics.LatencyHistogram;
+
+/**
+ * InstrumentedDataSource -
+ * Wraps a DBCP {@link BasicDataSource} and records how long callers wait to
+ * borrow a connection, how long they hold it, how many are waiting, and the
+ * pool's active/idle counts.
+ *
+ * When <code>autoTuneEnabled</code> is set, the pool's <code>maxActive</code>
+ * is re-evaluated every <code>tuneIntervalMillis</code>: it grows by one when
+ * more than <code>slowBorrowRatio</code> of the borrows in the interval waited
+ * longer than <code>waitThresholdMillis</code>, and shrinks by one when the
+ * peak number of active connections stayed below half of it. It always stays
+ * within <code>minPoolSize</code> and <code>maxPoolSize</code>.
+ */
+public class InstrumentedDataSource implements DataSource {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(InstrumentedDataSource.class);
+
+	private BasicDataSource targetDataSource;
+
+	private boolean autoTuneEnabled = false;
+	private int minPoolSize = 5;
+	private int maxPoolSize = 20;
+	private long tuneIntervalMillis = 30000;
+	/**
+	 * Borrow time above which a borrow counts as slow
+	 */
+	private long waitThresholdMillis = 10;
+	/**
+	 * Fraction of slow borrows in an interval that triggers growth
+	 */
+	private double slowBorrowRatio = 0.05;
+
+	private final LatencyHistogram borrowLatency = new LatencyHistogram();
+	private final LatencyHistogram leaseTime = new LatencyHistogram();
+
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicInteger maxWaiting = new AtomicInteger();
+	private final AtomicLong borrowFailures = new AtomicLong();
+
+	// per tuning interval
+	private final AtomicLong intervalBorrows = new AtomicLong();
+	private final AtomicLong intervalSlowBorrows = new AtomicLong();
+	private final AtomicInteger intervalPeakActive = new AtomicInteger();
+
+	private final AtomicLong resizeCount = new AtomicLong();
+
+	private ScheduledExecutorService tuner;
+
+	/**
+	 * Starts the pool size tuner if enabled; called by the container once properties are set.
+	 */
+	public void start() {
+		if (!autoTuneEnabled) {
+			return;
+		}
+
+		LOG.info("start() > Auto-tuning maxActive between {} and {} every {}ms",
+				new Object[] { minPoolSize, maxPoolSize, tuneIntervalMillis });
+
+		tuner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, "datasource-tuner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		tuner.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tune();
+				} catch (RuntimeException e) {
+					LOG.warn("tune() > Failed to tune pool size", e);
+				}
+			}
+		}, tuneIntervalMillis, tuneIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the tuner.
+	 */
+	public void shutdown() {
+		if (tuner != null) {
+			tuner.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adjusts maxActive from the borrow waits observed since the last call.
+	 */
+	void tune() {
+		final long borrows = intervalBorrows.getAndSet(0);
+		final long slowBorrows = intervalSlowBorrows.getAndSet(0);
+		final int peakActive = intervalPeakActive.getAndSet(targetDataSource.getNumActive());
+
+		final int current = targetDataSource.getMaxActive();
+		int next = current;
+		if (borrows > 0 && slowBorrows > borrows * slowBorrowRatio) {
+			next = current + 1;
+		} else if (slowBorrows == 0 && peakActive < current / 2) {
+			next = current - 1;
+		}
+		next = Math.max(minPoolSize, Math.min(maxPoolSize, next));
+
+		if (next != current) {
+			LOG.info("tune() > maxActive {} -> {} (borrows={}, slow={}, peakActive={})",
+					new Object[] { current, next, borrows, slowBorrows, peakActive });
+			targetDataSource.setMaxActive(next);
+			if (targetDataSource.getMaxIdle() < next) {
+				targetDataSource.setMaxIdle(next);
+			}
+			resizeCount.incrementAndGet();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection()
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return borrow(null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Connection getConnection(final String username, final String password) throws SQLException {
+		return borrow(username, password);
+	}
+
+	private Connection borrow(final String username, final String password) throws SQLException {
+		final int nowWaiting = waiting.incrementAndGet();
+		updateMax(maxWaiting, nowWaiting);
+
+		final long start = System.nanoTime();
+		final Connection connection;
+		try {
+			connection = username == null ? targetDataSource.getConnection() : targetDataSource.getConnection(username, password);
+		} catch (SQLException e) {
+			borrowFailures.incrementAndGet();
+			throw e;
+		} catch (RuntimeException e) {
+			borrowFailures.incrementAndGet();
+			throw e;
+		} finally {
+			waiting.decrementAndGet();
+		}
+		final long borrowed = System.nanoTime();
+
+		final long waitNanos = borrowed - start;
+		borrowLatency.record(waitNanos);
+		intervalBorrows.incrementAndGet();
+		if (waitNanos > TimeUnit.MILLISECONDS.toNanos(waitThresholdMillis)) {
+			intervalSlowBorrows.incrementAndGet();
+		}
+		updateMax(intervalPeakActive, targetDataSource.getNumActive());
+
+		return (Connection) Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new LeaseHandler(connection, borrowed));
+	}
+
+	private static void updateMax(final AtomicInteger max, final int value) {
+		int current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records the lease time of a connection when it is handed back.
+	 */
+	private class LeaseHandler implements InvocationHandler {
+
+		private final Connection target;
+		private final long borrowedNanos;
+		private boolean closed;
+
+		LeaseHandler(final Connection target, final long borrowedNanos) {
+			this.target = target;
+			this.borrowedNanos = borrowedNanos;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("close".equals(name) && !closed) {
+				closed = true;
+				leaseTime.record(System.nanoTime() - borrowedNanos);
+			} else if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+
+	/**
+	 * Live statistics of the pool.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("active", Integer.valueOf(targetDataSource.getNumActive()));
+		statistics.put("idle", Integer.valueOf(targetDataSource.getNumIdle()));
+		statistics.put("maxActive", Integer.valueOf(targetDataSource.getMaxActive()));
+		statistics.put("maxIdle", Integer.valueOf(targetDataSource.getMaxIdle()));
+		statistics.put("waiting", Integer.valueOf(waiting.get()));
+		statistics.put("maxWaiting", Integer.valueOf(maxWaiting.get()));
+		statistics.put("borrowFailures", Long.valueOf(borrowFailures.get()));
+		statistics.put("borrowLatency", borrowLatency.getStatistics());
+		statistics.put("leaseTime", leaseTime.getStatistics());
+		statistics.put("autoTuneEnabled", Boolean.valueOf(autoTuneEnabled));
+		statistics.put("minPoolSize", Integer.valueOf(minPoolSize));
+		statistics.put("maxPoolSize", Integer.valueOf(maxPoolSize));
+		statistics.put("resizes", Long.valueOf(resizeCount.get()));
+		return statistics;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLogWriter()
+	 */
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return targetDataSource.getLogWriter();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+	 */
+	@Override
+	public void setLogWriter(final PrintWriter out) throws SQLException {
+		targetDataSource.setLogWriter(out);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+	 */
+	@Override
+	public void setLoginTimeout(final int seconds) throws SQLException {
+		targetDataSource.setLoginTimeout(seconds);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLoginTimeout()
+	 */
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return targetDataSource.getLoginTimeout();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getParentLogger()
+	 */
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#unwrap(java.lang.Class)
+	 */
+	@Override
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return targetDataSource.unwrap(iface);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+	 */
+	@Override
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || targetDataSource.isWrapperFor(iface);
+	}
+
+	public BasicDataSource getTargetDataSource() {
+		return targetDataSource;
+	}
+
+	public void setTargetDataSource(BasicDataSource targetDataSource) {
+		this.targetDataSource = targetDataSource;
+	}
+
+	public boolean isAutoTuneEnabled() {
+		return autoTuneEnabled;
+	}
+
+	public void setAutoTuneEnabled(boolean autoTuneEnabled) {
+		this.autoTuneEnabled = autoTuneEnabled;
+	}
+
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+
+	public void setMinPoolSize(int minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public long getTuneIntervalMillis() {
+		return tuneIntervalMillis;
+	}
+
+	public void setTuneIntervalMillis(long tuneIntervalMillis) {
+		this.tuneIntervalMillis = tuneIntervalMillis;
+	}
+
+	public long getWaitThresholdMillis() {
+		return waitThresholdMillis;
+	}
+
+	public void setWaitThresholdMillis(long waitThresholdMillis) {
+		this.waitThresholdMillis = waitThresholdMillis;
+	}
+
+	public double getSlowBorrowRatio() {
+		return slowBorrowRatio;
+	}
+
+	public void setSlowBorrowRatio(double slowBorrowRatio) {
+		this.slowBorrowRatio = slowBorrowRatio;
+	}
+
+}
@@ -0,0 +1,665 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.commons.metrics.LatencyHistogram;
+
+/**
+ * ProfilingDataSource -
+ * Wraps a {@link DataSource} and times every statement executed on its
+ * connections. Statements are aggregated by shape: the SQL with literals
+ * replaced by <code>?</code>, lists of parameters collapsed and whitespace
+ * normalized, so the same query with different values or IN list lengths
+ * counts once. Each shape records executions, latency, rows and errors.
+ *
+ * Executions slower than <code>slowThresholdMillis</code> are logged with
+ * their bind parameters and the application method that issued them: the
+ * first frame of <code>callerPackage</code> outside of this package, usually
+ * the DAO method. Latency covers the execute call only, not the fetch of the
+ * rows; rows are counted as the result set is read.
+ *
+ * At most <code>maxStatements</code> shapes are tracked, later ones are
+ * counted under <code>&lt;other&gt;</code>. Every execution is also passed to
+ * the optional {@link StatementCounter}, which counts the shapes per request.
+ */
+public class ProfilingDataSource implements DataSource {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ProfilingDataSource.class);
+
+	/**
+	 * Shape of the statements beyond maxStatements
+	 */
+	static final String OTHER = "<other>";
+
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+
+	private static final Pattern VALUES_LIST = Pattern.compile("(\\(\\?\\.\\.\\.\\))(\\s*,\\s*\\(\\?\\.\\.\\.\\))+");
+
+	private static final int MAX_PARAMETER_LENGTH = 64;
+
+	private DataSource targetDataSource;
+
+	private boolean enabled = true;
+
+	private long slowThresholdMillis = 200;
+
+	private int maxStatements = 500;
+
+	private boolean logBindParameters = true;
+
+	private String callerPackage = "com.ticketmaster.example";
+
+	private StatementCounter statementCounter;
+
+	private final ConcurrentMap<String, StatementStatistics> statements = new ConcurrentHashMap<String, StatementStatistics>();
+
+	/**
+	 * Shapes of the raw SQL seen so far, bounded like the statements
+	 */
+	private final ConcurrentMap<String, String> shapes = new ConcurrentHashMap<String, String>();
+
+	private final AtomicLong executionCount = new AtomicLong();
+	private final AtomicLong slowCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection()
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return profile(targetDataSource.getConnection());
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Connection getConnection(final String username, final String password) throws SQLException {
+		return profile(targetDataSource.getConnection(username, password));
+	}
+
+	private Connection profile(final Connection connection) {
+		if (!enabled || connection == null) {
+			return connection;
+		}
+		final ConnectionHandler handler = new ConnectionHandler(connection);
+		handler.proxy = (Connection) Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+		return handler.proxy;
+	}
+
+	/**
+	 * Wraps the statements created by a connection.
+	 */
+	private class ConnectionHandler implements InvocationHandler {
+
+		private final Connection target;
+		private Connection proxy;
+
+		ConnectionHandler(final Connection target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+
+			if ("prepareStatement".equals(name)) {
+				return wrap(PreparedStatement.class, (Statement) result, (String) args[0]);
+			}
+			if ("prepareCall".equals(name)) {
+				return wrap(CallableStatement.class, (Statement) result, (String) args[0]);
+			}
+			if ("createStatement".equals(name)) {
+				return wrap(Statement.class, (Statement) result, null);
+			}
+			return result;
+		}
+
+		private Object wrap(final Class<? extends Statement> type, final Statement statement, final String sql) {
+			return Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(), new Class<?>[] { type },
+					new StatementHandler(this, statement, sql));
+		}
+	}
+
+	/**
+	 * Times the executions of a statement and keeps its bind parameters.
+	 */
+	private class StatementHandler implements InvocationHandler {
+
+		private final ConnectionHandler owner;
+		private final Statement target;
+		/**
+		 * SQL of a prepared statement, or of the last batch of a plain one
+		 */
+		private String sql;
+		private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+		private ResultSetHandler resultSet;
+
+		StatementHandler(final ConnectionHandler owner, final Statement target, final String sql) {
+			this.owner = owner;
+			this.target = target;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if ("getConnection".equals(name)) {
+				return owner.proxy;
+			}
+			if (name.startsWith("execute")) {
+				return execute(proxy, method, args);
+			}
+
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				parameters.put((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+			} else if ("clearParameters".equals(name)) {
+				parameters.clear();
+			} else if ("addBatch".equals(name) && args != null && args.length == 1) {
+				sql = (String) args[0];
+			} else if ("close".equals(name)) {
+				closeResultSet();
+			}
+
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		private Object execute(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if (args != null && args.length > 0 && args[0] instanceof String) {
+				sql = (String) args[0];
+			}
+			final String shape = shape(sql);
+			final StatementStatistics statistics = statistics(shape);
+			if (statementCounter != null) {
+				statementCounter.record(shape);
+			}
+			closeResultSet();
+
+			final long start = System.nanoTime();
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				statistics.errors.incrementAndGet();
+				errorCount.incrementAndGet();
+				throw e.getTargetException();
+			} finally {
+				final long elapsed = System.nanoTime() - start;
+				statistics.latency.record(elapsed);
+				executionCount.incrementAndGet();
+				if (elapsed > TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis)) {
+					statistics.slow.incrementAndGet();
+					slowCount.incrementAndGet();
+					logSlow(elapsed);
+				}
+			}
+
+			if (result instanceof ResultSet) {
+				resultSet = new ResultSetHandler((ResultSet) result, statistics, proxy);
+				return Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(),
+						new Class<?>[] { ResultSet.class }, resultSet);
+			}
+			if (result instanceof Integer) {
+				statistics.rows.addAndGet(Math.max(0, ((Integer) result).intValue()));
+			} else if (result instanceof int[]) {
+				for (int count : (int[]) result) {
+					statistics.rows.addAndGet(Math.max(0, count));
+				}
+			}
+			return result;
+		}
+
+		private void closeResultSet() {
+			if (resultSet != null) {
+				resultSet.count();
+				resultSet = null;
+			}
+		}
+
+		private void logSlow(final long elapsedNanos) {
+			if (!LOG.isWarnEnabled()) {
+				return;
+			}
+			LOG.warn("execute() > Slow statement {}ms from {}: {}{}", new Object[] {
+					Long.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)), caller(), sql,
+					logBindParameters && !parameters.isEmpty() ? " " + describe(parameters) : "" });
+		}
+	}
+
+	/**
+	 * Counts the rows read from a result set.
+	 */
+	private static class ResultSetHandler implements InvocationHandler {
+
+		private final ResultSet target;
+		private final StatementStatistics statistics;
+		private final Object statement;
+		private long rows;
+		private boolean counted;
+
+		ResultSetHandler(final ResultSet target, final StatementStatistics statistics, final Object statement) {
+			this.target = target;
+			this.statistics = statistics;
+			this.statement = statement;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if ("getStatement".equals(name)) {
+				return statement;
+			}
+			if ("close".equals(name)) {
+				count();
+			}
+
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+			if ("next".equals(name) && Boolean.TRUE.equals(result)) {
+				rows++;
+			}
+			return result;
+		}
+
+		void count() {
+			if (!counted) {
+				counted = true;
+				statistics.rows.addAndGet(rows);
+			}
+		}
+	}
+
+	private StatementStatistics statistics(final String shape) {
+		StatementStatistics statistics = statements.get(shape);
+		if (statistics == null) {
+			final String key = statements.size() < maxStatements ? shape : OTHER;
+			final StatementStatistics created = new StatementStatistics(key);
+			statistics = statements.putIfAbsent(key, created);
+			if (statistics == null) {
+				statistics = created;
+			}
+		}
+		return statistics;
+	}
+
+	private String shape(final String sql) {
+		if (sql == null) {
+			return OTHER;
+		}
+		String shape = shapes.get(sql);
+		if (shape == null) {
+			shape = normalize(sql);
+			if (shapes.size() < maxStatements * 4) {
+				shapes.putIfAbsent(sql, shape);
+			}
+		}
+		return shape;
+	}
+
+	/**
+	 * Replaces the literals of a statement with <code>?</code>, collapses
+	 * lists of parameters to <code>(?...)</code> and runs of whitespace to a
+	 * single space.
+	 *
+	 * @param sql
+	 *          the statement
+	 * @return the shape of the statement
+	 */
+	static String normalize(final String sql) {
+		final StringBuilder shape = new StringBuilder(sql.length());
+		final int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			final char c = sql.charAt(i);
+			if (c == '\'') {
+				// string literal, '' escapes a quote
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				shape.append('?');
+				i++;
+			} else if (Character.isDigit(c) && !partOfIdentifier(sql, i)) {
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				shape.append('?');
+			} else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (shape.length() > 0) {
+					shape.append(' ');
+				}
+			} else {
+				shape.append(c);
+				i++;
+			}
+		}
+		final String collapsed = PARAMETER_LIST.matcher(shape.toString().trim()).replaceAll("(?...)");
+		return VALUES_LIST.matcher(collapsed).replaceAll("$1, ...");
+	}
+
+	private static boolean partOfIdentifier(final String sql, final int index) {
+		if (index == 0) {
+			return false;
+		}
+		final char previous = sql.charAt(index - 1);
+		return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '.'
+				&& index > 1 && Character.isLetterOrDigit(sql.charAt(index - 2));
+	}
+
+	private static String describe(final Map<Integer, Object> parameters) {
+		final StringBuilder description = new StringBuilder("[");
+		for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+			if (description.length() > 1) {
+				description.append(", ");
+			}
+			description.append(parameter.getKey()).append('=');
+			final Object value = parameter.getValue();
+			if (value instanceof byte[]) {
+				description.append('<').append(((byte[]) value).length).append(" bytes>");
+			} else if (value instanceof String) {
+				final String string = (String) value;
+				description.append('\'').append(string.length() > MAX_PARAMETER_LENGTH ? string.substring(0,
+						MAX_PARAMETER_LENGTH) + "..." : string).append('\'');
+			} else {
+				description.append(value);
+			}
+		}
+		return description.append(']').toString();
+	}
+
+	/**
+	 * @return the first application method outside of this package on the
+	 *         current stack
+	 */
+	private String caller() {
+		final String ownPackage = ProfilingDataSource.class.getPackage().getName();
+		for (StackTraceElement frame : new Throwable().getStackTrace()) {
+			final String className = frame.getClassName();
+			if (className.startsWith(callerPackage) && !className.startsWith(ownPackage)) {
+				return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName() + ":"
+						+ frame.getLineNumber();
+			}
+		}
+		return "unknown";
+	}
+
+	/**
+	 * Live statistics of the statements, the top ones first.
+	 *
+	 * @param top
+	 *          number of statement shapes reported
+	 * @param orderBy
+	 *          total, count, mean, max, rows or errors
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics(final int top, final String orderBy) {
+		final List<StatementStatistics> ordered = new ArrayList<StatementStatistics>(statements.values());
+		Collections.sort(ordered, comparator(orderBy));
+
+		final List<Map<String, Object>> topStatements = new ArrayList<Map<String, Object>>();
+		for (StatementStatistics statement : ordered.subList(0, Math.max(0, Math.min(top, ordered.size())))) {
+			topStatements.add(statement.getStatistics());
+		}
+
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("slowThresholdMillis", Long.valueOf(slowThresholdMillis));
+		statistics.put("executions", Long.valueOf(executionCount.get()));
+		statistics.put("slow", Long.valueOf(slowCount.get()));
+		statistics.put("errors", Long.valueOf(errorCount.get()));
+		statistics.put("statements", Integer.valueOf(statements.size()));
+		statistics.put("orderBy", orderBy);
+		statistics.put("top", topStatements);
+		return statistics;
+	}
+
+	private static Comparator<StatementStatistics> comparator(final String orderBy) {
+		return new Comparator<StatementStatistics>() {
+			@Override
+			public int compare(final StatementStatistics first, final StatementStatistics second) {
+				return Double.compare(second.value(orderBy), first.value(orderBy));
+			}
+		};
+	}
+
+	/**
+	 * Counters of one statement shape
+	 */
+	private static final class StatementStatistics {
+
+		private final String sql;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong rows = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong slow = new AtomicLong();
+
+		StatementStatistics(final String sql) {
+			this.sql = sql;
+		}
+
+		double value(final String orderBy) {
+			if ("count".equals(orderBy)) {
+				return latency.getCount();
+			}
+			if ("mean".equals(orderBy)) {
+				return latency.getMeanMillis();
+			}
+			if ("max".equals(orderBy)) {
+				return latency.getMaxMillis();
+			}
+			if ("rows".equals(orderBy)) {
+				return rows.get();
+			}
+			if ("errors".equals(orderBy)) {
+				return errors.get();
+			}
+			return latency.getMeanMillis() * latency.getCount();
+		}
+
+		Map<String, Object> getStatistics() {
+			final long count = latency.getCount();
+			final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			statistics.put("sql", sql);
+			statistics.put("count", Long.valueOf(count));
+			statistics.put("totalMillis", Double.valueOf(latency.getMeanMillis() * count));
+			statistics.put("meanMillis", Double.valueOf(latency.getMeanMillis()));
+			statistics.put("p99Millis", Double.valueOf(latency.getPercentileMillis(99)));
+			statistics.put("maxMillis", Double.valueOf(latency.getMaxMillis()));
+			statistics.put("rows", Long.valueOf(rows.get()));
+			statistics.put("rowsPerExecution", Double.valueOf(count == 0 ? 0d : (double) rows.get() / count));
+			statistics.put("slow", Long.valueOf(slow.get()));
+			statistics.put("errors", Long.valueOf(errors.get()));
+			return statistics;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLogWriter()
+	 */
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return targetDataSource.getLogWriter();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+	 */
+	@Override
+	public void setLogWriter(final PrintWriter out) throws SQLException {
+		targetDataSource.setLogWriter(out);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+	 */
+	@Override
+	public void setLoginTimeout(final int seconds) throws SQLException {
+		targetDataSource.setLoginTimeout(seconds);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLoginTimeout()
+	 */
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return targetDataSource.getLoginTimeout();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getParentLogger()
+	 */
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#unwrap(java.lang.Class)
+	 */
+	@Override
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return targetDataSource.unwrap(iface);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+	 */
+	@Override
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || targetDataSource.isWrapperFor(iface);
+	}
+
+	public DataSource getTargetDataSource() {
+		return targetDataSource;
+	}
+
+	public void setTargetDataSource(DataSource targetDataSource) {
+		this.targetDataSource = targetDataSource;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getSlowThresholdMillis() {
+		return slowThresholdMillis;
+	}
+
+	public void setSlowThresholdMillis(long slowThresholdMillis) {
+		this.slowThresholdMillis = slowThresholdMillis;
+	}
+
+	public int getMaxStatements() {
+		return maxStatements;
+	}
+
+	public void setMaxStatements(int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+
+	public boolean isLogBindParameters() {
+		return logBindParameters;
+	}
+
+	public void setLogBindParameters(boolean logBindParameters) {
+		this.logBindParameters = logBindParameters;
+	}
+
+	public String getCallerPackage() {
+		return callerPackage;
+	}
+
+	public void setCallerPackage(String callerPackage) {
+		this.callerPackage = callerPackage;
+	}
+
+	public StatementCounter getStatementCounter() {
+		return statementCounter;
+	}
+
+	public void setStatementCounter(StatementCounter statementCounter) {
+		this.statementCounter = statementCounter;
+	}
+
+}
@@ -0,0 +1,457 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * ReadWriteRoutingDataSource -
+ * Sends connections for read-only transactions
+ * (<code>@Transactional(readOnly = true)</code>) to one of the replica
+ * DataSources and everything else to the primary.
+ *
+ * The read-only flag is only known once the transaction has started, so this
+ * DataSource must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * which defers fetching the connection until the first statement.
+ *
+ * Replicas are chosen round robin or by the fewest open connections
+ * (<code>selection</code>). A replica that fails to hand out a connection is
+ * skipped and, if none is left, the read goes to the primary.
+ *
+ * Read-your-writes: for <code>readYourWritesMillis</code> after a writer
+ * commits a write, its reads are sent to the primary so it never reads a
+ * replica that has not caught up with its own write. A write is a statement
+ * run for an update count (an insert, update, delete or batch) on a primary
+ * connection; a read-write transaction that only selects leaves its writer
+ * free to read replicas. The writer is the current thread, or the key bound
+ * with {@link #bindWriter(Object)}, e.g. a session id for a client whose
+ * requests are served by several threads; other writers keep reading
+ * replicas. With no replicas configured every connection comes from the
+ * primary.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+	public static final String SELECTION_ROUND_ROBIN = "roundRobin";
+	public static final String SELECTION_LEAST_LOADED = "leastLoaded";
+
+	private DataSource primaryDataSource;
+
+	private List<Replica> replicas = Collections.emptyList();
+
+	private String selection = SELECTION_ROUND_ROBIN;
+
+	private long readYourWritesMillis = 1000;
+
+	private static final ThreadLocal<Object> WRITER = new ThreadLocal<Object>();
+
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/**
+	 * Writer to the time its last write committed, expired entries are purged
+	 * at most once per readYourWritesMillis
+	 */
+	private final ConcurrentMap<Object, Long> lastWriteNanos = new ConcurrentHashMap<Object, Long>();
+
+	private volatile long lastPurgeNanos = System.nanoTime();
+
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong primaryReadCount = new AtomicLong();
+	private final AtomicLong stickyReadCount = new AtomicLong();
+	private final AtomicLong failoverCount = new AtomicLong();
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection()
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		return route(null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Connection getConnection(final String username, final String password) throws SQLException {
+		return route(username, password);
+	}
+
+	/**
+	 * Makes the current thread's writes and reads those of a writer until
+	 * unbound, for a writer whose work spans several threads.
+	 *
+	 * @param writer
+	 *          key of the writer, compared with equals
+	 */
+	public static void bindWriter(final Object writer) {
+		WRITER.set(writer);
+	}
+
+	/**
+	 * Makes the current thread its own writer again.
+	 */
+	public static void unbindWriter() {
+		WRITER.remove();
+	}
+
+	private static Object currentWriter() {
+		final Object writer = WRITER.get();
+		return writer == null ? Thread.currentThread() : writer;
+	}
+
+	private Connection route(final String username, final String password) throws SQLException {
+		final boolean readOnly = TransactionSynchronizationManager.isActualTransactionActive()
+				&& TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+
+		if (!readOnly) {
+			return watchWrites(connect(primaryDataSource, username, password), currentWriter());
+		}
+
+		if (replicas.isEmpty()) {
+			primaryReadCount.incrementAndGet();
+			return connect(primaryDataSource, username, password);
+		}
+
+		if (wroteRecently(currentWriter())) {
+			stickyReadCount.incrementAndGet();
+			return connect(primaryDataSource, username, password);
+		}
+
+		final int size = replicas.size();
+		final int first = selectReplica();
+		for (int i = 0; i < size; i++) {
+			final Replica replica = replicas.get((first + i) % size);
+			try {
+				return replica.connect(username, password);
+			} catch (SQLException e) {
+				failoverCount.incrementAndGet();
+				LOG.warn("route() > Replica {} unavailable: {}", replica.index, e.getMessage());
+			}
+		}
+
+		primaryReadCount.incrementAndGet();
+		return connect(primaryDataSource, username, password);
+	}
+
+	private int selectReplica() {
+		final int size = replicas.size();
+		if (SELECTION_LEAST_LOADED.equals(selection)) {
+			// start the scan at a rotating offset so ties are spread evenly
+			final int offset = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size;
+			int best = offset;
+			for (int i = 1; i < size; i++) {
+				final int candidate = (offset + i) % size;
+				if (replicas.get(candidate).open.get() < replicas.get(best).open.get()) {
+					best = candidate;
+				}
+			}
+			return best;
+		}
+		return (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size;
+	}
+
+	private boolean wroteRecently(final Object writer) {
+		final Long writeNanos = lastWriteNanos.get(writer);
+		if (writeNanos == null) {
+			return false;
+		}
+		if (System.nanoTime() - writeNanos.longValue() < TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis)) {
+			return true;
+		}
+		lastWriteNanos.remove(writer, writeNanos);
+		return false;
+	}
+
+	/**
+	 * Records a write of the writer, once its transaction commits if it runs
+	 * in one, the point from which replicas may lag behind.
+	 */
+	private void markWrite(final Object writer) {
+		if (readYourWritesMillis <= 0 || replicas.isEmpty()) {
+			writeCount.incrementAndGet();
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status != STATUS_ROLLED_BACK) {
+						recordWrite(writer);
+					}
+				}
+			});
+		} else {
+			recordWrite(writer);
+		}
+	}
+
+	private void recordWrite(final Object writer) {
+		writeCount.incrementAndGet();
+		final long now = System.nanoTime();
+		lastWriteNanos.put(writer, Long.valueOf(now));
+
+		final long window = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+		if (now - lastPurgeNanos > window) {
+			lastPurgeNanos = now;
+			for (Map.Entry<Object, Long> entry : lastWriteNanos.entrySet()) {
+				if (now - entry.getValue().longValue() >= window) {
+					lastWriteNanos.remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wraps a primary connection so its first write in each transaction marks
+	 * the writer.
+	 */
+	private Connection watchWrites(final Connection connection, final Object writer) {
+		if (connection == null) {
+			return null;
+		}
+		final PrimaryConnectionHandler handler = new PrimaryConnectionHandler(connection, writer);
+		handler.proxy = (Connection) Proxy.newProxyInstance(ReadWriteRoutingDataSource.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+		return handler.proxy;
+	}
+
+	/**
+	 * Wraps the statements created by a primary connection.
+	 */
+	private class PrimaryConnectionHandler implements InvocationHandler {
+
+		private final Connection target;
+		private final Object writer;
+		private Connection proxy;
+		/**
+		 * A write of the current transaction was marked already
+		 */
+		private boolean marked;
+
+		PrimaryConnectionHandler(final Connection target, final Object writer) {
+			this.target = target;
+			this.writer = writer;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if ("commit".equals(name) || "rollback".equals(name) || "setAutoCommit".equals(name)) {
+				marked = false;
+			}
+
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+
+			if (result instanceof Statement) {
+				return Proxy.newProxyInstance(ReadWriteRoutingDataSource.class.getClassLoader(),
+						new Class<?>[] { method.getReturnType() }, new StatementHandler(this, (Statement) result));
+			}
+			return result;
+		}
+
+		void wrote() {
+			if (!marked) {
+				marked = TransactionSynchronizationManager.isSynchronizationActive();
+				markWrite(writer);
+			}
+		}
+	}
+
+	/**
+	 * Tells its connection about statements run for an update count.
+	 */
+	private static class StatementHandler implements InvocationHandler {
+
+		private final PrimaryConnectionHandler owner;
+		private final Statement target;
+
+		StatementHandler(final PrimaryConnectionHandler owner, final Statement target) {
+			this.owner = owner;
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if ("getConnection".equals(name)) {
+				return owner.proxy;
+			}
+
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+
+			// execute() returns false for an update count
+			if (name.startsWith("execute") && !"executeQuery".equals(name) && !Boolean.TRUE.equals(result)) {
+				owner.wrote();
+			}
+			return result;
+		}
+	}
+
+	private static Connection connect(final DataSource dataSource, final String username, final String password)
+			throws SQLException {
+		return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+	}
+
+	/**
+	 * A replica and the number of connections currently open on it.
+	 */
+	private static class Replica {
+
+		private final int index;
+		private final DataSource dataSource;
+		private final AtomicInteger open = new AtomicInteger();
+		private final AtomicLong reads = new AtomicLong();
+
+		Replica(final int index, final DataSource dataSource) {
+			this.index = index;
+			this.dataSource = dataSource;
+		}
+
+		Connection connect(final String username, final String password) throws SQLException {
+			final Connection connection = ReadWriteRoutingDataSource.connect(dataSource, username, password);
+			open.incrementAndGet();
+			reads.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(ReadWriteRoutingDataSource.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						private boolean closed;
+
+						@Override
+						public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+							final String name = method.getName();
+							if ("close".equals(name) && !closed) {
+								closed = true;
+								open.decrementAndGet();
+							} else if ("equals".equals(name)) {
+								return Boolean.valueOf(proxy == args[0]);
+							} else if ("hashCode".equals(name)) {
+								return Integer.valueOf(System.identityHashCode(proxy));
+							}
+							try {
+								return method.invoke(connection, args);
+							} catch (InvocationTargetException e) {
+								throw e.getTargetException();
+							}
+						}
+					});
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getParentLogger()
+	 */
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * Live routing statistics.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("selection", selection);
+		statistics.put("readYourWritesMillis", Long.valueOf(readYourWritesMillis));
+		statistics.put("writes", Long.valueOf(writeCount.get()));
+		statistics.put("primaryReads", Long.valueOf(primaryReadCount.get()));
+		statistics.put("stickyReads", Long.valueOf(stickyReadCount.get()));
+		statistics.put("stickyWriters", Integer.valueOf(lastWriteNanos.size()));
+		statistics.put("failovers", Long.valueOf(failoverCount.get()));
+
+		final List<Map<String, Object>> replicaStatistics = new ArrayList<Map<String, Object>>();
+		for (Replica replica : replicas) {
+			final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+			entry.put("replica", Integer.valueOf(replica.index));
+			entry.put("open", Integer.valueOf(replica.open.get()));
+			entry.put("reads", Long.valueOf(replica.reads.get()));
+			replicaStatistics.add(entry);
+		}
+		statistics.put("replicas", replicaStatistics);
+		return statistics;
+	}
+
+	public DataSource getPrimaryDataSource() {
+		return primaryDataSource;
+	}
+
+	public void setPrimaryDataSource(DataSource primaryDataSource) {
+		this.primaryDataSource = primaryDataSource;
+	}
+
+	public void setReplicaDataSources(List<DataSource> replicaDataSources) {
+		final List<Replica> list = new ArrayList<Replica>();
+		for (DataSource dataSource : replicaDataSources) {
+			list.add(new Replica(list.size(), dataSource));
+		}
+		this.replicas = list;
+	}
+
+	public String getSelection() {
+		return selection;
+	}
+
+	public void setSelection(String selection) {
+		if (!SELECTION_ROUND_ROBIN.equals(selection) && !SELECTION_LEAST_LOADED.equals(selection)) {
+			throw new IllegalArgumentException("Unknown replica selection: " + selection);
+		}
+		this.selection = selection;
+	}
+
+	public long getReadYourWritesMillis() {
+		return readYourWritesMillis;
+	}
+
+	public void setReadYourWritesMillis(long readYourWritesMillis) {
+		this.readYourWritesMillis = readYourWritesMillis;
+	}
+
+}
@@ -0,0 +1,315 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StatementCachingDataSource -
+ * A DBCP {@link BasicDataSource} that keeps an LRU cache of prepared
+ * statements on every physical connection, so repeated queries
+ * (findByPk, named queries, countAll, inserts) are prepared once per
+ * connection instead of once per call.
+ *
+ * Closing a cached statement hands it back to its connection's cache; it is
+ * really closed when it is evicted or when the physical connection is
+ * destroyed by the pool. A statement whose settings were changed
+ * (max rows, fetch size, timeout, ...) is closed instead of being cached so
+ * the next caller never inherits them. A statement that is already checked
+ * out is never handed out twice; a second prepare of the same SQL gets a new
+ * statement.
+ *
+ * This replaces DBCP's <code>poolPreparedStatements</code>, which has no LRU
+ * eviction and reports no hit rate.
+ */
+public class StatementCachingDataSource extends BasicDataSource {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(StatementCachingDataSource.class);
+
+	/**
+	 * Statement methods that change state a later user of the statement would inherit
+	 */
+	private static final List<String> STATEFUL_SETTERS = Arrays.asList("setMaxRows", "setMaxFieldSize",
+			"setFetchSize", "setFetchDirection", "setQueryTimeout", "setEscapeProcessing", "setCursorName",
+			"setPoolable");
+
+	private boolean statementCacheEnabled = true;
+	/**
+	 * Maximum number of cached statements per connection
+	 */
+	private int statementCacheSize = 50;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong discardCount = new AtomicLong();
+	private final AtomicInteger cachedStatements = new AtomicInteger();
+
+	/* (non-Javadoc)
+	 * @see org.apache.commons.dbcp.BasicDataSource#createConnectionFactory()
+	 */
+	@Override
+	protected ConnectionFactory createConnectionFactory() throws SQLException {
+		final ConnectionFactory driverConnectionFactory = super.createConnectionFactory();
+		if (!statementCacheEnabled || statementCacheSize <= 0) {
+			return driverConnectionFactory;
+		}
+
+		LOG.info("createConnectionFactory() > Caching up to {} prepared statements per connection", statementCacheSize);
+
+		return new ConnectionFactory() {
+			@Override
+			public Connection createConnection() throws SQLException {
+				final Connection connection = driverConnectionFactory.createConnection();
+				if (connection == null) {
+					return null;
+				}
+				final CachingConnectionHandler handler = new CachingConnectionHandler(connection);
+				handler.proxy = (Connection) Proxy.newProxyInstance(StatementCachingDataSource.class.getClassLoader(),
+						new Class<?>[] { Connection.class }, handler);
+				return handler.proxy;
+			}
+		};
+	}
+
+	/**
+	 * Intercepts prepareStatement and close of a physical connection.
+	 */
+	private class CachingConnectionHandler implements InvocationHandler {
+
+		private final Connection target;
+		private final LinkedHashMap<String, PreparedStatement> cache;
+		private Connection proxy;
+		private boolean closed;
+
+		CachingConnectionHandler(final Connection target) {
+			this.target = target;
+			this.cache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+					if (size() <= statementCacheSize) {
+						return false;
+					}
+					evictionCount.incrementAndGet();
+					cachedStatements.decrementAndGet();
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+
+			if ("prepareStatement".equals(name)) {
+				return prepare(method, args);
+			}
+			if ("close".equals(name)) {
+				closeAll();
+			} else if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		private synchronized Object prepare(final Method method, final Object[] args) throws Throwable {
+			final String key = keyOf(method, args);
+
+			PreparedStatement statement = cache.remove(key);
+			if (statement != null) {
+				cachedStatements.decrementAndGet();
+				hitCount.incrementAndGet();
+			} else {
+				missCount.incrementAndGet();
+				try {
+					statement = (PreparedStatement) method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+
+			return Proxy.newProxyInstance(StatementCachingDataSource.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new CachedStatementHandler(this, key, statement));
+		}
+
+		/**
+		 * Takes back a statement closed by its user.
+		 */
+		synchronized void checkIn(final String key, final PreparedStatement statement, final boolean reusable) {
+			if (closed || !reusable || cache.containsKey(key)) {
+				if (!reusable) {
+					discardCount.incrementAndGet();
+				}
+				closeQuietly(statement);
+				return;
+			}
+			try {
+				statement.clearParameters();
+				statement.clearWarnings();
+			} catch (SQLException e) {
+				discardCount.incrementAndGet();
+				closeQuietly(statement);
+				return;
+			}
+			cache.put(key, statement);
+			cachedStatements.incrementAndGet();
+		}
+
+		private synchronized void closeAll() {
+			closed = true;
+			for (Iterator<PreparedStatement> it = cache.values().iterator(); it.hasNext();) {
+				closeQuietly(it.next());
+				cachedStatements.decrementAndGet();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Hands a statement back to its connection's cache instead of closing it.
+	 */
+	private static class CachedStatementHandler implements InvocationHandler {
+
+		private final CachingConnectionHandler owner;
+		private final String key;
+		private final PreparedStatement target;
+		private boolean closed;
+		private boolean reusable = true;
+
+		CachedStatementHandler(final CachingConnectionHandler owner, final String key, final PreparedStatement target) {
+			this.owner = owner;
+			this.key = key;
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					owner.checkIn(key, target, reusable);
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return Boolean.valueOf(closed || target.isClosed());
+			}
+			if ("getConnection".equals(name)) {
+				return owner.proxy;
+			}
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if (closed) {
+				throw new SQLException("Statement is closed");
+			}
+			if (STATEFUL_SETTERS.contains(name)) {
+				reusable = false;
+			}
+
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+
+	/**
+	 * Builds the cache key from the SQL and the prepareStatement variant and arguments.
+	 */
+	private static String keyOf(final Method method, final Object[] args) {
+		final StringBuilder key = new StringBuilder((String) args[0]);
+		for (int i = 1; i < args.length; i++) {
+			key.append('\u0000');
+			final Object arg = args[i];
+			if (arg instanceof int[]) {
+				key.append(Arrays.toString((int[]) arg));
+			} else if (arg instanceof Object[]) {
+				key.append(Arrays.toString((Object[]) arg));
+			} else {
+				key.append(arg);
+			}
+		}
+		key.append('\u0000').append(method.getParameterTypes().length);
+		return key.toString();
+	}
+
+	private static void closeQuietly(final PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			LOG.debug("closeQuietly() > Failed to close statement", e);
+		}
+	}
+
+	/**
+	 * Live statistics of the statement caches.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatementCacheStatistics() {
+		final long hits = hitCount.get();
+		final long misses = missCount.get();
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(statementCacheEnabled));
+		statistics.put("cacheSizePerConnection", Integer.valueOf(statementCacheSize));
+		statistics.put("cachedStatements", Integer.valueOf(cachedStatements.get()));
+		statistics.put("hits", Long.valueOf(hits));
+		statistics.put("misses", Long.valueOf(misses));
+		statistics.put("hitRate", Double.valueOf(hits + misses == 0 ? 0d : (double) hits / (hits + misses)));
+		statistics.put("evictions", Long.valueOf(evictionCount.get()));
+		statistics.put("discarded", Long.valueOf(discardCount.get()));
+		return statistics;
+	}
+
+	public boolean isStatementCacheEnabled() {
+		return statementCacheEnabled;
+	}
+
+	public void setStatementCacheEnabled(boolean statementCacheEnabled) {
+		this.statementCacheEnabled = statementCacheEnabled;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+}
@@ -0,0 +1,243 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StatementCounter -
+ * Counts the statements executed on the current thread between
+ * {@link #begin(String)} and {@link #end()}, usually the handling of one
+ * request, and flags N+1 patterns: a statement shape executed
+ * <code>threshold</code> times or more in one scope, typically one select per
+ * row of a list for an association the list query did not fetch.
+ * <p>
+ * Statements are recorded by a {@link ProfilingDataSource}, by shape, so the
+ * same select with different ids counts as repeated. Scopes nest, the
+ * outermost one counts. Suspects are logged once per scope and aggregated by
+ * scope name and shape, at most <code>maxSuspects</code> of them.
+ */
+public class StatementCounter {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(StatementCounter.class);
+
+	private boolean enabled = true;
+
+	private int threshold = 10;
+
+	private int maxSuspects = 100;
+
+	private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+
+	private final ConcurrentMap<String, Suspect> suspects = new ConcurrentHashMap<String, Suspect>();
+
+	private final AtomicLong scopeCount = new AtomicLong();
+	private final AtomicLong statementCount = new AtomicLong();
+	private final AtomicLong maxStatementsPerScope = new AtomicLong();
+	private final AtomicLong suspectedScopeCount = new AtomicLong();
+
+	/**
+	 * Starts counting the statements of the current thread, or enters the
+	 * scope already open on it.
+	 *
+	 * @param name
+	 *          what the scope covers, a method or a request
+	 */
+	public void begin(final String name) {
+		if (!enabled) {
+			return;
+		}
+		final Scope scope = scopes.get();
+		if (scope != null) {
+			scope.depth++;
+		} else {
+			scopes.set(new Scope(name));
+		}
+	}
+
+	/**
+	 * Counts a statement executed on the current thread, if a scope is open.
+	 *
+	 * @param shape
+	 *          the normalized statement
+	 */
+	public void record(final String shape) {
+		final Scope scope = scopes.get();
+		if (scope == null) {
+			return;
+		}
+		scope.statements++;
+		final int[] count = scope.counts.get(shape);
+		if (count == null) {
+			scope.counts.put(shape, new int[] { 1 });
+		} else {
+			count[0]++;
+		}
+	}
+
+	/**
+	 * Leaves the current scope; the outermost one is closed and checked for
+	 * repeated statements.
+	 *
+	 * @return the statements executed in the scope so far, 0 if none is open
+	 */
+	public int end() {
+		final Scope scope = scopes.get();
+		if (scope == null) {
+			return 0;
+		}
+		if (scope.depth > 0) {
+			scope.depth--;
+			return scope.statements;
+		}
+		scopes.remove();
+
+		scopeCount.incrementAndGet();
+		statementCount.addAndGet(scope.statements);
+		long max = maxStatementsPerScope.get();
+		while (scope.statements > max && !maxStatementsPerScope.compareAndSet(max, scope.statements)) {
+			max = maxStatementsPerScope.get();
+		}
+
+		boolean suspected = false;
+		for (Map.Entry<String, int[]> entry : scope.counts.entrySet()) {
+			final int executions = entry.getValue()[0];
+			if (executions >= threshold) {
+				suspected = true;
+				suspect(scope.name, entry.getKey(), executions);
+				LOG.warn("end() > N+1 suspected in {}: {} executions of {}", new Object[] { scope.name,
+						Integer.valueOf(executions), entry.getKey() });
+			}
+		}
+		if (suspected) {
+			suspectedScopeCount.incrementAndGet();
+		}
+		return scope.statements;
+	}
+
+	private void suspect(final String name, final String shape, final int executions) {
+		final String key = name + '\n' + shape;
+		Suspect suspect = suspects.get(key);
+		if (suspect == null) {
+			if (suspects.size() >= maxSuspects) {
+				return;
+			}
+			final Suspect created = new Suspect(name, shape);
+			suspect = suspects.putIfAbsent(key, created);
+			if (suspect == null) {
+				suspect = created;
+			}
+		}
+		suspect.occurrences.incrementAndGet();
+		long max = suspect.maxExecutions.get();
+		while (executions > max && !suspect.maxExecutions.compareAndSet(max, executions)) {
+			max = suspect.maxExecutions.get();
+		}
+	}
+
+	/**
+	 * Live statistics of the scopes, the most frequent suspects first.
+	 *
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final List<Suspect> ordered = new ArrayList<Suspect>(suspects.values());
+		Collections.sort(ordered, new Comparator<Suspect>() {
+			@Override
+			public int compare(final Suspect first, final Suspect second) {
+				final long difference = second.occurrences.get() - first.occurrences.get();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+		final List<Map<String, Object>> suspectStatistics = new ArrayList<Map<String, Object>>();
+		for (Suspect suspect : ordered) {
+			final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			statistics.put("scope", suspect.name);
+			statistics.put("sql", suspect.shape);
+			statistics.put("occurrences", Long.valueOf(suspect.occurrences.get()));
+			statistics.put("maxExecutions", Long.valueOf(suspect.maxExecutions.get()));
+			suspectStatistics.add(statistics);
+		}
+
+		final long scopes = scopeCount.get();
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("threshold", Integer.valueOf(threshold));
+		statistics.put("scopes", Long.valueOf(scopes));
+		statistics.put("statements", Long.valueOf(statementCount.get()));
+		statistics.put("meanStatementsPerScope", Double.valueOf(scopes == 0 ? 0 : (double) statementCount.get() / scopes));
+		statistics.put("maxStatementsPerScope", Long.valueOf(maxStatementsPerScope.get()));
+		statistics.put("suspectedScopes", Long.valueOf(suspectedScopeCount.get()));
+		statistics.put("suspects", suspectStatistics);
+		return statistics;
+	}
+
+	/**
+	 * Statements of one thread
+	 */
+	private static final class Scope {
+
+		private final String name;
+		private final Map<String, int[]> counts = new HashMap<String, int[]>();
+		private int statements;
+		private int depth;
+
+		Scope(final String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Repeated statement of a scope
+	 */
+	private static final class Suspect {
+
+		private final String name;
+		private final String shape;
+		private final AtomicLong occurrences = new AtomicLong();
+		private final AtomicLong maxExecutions = new AtomicLong();
+
+		Suspect(final String name, final String shape) {
+			this.name = name;
+			this.shape = shape;
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public int getMaxSuspects() {
+		return maxSuspects;
+	}
+
+	public void setMaxSuspects(int maxSuspects) {
+		this.maxSuspects = maxSuspects;
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+
+/**
+ * StatementCountingAspect -
+ * Opens a {@link StatementCounter} scope around the calls of methods and
+ * classes annotated with {@link CountStatements}, named after the class and
+ * method called.
+ * <p>
+ * Ordered before the transaction advice, so the statements flushed on commit
+ * count towards the call.
+ */
+@Aspect
+public class StatementCountingAspect implements Ordered {
+
+	private StatementCounter statementCounter;
+
+	private int order = 0;
+
+	/**
+	 * Counts the statements of the call.
+	 *
+	 * @param joinPoint
+	 *          the call
+	 * @return the result
+	 * @throws Throwable
+	 *           thrown by the method
+	 */
+	@Around("@within(com.ticketmaster.example.commons.persistence.datasource.CountStatements)"
+			+ " || @annotation(com.ticketmaster.example.commons.persistence.datasource.CountStatements)")
+	public Object count(final ProceedingJoinPoint joinPoint) throws Throwable {
+		final String type = joinPoint.getSignature().getDeclaringTypeName();
+		statementCounter.begin(type.substring(type.lastIndexOf('.') + 1) + "." + joinPoint.getSignature().getName());
+		try {
+			return joinPoint.proceed();
+		} finally {
+			statementCounter.end();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.core.Ordered#getOrder()
+	 */
+	@Override
+	public int getOrder() {
+		return order;
+	}
+
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	public StatementCounter getStatementCounter() {
+		return statementCounter;
+	}
+
+	public void setStatementCounter(StatementCounter statementCounter) {
+		this.statementCounter = statementCounter;
+	}
+
+}
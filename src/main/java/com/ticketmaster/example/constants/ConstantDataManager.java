@@ -8,7 +8,10 @@ public class ConstantDataManager {
     
     public static final String OP_CREATE = "create";
     public static final String OP_UPDATE = "update";
+    public static final String OP_UPSERT = "upsert";
 
     public static final String ERR_MEMBER = " member";
+
+    public static final String CACHE_GROUP_MEMBER = "member";
  
 }
@@ -0,0 +1,22 @@
+package com.ticketmaster.example.dao;
+
+/**
+ * FetchPlan -
+ * How a list of members loads their addresses. Either way a page costs a
+ * constant number of statements instead of one select per member.
+ */
+public enum FetchPlan {
+
+    /**
+     * Joins the addresses into the select of the members, one statement.
+     */
+    JOIN,
+
+    /**
+     * Selects the members, then the addresses not found in the second level
+     * cache by batches of ids, one statement per batch. Cheaper than a join
+     * when most addresses are cached.
+     */
+    BATCH
+
+}
@@ -0,0 +1,63 @@
+package com.ticketmaster.example.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ticketmaster.example.web.model.MemberChange;
+
+/**
+ * MemberChangeOrder -
+ * The order in which {@link MemberDao#getMemberChangesSince} pages changes:
+ * by timestamp, then member id. Each list merged is already in this order
+ * and holds the first changes of its source, so the first <i>limit</i>
+ * changes of the merge are the first <i>limit</i> changes of all sources.
+ */
+public final class MemberChangeOrder {
+
+	public static final Comparator<MemberChange> COMPARATOR = new Comparator<MemberChange>() {
+		@Override
+		public int compare(final MemberChange one, final MemberChange other) {
+			final long time = one.getTimestamp().getTime();
+			final long otherTime = other.getTimestamp().getTime();
+			if (time != otherTime) {
+				return time < otherTime ? -1 : 1;
+			}
+			return one.getMemberId().compareTo(other.getMemberId());
+		}
+	};
+
+	private MemberChangeOrder() {
+	}
+
+	/**
+	 * @param lists
+	 *          changes of each source, in order
+	 * @param limit
+	 *          maximum number of changes to return
+	 * @return the first changes of all lists, in order; a member changed in
+	 *         several sources at the same time is returned once
+	 */
+	public static List<MemberChange> merge(final Collection<List<MemberChange>> lists, final int limit) {
+		final List<MemberChange> all = new ArrayList<MemberChange>();
+		for (List<MemberChange> list : lists) {
+			all.addAll(list);
+		}
+		Collections.sort(all, COMPARATOR);
+
+		final List<MemberChange> merged = new ArrayList<MemberChange>(Math.min(all.size(), limit));
+		for (MemberChange change : all) {
+			if (merged.size() == limit) {
+				break;
+			}
+			if (!merged.isEmpty() && COMPARATOR.compare(merged.get(merged.size() - 1), change) == 0) {
+				continue;
+			}
+			merged.add(change);
+		}
+		return merged;
+	}
+
+}
@@ -1,6 +1,13 @@
 package com.ticketmaster.example.dao;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
 
 /**
  * MemberDao -
@@ -37,6 +44,18 @@ public interface MemberDao {
      */
     MemberEntity updateMember(MemberEntity member);
 
+    /**
+     * upsertMembersByEmail -
+     * Creates the members whose email is not known yet and updates the others,
+     * with their addresses, in a few batched statements instead of a lookup
+     * and a write per member. Sets the ids, versions and timestamps of the
+     * members and their addresses.
+     *
+     * @param members - members with distinct, non-null emails and an opt-out flag.
+     * @return - ids of the members that were created, the others were updated.
+     */
+    List<Long> upsertMembersByEmail(List<MemberEntity> members);
+
     /**
      * getMemberByFirstOrLast
      * Looks up a member by its first or last name
@@ -65,6 +84,24 @@ public interface MemberDao {
      * @return - Member associated with the given email address.
      */
     MemberEntity getMemberByEmail(String email);
+
+    /**
+     * getMemberIdsByEmails -
+     * Looks up the ids of the members holding some emails, in one query.
+     *
+     * @param emails - emails to look up.
+     * @return - ids of the members found, by email; emails no member holds are left out.
+     */
+    Map<String, Long> getMemberIdsByEmails(Collection<String> emails);
+
+    /**
+     * getMemberVersion -
+     * Looks up the persistence version of a member without loading it.
+     *
+     * @param id - the unique identifier for the Member
+     * @return - version of the member, null if there is no such member.
+     */
+    Integer getMemberVersion(long id);
     
     /**
      * getMemberCount -
@@ -74,4 +111,117 @@ public interface MemberDao {
      */
     Number getMemberCount();
 
+    /**
+     * getMembers -
+     * Lists members ordered by id.
+     *
+     * @param offset - number of members to skip.
+     * @param limit - maximum number of members to return, 0 for all.
+     * @return - page of members.
+     */
+    List<MemberEntity> getMembers(int offset, int limit);
+
+    /**
+     * getMembers -
+     * Lists members ordered by id, with their addresses.
+     *
+     * @param offset - number of members to skip.
+     * @param limit - maximum number of members to return, 0 for all.
+     * @param fetchPlan - how the addresses are loaded.
+     * @return - page of members.
+     */
+    List<MemberEntity> getMembers(int offset, int limit, FetchPlan fetchPlan);
+
+    /**
+     * getMembersByFirstOrLast -
+     * Lists the members matching a first or last name pattern ordered by id,
+     * with their addresses.
+     *
+     * @param first - LIKE pattern of the first name.
+     * @param last - LIKE pattern of the last name.
+     * @param offset - number of members to skip.
+     * @param limit - maximum number of members to return, 0 for all.
+     * @param fetchPlan - how the addresses are loaded.
+     * @return - page of members.
+     */
+    List<MemberEntity> getMembersByFirstOrLast(String first, String last, int offset, int limit, FetchPlan fetchPlan);
+
+    /**
+     * getMemberViews -
+     * Lists members ordered by id, projected from their columns and those of
+     * their address straight into the web model; no entity is loaded.
+     *
+     * @param offset - number of members to skip.
+     * @param limit - maximum number of members to return, 0 for all.
+     * @return - page of members.
+     */
+    List<Member> getMemberViews(int offset, int limit);
+
+    /**
+     * getMemberViewsByFirstOrLast -
+     * Lists the members matching a first or last name pattern ordered by id,
+     * projected straight into the web model; no entity is loaded.
+     *
+     * @param first - LIKE pattern of the first name.
+     * @param last - LIKE pattern of the last name.
+     * @param offset - number of members to skip.
+     * @param limit - maximum number of members to return, 0 for all.
+     * @return - page of members.
+     */
+    List<Member> getMemberViewsByFirstOrLast(String first, String last, int offset, int limit);
+
+    /**
+     * getMembersByIds -
+     * Loads the members with the given ids, with their addresses, in one query.
+     *
+     * @param ids - ids of the members, missing ones are skipped.
+     * @return - the members found, in no particular order.
+     */
+    List<MemberEntity> getMembersByIds(Collection<Long> ids);
+
+    /**
+     * getRecentlyUpdatedMemberIds -
+     * Lists the ids of the most recently updated members.
+     *
+     * @param limit - maximum number of ids to return.
+     * @return - ids, most recently updated first.
+     */
+    List<Long> getRecentlyUpdatedMemberIds(int limit);
+
+    /**
+     * getMemberIdsByNativeQuery -
+     * Runs a native query selecting member ids in its first column.
+     *
+     * @param sql - the query, without parameters.
+     * @param limit - maximum number of ids to return, 0 for all.
+     * @return - ids in the order of the query.
+     */
+    List<Long> getMemberIdsByNativeQuery(String sql, int limit);
+
+    /**
+     * getMemberIds -
+     * Lists member ids in ascending order, one page after another.
+     *
+     * @param afterId - the last id of the previous page, 0 for the first page.
+     * @param limit - maximum number of ids to return.
+     * @return - ids greater than afterId, ascending.
+     */
+    List<Long> getMemberIds(long afterId, int limit);
+
+    /**
+     * getMemberChangesSince -
+     * Lists the members whose row or address row was last written after a
+     * watermark, ordered by the time of the write then member id, so a page
+     * starts right after the last change of the previous one. Deleted
+     * members leave no row and are not listed.
+     *
+     * @param since - time of the last change of the previous page.
+     * @param afterId - member id of the last change of the previous page, 0 for the first page.
+     * @param until - changes written at or after this time are left for a later page.
+     * @param limit - maximum number of changes to return.
+     * @return - changes without offset, CREATED if the member was created by the write.
+     * @see MemberChangeOrder
+     */
+    List<MemberChange> getMemberChangesSince(Date since, long afterId, Date until, int limit);
+
 }
\ No newline at end of file
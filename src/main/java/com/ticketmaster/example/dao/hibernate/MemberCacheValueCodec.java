@@ -0,0 +1,392 @@
+package com.ticketmaster.example.dao.hibernate;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.hibernate.cache.entry.CacheEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.commons.cache.CacheValueCodec;
+import com.ticketmaster.example.commons.cache.SerializationCacheValueCodec;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * MemberCacheValueCodec -
+ * Binary codec for the second-level cache entries of {@link MemberEntity}
+ * and {@link AddressEntity}: the read-write strategy's item wrapping
+ * Hibernate's disassembled entity state.
+ *
+ * Layout: format byte, item timestamp and version, entity code (the two
+ * entities take one byte, others their name), lazy flag, entity version, then
+ * the property count, a null bitmap and each non-null property as a type tag
+ * followed by its value. Integers and longs are zigzag varints, timestamps
+ * epoch millis (plus sub-millisecond nanos), strings length-prefixed UTF-8 and
+ * booleans live in the tag alone.
+ *
+ * Anything else (soft locks, collection entries, unknown property types) is
+ * written with Java serialization behind a marker byte, so the codec accepts
+ * every value a region may hold.
+ */
+public class MemberCacheValueCodec implements CacheValueCodec {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberCacheValueCodec.class);
+
+	/**
+	 * Cached value of the read-write access strategy, not visible outside its package
+	 */
+	private static final String ITEM_CLASS = "net.sf.ehcache.hibernate.strategy.AbstractReadWriteEhcacheAccessStrategy$Item";
+
+	private static final byte FORMAT_SERIALIZED = 0;
+	private static final byte FORMAT_ITEM = 1;
+
+	private static final String[] ENTITY_NAMES = { MemberEntity.class.getName(), AddressEntity.class.getName() };
+
+	private static final byte TAG_STRING = 1;
+	private static final byte TAG_LONG = 2;
+	private static final byte TAG_INTEGER = 3;
+	private static final byte TAG_TRUE = 4;
+	private static final byte TAG_FALSE = 5;
+	private static final byte TAG_TIMESTAMP = 6;
+	private static final byte TAG_DATE = 7;
+	private static final byte TAG_SHORT = 8;
+
+	private static final Constructor<?> ITEM_CONSTRUCTOR;
+	private static final Field ITEM_VALUE;
+	private static final Field ITEM_VERSION;
+	private static final Field ITEM_TIMESTAMP;
+	private static final Constructor<CacheEntry> ENTRY_CONSTRUCTOR;
+
+	static {
+		Constructor<?> itemConstructor = null;
+		Field itemValue = null;
+		Field itemVersion = null;
+		Field itemTimestamp = null;
+		Constructor<CacheEntry> entryConstructor = null;
+		try {
+			final Class<?> itemClass = Class.forName(ITEM_CLASS);
+			itemConstructor = itemClass.getDeclaredConstructor(Object.class, Object.class, long.class);
+			itemValue = itemClass.getDeclaredField("value");
+			itemVersion = itemClass.getDeclaredField("version");
+			itemTimestamp = itemClass.getDeclaredField("timestamp");
+			entryConstructor = CacheEntry.class.getDeclaredConstructor(Serializable[].class, String.class, boolean.class,
+					Object.class);
+			itemConstructor.setAccessible(true);
+			itemValue.setAccessible(true);
+			itemVersion.setAccessible(true);
+			itemTimestamp.setAccessible(true);
+			entryConstructor.setAccessible(true);
+		} catch (Exception e) {
+			LOG.warn("MemberCacheValueCodec > Cache entry layout not recognized, using Java serialization: {}", e.toString());
+			itemConstructor = null;
+		}
+		ITEM_CONSTRUCTOR = itemConstructor;
+		ITEM_VALUE = itemValue;
+		ITEM_VERSION = itemVersion;
+		ITEM_TIMESTAMP = itemTimestamp;
+		ENTRY_CONSTRUCTOR = entryConstructor;
+	}
+
+	private final SerializationCacheValueCodec fallback = new SerializationCacheValueCodec();
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.CacheValueCodec#encode(java.lang.Object)
+	 */
+	@Override
+	public byte[] encode(final Object value) {
+		if (ITEM_CONSTRUCTOR != null && value != null && value.getClass() == ITEM_CONSTRUCTOR.getDeclaringClass()) {
+			try {
+				final Object entry = ITEM_VALUE.get(value);
+				if (entry instanceof CacheEntry) {
+					final Output out = new Output(128);
+					out.writeByte(FORMAT_ITEM);
+					out.writeVarLong(ITEM_TIMESTAMP.getLong(value));
+					writeValue(out, ITEM_VERSION.get(value));
+					writeEntry(out, (CacheEntry) entry);
+					return out.toByteArray();
+				}
+			} catch (UnsupportedTypeException e) {
+				LOG.debug("encode() > {}, using Java serialization", e.getMessage());
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		final byte[] serialized = fallback.encode(value);
+		if (serialized == null) {
+			return null;
+		}
+		final byte[] bytes = new byte[serialized.length + 1];
+		bytes[0] = FORMAT_SERIALIZED;
+		System.arraycopy(serialized, 0, bytes, 1, serialized.length);
+		return bytes;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.CacheValueCodec#decode(byte[])
+	 */
+	@Override
+	public Object decode(final byte[] bytes) {
+		if (bytes[0] == FORMAT_SERIALIZED) {
+			return fallback.decode(Arrays.copyOfRange(bytes, 1, bytes.length));
+		}
+		if (bytes[0] != FORMAT_ITEM || ITEM_CONSTRUCTOR == null) {
+			throw new IllegalStateException("Unknown cache value format " + bytes[0]);
+		}
+
+		final Input in = new Input(bytes, 1);
+		final long timestamp = in.readVarLong();
+		final Object version = readValue(in);
+		final CacheEntry entry = readEntry(in);
+		try {
+			return ITEM_CONSTRUCTOR.newInstance(entry, version, Long.valueOf(timestamp));
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create cache item", e);
+		}
+	}
+
+	private static void writeEntry(final Output out, final CacheEntry entry) {
+		final int code = Arrays.asList(ENTITY_NAMES).indexOf(entry.getSubclass()) + 1;
+		out.writeVarInt(code);
+		if (code == 0) {
+			out.writeString(entry.getSubclass());
+		}
+		out.writeByte(entry.areLazyPropertiesUnfetched() ? 1 : 0);
+		writeValue(out, entry.getVersion());
+
+		final Serializable[] state = entry.getDisassembledState();
+		out.writeVarInt(state.length);
+		final byte[] nulls = new byte[(state.length + 7) / 8];
+		for (int i = 0; i < state.length; i++) {
+			if (state[i] == null) {
+				nulls[i >> 3] |= 1 << (i & 7);
+			}
+		}
+		out.writeBytes(nulls);
+		for (Serializable property : state) {
+			if (property != null) {
+				writeValue(out, property);
+			}
+		}
+	}
+
+	private static CacheEntry readEntry(final Input in) {
+		final int code = in.readVarInt();
+		final String subclass = code == 0 ? in.readString() : ENTITY_NAMES[code - 1];
+		final boolean lazyPropertiesAreUnfetched = in.readByte() != 0;
+		final Object version = readValue(in);
+
+		final Serializable[] state = new Serializable[in.readVarInt()];
+		final byte[] nulls = in.readBytes((state.length + 7) / 8);
+		for (int i = 0; i < state.length; i++) {
+			if ((nulls[i >> 3] & (1 << (i & 7))) == 0) {
+				state[i] = (Serializable) readValue(in);
+			}
+		}
+		try {
+			return ENTRY_CONSTRUCTOR.newInstance(state, subclass, Boolean.valueOf(lazyPropertiesAreUnfetched), version);
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create cache entry", e);
+		}
+	}
+
+	/**
+	 * Writes a nullable value; a null is the tag 0.
+	 */
+	private static void writeValue(final Output out, final Object value) {
+		if (value == null) {
+			out.writeByte(0);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			out.writeString((String) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			out.writeVarLong(zigzag(((Long) value).longValue()));
+		} else if (value instanceof Integer) {
+			out.writeByte(TAG_INTEGER);
+			out.writeVarLong(zigzag(((Integer) value).longValue()));
+		} else if (value instanceof Short) {
+			out.writeByte(TAG_SHORT);
+			out.writeVarLong(zigzag(((Short) value).longValue()));
+		} else if (value instanceof Boolean) {
+			out.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+		} else if (value.getClass() == Timestamp.class) {
+			final Timestamp timestamp = (Timestamp) value;
+			out.writeByte(TAG_TIMESTAMP);
+			out.writeVarLong(zigzag(timestamp.getTime()));
+			out.writeVarInt(timestamp.getNanos() % 1000000);
+		} else if (value.getClass() == Date.class) {
+			out.writeByte(TAG_DATE);
+			out.writeVarLong(zigzag(((Date) value).getTime()));
+		} else {
+			throw new UnsupportedTypeException(value.getClass());
+		}
+	}
+
+	private static Object readValue(final Input in) {
+		final byte tag = in.readByte();
+		switch (tag) {
+		case 0:
+			return null;
+		case TAG_STRING:
+			return in.readString();
+		case TAG_LONG:
+			return Long.valueOf(unzigzag(in.readVarLong()));
+		case TAG_INTEGER:
+			return Integer.valueOf((int) unzigzag(in.readVarLong()));
+		case TAG_SHORT:
+			return Short.valueOf((short) unzigzag(in.readVarLong()));
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_TIMESTAMP:
+			final Timestamp timestamp = new Timestamp(unzigzag(in.readVarLong()));
+			timestamp.setNanos(timestamp.getNanos() + in.readVarInt());
+			return timestamp;
+		case TAG_DATE:
+			return new Date(unzigzag(in.readVarLong()));
+		default:
+			throw new IllegalStateException("Unknown value tag " + tag);
+		}
+	}
+
+	private static long zigzag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * A property type the compact format does not cover.
+	 */
+	private static class UnsupportedTypeException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedTypeException(final Class<?> type) {
+			super("No compact encoding for " + type.getName());
+		}
+	}
+
+	/**
+	 * Growable byte array writer.
+	 */
+	private static final class Output {
+
+		private byte[] buffer;
+		private int length;
+
+		Output(final int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		private void ensure(final int extra) {
+			if (length + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+			}
+		}
+
+		void writeByte(final int value) {
+			ensure(1);
+			buffer[length++] = (byte) value;
+		}
+
+		void writeBytes(final byte[] bytes) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length += bytes.length;
+		}
+
+		void writeVarInt(final int value) {
+			writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		void writeVarLong(final long value) {
+			ensure(10);
+			long remaining = value;
+			while ((remaining & ~0x7FL) != 0) {
+				buffer[length++] = (byte) ((remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+			buffer[length++] = (byte) remaining;
+		}
+
+		void writeString(final String value) {
+			try {
+				final byte[] utf8 = value.getBytes("UTF-8");
+				writeVarInt(utf8.length);
+				writeBytes(utf8);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, length);
+		}
+	}
+
+	/**
+	 * Byte array reader.
+	 */
+	private static final class Input {
+
+		private final byte[] buffer;
+		private int position;
+
+		Input(final byte[] buffer, final int position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		byte readByte() {
+			return buffer[position++];
+		}
+
+		byte[] readBytes(final int count) {
+			final byte[] bytes = Arrays.copyOfRange(buffer, position, position + count);
+			position += count;
+			return bytes;
+		}
+
+		int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer[position++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+
+		String readString() {
+			final int count = readVarInt();
+			try {
+				final String value = new String(buffer, position, count, "UTF-8");
+				position += count;
+				return value;
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
@@ -1,8 +1,47 @@
 package com.ticketmaster.example.dao.hibernate;
 
+import static com.ticketmaster.example.constants.ConstantDataManager.CACHE_GROUP_MEMBER;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Session;
+import org.hibernate.cache.UpdateTimestampsCache;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.PersistenceContext;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.orm.jpa.vendor.Database;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.ticketmaster.example.commons.cache.invalidation.HibernateCacheInvalidator;
+import com.ticketmaster.example.commons.cache.method.EvictCachedResults;
+import com.ticketmaster.example.dao.FetchPlan;
+import com.ticketmaster.example.dao.MemberChangeOrder;
 import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.dao.jdbc.MemberJdbcUpsert;
+import com.ticketmaster.example.model.AddressEntity;
 import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
 import com.ticketmaster.example.commons.persistence.dao.NamedQueryParameter;
+import com.ticketmaster.example.commons.persistence.dao.Projection;
+import com.ticketmaster.example.commons.persistence.dao.QueryParameter.TemporalType;
 import com.ticketmaster.example.commons.persistence.dao.hibernate.ModelBaseDaoHibernateImpl;
 
 /**
@@ -11,11 +50,78 @@ import com.ticketmaster.example.commons.persistence.dao.hibernate.ModelBaseDaoHi
  */
 public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity> implements MemberDao {
 
+	/**
+	 * Columns of a member and its address, in the order of MEMBER_VIEW
+	 */
+	private static final String SELECT_MEMBER_VIEWS = "select o.id, o.first, o.last, o.initial, o.prefix, o.suffix,"
+			+ " o.email, o.phone1, o.phone2, o.optOut, o.dateTimeCreated, o.dateTimeUpdated, a.id, a.street1,"
+			+ " a.street2, a.city, a.state, a.zip, a.dateTimeCreated, a.dateTimeUpdated"
+			+ " from MemberEntity o left join o.address a";
+
+	/**
+	 * The web model of a member, as Dozer maps it from the entity
+	 */
+	private static final Projection<Member> MEMBER_VIEW = new Projection<Member>(Member.class, "id", "first", "last",
+			"initial", "prefix", "suffix", "email", "phone1", "phone2", "optOut", "dateTimeCreated", "dateTimeUpdated",
+			"address.id", "address.street1", "address.street2", "address.city", "address.state", "address.zip",
+			"address.dateTimeCreated", "address.dateTimeUpdated");
+
+	/**
+	 * Members whose row was written after a (time, member id) watermark; the
+	 * range on the time uses ix_purchaser_updated
+	 */
+	private static final String SELECT_MEMBER_CHANGES = "select o.id, o.persistenceVersion, o.dateTimeUpdated,"
+			+ " case when o.dateTimeCreated = o.dateTimeUpdated then 'CREATED' else 'UPDATED' end"
+			+ " from MemberEntity o where o.dateTimeUpdated >= :since and o.dateTimeUpdated < :until"
+			+ " and (o.dateTimeUpdated > :since or o.id > :afterId) order by o.dateTimeUpdated, o.id";
+
+	/**
+	 * Members whose address row was written after a (time, member id)
+	 * watermark; the range on the time uses ix_household_updated
+	 */
+	private static final String SELECT_ADDRESS_CHANGES = "select o.id, o.persistenceVersion, a.dateTimeUpdated,"
+			+ " case when a.dateTimeCreated = a.dateTimeUpdated then 'CREATED' else 'UPDATED' end"
+			+ " from MemberEntity o join o.address a where a.dateTimeUpdated >= :since and a.dateTimeUpdated < :until"
+			+ " and (a.dateTimeUpdated > :since or o.id > :afterId) order by a.dateTimeUpdated, o.id";
+
+	/**
+	 * A compact change, in the order of the columns of the change queries
+	 */
+	private static final Projection<MemberChange> MEMBER_CHANGE = new Projection<MemberChange>(MemberChange.class,
+			"memberId", "version", "timestamp", "type");
+
+	/**
+	 * Native upsert of the configured database
+	 */
+	private MemberJdbcUpsert upsert = new MemberJdbcUpsert(Database.HSQL);
+
+	public Database getDatabase() {
+		return upsert.getDatabase();
+	}
+
+	public void setDatabase(Database database) {
+		this.upsert = new MemberJdbcUpsert(database);
+	}
+
+	/**
+	 * Announces the rows of the native upsert to the peers, optional
+	 */
+	private HibernateCacheInvalidator cacheInvalidator;
+
+	public HibernateCacheInvalidator getCacheInvalidator() {
+		return cacheInvalidator;
+	}
+
+	public void setCacheInvalidator(HibernateCacheInvalidator cacheInvalidator) {
+		this.cacheInvalidator = cacheInvalidator;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
 	 * @see com.ticketmaster.example.dao.MemberDao#createMember(com.ticketmaster.example.model.Member)
 	 */
+	@EvictCachedResults(groups = CACHE_GROUP_MEMBER)
 	public void createMember(MemberEntity inMember) {
 		this.create(inMember);
 	}
@@ -25,6 +131,7 @@ public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity>
 	 *
 	 * @see com.ticketmaster.example.dao.MemberDao#deleteMember(com.ticketmaster.example.model.Member)
 	 */
+	@EvictCachedResults(groups = CACHE_GROUP_MEMBER)
 	public void deleteMember(MemberEntity member) {
 		this.delete(member);
 	}
@@ -34,6 +141,7 @@ public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity>
 	 *
 	 * @see com.ticketmaster.example.dao.MemberDao#deleteMemberById(java.lang.Long)
 	 */
+	@EvictCachedResults(groups = CACHE_GROUP_MEMBER)
 	public void deleteMemberById(Long id) {
 		deleteMember(getMemberById(id));
 	}
@@ -43,10 +151,101 @@ public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity>
 	 *
 	 * @see com.ticketmaster.example.dao.MemberDao#updateMember(com.ticketmaster.example.model.Member)
 	 */
+	@EvictCachedResults(groups = CACHE_GROUP_MEMBER)
 	public MemberEntity updateMember(MemberEntity member) {
 		return this.update(member);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#upsertMembersByEmail(java.util.List)
+	 */
+	@EvictCachedResults(groups = CACHE_GROUP_MEMBER)
+	public List<Long> upsertMembersByEmail(final List<MemberEntity> members) {
+		final EntityManager entityManager = getTransactionalEntityManager();
+		entityManager.flush();
+
+		final Session session = entityManager.unwrap(Session.class);
+		final SessionFactoryImplementor factory = (SessionFactoryImplementor) session.getSessionFactory();
+		final Serializable[] spaces = querySpaces(factory);
+		final UpdateTimestampsCache timestamps = factory.getUpdateTimestampsCache();
+		if (timestamps != null) {
+			timestamps.preinvalidate(spaces);
+		}
+
+		final List<Long> createdIds = new ArrayList<Long>();
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				createdIds.addAll(upsert.upsert(connection, members));
+			}
+		});
+
+		// the statements bypassed Hibernate, detach what this session loaded of these rows
+		final PersistenceContext context = ((SessionImplementor) session).getPersistenceContext();
+		for (MemberEntity member : members) {
+			detach(session, context, factory.getEntityPersister(MemberEntity.class.getName()), member.getId());
+			if (member.getAddress() != null) {
+				detach(session, context, factory.getEntityPersister(AddressEntity.class.getName()),
+						member.getAddress().getId());
+			}
+		}
+
+		// and evict what the second level cache holds of them, here and, once committed, on the peers
+		final Cache cache = entityManager.getEntityManagerFactory().getCache();
+		evict(cache, members);
+		if (cacheInvalidator != null) {
+			for (MemberEntity member : members) {
+				cacheInvalidator.changedWithoutHibernate(MemberEntity.class.getName(), member.getId(),
+						member.getPersistenceVersion(), false);
+				if (member.getAddress() != null) {
+					cacheInvalidator.changedWithoutHibernate(AddressEntity.class.getName(), member.getAddress().getId(),
+							member.getAddress().getPersistenceVersion(), false);
+				}
+			}
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					evict(cache, members);
+					if (timestamps != null) {
+						timestamps.invalidate(spaces);
+					}
+				}
+			});
+		} else if (timestamps != null) {
+			timestamps.invalidate(spaces);
+		}
+		return createdIds;
+	}
+
+	private static Serializable[] querySpaces(SessionFactoryImplementor factory) {
+		final Serializable[] members = factory.getEntityPersister(MemberEntity.class.getName()).getQuerySpaces();
+		final Serializable[] addresses = factory.getEntityPersister(AddressEntity.class.getName()).getQuerySpaces();
+		final Serializable[] spaces = new Serializable[members.length + addresses.length];
+		System.arraycopy(members, 0, spaces, 0, members.length);
+		System.arraycopy(addresses, 0, spaces, members.length, addresses.length);
+		return spaces;
+	}
+
+	private static void detach(Session session, PersistenceContext context, EntityPersister persister, Long id) {
+		final Object loaded = context.getEntity(new EntityKey(id, persister, EntityMode.POJO));
+		if (loaded != null) {
+			session.evict(loaded);
+		}
+	}
+
+	private static void evict(Cache cache, List<MemberEntity> members) {
+		for (MemberEntity member : members) {
+			cache.evict(MemberEntity.class, member.getId());
+			if (member.getAddress() != null) {
+				cache.evict(AddressEntity.class, member.getAddress().getId());
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -74,6 +273,37 @@ public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity>
 	    return this.findInstanceByNamedQueryNamedParameter("getMembersByEmail", new NamedQueryParameter("email", email));
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIdsByEmails(java.util.Collection)
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Long> getMemberIdsByEmails(Collection<String> emails) {
+	    final Map<String, Long> ids = new HashMap<String, Long>();
+	    if (emails.isEmpty()) {
+	        return ids;
+	    }
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            "select o.email, o.id from MemberEntity o where o.email in (:emails)");
+	    q.setParameter("emails", emails);
+	    for (Object[] row : (List<Object[]>) q.getResultList()) {
+	        ids.put((String) row[0], (Long) row[1]);
+	    }
+	    return ids;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberVersion(long)
+	 */
+	public Integer getMemberVersion(long id) {
+	    final List<Integer> versions = this.findProjection("select o.persistenceVersion from MemberEntity o where o.id = :id",
+	            Integer.class, 0, 1, new NamedQueryParameter("id", Long.valueOf(id)));
+	    return versions.isEmpty() ? null : versions.get(0);
+	}
+
 	/*
      * (non-Javadoc)
      *
@@ -82,4 +312,161 @@ public class MemberHibernateDao extends ModelBaseDaoHibernateImpl<MemberEntity>
 	public Number getMemberCount() {
 	    return this.countAll();
 	}
-}
\ No newline at end of file
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembers(int, int)
+	 */
+	public List<MemberEntity> getMembers(int offset, int limit) {
+	    return this.findAll(offset, limit, "o.id");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembers(int, int, com.ticketmaster.example.dao.FetchPlan)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<MemberEntity> getMembers(int offset, int limit, FetchPlan fetchPlan) {
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            selectMembers(fetchPlan) + " order by o.id");
+	    return page(q, offset, limit).getResultList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembersByFirstOrLast(java.lang.String, java.lang.String, int, int, com.ticketmaster.example.dao.FetchPlan)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<MemberEntity> getMembersByFirstOrLast(String first, String last, int offset, int limit,
+	        FetchPlan fetchPlan) {
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            selectMembers(fetchPlan) + " where o.first like :first or o.last like :last order by o.id");
+	    q.setParameter("first", first);
+	    q.setParameter("last", last);
+	    return page(q, offset, limit).getResultList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberViews(int, int)
+	 */
+	public List<Member> getMemberViews(int offset, int limit) {
+	    return this.findProjection(SELECT_MEMBER_VIEWS + " order by o.id", MEMBER_VIEW, offset, limit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberViewsByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	public List<Member> getMemberViewsByFirstOrLast(String first, String last, int offset, int limit) {
+	    return this.findProjection(SELECT_MEMBER_VIEWS + " where o.first like :first or o.last like :last order by o.id",
+	            MEMBER_VIEW, offset, limit, new NamedQueryParameter("first", first), new NamedQueryParameter("last", last));
+	}
+
+	/**
+	 * The select of a list of members; the addresses are either joined in, or
+	 * loaded by batches as the eager association is resolved (see the
+	 * BatchSize of AddressEntity). Not cached in the query cache, a hit would
+	 * load the members one by one.
+	 */
+	private static String selectMembers(FetchPlan fetchPlan) {
+	    return fetchPlan == FetchPlan.JOIN ? "select o from MemberEntity o left join fetch o.address"
+	            : "select o from MemberEntity o";
+	}
+
+	private static Query page(Query q, int offset, int limit) {
+	    if (offset > 0) {
+	        q.setFirstResult(offset);
+	    }
+	    if (limit > 0) {
+	        q.setMaxResults(limit);
+	    }
+	    return q;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembersByIds(java.util.Collection)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<MemberEntity> getMembersByIds(Collection<Long> ids) {
+	    if (ids.isEmpty()) {
+	        return new ArrayList<MemberEntity>();
+	    }
+	    // fetch the addresses in the same statement instead of one select each
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            "select o from MemberEntity o left join fetch o.address where o.id in (:ids)");
+	    q.setParameter("ids", ids);
+	    return q.getResultList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getRecentlyUpdatedMemberIds(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Long> getRecentlyUpdatedMemberIds(int limit) {
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            "select o.id from MemberEntity o order by o.dateTimeUpdated desc");
+	    q.setMaxResults(limit);
+	    return q.getResultList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIdsByNativeQuery(java.lang.String, int)
+	 */
+	public List<Long> getMemberIdsByNativeQuery(String sql, int limit) {
+	    final Query q = getTransactionalEntityManager().createNativeQuery(sql);
+	    if (limit > 0) {
+	        q.setMaxResults(limit);
+	    }
+	    final List<?> rows = q.getResultList();
+	    final List<Long> ids = new ArrayList<Long>(rows.size());
+	    for (Object row : rows) {
+	        final Object id = row instanceof Object[] ? ((Object[]) row)[0] : row;
+	        if (id != null) {
+	            ids.add(Long.valueOf(((Number) id).longValue()));
+	        }
+	    }
+	    return ids;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIds(long, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Long> getMemberIds(long afterId, int limit) {
+	    final Query q = getTransactionalEntityManager().createQuery(
+	            "select o.id from MemberEntity o where o.id > :afterId order by o.id");
+	    q.setParameter("afterId", Long.valueOf(afterId));
+	    q.setMaxResults(limit);
+	    return q.getResultList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberChangesSince(java.util.Date, long, java.util.Date, int)
+	 */
+	public List<MemberChange> getMemberChangesSince(Date since, long afterId, Date until, int limit) {
+	    final NamedQueryParameter[] watermark = new NamedQueryParameter[] {
+	            new NamedQueryParameter("since", since, TemporalType.TIMESTAMP),
+	            new NamedQueryParameter("until", until, TemporalType.TIMESTAMP),
+	            new NamedQueryParameter("afterId", Long.valueOf(afterId)) };
+	    final List<List<MemberChange>> changes = new ArrayList<List<MemberChange>>(2);
+	    changes.add(this.findProjection(SELECT_MEMBER_CHANGES, MEMBER_CHANGE, 0, limit, watermark));
+	    changes.add(this.findProjection(SELECT_ADDRESS_CHANGES, MEMBER_CHANGE, 0, limit, watermark));
+	    return MemberChangeOrder.merge(changes, limit);
+	}
+}
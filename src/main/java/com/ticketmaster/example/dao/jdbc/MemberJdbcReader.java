@@ -0,0 +1,188 @@
+package com.ticketmaster.example.dao.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.web.model.Address;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * MemberJdbcReader -
+ * Reads one member and its address with a single prepared join over
+ * <code>tbl_purchaser</code> and <code>tbl_household</code>, mapping the
+ * result set straight into the web model. This skips the transaction, the
+ * Hibernate session, the entity and Dozer on the hottest lookup.
+ * <p>
+ * The reader bypasses the second-level cache and runs outside a transaction,
+ * so a routing DataSource sends it to the primary. Columns are those mapped
+ * by {@link com.ticketmaster.example.model.MemberEntity} and
+ * {@link com.ticketmaster.example.model.AddressEntity}; a change to either
+ * mapping must be made here too, which the parity test checks.
+ */
+public class MemberJdbcReader {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberJdbcReader.class);
+
+	static final String SELECT_MEMBER = "SELECT p.PurchaserID, p.FirstName, p.LastName, p.Initial, p.Prefix, p.Suffix,"
+			+ " p.Email, p.Phone1, p.Phone2, p.NoEmailFlag, p.Date_Record_Added, p.Latest_Record_Update,"
+			+ " p.persistence_version, h.HouseHoldID, h.Address1, h.Address2, h.City, h.State, h.Zip,"
+			+ " h.Date_Record_Added, h.Latest_Record_Update"
+			+ " FROM tbl_purchaser p LEFT OUTER JOIN tbl_household h ON h.HouseHoldID = p.HouseHoldID"
+			+ " WHERE p.PurchaserID = ?";
+
+	private DataSource dataSource;
+
+	private boolean enabled = true;
+
+	private final AtomicLong readCount = new AtomicLong();
+	private final AtomicLong notFoundCount = new AtomicLong();
+	private final AtomicLong errorCount = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+
+	/**
+	 * @param memberId
+	 *          id of the member
+	 * @return the member with its persistence version, null if there is none
+	 * @throws SQLException
+	 *           if the query fails
+	 */
+	public Result getMember(final long memberId) throws SQLException {
+		final long start = System.nanoTime();
+		readCount.incrementAndGet();
+		try {
+			final Connection connection = dataSource.getConnection();
+			try {
+				final PreparedStatement statement = connection.prepareStatement(SELECT_MEMBER);
+				try {
+					statement.setLong(1, memberId);
+					final ResultSet resultSet = statement.executeQuery();
+					try {
+						if (!resultSet.next()) {
+							notFoundCount.incrementAndGet();
+							return null;
+						}
+						return map(resultSet);
+					} finally {
+						resultSet.close();
+					}
+				} finally {
+					statement.close();
+				}
+			} finally {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			errorCount.incrementAndGet();
+			LOG.warn("getMember() > Failed to read member {}: {}", memberId, e.getMessage());
+			throw e;
+		} finally {
+			readNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private static Result map(final ResultSet resultSet) throws SQLException {
+		final Member member = new Member();
+		member.setId(getLong(resultSet, 1));
+		member.setFirst(resultSet.getString(2));
+		member.setLast(resultSet.getString(3));
+		member.setInitial(resultSet.getString(4));
+		member.setPrefix(resultSet.getString(5));
+		member.setSuffix(resultSet.getString(6));
+		member.setEmail(resultSet.getString(7));
+		member.setPhone1(resultSet.getString(8));
+		member.setPhone2(resultSet.getString(9));
+		final boolean optOut = resultSet.getBoolean(10);
+		member.setOptOut(resultSet.wasNull() ? null : Boolean.valueOf(optOut));
+		member.setDateTimeCreated(resultSet.getTimestamp(11));
+		member.setDateTimeUpdated(resultSet.getTimestamp(12));
+		final int version = resultSet.getInt(13);
+		final Integer persistenceVersion = resultSet.wasNull() ? null : Integer.valueOf(version);
+
+		final Long addressId = getLong(resultSet, 14);
+		if (addressId != null) {
+			final Address address = new Address();
+			address.setId(addressId);
+			address.setStreet1(resultSet.getString(15));
+			address.setStreet2(resultSet.getString(16));
+			address.setCity(resultSet.getString(17));
+			address.setState(resultSet.getString(18));
+			address.setZip(resultSet.getString(19));
+			address.setDateTimeCreated(resultSet.getTimestamp(20));
+			address.setDateTimeUpdated(resultSet.getTimestamp(21));
+			member.setAddress(address);
+		}
+		return new Result(member, persistenceVersion);
+	}
+
+	private static Long getLong(final ResultSet resultSet, final int column) throws SQLException {
+		final long value = resultSet.getLong(column);
+		return resultSet.wasNull() ? null : Long.valueOf(value);
+	}
+
+	/**
+	 * @return read, not found and error counts and the mean read time keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final long reads = readCount.get();
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("reads", Long.valueOf(reads));
+		statistics.put("notFound", Long.valueOf(notFoundCount.get()));
+		statistics.put("errors", Long.valueOf(errorCount.get()));
+		statistics.put("meanReadMicros", Long.valueOf(reads == 0 ? 0 : readNanos.get() / reads / 1000));
+		return statistics;
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(final DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * A member read by the fast path and the version it was read at
+	 */
+	public static final class Result {
+
+		private final Member member;
+
+		private final Integer version;
+
+		private Result(final Member member, final Integer version) {
+			this.member = member;
+			this.version = version;
+		}
+
+		public Member getMember() {
+			return member;
+		}
+
+		public Integer getVersion() {
+			return version;
+		}
+	}
+
+}
@@ -0,0 +1,339 @@
+package com.ticketmaster.example.dao.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.orm.jpa.vendor.Database;
+
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * MemberJdbcUpsert -
+ * Creates or updates members by email, with their addresses, in a few
+ * batched statements on the connection of the current transaction, instead
+ * of a lookup, then an insert or an update, per member.
+ * <p>
+ * On MySQL each purchaser is written by one atomic
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> on the unique email index.
+ * Other databases, HSQL 1.8 among them (it has no <code>MERGE</code>), run a
+ * batch of updates by email and insert the members none matched; a member
+ * inserted concurrently by another transaction then fails the unique index
+ * instead of being duplicated, and the upsert can be retried.
+ * <p>
+ * The purchasers are read back by email for their ids and versions, their
+ * households are updated, or inserted and linked for members that had none.
+ * Columns are those mapped by {@link MemberEntity} and {@link AddressEntity}.
+ */
+public class MemberJdbcUpsert {
+
+	private static final String PURCHASER_COLUMNS = "FirstName, Initial, LastName, Prefix, Suffix, Phone1, Phone2,"
+			+ " Email, NoEmailFlag, Latest_Record_Update, Date_Record_Added, persistence_version";
+
+	static final String UPSERT_PURCHASER_MYSQL = "INSERT INTO tbl_purchaser (" + PURCHASER_COLUMNS + ")"
+			+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1) ON DUPLICATE KEY UPDATE FirstName = VALUES(FirstName),"
+			+ " Initial = VALUES(Initial), LastName = VALUES(LastName), Prefix = VALUES(Prefix), Suffix = VALUES(Suffix),"
+			+ " Phone1 = VALUES(Phone1), Phone2 = VALUES(Phone2), Email = VALUES(Email), NoEmailFlag = VALUES(NoEmailFlag),"
+			+ " Latest_Record_Update = VALUES(Latest_Record_Update), persistence_version = persistence_version + 1";
+
+	static final String UPDATE_PURCHASER = "UPDATE tbl_purchaser SET FirstName = ?, Initial = ?, LastName = ?,"
+			+ " Prefix = ?, Suffix = ?, Phone1 = ?, Phone2 = ?, Email = ?, NoEmailFlag = ?, Latest_Record_Update = ?,"
+			+ " persistence_version = persistence_version + 1 WHERE Email = ?";
+
+	static final String INSERT_PURCHASER = "INSERT INTO tbl_purchaser (" + PURCHASER_COLUMNS + ")"
+			+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1)";
+
+	static final String SELECT_PURCHASERS = "SELECT p.Email, p.PurchaserID, p.persistence_version, p.Date_Record_Added,"
+			+ " h.HouseHoldID, h.persistence_version, h.Date_Record_Added"
+			+ " FROM tbl_purchaser p LEFT OUTER JOIN tbl_household h ON h.HouseHoldID = p.HouseHoldID WHERE p.Email IN (";
+
+	static final String UPDATE_HOUSEHOLD = "UPDATE tbl_household SET Address1 = ?, Address2 = ?, City = ?, State = ?,"
+			+ " Zip = ?, Latest_Record_Update = ?, persistence_version = persistence_version + 1 WHERE HouseHoldID = ?";
+
+	static final String INSERT_HOUSEHOLD = "INSERT INTO tbl_household (Address1, Address2, City, State, Zip,"
+			+ " Latest_Record_Update, Date_Record_Added, persistence_version) VALUES (?, ?, ?, ?, ?, ?, ?, 1)";
+
+	static final String LINK_HOUSEHOLD = "UPDATE tbl_purchaser SET HouseHoldID = ? WHERE PurchaserID = ?";
+
+	/**
+	 * Marks the counts of a batch the driver did not report
+	 */
+	private static final boolean[] UNKNOWN = new boolean[0];
+
+	private final Database database;
+
+	private final String identitySql;
+
+	/**
+	 * @param database
+	 *          the database written to, MySQL gets its native upsert
+	 */
+	public MemberJdbcUpsert(final Database database) {
+		this.database = database;
+		this.identitySql = database == Database.MYSQL ? "SELECT LAST_INSERT_ID()"
+				: database == Database.HSQL || database == Database.H2 ? "CALL IDENTITY()" : null;
+	}
+
+	/**
+	 * Writes the members and sets their ids, versions and timestamps, and
+	 * those of their addresses.
+	 *
+	 * @param connection
+	 *          connection of the current transaction, left open
+	 * @param members
+	 *          members with distinct, non-null emails and an opt-out flag
+	 * @return ids of the members that were created, the others were updated
+	 * @throws SQLException
+	 *           if a statement fails, the transaction should roll back
+	 */
+	public List<Long> upsert(final Connection connection, final List<MemberEntity> members) throws SQLException {
+		final List<Long> createdIds = new ArrayList<Long>();
+		if (members.isEmpty()) {
+			return createdIds;
+		}
+		final Timestamp now = new Timestamp(System.currentTimeMillis());
+
+		final boolean[] created = database == Database.MYSQL ? upsertPurchasers(connection, members, now)
+				: updateOrInsertPurchasers(connection, members, now);
+
+		final Map<String, Object[]> rows = selectPurchasers(connection, members);
+		final List<MemberEntity> unlinked = new ArrayList<MemberEntity>();
+		final List<MemberEntity> linked = new ArrayList<MemberEntity>();
+		for (int index = 0; index < members.size(); index++) {
+			final MemberEntity member = members.get(index);
+			final Object[] row = rows.get(member.getEmail());
+			if (row == null) {
+				throw new SQLException("Member " + member.getEmail() + " was not written");
+			}
+			member.setId((Long) row[0]);
+			member.setPersistenceVersion((Integer) row[1]);
+			member.setDateTimeCreated((Timestamp) row[2]);
+			member.setDateTimeUpdated(now);
+			if (created == UNKNOWN ? member.getPersistenceVersion().intValue() == 1 : created[index]) {
+				createdIds.add(member.getId());
+			}
+
+			final AddressEntity address = member.getAddress();
+			if (address == null) {
+				continue;
+			}
+			address.setDateTimeUpdated(now);
+			if (row[3] == null) {
+				address.setPersistenceVersion(Integer.valueOf(1));
+				address.setDateTimeCreated(now);
+				unlinked.add(member);
+			} else {
+				address.setId((Long) row[3]);
+				address.setPersistenceVersion(Integer.valueOf(((Integer) row[4]).intValue() + 1));
+				address.setDateTimeCreated((Timestamp) row[5]);
+				linked.add(member);
+			}
+		}
+
+		updateHouseholds(connection, linked, now);
+		insertHouseholds(connection, unlinked, now);
+		return createdIds;
+	}
+
+	private static boolean[] upsertPurchasers(final Connection connection, final List<MemberEntity> members,
+			final Timestamp now) throws SQLException {
+		final PreparedStatement statement = connection.prepareStatement(UPSERT_PURCHASER_MYSQL);
+		try {
+			for (MemberEntity member : members) {
+				setPurchaser(statement, member, now);
+				statement.setTimestamp(11, now);
+				statement.addBatch();
+			}
+			// 1 for a row inserted, 2 for a row updated
+			final int[] counts = statement.executeBatch();
+			final boolean[] created = new boolean[counts.length];
+			for (int index = 0; index < counts.length; index++) {
+				if (counts[index] < 0) {
+					return UNKNOWN;
+				}
+				created[index] = counts[index] == 1;
+			}
+			return created;
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static boolean[] updateOrInsertPurchasers(final Connection connection, final List<MemberEntity> members,
+			final Timestamp now) throws SQLException {
+		final boolean[] created = new boolean[members.size()];
+		final PreparedStatement update = connection.prepareStatement(UPDATE_PURCHASER);
+		try {
+			for (MemberEntity member : members) {
+				setPurchaser(update, member, now);
+				update.setString(11, member.getEmail());
+				update.addBatch();
+			}
+			final int[] counts = update.executeBatch();
+			for (int index = 0; index < counts.length; index++) {
+				if (counts[index] < 0) {
+					throw new SQLException("Update count of member " + members.get(index).getEmail() + " not reported");
+				}
+				created[index] = counts[index] == 0;
+			}
+		} finally {
+			update.close();
+		}
+
+		final PreparedStatement insert = connection.prepareStatement(INSERT_PURCHASER);
+		try {
+			boolean inserts = false;
+			for (int index = 0; index < created.length; index++) {
+				if (created[index]) {
+					setPurchaser(insert, members.get(index), now);
+					insert.setTimestamp(11, now);
+					insert.addBatch();
+					inserts = true;
+				}
+			}
+			if (inserts) {
+				insert.executeBatch();
+			}
+		} finally {
+			insert.close();
+		}
+		return created;
+	}
+
+	private static void setPurchaser(final PreparedStatement statement, final MemberEntity member, final Timestamp now)
+			throws SQLException {
+		statement.setString(1, member.getFirst());
+		statement.setString(2, member.getInitial());
+		statement.setString(3, member.getLast());
+		statement.setString(4, member.getPrefix());
+		statement.setString(5, member.getSuffix());
+		statement.setString(6, member.getPhone1());
+		statement.setString(7, member.getPhone2());
+		statement.setString(8, member.getEmail());
+		statement.setBoolean(9, member.getOptOut().booleanValue());
+		statement.setTimestamp(10, now);
+	}
+
+	/**
+	 * @return by email: purchaser id, version and creation time, household id,
+	 *         version and creation time
+	 */
+	private static Map<String, Object[]> selectPurchasers(final Connection connection, final List<MemberEntity> members)
+			throws SQLException {
+		final StringBuilder sql = new StringBuilder(SELECT_PURCHASERS);
+		for (int index = 0; index < members.size(); index++) {
+			sql.append(index == 0 ? "?" : ", ?");
+		}
+		sql.append(')');
+
+		final Map<String, Object[]> rows = new HashMap<String, Object[]>();
+		final PreparedStatement statement = connection.prepareStatement(sql.toString());
+		try {
+			for (int index = 0; index < members.size(); index++) {
+				statement.setString(index + 1, members.get(index).getEmail());
+			}
+			final ResultSet resultSet = statement.executeQuery();
+			try {
+				while (resultSet.next()) {
+					final long householdId = resultSet.getLong(5);
+					final boolean household = !resultSet.wasNull();
+					rows.put(resultSet.getString(1), new Object[] { Long.valueOf(resultSet.getLong(2)),
+							Integer.valueOf(resultSet.getInt(3)), resultSet.getTimestamp(4),
+							household ? Long.valueOf(householdId) : null, Integer.valueOf(resultSet.getInt(6)),
+							resultSet.getTimestamp(7) });
+				}
+			} finally {
+				resultSet.close();
+			}
+		} finally {
+			statement.close();
+		}
+		return rows;
+	}
+
+	private static void updateHouseholds(final Connection connection, final List<MemberEntity> members,
+			final Timestamp now) throws SQLException {
+		if (members.isEmpty()) {
+			return;
+		}
+		final PreparedStatement statement = connection.prepareStatement(UPDATE_HOUSEHOLD);
+		try {
+			for (MemberEntity member : members) {
+				setHousehold(statement, member.getAddress(), now);
+				statement.setLong(7, member.getAddress().getId().longValue());
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Inserts one household at a time to read its identity, the drivers in use
+	 * do not all return generated keys, then links them in one batch.
+	 */
+	private void insertHouseholds(final Connection connection, final List<MemberEntity> members, final Timestamp now)
+			throws SQLException {
+		if (members.isEmpty()) {
+			return;
+		}
+		if (identitySql == null) {
+			throw new SQLException("No identity query for " + database + ", cannot insert households");
+		}
+		final PreparedStatement insert = connection.prepareStatement(INSERT_HOUSEHOLD);
+		final Statement identity = connection.createStatement();
+		try {
+			for (MemberEntity member : members) {
+				setHousehold(insert, member.getAddress(), now);
+				insert.setTimestamp(7, now);
+				insert.executeUpdate();
+				final ResultSet resultSet = identity.executeQuery(identitySql);
+				try {
+					resultSet.next();
+					member.getAddress().setId(Long.valueOf(resultSet.getLong(1)));
+				} finally {
+					resultSet.close();
+				}
+			}
+		} finally {
+			identity.close();
+			insert.close();
+		}
+
+		final PreparedStatement link = connection.prepareStatement(LINK_HOUSEHOLD);
+		try {
+			for (MemberEntity member : members) {
+				link.setLong(1, member.getAddress().getId().longValue());
+				link.setLong(2, member.getId().longValue());
+				link.addBatch();
+			}
+			link.executeBatch();
+		} finally {
+			link.close();
+		}
+	}
+
+	private static void setHousehold(final PreparedStatement statement, final AddressEntity address, final Timestamp now)
+			throws SQLException {
+		statement.setString(1, address.getStreet1());
+		statement.setString(2, address.getStreet2());
+		statement.setString(3, address.getCity());
+		statement.setString(4, address.getState());
+		statement.setString(5, address.getZip());
+		statement.setTimestamp(6, now);
+	}
+
+	public Database getDatabase() {
+		return database;
+	}
+
+}
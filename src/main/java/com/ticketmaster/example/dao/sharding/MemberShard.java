@@ -0,0 +1,93 @@
+package com.ticketmaster.example.dao.sharding;
+
+import javax.sql.DataSource;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.dao.MemberDao;
+
+/**
+ * MemberShard -
+ * One member database: the DAO bound to its EntityManagerFactory, the
+ * transaction manager of that factory and the DataSource used to position
+ * the shard's identity column at the start of its id range.
+ */
+public class MemberShard {
+
+	private MemberDao memberDao;
+
+	private DataSource dataSource;
+
+	private TransactionTemplate readTemplate;
+
+	private TransactionTemplate writeTemplate;
+
+	/**
+	 * Returns the highest member id of the shard
+	 */
+	private String maxIdSql = "SELECT MAX(PurchaserID) FROM tbl_purchaser";
+
+	/**
+	 * Sets the next member id, {0} is replaced by the value.
+	 * For MySQL use <code>ALTER TABLE tbl_purchaser AUTO_INCREMENT = {0}</code>
+	 */
+	private String identityRestartSql = "ALTER TABLE tbl_purchaser ALTER COLUMN PurchaserID RESTART WITH {0}";
+
+	public MemberDao getMemberDao() {
+		return memberDao;
+	}
+
+	public void setMemberDao(final MemberDao memberDao) {
+		this.memberDao = memberDao;
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	public void setDataSource(final DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * @param transactionManager
+	 *          the transaction manager of the shard's EntityManagerFactory
+	 */
+	public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+		readTemplate = new TransactionTemplate(transactionManager);
+		readTemplate.setReadOnly(true);
+		writeTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * @return template running read-only transactions on this shard
+	 */
+	public TransactionTemplate getReadTemplate() {
+		return readTemplate;
+	}
+
+	/**
+	 * @return template running read-write transactions on this shard
+	 */
+	public TransactionTemplate getWriteTemplate() {
+		return writeTemplate;
+	}
+
+	public String getMaxIdSql() {
+		return maxIdSql;
+	}
+
+	public void setMaxIdSql(final String maxIdSql) {
+		this.maxIdSql = maxIdSql;
+	}
+
+	public String getIdentityRestartSql() {
+		return identityRestartSql;
+	}
+
+	public void setIdentityRestartSql(final String identityRestartSql) {
+		this.identityRestartSql = identityRestartSql;
+	}
+
+}
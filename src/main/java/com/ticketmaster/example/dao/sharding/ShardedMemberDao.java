@@ -0,0 +1,758 @@
+package com.ticketmaster.example.dao.sharding;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.NoResultException;
+import javax.persistence.NonUniqueResultException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+
+import com.ticketmaster.example.dao.FetchPlan;
+import com.ticketmaster.example.dao.MemberChangeOrder;
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
+
+/**
+ * ShardedMemberDao -
+ * Spreads members over several databases, each behind its own
+ * {@link MemberShard} (DataSource, EntityManagerFactory and transaction
+ * manager).
+ *
+ * Ids encode their shard: shard <i>n</i> hands out ids from
+ * <code>n * blockSize</code> upwards (its identity column is moved to the start
+ * of its range on startup), so operations by id are routed to
+ * <code>id / blockSize</code> without a lookup. New members are placed by a
+ * hash of their email (<code>placement=hash</code>) or round robin.
+ *
+ * The member count, email and name lookups are scattered to all shards in
+ * parallel and gathered; listings ordered by id walk the shards in id order
+ * using their counts, so a page only reads the shards it spans.
+ *
+ * Each shard operation runs in a transaction of that shard's manager; an
+ * enclosing transaction on the same manager is joined. An upsert spanning
+ * shards nests their transactions, so it commits on none of them unless
+ * every shard's statements succeeded.
+ */
+public class ShardedMemberDao implements MemberDao {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ShardedMemberDao.class);
+
+	public static final String PLACEMENT_HASH = "hash";
+	public static final String PLACEMENT_ROUND_ROBIN = "roundRobin";
+
+	private List<MemberShard> shards = new ArrayList<MemberShard>();
+
+	/**
+	 * Size of the id range of each shard; shards * blockSize must fit the id column
+	 */
+	private long blockSize = 100000000L;
+
+	private String placement = PLACEMENT_HASH;
+
+	private final AtomicInteger nextShard = new AtomicInteger();
+
+	private ThreadPoolExecutor scatterExecutor;
+
+	/**
+	 * Moves the identity of every shard to the start of its range, checks that
+	 * no shard, the first included, holds ids beyond its range, and creates the
+	 * scatter-gather pool; called by the container once properties are set.
+	 */
+	public void start() throws SQLException {
+		if (shards.isEmpty()) {
+			throw new IllegalStateException("No member shards configured");
+		}
+
+		for (int index = 0; index < shards.size(); index++) {
+			initIdentity(index);
+		}
+
+		scatterExecutor = new ThreadPoolExecutor(shards.size(), shards.size(), 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "member-shard-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		LOG.info("start() > {} member shards, blockSize={}, placement={}",
+				new Object[] { shards.size(), blockSize, placement });
+	}
+
+	/**
+	 * Stops the scatter-gather pool.
+	 */
+	public void shutdown() {
+		if (scatterExecutor != null) {
+			scatterExecutor.shutdownNow();
+		}
+	}
+
+	private void initIdentity(final int index) throws SQLException {
+		final MemberShard shard = shards.get(index);
+		final long base = index * blockSize;
+
+		final Connection connection = shard.getDataSource().getConnection();
+		try {
+			final Statement statement = connection.createStatement();
+			try {
+				long maxId = 0;
+				final ResultSet resultSet = statement.executeQuery(shard.getMaxIdSql());
+				if (resultSet.next()) {
+					maxId = resultSet.getLong(1);
+				}
+				resultSet.close();
+
+				if (maxId < base) {
+					LOG.info("initIdentity() > Shard {} ids start at {}", index, base);
+					statement.execute(shard.getIdentityRestartSql().replace("{0}", Long.toString(base)));
+				} else if (maxId >= base + blockSize) {
+					throw new IllegalStateException("Shard " + index + " holds id " + maxId + " outside of its range");
+				}
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * @param id
+	 *          member id
+	 * @return index of the shard owning the id, -1 if no shard does
+	 */
+	public int shardOf(final long id) {
+		final long index = id / blockSize;
+		return id < 0 || index >= shards.size() ? -1 : (int) index;
+	}
+
+	private int placementOf(final MemberEntity member) {
+		if (PLACEMENT_HASH.equals(placement) && member.getEmail() != null) {
+			return (member.getEmail().toLowerCase().hashCode() & Integer.MAX_VALUE) % shards.size();
+		}
+		return (nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#createMember(com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public void createMember(final MemberEntity inMember) {
+		final int index = placementOf(inMember);
+		final MemberShard shard = shards.get(index);
+
+		shard.getWriteTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				shard.getMemberDao().createMember(inMember);
+				// the identity was inserted already; an id routed elsewhere rolls the insert back
+				if (inMember.getId() != null && shardOf(inMember.getId()) != index) {
+					throw new IllegalStateException("Member id " + inMember.getId() + " created on shard " + index
+							+ " is outside of its range");
+				}
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#deleteMember(com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public void deleteMember(final MemberEntity member) {
+		if (member == null || member.getId() == null) {
+			return;
+		}
+		final MemberShard shard = shardFor(member.getId());
+		if (shard == null) {
+			return;
+		}
+		shard.getWriteTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				shard.getMemberDao().deleteMember(member);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#deleteMemberById(java.lang.Long)
+	 */
+	@Override
+	public void deleteMemberById(final Long id) {
+		final MemberShard shard = id == null ? null : shardFor(id);
+		if (shard == null) {
+			return;
+		}
+		shard.getWriteTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				shard.getMemberDao().deleteMemberById(id);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#updateMember(com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public MemberEntity updateMember(final MemberEntity member) {
+		final MemberShard shard = shardFor(member.getId());
+		if (shard == null) {
+			throw new IllegalArgumentException("No shard owns member id " + member.getId());
+		}
+		return shard.getWriteTemplate().execute(new TransactionCallback<MemberEntity>() {
+			@Override
+			public MemberEntity doInTransaction(TransactionStatus status) {
+				return shard.getMemberDao().updateMember(member);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#upsertMembersByEmail(java.util.List)
+	 */
+	@Override
+	public List<Long> upsertMembersByEmail(final List<MemberEntity> members) {
+		// a known member stays where it is, whatever its email hashes to now; new members are placed
+		final List<String> emails = new ArrayList<String>(members.size());
+		for (MemberEntity member : members) {
+			emails.add(member.getEmail());
+		}
+		final Map<String, Long> knownIds = getMemberIdsByEmails(emails);
+
+		final List<List<MemberEntity>> membersByShard = new ArrayList<List<MemberEntity>>();
+		for (int index = 0; index < shards.size(); index++) {
+			membersByShard.add(new ArrayList<MemberEntity>());
+		}
+		for (MemberEntity member : members) {
+			final Long knownId = knownIds.get(member.getEmail());
+			final int index = knownId == null ? -1 : shardOf(knownId.longValue());
+			membersByShard.get(index < 0 ? placementOf(member) : index).add(member);
+		}
+
+		final List<Long> createdIds = new ArrayList<Long>();
+		upsertFrom(0, membersByShard, createdIds);
+		return createdIds;
+	}
+
+	/**
+	 * Upserts the members of a shard in a transaction that encloses those of
+	 * the following shards, so a failure on any shard rolls every shard back.
+	 * The transactions commit innermost first once all statements succeeded;
+	 * only a failing commit can leave the shards apart.
+	 */
+	private void upsertFrom(final int index, final List<List<MemberEntity>> membersByShard,
+			final List<Long> createdIds) {
+		if (index == shards.size()) {
+			return;
+		}
+		final List<MemberEntity> shardMembers = membersByShard.get(index);
+		if (shardMembers.isEmpty()) {
+			upsertFrom(index + 1, membersByShard, createdIds);
+			return;
+		}
+		final MemberShard shard = shards.get(index);
+		shard.getWriteTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				createdIds.addAll(shard.getMemberDao().upsertMembersByEmail(shardMembers));
+				upsertFrom(index + 1, membersByShard, createdIds);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberById(long)
+	 */
+	@Override
+	public MemberEntity getMemberById(final long id) {
+		final MemberShard shard = shardFor(id);
+		if (shard == null) {
+			return null;
+		}
+		return shard.getReadTemplate().execute(new TransactionCallback<MemberEntity>() {
+			@Override
+			public MemberEntity doInTransaction(TransactionStatus status) {
+				return shard.getMemberDao().getMemberById(id);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberVersion(long)
+	 */
+	@Override
+	public Integer getMemberVersion(final long id) {
+		final MemberShard shard = shardFor(id);
+		if (shard == null) {
+			return null;
+		}
+		return shard.getReadTemplate().execute(new TransactionCallback<Integer>() {
+			@Override
+			public Integer doInTransaction(TransactionStatus status) {
+				return shard.getMemberDao().getMemberVersion(id);
+			}
+		});
+	}
+
+	private MemberShard shardFor(final long id) {
+		final int index = shardOf(id);
+		return index < 0 ? null : shards.get(index);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberByFirstOrLast(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public MemberEntity getMemberByFirstOrLast(final String first, final String last) {
+		return findUnique(new ShardQuery<MemberEntity>() {
+			@Override
+			public MemberEntity query(MemberDao memberDao) {
+				return memberDao.getMemberByFirstOrLast(first, last);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberByEmail(java.lang.String)
+	 */
+	@Override
+	public MemberEntity getMemberByEmail(final String email) {
+		return findUnique(new ShardQuery<MemberEntity>() {
+			@Override
+			public MemberEntity query(MemberDao memberDao) {
+				return memberDao.getMemberByEmail(email);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIdsByEmails(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Long> getMemberIdsByEmails(final Collection<String> emails) {
+		final Map<String, Long> ids = new HashMap<String, Long>();
+		if (emails.isEmpty()) {
+			return ids;
+		}
+		for (Map<String, Long> shardIds : scatter(new ShardQuery<Map<String, Long>>() {
+			@Override
+			public Map<String, Long> query(MemberDao memberDao) {
+				return memberDao.getMemberIdsByEmails(emails);
+			}
+		})) {
+			ids.putAll(shardIds);
+		}
+		return ids;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberCount()
+	 */
+	@Override
+	public Number getMemberCount() {
+		long total = 0;
+		for (Number count : countPerShard()) {
+			total += count.longValue();
+		}
+		return Long.valueOf(total);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembers(int, int)
+	 */
+	@Override
+	public List<MemberEntity> getMembers(final int offset, final int limit) {
+		return getMembers(offset, limit, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembers(int, int, com.ticketmaster.example.dao.FetchPlan)
+	 */
+	@Override
+	public List<MemberEntity> getMembers(final int offset, final int limit, final FetchPlan fetchPlan) {
+		return pageInIdOrder(offset, limit, new PageQuery<MemberEntity>() {
+			@Override
+			public List<MemberEntity> query(MemberDao memberDao, int shardOffset, int shardLimit) {
+				return fetchPlan == null ? memberDao.getMembers(shardOffset, shardLimit) : memberDao.getMembers(
+						shardOffset, shardLimit, fetchPlan);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembersByFirstOrLast(java.lang.String, java.lang.String, int, int, com.ticketmaster.example.dao.FetchPlan)
+	 */
+	@Override
+	public List<MemberEntity> getMembersByFirstOrLast(final String first, final String last, final int offset,
+			final int limit, final FetchPlan fetchPlan) {
+		return searchInIdOrder(offset, limit, new PageQuery<MemberEntity>() {
+			@Override
+			public List<MemberEntity> query(MemberDao memberDao, int shardOffset, int shardLimit) {
+				return memberDao.getMembersByFirstOrLast(first, last, shardOffset, shardLimit, fetchPlan);
+			}
+		}, new Comparator<MemberEntity>() {
+			@Override
+			public int compare(final MemberEntity one, final MemberEntity other) {
+				return one.getId().compareTo(other.getId());
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberViews(int, int)
+	 */
+	@Override
+	public List<Member> getMemberViews(final int offset, final int limit) {
+		return pageInIdOrder(offset, limit, new PageQuery<Member>() {
+			@Override
+			public List<Member> query(MemberDao memberDao, int shardOffset, int shardLimit) {
+				return memberDao.getMemberViews(shardOffset, shardLimit);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberViewsByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<Member> getMemberViewsByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) {
+		return searchInIdOrder(offset, limit, new PageQuery<Member>() {
+			@Override
+			public List<Member> query(MemberDao memberDao, int shardOffset, int shardLimit) {
+				return memberDao.getMemberViewsByFirstOrLast(first, last, shardOffset, shardLimit);
+			}
+		}, new Comparator<Member>() {
+			@Override
+			public int compare(final Member one, final Member other) {
+				return one.getId().compareTo(other.getId());
+			}
+		});
+	}
+
+	/**
+	 * Reads a page ordered by id; shards hold consecutive id ranges, so id
+	 * order is shard order and only the shards the page spans are read.
+	 */
+	private <V> List<V> pageInIdOrder(final int offset, final int limit, final PageQuery<V> query) {
+		final List<Number> counts = countPerShard();
+		final List<V> page = new ArrayList<V>();
+
+		long skip = Math.max(0, offset);
+		for (int index = 0; index < shards.size(); index++) {
+			final long count = counts.get(index).longValue();
+			if (skip >= count) {
+				skip -= count;
+				continue;
+			}
+
+			final int shardOffset = (int) skip;
+			final int shardLimit = limit > 0 ? limit - page.size() : 0;
+			final MemberShard shard = shards.get(index);
+			page.addAll(shard.getReadTemplate().execute(new TransactionCallback<List<V>>() {
+				@Override
+				public List<V> doInTransaction(TransactionStatus status) {
+					return query.query(shard.getMemberDao(), shardOffset, shardLimit);
+				}
+			}));
+			skip = 0;
+
+			if (limit > 0 && page.size() >= limit) {
+				break;
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Reads a page of search results ordered by id; every shard may hold
+	 * matches anywhere in the page, so each returns its first offset + limit
+	 * and the merged results are cut to the page.
+	 */
+	private <V> List<V> searchInIdOrder(final int offset, final int limit, final PageQuery<V> query,
+			final Comparator<V> idOrder) {
+		final int shardLimit = limit > 0 ? Math.max(0, offset) + limit : 0;
+		final List<V> results = new ArrayList<V>();
+		for (List<V> shardResults : scatter(new ShardQuery<List<V>>() {
+			@Override
+			public List<V> query(MemberDao memberDao) {
+				return query.query(memberDao, 0, shardLimit);
+			}
+		})) {
+			results.addAll(shardResults);
+		}
+		Collections.sort(results, idOrder);
+		final int from = Math.min(Math.max(0, offset), results.size());
+		final int to = limit > 0 ? Math.min(from + limit, results.size()) : results.size();
+		return new ArrayList<V>(results.subList(from, to));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMembersByIds(java.util.Collection)
+	 */
+	@Override
+	public List<MemberEntity> getMembersByIds(final Collection<Long> ids) {
+		final List<List<Long>> idsPerShard = new ArrayList<List<Long>>(shards.size());
+		for (int index = 0; index < shards.size(); index++) {
+			idsPerShard.add(new ArrayList<Long>());
+		}
+		for (Long id : ids) {
+			final int index = shardOf(id.longValue());
+			if (index >= 0) {
+				idsPerShard.get(index).add(id);
+			}
+		}
+
+		// only the shards owning some of the ids are read
+		final List<MemberEntity> members = new ArrayList<MemberEntity>();
+		for (int index = 0; index < shards.size(); index++) {
+			final List<Long> shardIds = idsPerShard.get(index);
+			if (shardIds.isEmpty()) {
+				continue;
+			}
+			final MemberShard shard = shards.get(index);
+			members.addAll(shard.getReadTemplate().execute(new TransactionCallback<List<MemberEntity>>() {
+				@Override
+				public List<MemberEntity> doInTransaction(TransactionStatus status) {
+					return shard.getMemberDao().getMembersByIds(shardIds);
+				}
+			}));
+		}
+		return members;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getRecentlyUpdatedMemberIds(int)
+	 */
+	@Override
+	public List<Long> getRecentlyUpdatedMemberIds(final int limit) {
+		return interleave(scatter(new ShardQuery<List<Long>>() {
+			@Override
+			public List<Long> query(MemberDao memberDao) {
+				return memberDao.getRecentlyUpdatedMemberIds(limit);
+			}
+		}), limit);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIdsByNativeQuery(java.lang.String, int)
+	 */
+	@Override
+	public List<Long> getMemberIdsByNativeQuery(final String sql, final int limit) {
+		return interleave(scatter(new ShardQuery<List<Long>>() {
+			@Override
+			public List<Long> query(MemberDao memberDao) {
+				return memberDao.getMemberIdsByNativeQuery(sql, limit);
+			}
+		}), limit);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberIds(long, int)
+	 */
+	@Override
+	public List<Long> getMemberIds(final long afterId, final int limit) {
+		final List<Long> ids = new ArrayList<Long>();
+		for (List<Long> shardIds : scatter(new ShardQuery<List<Long>>() {
+			@Override
+			public List<Long> query(MemberDao memberDao) {
+				return memberDao.getMemberIds(afterId, limit);
+			}
+		})) {
+			ids.addAll(shardIds);
+		}
+		Collections.sort(ids);
+		return ids.size() > limit ? new ArrayList<Long>(ids.subList(0, limit)) : ids;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.dao.MemberDao#getMemberChangesSince(java.util.Date, long, java.util.Date, int)
+	 */
+	@Override
+	public List<MemberChange> getMemberChangesSince(final Date since, final long afterId, final Date until,
+			final int limit) {
+		return MemberChangeOrder.merge(scatter(new ShardQuery<List<MemberChange>>() {
+			@Override
+			public List<MemberChange> query(MemberDao memberDao) {
+				return memberDao.getMemberChangesSince(since, afterId, until, limit);
+			}
+		}), limit);
+	}
+
+	/**
+	 * Merges ranked lists from the shards by taking their heads in turn; the
+	 * shards' rankings are not comparable, so this approximates a global one.
+	 */
+	private static List<Long> interleave(final List<List<Long>> lists, final int limit) {
+		final List<Long> merged = new ArrayList<Long>();
+		for (int position = 0; limit <= 0 || merged.size() < limit; position++) {
+			boolean more = false;
+			for (List<Long> list : lists) {
+				if (position < list.size() && (limit <= 0 || merged.size() < limit)) {
+					merged.add(list.get(position));
+					more = true;
+				}
+			}
+			if (!more) {
+				break;
+			}
+		}
+		return merged;
+	}
+
+	private List<Number> countPerShard() {
+		return scatter(new ShardQuery<Number>() {
+			@Override
+			public Number query(MemberDao memberDao) {
+				final Number count = memberDao.getMemberCount();
+				return count == null ? Long.valueOf(0) : count;
+			}
+		});
+	}
+
+	/**
+	 * Runs the query on every shard and expects at most one shard to find a member.
+	 */
+	private MemberEntity findUnique(final ShardQuery<MemberEntity> query) {
+		MemberEntity found = null;
+		for (MemberEntity member : scatter(new ShardQuery<MemberEntity>() {
+			@Override
+			public MemberEntity query(MemberDao memberDao) {
+				try {
+					return query.query(memberDao);
+				} catch (NoResultException e) {
+					return null;
+				}
+			}
+		})) {
+			if (member == null) {
+				continue;
+			}
+			if (found != null) {
+				throw new NonUniqueResultException("Member found on more than one shard");
+			}
+			found = member;
+		}
+		if (found == null) {
+			throw new NoResultException("No member found on any shard");
+		}
+		return found;
+	}
+
+	/**
+	 * Runs the query on all shards in parallel, each in a read-only transaction of its own.
+	 * @return results in shard order
+	 */
+	private <V> List<V> scatter(final ShardQuery<V> query) {
+		final List<Future<V>> futures = new ArrayList<Future<V>>(shards.size());
+		for (final MemberShard shard : shards) {
+			futures.add(scatterExecutor.submit(new Callable<V>() {
+				@Override
+				public V call() {
+					return shard.getReadTemplate().execute(new TransactionCallback<V>() {
+						@Override
+						public V doInTransaction(TransactionStatus status) {
+							return query.query(shard.getMemberDao());
+						}
+					});
+				}
+			}));
+		}
+
+		final List<V> results = new ArrayList<V>(shards.size());
+		try {
+			for (Future<V> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while querying member shards", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Failed to query member shards", e.getCause());
+		} finally {
+			for (Future<V> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * A query run against the DAO of one shard.
+	 */
+	private interface ShardQuery<V> {
+		V query(MemberDao memberDao);
+	}
+
+	/**
+	 * A page of a listing read from the DAO of one shard.
+	 */
+	private interface PageQuery<V> {
+		List<V> query(MemberDao memberDao, int offset, int limit);
+	}
+
+	public List<MemberShard> getShards() {
+		return shards;
+	}
+
+	public void setShards(List<MemberShard> shards) {
+		this.shards = shards;
+	}
+
+	public long getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(long blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	public String getPlacement() {
+		return placement;
+	}
+
+	public void setPlacement(String placement) {
+		if (!PLACEMENT_HASH.equals(placement) && !PLACEMENT_ROUND_ROBIN.equals(placement)) {
+			throw new IllegalArgumentException("Unknown member placement: " + placement);
+		}
+		this.placement = placement;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.ticketmaster.example.exceptions;
+
+/**
+ * ServiceUnavailableException -
+ * Raised when a request cannot be served because the service is overloaded,
+ * e.g. a bounded executor or admission queue is full, or the request timed out
+ * while waiting for capacity. Mapped to an HTTP 503 response.
+ *
+ * @see com.ticketmaster.example.rest.exceptionmapper.GenericExceptionMapper
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 4306195872234106741L;
+
+	/**
+	 * Instantiated with a message
+	 * @param message
+	 *          describes why the request could not be served
+	 */
+	public ServiceUnavailableException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Instantiated with a message and the original exception
+	 * @param message
+	 *          describes why the request could not be served
+	 * @param cause
+	 *          represents original exception
+	 */
+	public ServiceUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
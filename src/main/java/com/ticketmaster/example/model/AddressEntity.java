@@ -12,6 +12,8 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.BatchSize;
+
 import com.ticketmaster.example.commons.persistence.model.ModelBase;
 import com.ticketmaster.example.commons.persistence.model.ModelListener;
 
@@ -19,10 +21,13 @@ import com.ticketmaster.example.commons.persistence.model.ModelListener;
  * Address -
  * Represents a household associated with an order
  * It could be a billing or shipping address
+ * Addresses of a list of members missing from the second level cache are
+ * selected 50 ids at a time rather than one by one.
  */
 @Entity
 @Table(name = "tbl_household")
 @Cacheable(true)
+@BatchSize(size = 50)
 @AttributeOverrides({ @AttributeOverride(name = "id", column = @Column(name = "HouseHoldID", nullable = false)),
 		@AttributeOverride(name = "dateTimeCreated", column = @Column(name = "Date_Record_Added")),
 		@AttributeOverride(name = "dateTimeUpdated", column = @Column(name = "Latest_Record_Update")) })
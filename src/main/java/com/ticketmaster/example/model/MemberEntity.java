@@ -61,7 +61,7 @@ public class MemberEntity extends ModelBase {
 	@Column(name = "Suffix", nullable = true)
 	private String suffix;
 
-	@Column(name = "Email", nullable = true)
+	@Column(name = "Email", nullable = true, unique = true)
 	private String email;
 
 	@Column(name = "Phone1", nullable = true)
@@ -1,6 +1,11 @@
 package com.ticketmaster.example.persistence.service;
 
+import java.util.List;
+
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
 import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberSyncPage;
 
 public interface ExampleMemberPersistenceService {
 
@@ -51,6 +56,19 @@ public interface ExampleMemberPersistenceService {
 	public abstract MemberEntity updateMember(long memberId, MemberEntity inMember)
 			throws Exception;
 
+	/**
+	 * Creates the members whose email is not known yet and updates the others,
+	 * with their addresses, in one transaction and a few batched statements.
+	 *
+	 * @param inMembers
+	 *          the members to store, each with a distinct email
+	 * @return the members stored, with their ids and versions
+	 * @throws Exception
+	 *             if a member is invalid, an email is missing or repeated, or
+	 *             too many members are given
+	 */
+	public abstract List<MemberEntity> upsertMembersByEmail(List<MemberEntity> inMembers) throws Exception;
+
 	/**
 	 * Looks up the total number of Member records in the system.
 	 *
@@ -58,4 +76,112 @@ public interface ExampleMemberPersistenceService {
 	 */
 	public abstract long getMemberCount() throws Exception;
 
+	/**
+	 * Lists a page of members ordered by id, with their addresses.
+	 *
+	 * @param offset
+	 *            number of members to skip
+	 * @param limit
+	 *            maximum number of members to return
+	 * @return the members of the page
+	 * @throws Exception
+	 *             if the page is out of range
+	 */
+	public abstract List<MemberEntity> getMembers(int offset, int limit) throws Exception;
+
+	/**
+	 * Lists the members created or updated since a watermark, ordered by the
+	 * time of the change then member id. Only changes older than a short lag
+	 * are listed, so a change committed late with an earlier time is not
+	 * skipped. Deletions are not listed, they are in the change feed.
+	 *
+	 * @param since
+	 *            time of the last change of the previous page in epoch
+	 *            millis, 0 for the first page
+	 * @param afterId
+	 *            member id of the last change of the previous page, 0 for the
+	 *            first page
+	 * @param limit
+	 *            maximum number of changes to return
+	 * @return the changes and the watermark of the next page
+	 * @throws Exception
+	 *             if the limit is out of range
+	 */
+	public abstract MemberSyncPage getMemberChangesSince(long since, long afterId, int limit) throws Exception;
+
+	/**
+	 * Lists a page of the members matching a first or last name ordered by id,
+	 * with their addresses.
+	 *
+	 * @param first
+	 *            LIKE pattern of the first name, may be null
+	 * @param last
+	 *            LIKE pattern of the last name, may be null
+	 * @param offset
+	 *            number of members to skip
+	 * @param limit
+	 *            maximum number of members to return
+	 * @return the members of the page
+	 * @throws Exception
+	 *             if neither name is given or the page is out of range
+	 */
+	public abstract List<MemberEntity> getMembersByFirstOrLast(String first, String last, int offset, int limit)
+			throws Exception;
+
+	/**
+	 * Looks up the persistence version of a member without loading it, to
+	 * check whether a copy held by a client is current.
+	 *
+	 * @param memberId
+	 *            the unique identifier of the member
+	 * @return the version, null if there is no such member
+	 */
+	public abstract Integer getMemberVersion(long memberId) throws Exception;
+
+	/**
+	 * Looks up a member straight into the web model with its persistence
+	 * version, in one join without loading the entity.
+	 *
+	 * @param memberId
+	 *            the unique identifier of the member
+	 * @return the member and its version, null if the join cannot be used
+	 *         (disabled or failing) and {@link #getMember(long)} should be
+	 * @throws Exception
+	 *             if there is no such member
+	 */
+	public abstract MemberJdbcReader.Result getMemberView(long memberId) throws Exception;
+
+	/**
+	 * Lists a page of members ordered by id, read straight into the web model
+	 * without loading entities.
+	 *
+	 * @param offset
+	 *            number of members to skip
+	 * @param limit
+	 *            maximum number of members to return
+	 * @return the members of the page
+	 * @throws Exception
+	 *             if the page is out of range
+	 */
+	public abstract List<Member> getMemberViews(int offset, int limit) throws Exception;
+
+	/**
+	 * Lists a page of the members matching a first or last name ordered by id,
+	 * read straight into the web model without loading entities.
+	 *
+	 * @param first
+	 *            LIKE pattern of the first name, may be null
+	 * @param last
+	 *            LIKE pattern of the last name, may be null
+	 * @param offset
+	 *            number of members to skip
+	 * @param limit
+	 *            maximum number of members to return
+	 * @return the members of the page
+	 * @throws Exception
+	 *             if neither name is given or the page is out of range
+	 */
+	public abstract List<Member> getMemberViewsByFirstOrLast(String first, String last, int offset, int limit)
+			throws Exception;
+
 }
\ No newline at end of file
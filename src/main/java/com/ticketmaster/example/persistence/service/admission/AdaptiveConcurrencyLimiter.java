@@ -0,0 +1,275 @@
+package com.ticketmaster.example.persistence.service.admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
+
+/**
+ * AdaptiveConcurrencyLimiter -
+ * A bulkhead that caps the number of calls in flight and lets a bounded
+ * number of callers wait a bounded time for a slot. Anything beyond that is
+ * rejected immediately with a {@link ServiceUnavailableException}.
+ *
+ * The limit adapts to observed latency (AIMD): while calls complete within
+ * <code>targetLatencyMillis</code> and the limit is being used, it grows by
+ * 1/limit per call (about one per round trip); when a call is slower than the
+ * target the limit is multiplied by <code>backoffRatio</code>. Calls that were
+ * already running at the last decrease do not back off again, so a burst of
+ * slow calls only reduces the limit once.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	/**
+	 * Weight of the newest sample in the average latency
+	 */
+	private static final double LATENCY_SMOOTHING = 0.1;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition slotAvailable = lock.newCondition();
+
+	/**
+	 * Name used in logs and statistics
+	 */
+	private String name = "default";
+	private int initialLimit = 8;
+	private int minLimit = 1;
+	private int maxLimit = 10;
+	/**
+	 * Maximum number of callers waiting for a slot
+	 */
+	private int maxQueueSize = 50;
+	/**
+	 * Maximum time a caller waits for a slot
+	 */
+	private long maxWaitMillis = 1000;
+	/**
+	 * Latency above which the limit is reduced
+	 */
+	private long targetLatencyMillis = 250;
+	/**
+	 * Multiplier applied to the limit when latency exceeds the target
+	 */
+	private double backoffRatio = 0.9;
+
+	// guarded by lock
+	private double limit = -1;
+	private int inFlight;
+	private int waiting;
+	private long lastDecreaseNanos;
+	private double averageLatencyMillis;
+	private long acceptedCount;
+	private long rejectedCount;
+	private long timedOutCount;
+
+	/**
+	 * Acquires a slot, waiting up to <code>maxWaitMillis</code> if the limit has been reached.
+	 *
+	 * @return the start time to hand back to {@link #release(long)}
+	 * @throws ServiceUnavailableException
+	 *           if the wait queue is full or no slot became available in time
+	 */
+	public long acquire() {
+		lock.lock();
+		try {
+			initLimit();
+
+			if (inFlight < currentLimit()) {
+				return admit();
+			}
+
+			if (waiting >= maxQueueSize) {
+				rejectedCount++;
+				LOG.debug("acquire() > {} rejected, limit={}, waiting={}", new Object[] { name, currentLimit(), waiting });
+				throw new ServiceUnavailableException("Too many concurrent " + name + " requests, please retry later");
+			}
+
+			waiting++;
+			try {
+				long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+				while (inFlight >= currentLimit()) {
+					if (remainingNanos <= 0) {
+						timedOutCount++;
+						throw new ServiceUnavailableException("Timed out after " + maxWaitMillis + "ms waiting to execute " + name + " request");
+					}
+					remainingNanos = slotAvailable.awaitNanos(remainingNanos);
+				}
+				return admit();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceUnavailableException("Interrupted while waiting to execute " + name + " request", e);
+			} finally {
+				waiting--;
+			}
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Releases a slot acquired by {@link #acquire()} and feeds the observed latency into the limit.
+	 *
+	 * @param startNanos
+	 *          the value returned by acquire
+	 */
+	public void release(long startNanos) {
+		final long now = nanoTime();
+		final double latencyMillis = (now - startNanos) / 1000000d;
+
+		lock.lock();
+		try {
+			final int previousLimit = currentLimit();
+			final boolean saturated = inFlight >= previousLimit;
+			inFlight--;
+
+			averageLatencyMillis += LATENCY_SMOOTHING * (latencyMillis - averageLatencyMillis);
+
+			if (latencyMillis > targetLatencyMillis) {
+				// only back off once for calls that started before the last decrease
+				if (lastDecreaseNanos - startNanos <= 0) {
+					limit = Math.max(minLimit, limit * backoffRatio);
+					lastDecreaseNanos = now;
+				}
+			} else if (saturated) {
+				limit = Math.min(maxLimit, limit + 1d / limit);
+			}
+
+			if (currentLimit() != previousLimit) {
+				LOG.debug("release() > {} limit changed from {} to {}", new Object[] { name, previousLimit, currentLimit() });
+			}
+
+			slotAvailable.signalAll();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long admit() {
+		inFlight++;
+		acceptedCount++;
+		return nanoTime();
+	}
+
+	private void initLimit() {
+		if (limit < 0) {
+			limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+			lastDecreaseNanos = nanoTime();
+		}
+	}
+
+	/**
+	 * Package visible so tests can control the latency of calls.
+	 */
+	long nanoTime() {
+		return System.nanoTime();
+	}
+
+	private int currentLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Live statistics of the limiter.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		lock.lock();
+		try {
+			initLimit();
+			statistics.put("limit", Integer.valueOf(currentLimit()));
+			statistics.put("minLimit", Integer.valueOf(minLimit));
+			statistics.put("maxLimit", Integer.valueOf(maxLimit));
+			statistics.put("inFlight", Integer.valueOf(inFlight));
+			statistics.put("waiting", Integer.valueOf(waiting));
+			statistics.put("maxQueueSize", Integer.valueOf(maxQueueSize));
+			statistics.put("averageLatencyMillis", Double.valueOf(averageLatencyMillis));
+			statistics.put("targetLatencyMillis", Long.valueOf(targetLatencyMillis));
+			statistics.put("accepted", Long.valueOf(acceptedCount));
+			statistics.put("rejected", Long.valueOf(rejectedCount));
+			statistics.put("timedOut", Long.valueOf(timedOutCount));
+		} finally {
+			lock.unlock();
+		}
+		return statistics;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	public void setMinLimit(int minLimit) {
+		this.minLimit = Math.max(1, minLimit);
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public long getTargetLatencyMillis() {
+		return targetLatencyMillis;
+	}
+
+	public void setTargetLatencyMillis(long targetLatencyMillis) {
+		this.targetLatencyMillis = targetLatencyMillis;
+	}
+
+	public double getBackoffRatio() {
+		return backoffRatio;
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+}
@@ -0,0 +1,306 @@
+package com.ticketmaster.example.persistence.service.admission;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberSyncPage;
+
+/**
+ * AdmissionControlledMemberPersistenceService -
+ * Puts separate bulkheads in front of the read and write operations of the
+ * member persistence service so an overloaded database fails fast (503)
+ * instead of piling up threads waiting on the connection pool.
+ *
+ * The read and write limits should add up to no more than the size of the
+ * connection pool; each call holds at most one connection.
+ */
+public class AdmissionControlledMemberPersistenceService implements ExampleMemberPersistenceService {
+
+	//
+	// collaborators, these will be injected
+	//
+	private ExampleMemberPersistenceService target;
+
+	private AdaptiveConcurrencyLimiter readLimiter;
+
+	private AdaptiveConcurrencyLimiter writeLimiter;
+
+	/**
+	 * false to pass every call straight through to the target
+	 */
+	private boolean enabled = true;
+
+	public ExampleMemberPersistenceService getTarget() {
+		return target;
+	}
+
+	public void setTarget(final ExampleMemberPersistenceService target) {
+		this.target = target;
+	}
+
+	public AdaptiveConcurrencyLimiter getReadLimiter() {
+		return readLimiter;
+	}
+
+	public void setReadLimiter(final AdaptiveConcurrencyLimiter readLimiter) {
+		this.readLimiter = readLimiter;
+	}
+
+	public AdaptiveConcurrencyLimiter getWriteLimiter() {
+		return writeLimiter;
+	}
+
+	public void setWriteLimiter(final AdaptiveConcurrencyLimiter writeLimiter) {
+		this.writeLimiter = writeLimiter;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMember(long)
+	 */
+	@Override
+	public MemberEntity getMember(final long memberId) throws Exception {
+		if (!enabled) {
+			return target.getMember(memberId);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMember(memberId);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#createMember(com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public MemberEntity createMember(final MemberEntity inMember) throws Exception {
+		if (!enabled) {
+			return target.createMember(inMember);
+		}
+
+		final long start = writeLimiter.acquire();
+		try {
+			return target.createMember(inMember);
+		} finally {
+			writeLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#deleteMember(long)
+	 */
+	@Override
+	public void deleteMember(final long memberId) throws Exception {
+		if (!enabled) {
+			target.deleteMember(memberId);
+			return;
+		}
+
+		final long start = writeLimiter.acquire();
+		try {
+			target.deleteMember(memberId);
+		} finally {
+			writeLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#updateMember(long, com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public MemberEntity updateMember(final long memberId, final MemberEntity inMember) throws Exception {
+		if (!enabled) {
+			return target.updateMember(memberId, inMember);
+		}
+
+		final long start = writeLimiter.acquire();
+		try {
+			return target.updateMember(memberId, inMember);
+		} finally {
+			writeLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#upsertMembersByEmail(java.util.List)
+	 */
+	@Override
+	public List<MemberEntity> upsertMembersByEmail(final List<MemberEntity> inMembers) throws Exception {
+		if (!enabled) {
+			return target.upsertMembersByEmail(inMembers);
+		}
+
+		final long start = writeLimiter.acquire();
+		try {
+			return target.upsertMembersByEmail(inMembers);
+		} finally {
+			writeLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberCount()
+	 */
+	@Override
+	public long getMemberCount() throws Exception {
+		if (!enabled) {
+			return target.getMemberCount();
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberCount();
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembers(int, int)
+	 */
+	@Override
+	public List<MemberEntity> getMembers(final int offset, final int limit) throws Exception {
+		if (!enabled) {
+			return target.getMembers(offset, limit);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMembers(offset, limit);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembersByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<MemberEntity> getMembersByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+		if (!enabled) {
+			return target.getMembersByFirstOrLast(first, last, offset, limit);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMembersByFirstOrLast(first, last, offset, limit);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberVersion(long)
+	 */
+	@Override
+	public Integer getMemberVersion(final long memberId) throws Exception {
+		if (!enabled) {
+			return target.getMemberVersion(memberId);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberVersion(memberId);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberView(long)
+	 */
+	@Override
+	public MemberJdbcReader.Result getMemberView(final long memberId) throws Exception {
+		if (!enabled) {
+			return target.getMemberView(memberId);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberView(memberId);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViews(int, int)
+	 */
+	@Override
+	public List<Member> getMemberViews(final int offset, final int limit) throws Exception {
+		if (!enabled) {
+			return target.getMemberViews(offset, limit);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberViews(offset, limit);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberChangesSince(long, long, int)
+	 */
+	@Override
+	public MemberSyncPage getMemberChangesSince(final long since, final long afterId, final int limit) throws Exception {
+		if (!enabled) {
+			return target.getMemberChangesSince(since, afterId, limit);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberChangesSince(since, afterId, limit);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViewsByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<Member> getMemberViewsByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+		if (!enabled) {
+			return target.getMemberViewsByFirstOrLast(first, last, offset, limit);
+		}
+
+		final long start = readLimiter.acquire();
+		try {
+			return target.getMemberViewsByFirstOrLast(first, last, offset, limit);
+		} finally {
+			readLimiter.release(start);
+		}
+	}
+
+	/**
+	 * Live limit and queue statistics of both bulkheads.
+	 * @return map of bulkhead name to its statistics
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("read", readLimiter.getStatistics());
+		statistics.put("write", writeLimiter.getStatistics());
+		return statistics;
+	}
+
+}
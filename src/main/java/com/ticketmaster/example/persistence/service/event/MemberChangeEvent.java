@@ -0,0 +1,70 @@
+package com.ticketmaster.example.persistence.service.event;
+
+import java.io.Serializable;
+
+/**
+ * MemberChangeEvent -
+ * A member that was created, updated or deleted by a committed transaction.
+ */
+public class MemberChangeEvent implements Serializable {
+
+	private static final long serialVersionUID = 4122178693424522591L;
+
+	/**
+	 * Kind of change
+	 */
+	public enum Type {
+		CREATED, UPDATED, DELETED
+	}
+
+	private final Type type;
+
+	private final long memberId;
+
+	private final Integer version;
+
+	private final long timestamp;
+
+	/**
+	 * @param type
+	 *          kind of change
+	 * @param memberId
+	 *          id of the changed member
+	 * @param version
+	 *          persistence version after the change, null for a deletion
+	 */
+	public MemberChangeEvent(final Type type, final long memberId, final Integer version) {
+		this.type = type;
+		this.memberId = memberId;
+		this.version = version;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getMemberId() {
+		return memberId;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return time of the commit in epoch millis
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MemberChangeEvent [type=" + type + ", memberId=" + memberId + ", version=" + version + "]";
+	}
+
+}
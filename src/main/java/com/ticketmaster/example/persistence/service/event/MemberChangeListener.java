@@ -0,0 +1,19 @@
+package com.ticketmaster.example.persistence.service.event;
+
+/**
+ * MemberChangeListener -
+ * Notified by the member persistence service once a change has been committed.
+ */
+public interface MemberChangeListener {
+
+	/**
+	 * Called after the transaction making the change has committed, on the
+	 * thread that committed it. Implementations should be quick and must not
+	 * throw.
+	 *
+	 * @param event
+	 *          the committed change
+	 */
+	void onMemberChange(MemberChangeEvent event);
+
+}
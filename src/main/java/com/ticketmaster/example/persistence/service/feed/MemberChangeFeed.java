@@ -0,0 +1,554 @@
+package com.ticketmaster.example.persistence.service.feed;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.persistence.service.event.MemberChangeListener;
+import com.ticketmaster.example.web.model.MemberChange;
+import com.ticketmaster.example.web.model.MemberChangePage;
+
+/**
+ * MemberChangeFeed -
+ * Numbers every committed create, update and delete of a member and keeps
+ * them for consumers that follow the changes from an offset of their own.
+ *
+ * The latest <code>capacity</code> changes are held in a ring in memory. If
+ * a <code>directory</code> is set, every change is also appended to a
+ * segment file of <code>segmentRecords</code> fixed-size records named
+ * after the offset of its first record; the oldest segments past
+ * <code>maxSegments</code> are deleted. On {@link #start()} the segments are
+ * read back, a torn or corrupt tail of the last one dropped, and numbering
+ * resumes where it stopped, so offsets stay valid across restarts.
+ *
+ * A consumer asking for an offset no longer kept gets the oldest changes
+ * still kept and is told some were missed, it should then read all members
+ * again.
+ */
+public class MemberChangeFeed implements MemberChangeListener {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberChangeFeed.class);
+
+	/**
+	 * crc32, offset, type, member id, version and timestamp
+	 */
+	static final int RECORD_BYTES = 4 + 8 + 1 + 8 + 4 + 8;
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private static final MemberChangeEvent.Type[] TYPES = MemberChangeEvent.Type.values();
+
+	/**
+	 * Directory of the segment files, null to keep the changes in memory only
+	 */
+	private File directory;
+	/**
+	 * Number of changes held in memory
+	 */
+	private int capacity = 10000;
+	/**
+	 * Number of changes per segment file
+	 */
+	private int segmentRecords = 100000;
+	/**
+	 * Number of segment files kept
+	 */
+	private int maxSegments = 10;
+	/**
+	 * true to force every append to disk before the next listener is notified
+	 */
+	private boolean sync = false;
+
+	private MemberChange[] ring;
+
+	/**
+	 * offset of the next change
+	 */
+	private long tail;
+
+	/**
+	 * offset of the oldest change in the ring
+	 */
+	private long ringStart;
+
+	/**
+	 * offset following the last change written to the segments
+	 */
+	private long segmentTail;
+
+	/**
+	 * offsets of the first change of each segment, oldest first
+	 */
+	private final List<Long> segmentBases = new ArrayList<Long>();
+
+	private RandomAccessFile segment;
+
+	private FileChannel segmentChannel;
+
+	private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_BYTES);
+
+	private final List<Waiter> waiters = new ArrayList<Waiter>();
+
+	private final AtomicLong appendedCount = new AtomicLong();
+	private final AtomicLong writeFailureCount = new AtomicLong();
+	private final AtomicLong readCount = new AtomicLong();
+	private final AtomicLong segmentReadCount = new AtomicLong();
+	private final AtomicLong truncatedReadCount = new AtomicLong();
+
+	/**
+	 * Reads back the segments and opens the last one for appends; called by
+	 * the container once properties are set.
+	 *
+	 * @throws IOException
+	 *           if the segments cannot be read or created
+	 */
+	public synchronized void start() throws IOException {
+		ring = new MemberChange[capacity];
+		tail = 0;
+		ringStart = 0;
+		segmentTail = 0;
+		segmentBases.clear();
+
+		if (directory == null) {
+			LOG.info("start() > capacity={}, changes are kept in memory only", capacity);
+			return;
+		}
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.matches("\\d{20}\\" + SEGMENT_SUFFIX);
+			}
+		});
+		for (File file : files) {
+			segmentBases.add(Long.valueOf(file.getName().substring(0, 20)));
+		}
+		Collections.sort(segmentBases);
+
+		if (!segmentBases.isEmpty()) {
+			final long base = segmentBases.get(segmentBases.size() - 1).longValue();
+			openSegment(base);
+			tail = base + validRecords(base);
+			segmentChannel.truncate((tail - base) * RECORD_BYTES);
+			segmentChannel.position(segmentChannel.size());
+		}
+		segmentTail = tail;
+		ringStart = Math.max(segmentBases.isEmpty() ? tail : segmentBases.get(0).longValue(), tail - capacity);
+		for (MemberChange change : readSegments(ringStart, tail)) {
+			ring[(int) (change.getOffset().longValue() % capacity)] = change;
+		}
+		if (segment == null || tail - segmentBases.get(segmentBases.size() - 1).longValue() >= segmentRecords) {
+			rollSegment();
+		}
+
+		LOG.info("start() > capacity={}, directory={}, segments={}, oldest={}, tail={}",
+				new Object[] { capacity, directory, segmentBases.size(), oldest(), tail });
+	}
+
+	/**
+	 * Closes the current segment and wakes up every waiting consumer.
+	 */
+	public void shutdown() {
+		final List<Waiter> woken;
+		synchronized (this) {
+			closeSegment();
+			woken = new ArrayList<Waiter>(waiters);
+			waiters.clear();
+		}
+		for (Waiter waiter : woken) {
+			waiter.callback.run();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.event.MemberChangeListener#onMemberChange(com.ticketmaster.example.persistence.service.event.MemberChangeEvent)
+	 */
+	@Override
+	public void onMemberChange(final MemberChangeEvent event) {
+		final List<Waiter> woken;
+		synchronized (this) {
+			if (ring == null) {
+				return;
+			}
+			final MemberChange change = new MemberChange(Long.valueOf(tail), event.getType().name(),
+					Long.valueOf(event.getMemberId()), event.getVersion(), new Date(event.getTimestamp()));
+			write(event);
+			ring[(int) (tail % capacity)] = change;
+			tail++;
+			ringStart = Math.max(ringStart, tail - capacity);
+			appendedCount.incrementAndGet();
+			if (waiters.isEmpty()) {
+				return;
+			}
+			woken = new ArrayList<Waiter>(waiters);
+			waiters.clear();
+		}
+		for (Waiter waiter : woken) {
+			try {
+				waiter.callback.run();
+			} catch (RuntimeException e) {
+				LOG.warn("onMemberChange() > Consumer callback failed: {}", e);
+			}
+		}
+	}
+
+	/**
+	 * Appends the change to the current segment. A segment that cannot be
+	 * written is closed and the changes are kept in memory only until the
+	 * next start.
+	 */
+	private void write(final MemberChangeEvent event) {
+		if (segmentChannel == null) {
+			return;
+		}
+		try {
+			if (tail - segmentBases.get(segmentBases.size() - 1).longValue() >= segmentRecords) {
+				rollSegment();
+			}
+			recordBuffer.clear();
+			recordBuffer.putInt(0).putLong(tail).put((byte) event.getType().ordinal()).putLong(event.getMemberId())
+					.putInt(event.getVersion() == null ? -1 : event.getVersion().intValue()).putLong(event.getTimestamp());
+			recordBuffer.putInt(0, crc(recordBuffer.array()));
+			recordBuffer.flip();
+			while (recordBuffer.hasRemaining()) {
+				segmentChannel.write(recordBuffer);
+			}
+			if (sync) {
+				segmentChannel.force(false);
+			}
+			segmentTail = tail + 1;
+		} catch (IOException e) {
+			writeFailureCount.incrementAndGet();
+			LOG.error("write() > Cannot append change " + tail + " to " + directory
+					+ ", changes are now kept in memory only", e);
+			closeSegment();
+		}
+	}
+
+	/**
+	 * Reads the changes following an offset without waiting.
+	 *
+	 * @param offset
+	 *          offset of the first change wanted
+	 * @param limit
+	 *          maximum number of changes returned
+	 * @return the changes from the offset, or from the oldest one kept if the
+	 *         offset is no longer kept
+	 */
+	public MemberChangePage read(final long offset, final int limit) {
+		readCount.incrementAndGet();
+		long from = offset;
+		final long to;
+		boolean truncated = false;
+		synchronized (this) {
+			if (ring == null) {
+				throw new IllegalStateException("Member change feed is not started");
+			}
+			if (from > tail || from < oldest()) {
+				// before the oldest change kept, or from a feed that has since been reset
+				from = oldest();
+				truncated = true;
+			}
+			if (from >= segmentTail && from < ringStart) {
+				// lost with a segment that could not be written
+				from = ringStart;
+				truncated = true;
+			}
+			if (from >= ringStart) {
+				final long end = Math.min(tail, from + Math.max(limit, 0));
+				final List<MemberChange> changes = new ArrayList<MemberChange>((int) (end - from));
+				for (long index = from; index < end; index++) {
+					changes.add(ring[(int) (index % capacity)]);
+				}
+				if (truncated) {
+					truncatedReadCount.incrementAndGet();
+				}
+				return new MemberChangePage(changes, end, truncated);
+			}
+			to = Math.min(segmentTail, from + Math.max(limit, 0));
+		}
+
+		// older than the ring, read from the segments without holding up appends
+		segmentReadCount.incrementAndGet();
+		final List<MemberChange> changes;
+		try {
+			changes = readSegments(from, to);
+		} catch (FileNotFoundException e) {
+			synchronized (this) {
+				if (from >= oldest()) {
+					throw new IllegalStateException("Cannot read member changes from " + directory, e);
+				}
+			}
+			// the segment has been deleted since
+			return read(from, limit);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read member changes from " + directory, e);
+		}
+		if (truncated) {
+			truncatedReadCount.incrementAndGet();
+		}
+		return new MemberChangePage(changes, from + changes.size(), truncated);
+	}
+
+	/**
+	 * Registers a callback run once a change follows the given offset, or the
+	 * feed is shut down. A callback still waiting after
+	 * <code>waitMillis</code> is dropped the next time one is registered.
+	 *
+	 * @param offset
+	 *          offset of the first change wanted
+	 * @param callback
+	 *          run on the thread appending the change, must be quick
+	 * @param waitMillis
+	 *          how long the consumer waits
+	 * @return false, and the callback is not registered, if there already is a
+	 *         change at the offset
+	 */
+	public synchronized boolean register(final long offset, final Runnable callback, final long waitMillis) {
+		if (ring == null || offset < tail) {
+			return false;
+		}
+		final long now = System.currentTimeMillis();
+		for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext();) {
+			if (iterator.next().deadline < now) {
+				iterator.remove();
+			}
+		}
+		waiters.add(new Waiter(callback, now + waitMillis));
+		return true;
+	}
+
+	/**
+	 * @return offset of the next change
+	 */
+	public synchronized long getTail() {
+		return tail;
+	}
+
+	/**
+	 * @return offset of the oldest change kept
+	 */
+	private long oldest() {
+		return segmentBases.isEmpty() ? ringStart : Math.min(ringStart, segmentBases.get(0).longValue());
+	}
+
+	/**
+	 * @return the changes from <code>from</code> to <code>to</code> excluded,
+	 *         read from the segments
+	 */
+	private List<MemberChange> readSegments(final long from, final long to) throws IOException {
+		final List<MemberChange> changes = new ArrayList<MemberChange>((int) Math.max(to - from, 0));
+		final List<Long> bases;
+		synchronized (this) {
+			bases = new ArrayList<Long>(segmentBases);
+		}
+		long offset = from;
+		for (int index = 0; index < bases.size() && offset < to; index++) {
+			final long base = bases.get(index).longValue();
+			final long next = index + 1 < bases.size() ? bases.get(index + 1).longValue() : Long.MAX_VALUE;
+			if (offset >= next) {
+				continue;
+			}
+			final long end = Math.min(to, next);
+			final RandomAccessFile file = new RandomAccessFile(segmentFile(base), "r");
+			try {
+				final byte[] records = new byte[(int) (end - offset) * RECORD_BYTES];
+				file.seek((offset - base) * RECORD_BYTES);
+				file.readFully(records);
+				final ByteBuffer buffer = ByteBuffer.wrap(records);
+				while (buffer.hasRemaining()) {
+					changes.add(decode(buffer));
+				}
+			} finally {
+				file.close();
+			}
+			offset = end;
+		}
+		return changes;
+	}
+
+	/**
+	 * @return the number of records of the segment up to its first torn or
+	 *         corrupt one
+	 */
+	private long validRecords(final long base) throws IOException {
+		final long records = segmentChannel.size() / RECORD_BYTES;
+		final byte[] record = new byte[RECORD_BYTES];
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		segmentChannel.position(0);
+		for (long index = 0; index < records; index++) {
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				if (segmentChannel.read(buffer) < 0) {
+					return index;
+				}
+			}
+			if (buffer.getInt(0) != crc(record) || buffer.getLong(4) != base + index) {
+				LOG.warn("validRecords() > Dropped {} corrupt records from {}", records - index, segmentFile(base));
+				return index;
+			}
+		}
+		if (segmentChannel.size() > records * RECORD_BYTES) {
+			LOG.warn("validRecords() > Dropped a torn record from {}", segmentFile(base));
+		}
+		return records;
+	}
+
+	private static MemberChange decode(final ByteBuffer buffer) {
+		buffer.getInt();
+		final long offset = buffer.getLong();
+		final MemberChangeEvent.Type type = TYPES[buffer.get()];
+		final long memberId = buffer.getLong();
+		final int version = buffer.getInt();
+		final long timestamp = buffer.getLong();
+		return new MemberChange(Long.valueOf(offset), type.name(), Long.valueOf(memberId),
+				version < 0 ? null : Integer.valueOf(version), new Date(timestamp));
+	}
+
+	private static int crc(final byte[] record) {
+		final CRC32 crc = new CRC32();
+		crc.update(record, 4, RECORD_BYTES - 4);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Starts a new segment at the current tail and deletes the oldest ones
+	 * past <code>maxSegments</code>.
+	 */
+	private void rollSegment() throws IOException {
+		closeSegment();
+		if (segmentBases.isEmpty() || segmentBases.get(segmentBases.size() - 1).longValue() != tail) {
+			segmentBases.add(Long.valueOf(tail));
+		}
+		openSegment(tail);
+		segmentChannel.truncate(0);
+		while (segmentBases.size() > maxSegments) {
+			final File file = segmentFile(segmentBases.remove(0).longValue());
+			if (!file.delete()) {
+				LOG.warn("rollSegment() > Cannot delete {}", file);
+			}
+		}
+	}
+
+	private void openSegment(final long base) throws IOException {
+		segment = new RandomAccessFile(segmentFile(base), "rw");
+		segmentChannel = segment.getChannel();
+	}
+
+	private void closeSegment() {
+		if (segment == null) {
+			return;
+		}
+		try {
+			segment.close();
+		} catch (IOException e) {
+			LOG.warn("closeSegment() > Cannot close segment: {}", e);
+		}
+		segment = null;
+		segmentChannel = null;
+	}
+
+	private File segmentFile(final long base) {
+		return new File(directory, String.format("%020d", Long.valueOf(base)) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * Live statistics of the feed.
+	 * @return map of statistic name to value
+	 */
+	public synchronized Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("durable", Boolean.valueOf(segment != null));
+		statistics.put("capacity", Integer.valueOf(capacity));
+		statistics.put("tail", Long.valueOf(tail));
+		statistics.put("oldest", Long.valueOf(ring == null ? 0 : oldest()));
+		statistics.put("oldestInMemory", Long.valueOf(ringStart));
+		statistics.put("segments", Integer.valueOf(segmentBases.size()));
+		statistics.put("waiters", Integer.valueOf(waiters.size()));
+		statistics.put("appended", Long.valueOf(appendedCount.get()));
+		statistics.put("writeFailures", Long.valueOf(writeFailureCount.get()));
+		statistics.put("reads", Long.valueOf(readCount.get()));
+		statistics.put("segmentReads", Long.valueOf(segmentReadCount.get()));
+		statistics.put("truncatedReads", Long.valueOf(truncatedReadCount.get()));
+		return statistics;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getSegmentRecords() {
+		return segmentRecords;
+	}
+
+	public void setSegmentRecords(int segmentRecords) {
+		this.segmentRecords = segmentRecords;
+	}
+
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+
+	public void setMaxSegments(int maxSegments) {
+		this.maxSegments = maxSegments;
+	}
+
+	public boolean isSync() {
+		return sync;
+	}
+
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	/**
+	 * A consumer waiting for the next change
+	 */
+	private static final class Waiter {
+
+		private final Runnable callback;
+
+		private final long deadline;
+
+		Waiter(final Runnable callback, final long deadline) {
+			this.callback = callback;
+			this.deadline = deadline;
+		}
+	}
+
+}
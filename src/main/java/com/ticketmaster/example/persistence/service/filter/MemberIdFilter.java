@@ -0,0 +1,442 @@
+package com.ticketmaster.example.persistence.service.filter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.commons.cache.BloomFilter;
+import com.ticketmaster.example.commons.cache.invalidation.Invalidation;
+import com.ticketmaster.example.commons.cache.invalidation.InvalidationListener;
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.persistence.service.event.MemberChangeListener;
+
+/**
+ * MemberIdFilter -
+ * Answers whether a member id can exist without asking the database, so
+ * lookups of ids that were never created are refused early.
+ *
+ * A Bloom filter of all member ids is built in the background at startup and
+ * extended by every create committed on this node or announced by a peer.
+ * Only ids up to the highest one read by the build are refused on the
+ * filter's word. Ids are assigned in ascending order within each range of
+ * <code>idBlockSize</code> ids (one per shard), so ids above the highest of
+ * their range at build time are always let through: peers announce their
+ * creates over a channel that may lose them, and a lost announcement must not
+ * make a member unreadable here. Misses among those are remembered in a small
+ * expiring cache instead.
+ *
+ * Deleted ids stay in the filter, and ids created since the build go to the
+ * database, until the next rebuild: every <code>rebuildIntervalSeconds</code>,
+ * or once the filter holds more ids than it was sized for.
+ */
+public class MemberIdFilter implements MemberChangeListener, InvalidationListener {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberIdFilter.class);
+
+	/**
+	 * Entity name of members on the invalidation bus
+	 */
+	private static final String MEMBER_ENTITY = MemberEntity.class.getName();
+
+	private MemberDao memberDao;
+
+	private PlatformTransactionManager transactionManager;
+
+	private Ehcache missingCache;
+
+	private boolean enabled = true;
+
+	private double falsePositiveRate = 0.01;
+
+	private long expectedMembers = 1000000;
+
+	private double capacityFactor = 2.0;
+
+	private int batchSize = 10000;
+
+	/**
+	 * Size of the id ranges handed out in ascending order, the shard block size
+	 * when members are sharded
+	 */
+	private long idBlockSize = Long.MAX_VALUE;
+
+	private long rebuildIntervalSeconds = 3600;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Guards adding to the filters against swapping them
+	 */
+	private final Object lock = new Object();
+
+	private volatile BloomFilter filter;
+
+	private BloomFilter building;
+
+	/**
+	 * Highest id read by the build of the current filter, by id range
+	 */
+	private volatile Map<Long, Long> builtThroughIds = Collections.emptyMap();
+
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+	private final AtomicLong passedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong falsePositiveCount = new AtomicLong();
+	private final AtomicLong deletedCount = new AtomicLong();
+	private final AtomicLong buildCount = new AtomicLong();
+
+	private volatile long buildMillis = -1;
+
+	/**
+	 * Builds the filter in the background; called by the container once
+	 * properties are set. Until it is built every id is let through.
+	 */
+	public void start() {
+		if (!enabled) {
+			LOG.info("start() > member id filter disabled");
+			return;
+		}
+		rebuild();
+
+		if (rebuildIntervalSeconds > 0) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable, "member-id-filter-rebuild");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					rebuild();
+				}
+			}, rebuildIntervalSeconds, rebuildIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops the periodic rebuilds; called by the container on shutdown.
+	 */
+	public void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Builds a new filter from the database in the background, unless a build
+	 * is running. Lookups use the current filter until the new one is done.
+	 */
+	public void rebuild() {
+		if (!rebuilding.compareAndSet(false, true)) {
+			return;
+		}
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					build();
+				} catch (RuntimeException e) {
+					LOG.error("rebuild() > Cannot build member id filter: {}", e);
+				} finally {
+					rebuilding.set(false);
+				}
+			}
+		}, "member-id-filter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void build() {
+		final long start = System.currentTimeMillis();
+		final TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(true);
+
+		final long members = template.execute(new TransactionCallback<Number>() {
+			@Override
+			public Number doInTransaction(TransactionStatus status) {
+				return memberDao.getMemberCount();
+			}
+		}).longValue();
+		final BloomFilter next = new BloomFilter(Math.max(expectedMembers, (long) (members * capacityFactor)),
+				falsePositiveRate);
+		synchronized (lock) {
+			building = next;
+		}
+
+		final Map<Long, Long> builtThrough = new HashMap<Long, Long>();
+		long afterId = 0;
+		long loaded = 0;
+		while (true) {
+			final long after = afterId;
+			final List<Long> ids = template.execute(new TransactionCallback<List<Long>>() {
+				@Override
+				public List<Long> doInTransaction(TransactionStatus status) {
+					return memberDao.getMemberIds(after, batchSize);
+				}
+			});
+			for (Long id : ids) {
+				next.put(id.longValue());
+				builtThrough.put(Long.valueOf(block(id.longValue())), id);
+			}
+			loaded += ids.size();
+			if (!ids.isEmpty()) {
+				afterId = ids.get(ids.size() - 1).longValue();
+			}
+			if (ids.size() < batchSize) {
+				break;
+			}
+		}
+
+		synchronized (lock) {
+			builtThroughIds = builtThrough;
+			filter = next;
+			building = null;
+		}
+		deletedCount.set(0);
+		buildCount.incrementAndGet();
+		buildMillis = System.currentTimeMillis() - start;
+		LOG.info("build() > member id filter of {} ids built in {}ms, {} bytes for {} ids at {} false positives",
+				new Object[] { loaded, buildMillis, next.getSizeInBytes(), next.getExpectedInsertions(), falsePositiveRate });
+	}
+
+	private long block(final long memberId) {
+		return memberId / idBlockSize;
+	}
+
+	/**
+	 * @return true if the id is above the highest id of its range when the
+	 *         filter was built, so the filter cannot tell whether it exists
+	 */
+	private boolean isAfterBuild(final long memberId) {
+		final Long builtThrough = builtThroughIds.get(Long.valueOf(block(memberId)));
+		return builtThrough == null || memberId > builtThrough.longValue();
+	}
+
+	/**
+	 * @param memberId
+	 *          id to look up
+	 * @return false if no member with the id exists
+	 */
+	public boolean mightExist(final long memberId) {
+		final BloomFilter current = filter;
+		if (!enabled || current == null) {
+			return true;
+		}
+		final boolean exists;
+		if (isAfterBuild(memberId)) {
+			exists = missingCache == null || missingCache.get(Long.valueOf(memberId)) == null;
+		} else {
+			exists = current.mightContain(memberId);
+		}
+		(exists ? passedCount : rejectedCount).incrementAndGet();
+		return exists;
+	}
+
+	/**
+	 * Reports an id that was let through but not found.
+	 *
+	 * @param memberId
+	 *          id of the missing member
+	 */
+	public void recordMissing(final long memberId) {
+		if (!enabled || filter == null) {
+			return;
+		}
+		if (isAfterBuild(memberId)) {
+			if (missingCache != null) {
+				missingCache.put(new Element(Long.valueOf(memberId), Boolean.TRUE));
+			}
+		} else {
+			falsePositiveCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param memberId
+	 *          id of a member that exists
+	 */
+	public void add(final long memberId) {
+		final BloomFilter current;
+		synchronized (lock) {
+			current = filter;
+			if (current != null) {
+				current.put(memberId);
+			}
+			if (building != null) {
+				building.put(memberId);
+			}
+		}
+		if (missingCache != null) {
+			missingCache.remove(Long.valueOf(memberId));
+		}
+		if (current != null && current.getApproximateCount() > current.getExpectedInsertions()) {
+			LOG.info("add() > member id filter exceeds {} ids, rebuilding", current.getExpectedInsertions());
+			rebuild();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.event.MemberChangeListener#onMemberChange(com.ticketmaster.example.persistence.service.event.MemberChangeEvent)
+	 */
+	@Override
+	public void onMemberChange(final MemberChangeEvent event) {
+		if (event.getType() == MemberChangeEvent.Type.DELETED) {
+			deletedCount.incrementAndGet();
+		} else {
+			add(event.getMemberId());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationListener#onInvalidations(java.util.List)
+	 */
+	@Override
+	public void onInvalidations(final List<Invalidation> invalidations) {
+		for (Invalidation invalidation : invalidations) {
+			if (MEMBER_ENTITY.equals(invalidation.getEntityName()) && invalidation.getId() instanceof Long) {
+				if (invalidation.isDeleted()) {
+					deletedCount.incrementAndGet();
+				} else {
+					add(((Long) invalidation.getId()).longValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return size, memory use and effect of the filter keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		final BloomFilter current = filter;
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("ready", Boolean.valueOf(current != null));
+		statistics.put("rebuilding", Boolean.valueOf(rebuilding.get()));
+		statistics.put("falsePositiveRate", Double.valueOf(falsePositiveRate));
+		if (current != null) {
+			statistics.put("capacity", Long.valueOf(current.getExpectedInsertions()));
+			statistics.put("approximateIds", Long.valueOf(current.getApproximateCount()));
+			statistics.put("currentFalsePositiveRate", Double.valueOf(current.getCurrentFalsePositiveRate()));
+			statistics.put("bits", Long.valueOf(current.getBitCount()));
+			statistics.put("hashFunctions", Integer.valueOf(current.getHashCount()));
+			statistics.put("memoryBytes", Long.valueOf(current.getSizeInBytes()));
+		}
+		statistics.put("builtThroughIds", new HashMap<Long, Long>(builtThroughIds));
+		statistics.put("missingCached", Integer.valueOf(missingCache == null ? 0 : missingCache.getSize()));
+		statistics.put("passed", Long.valueOf(passedCount.get()));
+		statistics.put("rejected", Long.valueOf(rejectedCount.get()));
+		statistics.put("falsePositives", Long.valueOf(falsePositiveCount.get()));
+		statistics.put("deletedSinceBuild", Long.valueOf(deletedCount.get()));
+		statistics.put("builds", Long.valueOf(buildCount.get()));
+		statistics.put("buildMillis", Long.valueOf(buildMillis));
+		return statistics;
+	}
+
+	public MemberDao getMemberDao() {
+		return memberDao;
+	}
+
+	public void setMemberDao(MemberDao memberDao) {
+		this.memberDao = memberDao;
+	}
+
+	public PlatformTransactionManager getTransactionManager() {
+		return transactionManager;
+	}
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public Ehcache getMissingCache() {
+		return missingCache;
+	}
+
+	public void setMissingCache(Ehcache missingCache) {
+		this.missingCache = missingCache;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	public void setFalsePositiveRate(double falsePositiveRate) {
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	public long getExpectedMembers() {
+		return expectedMembers;
+	}
+
+	public void setExpectedMembers(long expectedMembers) {
+		this.expectedMembers = expectedMembers;
+	}
+
+	public double getCapacityFactor() {
+		return capacityFactor;
+	}
+
+	public void setCapacityFactor(double capacityFactor) {
+		this.capacityFactor = capacityFactor;
+	}
+
+	public long getIdBlockSize() {
+		return idBlockSize;
+	}
+
+	public void setIdBlockSize(long idBlockSize) {
+		this.idBlockSize = idBlockSize;
+	}
+
+	public long getRebuildIntervalSeconds() {
+		return rebuildIntervalSeconds;
+	}
+
+	public void setRebuildIntervalSeconds(long rebuildIntervalSeconds) {
+		this.rebuildIntervalSeconds = rebuildIntervalSeconds;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
@@ -1,19 +1,42 @@
 package com.ticketmaster.example.persistence.service.hibernate;
 
+import static com.ticketmaster.example.constants.ConstantDataManager.CACHE_GROUP_MEMBER;
 import static com.ticketmaster.example.constants.ConstantDataManager.OP_CREATE;
 import static com.ticketmaster.example.constants.ConstantDataManager.OP_UPDATE;
+import static com.ticketmaster.example.constants.ConstantDataManager.OP_UPSERT;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.ticketmaster.example.commons.cache.method.CachedResult;
+import com.ticketmaster.example.commons.cache.method.EvictCachedResults;
+import com.ticketmaster.example.commons.persistence.datasource.CountStatements;
+import com.ticketmaster.example.dao.FetchPlan;
 import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
 import com.ticketmaster.example.model.AddressEntity;
 import com.ticketmaster.example.model.MemberEntity;
 import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.persistence.service.event.MemberChangeListener;
+import com.ticketmaster.example.persistence.service.filter.MemberIdFilter;
 import com.ticketmaster.example.util.MemberValidator;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
+import com.ticketmaster.example.web.model.MemberSyncPage;
 
+@CountStatements
 public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemberPersistenceService {
 
 	/**
@@ -35,6 +58,127 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
     	this.memberDao = memberDao;
     }
 
+    //
+    // how lists load the addresses of their members, and their largest page
+    //
+    private FetchPlan listFetchPlan = FetchPlan.JOIN;
+
+    public FetchPlan getListFetchPlan() {
+    	return listFetchPlan;
+    }
+
+    public void setListFetchPlan(final FetchPlan listFetchPlan) {
+    	this.listFetchPlan = listFetchPlan;
+    }
+
+    private int maxPageSize = 100;
+
+    public int getMaxPageSize() {
+    	return maxPageSize;
+    }
+
+    public void setMaxPageSize(final int maxPageSize) {
+    	this.maxPageSize = maxPageSize;
+    }
+
+    //
+    // changes younger than this are left for the next getMemberChangesSince
+    //
+    private long syncLagMillis = 5000;
+
+    public long getSyncLagMillis() {
+    	return syncLagMillis;
+    }
+
+    public void setSyncLagMillis(final long syncLagMillis) {
+    	this.syncLagMillis = syncLagMillis;
+    }
+
+    //
+    // most members written by one upsert
+    //
+    private int maxUpsertSize = 100;
+
+    public int getMaxUpsertSize() {
+    	return maxUpsertSize;
+    }
+
+    public void setMaxUpsertSize(final int maxUpsertSize) {
+    	this.maxUpsertSize = maxUpsertSize;
+    }
+
+    //
+    // refuses lookups of ids that were never created, optional
+    //
+    private MemberIdFilter memberIdFilter;
+
+    public MemberIdFilter getMemberIdFilter() {
+    	return memberIdFilter;
+    }
+
+    public void setMemberIdFilter(final MemberIdFilter memberIdFilter) {
+    	this.memberIdFilter = memberIdFilter;
+    }
+
+    //
+    // reads single members in one join, optional
+    //
+    private MemberJdbcReader memberJdbcReader;
+
+    public MemberJdbcReader getMemberJdbcReader() {
+    	return memberJdbcReader;
+    }
+
+    public void setMemberJdbcReader(final MemberJdbcReader memberJdbcReader) {
+    	this.memberJdbcReader = memberJdbcReader;
+    }
+
+    //
+    // notified of every committed create, update and delete
+    //
+    private List<MemberChangeListener> memberChangeListeners = new ArrayList<MemberChangeListener>();
+
+    public List<MemberChangeListener> getMemberChangeListeners() {
+    	return memberChangeListeners;
+    }
+
+    public void setMemberChangeListeners(final List<MemberChangeListener> memberChangeListeners) {
+    	this.memberChangeListeners = memberChangeListeners;
+    }
+
+    /**
+     * Notifies the listeners once the current transaction commits, nothing is
+     * sent if it rolls back. The version is read at commit, after the flush
+     * has incremented it.
+     */
+    private void fireAfterCommit(final MemberChangeEvent.Type type, final MemberEntity member) {
+    	if (memberChangeListeners.isEmpty()) {
+    	    return;
+    	}
+    	if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+    	    fire(type, member);
+    	    return;
+    	}
+    	TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+    	    @Override
+    	    public void afterCommit() {
+    		fire(type, member);
+    	    }
+    	});
+    }
+
+    private void fire(final MemberChangeEvent.Type type, final MemberEntity member) {
+    	final MemberChangeEvent event = new MemberChangeEvent(type, member.getId().longValue(),
+    		type == MemberChangeEvent.Type.DELETED ? null : member.getPersistenceVersion());
+    	for (MemberChangeListener listener : memberChangeListeners) {
+    	    try {
+    		listener.onMemberChange(event);
+    	    } catch (RuntimeException e) {
+    		LOG.warn("Member change listener failed for {}: {}", event, e);
+    	    }
+    	}
+    }
+
 
 
     /* (non-Javadoc)
@@ -58,11 +202,21 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
     	//
     	// input is good
     	//
+    	// Member can exist, answered without the database
+    	if (memberIdFilter != null && !memberIdFilter.mightExist(memberId)) {
+    	    LOG.debug("getMember() > No member can exist for id=({})", memberId);
+
+    	    throw new Exception("Member check failed - Could not retrieve member (" + memberId + ")");
+    	}
+
     	// Member exists
     	final MemberEntity returnMember = memberDao.getMemberById(memberId);
     	
     	if (returnMember == null) {
     	    LOG.info("No matching Member found for id=({})", memberId);
+    	    if (memberIdFilter != null) {
+    	        memberIdFilter.recordMissing(memberId);
+    	    }
 
     	    throw new Exception("Member check failed - Could not retrieve member (" + memberId + ")");
     	}
@@ -74,6 +228,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 	 * @see com.ticketmaster.example.persistence.service.hibernate.ExampleMemberPersistenceService#createMember(com.ticketmaster.example.model.Member)
 	 */
     @Transactional(readOnly = false, propagation = Propagation.REQUIRED)    
+    @EvictCachedResults(groups = CACHE_GROUP_MEMBER)
     @Override
 	public MemberEntity createMember(final MemberEntity inMember) throws Exception {
 
@@ -103,6 +258,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 
     	    // create it
     	    memberDao.createMember(inMember);
+    	    fireAfterCommit(MemberChangeEvent.Type.CREATED, inMember);
 
     	    // save was successful, return
     	    returnMember = inMember;
@@ -121,6 +277,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 	 * @see com.ticketmaster.example.persistence.service.hibernate.ExampleMemberPersistenceService#deleteMember(long)
 	 */
     @Transactional(readOnly = false, propagation = Propagation.REQUIRED)    
+    @EvictCachedResults(groups = CACHE_GROUP_MEMBER)
     @Override
 	public void deleteMember(final long memberId) throws Exception{
     	LOG.debug("getMember() > Arguments: memberId=({})", memberId );
@@ -148,6 +305,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 	
 	    		    // we verified it exists, now try to remove
 	    		    memberDao.deleteMemberById(memberId);
+	    		    fireAfterCommit(MemberChangeEvent.Type.DELETED, aMember);
 	    		}
 
     	    } catch (Exception e) {
@@ -162,6 +320,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 	 * @see com.ticketmaster.example.persistence.service.hibernate.ExampleMemberPersistenceService#updateMember(long, com.ticketmaster.example.model.Member)
 	 */
     @Transactional(readOnly = false, propagation = Propagation.REQUIRED)    
+    @EvictCachedResults(groups = CACHE_GROUP_MEMBER)
     @Override
 	public MemberEntity updateMember(final long memberId, final MemberEntity inMember)
             throws Exception {
@@ -226,6 +385,7 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 
     	    // run the update
     	    returnMember = memberDao.updateMember(member);
+    	    fireAfterCommit(MemberChangeEvent.Type.UPDATED, returnMember);
 
     	} catch (Exception e) {
     	    LOG.info("Unable to update member: {}", e);
@@ -236,10 +396,69 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
     	
     }
 
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#upsertMembersByEmail(java.util.List)
+	 */
+    @Transactional(readOnly = false, propagation = Propagation.REQUIRED)
+    @EvictCachedResults(groups = CACHE_GROUP_MEMBER)
+    @Override
+	public List<MemberEntity> upsertMembersByEmail(final List<MemberEntity> inMembers) throws Exception {
+
+    	LOG.debug("upsertMembersByEmail() > Arguments: {} members", inMembers.size());
+
+    	//
+    	// validate
+    	//
+    	if (inMembers.isEmpty() || inMembers.size() > maxUpsertSize) {
+
+    	    throw new Exception("Member count check failed - Between 1 and " + maxUpsertSize
+    		    + " members can be upserted at once (" + inMembers.size() + ")");
+    	}
+    	final Set<String> emails = new HashSet<String>();
+    	for (MemberEntity inMember : inMembers) {
+    	    MemberValidator.validateMember(inMember, OP_UPSERT);
+
+    	    final String email = inMember.getEmail();
+    	    if (email == null || email.length() == 0) {
+    		throw new Exception("Email check failed - An email is required to upsert a member");
+    	    }
+    	    if (!emails.add(email)) {
+    		throw new Exception("Email check failed - Email (" + email + ") is given more than once");
+    	    }
+    	}
+
+    	try {
+
+    	    // ids and versions are set by the upsert, add defaults
+    	    for (MemberEntity inMember : inMembers) {
+    		inMember.setId(null);
+    		if (inMember.getOptOut() == null) {
+    		    inMember.setOptOut(Boolean.FALSE);
+    		}
+    		if (inMember.getAddress() != null) {
+    		    inMember.getAddress().setId(null);
+    		}
+    	    }
+
+    	    final Set<Long> createdIds = new HashSet<Long>(memberDao.upsertMembersByEmail(inMembers));
+    	    for (MemberEntity inMember : inMembers) {
+    		fireAfterCommit(createdIds.contains(inMember.getId()) ? MemberChangeEvent.Type.CREATED
+    			: MemberChangeEvent.Type.UPDATED, inMember);
+    	    }
+
+    	    return inMembers;
+
+    	} catch (Exception e) {
+    	    LOG.info("Unable to upsert Members: {}", e);
+    	    throw e;
+    	}
+    }
+
     /* (non-Javadoc)
 	 * @see com.ticketmaster.example.persistence.service.hibernate.ExampleMemberPersistenceService#getMemberCount()
 	 */
     @Transactional(readOnly = true, propagation = Propagation.REQUIRED)    
+    @CachedResult(group = CACHE_GROUP_MEMBER, timeToLiveSeconds = 30)
     @Override
 	public long getMemberCount() throws Exception {
 
@@ -255,4 +474,156 @@ public class ExampleMemberPersistenceServiceHibernateImpl implements ExampleMemb
 
     }
 
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembers(int, int)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @Override
+	public List<MemberEntity> getMembers(final int offset, final int limit) throws Exception {
+
+    	LOG.debug("getMembers() > Arguments: offset={}, limit={}", offset, limit);
+
+    	validatePage(offset, limit);
+
+    	return memberDao.getMembers(offset, limit, listFetchPlan);
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembersByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @CachedResult(group = CACHE_GROUP_MEMBER, timeToLiveSeconds = 30)
+    @Override
+	public List<MemberEntity> getMembersByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+
+    	LOG.debug("getMembersByFirstOrLast() > Arguments: first={}, last={}, offset={}, limit={}",
+    		new Object[] { first, last, offset, limit });
+
+    	validateName(first, last);
+    	validatePage(offset, limit);
+
+    	return memberDao.getMembersByFirstOrLast(first, last, offset, limit, listFetchPlan);
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberVersion(long)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @Override
+	public Integer getMemberVersion(final long memberId) throws Exception {
+
+    	LOG.debug("getMemberVersion() > Arguments: memberId={}", memberId);
+
+    	if (memberId < 1 || memberIdFilter != null && !memberIdFilter.mightExist(memberId)) {
+    	    return null;
+    	}
+    	return memberDao.getMemberVersion(memberId);
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberView(long)
+	 */
+    @Override
+	public MemberJdbcReader.Result getMemberView(final long memberId) throws Exception {
+
+    	LOG.debug("getMemberView() > Arguments: memberId={}", memberId);
+
+    	if (memberJdbcReader == null || !memberJdbcReader.isEnabled()) {
+    	    return null;
+    	}
+    	if (memberId < 1) {
+    	    throw new Exception("Member Id check failed - Could not retrieve member (" + memberId + ")");
+    	}
+    	if (memberIdFilter != null && !memberIdFilter.mightExist(memberId)) {
+    	    LOG.debug("getMemberView() > No member can exist for id=({})", memberId);
+    	    throw new Exception("Member check failed - Could not retrieve member (" + memberId + ")");
+    	}
+
+    	// outside a transaction, the reader goes to the primary
+    	final MemberJdbcReader.Result read;
+    	try {
+    	    read = memberJdbcReader.getMember(memberId);
+    	} catch (SQLException e) {
+    	    return null;
+    	}
+    	if (read == null) {
+    	    LOG.info("No matching Member found for id=({})", memberId);
+    	    if (memberIdFilter != null) {
+    	        memberIdFilter.recordMissing(memberId);
+    	    }
+    	    throw new Exception("Member check failed - Could not retrieve member (" + memberId + ")");
+    	}
+    	return read;
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViews(int, int)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @Override
+	public List<Member> getMemberViews(final int offset, final int limit) throws Exception {
+
+    	LOG.debug("getMemberViews() > Arguments: offset={}, limit={}", offset, limit);
+
+    	validatePage(offset, limit);
+
+    	return memberDao.getMemberViews(offset, limit);
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberChangesSince(long, long, int)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @Override
+	public MemberSyncPage getMemberChangesSince(final long since, final long afterId, final int limit) throws Exception {
+
+    	LOG.debug("getMemberChangesSince() > Arguments: since={}, afterId={}, limit={}",
+    		new Object[] { since, afterId, limit });
+
+    	validatePage(0, limit);
+
+    	final List<MemberChange> changes = memberDao.getMemberChangesSince(new Date(since), afterId,
+    		new Date(System.currentTimeMillis() - syncLagMillis), limit);
+    	if (changes.isEmpty()) {
+    	    return new MemberSyncPage(changes, since, afterId, false);
+    	}
+    	final MemberChange last = changes.get(changes.size() - 1);
+    	return new MemberSyncPage(changes, last.getTimestamp().getTime(), last.getMemberId().longValue(),
+    		changes.size() == limit);
+    }
+
+    /* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViewsByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRED)
+    @CachedResult(group = CACHE_GROUP_MEMBER, timeToLiveSeconds = 30)
+    @Override
+	public List<Member> getMemberViewsByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+
+    	LOG.debug("getMemberViewsByFirstOrLast() > Arguments: first={}, last={}, offset={}, limit={}",
+    		new Object[] { first, last, offset, limit });
+
+    	validateName(first, last);
+    	validatePage(offset, limit);
+
+    	return memberDao.getMemberViewsByFirstOrLast(first, last, offset, limit);
+    }
+
+    private void validateName(final String first, final String last) throws Exception {
+    	if ((first == null || first.length() == 0) && (last == null || last.length() == 0)) {
+
+    	    throw new Exception("Member name check failed - A first or last name is required");
+    	}
+    }
+
+    private void validatePage(final int offset, final int limit) throws Exception {
+    	if (offset < 0 || limit < 1 || limit > maxPageSize) {
+
+    	    throw new Exception("Page check failed - offset cannot be negative and limit must be between 1 and " + maxPageSize
+    		    + " (offset=" + offset + ", limit=" + limit + ")");
+    	}
+    }
+
 }
@@ -0,0 +1,435 @@
+package com.ticketmaster.example.persistence.service.warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.commons.cache.CacheSnapshot;
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * MemberCacheWarmer -
+ * Preloads members into the second-level cache after startup, so a deploy
+ * does not send the first minutes of traffic to the database one
+ * <code>findByPk</code> at a time.
+ *
+ * The ids come from the configured sources, in order and without duplicates:
+ * <ul>
+ * <li>snapshot - hot members of the {@link CacheSnapshot} whose entries had expired</li>
+ * <li>file - an operator supplied file with one id per line, # starts a comment</li>
+ * <li>ranked - the first column of <code>rankingSql</code>, e.g. the most active purchasers</li>
+ * <li>recent - the most recently updated members</li>
+ * </ul>
+ * Members the snapshot already restored are skipped, the rest are loaded in
+ * batches of <code>batchSize</code>, one read-only transaction and one query
+ * (members with their addresses) per batch, on a small background pool.
+ *
+ * {@link #isReady()} stays false until <code>readyRatio</code> of the planned
+ * members are loaded, every batch has run, or <code>maxWaitMillis</code> has
+ * passed, whichever comes first; the load balancer health check should use it.
+ */
+public class MemberCacheWarmer {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberCacheWarmer.class);
+
+	public static final String SOURCE_SNAPSHOT = "snapshot";
+	public static final String SOURCE_FILE = "file";
+	public static final String SOURCE_RANKED = "ranked";
+	public static final String SOURCE_RECENT = "recent";
+
+	private MemberDao memberDao;
+
+	private PlatformTransactionManager transactionManager;
+
+	private boolean enabled = true;
+
+	private String sources = SOURCE_SNAPSHOT + "," + SOURCE_FILE + "," + SOURCE_RANKED + "," + SOURCE_RECENT;
+
+	private CacheSnapshot snapshot;
+
+	private String snapshotRegion = MemberEntity.class.getName();
+
+	private String idFile;
+
+	private String rankingSql;
+
+	private int rankedCount = 10000;
+
+	private int recentCount = 10000;
+
+	private int batchSize = 500;
+
+	private int threads = 2;
+
+	private double readyRatio = 0.9;
+
+	private long maxWaitMillis = 300000;
+
+	private ThreadPoolExecutor executor;
+
+	private volatile long startMillis;
+
+	private volatile int planned = -1;
+
+	private final AtomicInteger pendingBatches = new AtomicInteger();
+	private final AtomicLong loadedCount = new AtomicLong();
+	private final AtomicLong missingCount = new AtomicLong();
+	private final AtomicInteger failedBatches = new AtomicInteger();
+
+	private volatile boolean ready;
+
+	private volatile long readyMillis = -1;
+
+	/**
+	 * Starts the warm-up in the background; called by the container once
+	 * properties are set.
+	 */
+	public void start() {
+		startMillis = System.currentTimeMillis();
+		if (!enabled) {
+			LOG.info("start() > member cache warm-up disabled");
+			markReady();
+			return;
+		}
+
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "member-warmup-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				plan();
+			}
+		});
+	}
+
+	/**
+	 * Abandons the warm-up.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Collects the ids from the sources and queues their batches.
+	 */
+	private void plan() {
+		final Set<Long> ids = new LinkedHashSet<Long>();
+		for (String source : sources.split(",")) {
+			final String name = source.trim();
+			final int before = ids.size();
+			try {
+				if (SOURCE_SNAPSHOT.equals(name)) {
+					if (snapshot != null) {
+						ids.addAll(snapshot.getHotIds(snapshotRegion));
+					}
+				} else if (SOURCE_FILE.equals(name)) {
+					ids.addAll(readIdFile());
+				} else if (SOURCE_RANKED.equals(name)) {
+					ids.addAll(queryIds(new TransactionCallback<List<Long>>() {
+						@Override
+						public List<Long> doInTransaction(TransactionStatus status) {
+							return rankingSql == null || rankingSql.trim().length() == 0 ? new ArrayList<Long>()
+									: memberDao.getMemberIdsByNativeQuery(rankingSql, rankedCount);
+						}
+					}));
+				} else if (SOURCE_RECENT.equals(name)) {
+					ids.addAll(queryIds(new TransactionCallback<List<Long>>() {
+						@Override
+						public List<Long> doInTransaction(TransactionStatus status) {
+							return memberDao.getRecentlyUpdatedMemberIds(recentCount);
+						}
+					}));
+				} else if (name.length() > 0) {
+					LOG.warn("plan() > Unknown warm-up source '{}'", name);
+				}
+			} catch (Exception e) {
+				LOG.warn("plan() > Warm-up source '{}' failed: {}", name, e);
+			}
+			LOG.info("plan() > {} member ids from '{}'", ids.size() - before, name);
+		}
+
+		if (snapshot != null) {
+			ids.removeAll(snapshot.getRestoredIds(snapshotRegion));
+		}
+		final List<Long> all = new ArrayList<Long>(ids);
+		final int batches = (all.size() + batchSize - 1) / batchSize;
+		pendingBatches.set(batches);
+		planned = all.size();
+		LOG.info("plan() > Warming {} members in {} batches", planned, batches);
+		if (batches == 0) {
+			markReady();
+			return;
+		}
+
+		for (int from = 0; from < all.size(); from += batchSize) {
+			final List<Long> batch = new ArrayList<Long>(all.subList(from, Math.min(from + batchSize, all.size())));
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					load(batch);
+				}
+			});
+		}
+	}
+
+	private List<Long> queryIds(final TransactionCallback<List<Long>> callback) {
+		final List<Long> ids = readTemplate().execute(callback);
+		return ids == null ? new ArrayList<Long>() : ids;
+	}
+
+	private void load(final List<Long> batch) {
+		try {
+			final List<MemberEntity> members = readTemplate().execute(new TransactionCallback<List<MemberEntity>>() {
+				@Override
+				public List<MemberEntity> doInTransaction(TransactionStatus status) {
+					return memberDao.getMembersByIds(batch);
+				}
+			});
+			loadedCount.addAndGet(members.size());
+			missingCount.addAndGet(batch.size() - members.size());
+		} catch (Exception e) {
+			failedBatches.incrementAndGet();
+			LOG.warn("load() > Warm-up batch of {} members failed: {}", batch.size(), e);
+		}
+
+		if (pendingBatches.decrementAndGet() == 0) {
+			LOG.info("load() > Warm-up finished in {}ms, {} loaded, {} missing, {} failed batches", new Object[] {
+					System.currentTimeMillis() - startMillis, loadedCount.get(), missingCount.get(), failedBatches.get() });
+			markReady();
+			executor.shutdown();
+		} else if (planned > 0 && loadedCount.get() >= Math.ceil(readyRatio * planned)) {
+			markReady();
+		}
+	}
+
+	private TransactionTemplate readTemplate() {
+		final TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(true);
+		return template;
+	}
+
+	private List<Long> readIdFile() throws IOException {
+		final List<Long> ids = new ArrayList<Long>();
+		if (idFile == null || idFile.trim().length() == 0) {
+			return ids;
+		}
+		final File file = new File(idFile.trim());
+		if (!file.isFile()) {
+			LOG.info("readIdFile() > No warm-up id file at {}", file);
+			return ids;
+		}
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int comment = line.indexOf('#');
+				final String value = (comment < 0 ? line : line.substring(0, comment)).trim();
+				if (value.length() == 0) {
+					continue;
+				}
+				try {
+					ids.add(Long.valueOf(value));
+				} catch (NumberFormatException e) {
+					LOG.warn("readIdFile() > Skipping '{}' in {}", value, file);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return ids;
+	}
+
+	private void markReady() {
+		if (!ready) {
+			readyMillis = System.currentTimeMillis() - startMillis;
+			ready = true;
+			LOG.info("markReady() > Ready after {}ms with {} of {} members warmed", new Object[] { readyMillis,
+					loadedCount.get(), planned });
+		}
+	}
+
+	/**
+	 * @return true once the warm-up reached its target, finished or timed out
+	 */
+	public boolean isReady() {
+		if (!ready && startMillis > 0 && System.currentTimeMillis() - startMillis >= maxWaitMillis) {
+			LOG.warn("isReady() > Warm-up did not reach its target within {}ms", maxWaitMillis);
+			markReady();
+		}
+		return ready;
+	}
+
+	/**
+	 * @return progress of the warm-up keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("ready", Boolean.valueOf(isReady()));
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("sources", sources);
+		statistics.put("planned", Integer.valueOf(Math.max(planned, 0)));
+		statistics.put("loaded", Long.valueOf(loadedCount.get()));
+		statistics.put("missing", Long.valueOf(missingCount.get()));
+		statistics.put("pendingBatches", Integer.valueOf(pendingBatches.get()));
+		statistics.put("failedBatches", Integer.valueOf(failedBatches.get()));
+		statistics.put("readyRatio", Double.valueOf(readyRatio));
+		statistics.put("readyMillis", Long.valueOf(readyMillis));
+		return statistics;
+	}
+
+	public MemberDao getMemberDao() {
+		return memberDao;
+	}
+
+	public void setMemberDao(MemberDao memberDao) {
+		this.memberDao = memberDao;
+	}
+
+	public PlatformTransactionManager getTransactionManager() {
+		return transactionManager;
+	}
+
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public CacheSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(CacheSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public String getSnapshotRegion() {
+		return snapshotRegion;
+	}
+
+	public void setSnapshotRegion(String snapshotRegion) {
+		this.snapshotRegion = snapshotRegion;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getSources() {
+		return sources;
+	}
+
+	public void setSources(String sources) {
+		this.sources = sources;
+	}
+
+	public String getIdFile() {
+		return idFile;
+	}
+
+	public void setIdFile(String idFile) {
+		this.idFile = idFile;
+	}
+
+	public String getRankingSql() {
+		return rankingSql;
+	}
+
+	public void setRankingSql(String rankingSql) {
+		this.rankingSql = rankingSql;
+	}
+
+	public int getRankedCount() {
+		return rankedCount;
+	}
+
+	public void setRankedCount(int rankedCount) {
+		this.rankedCount = rankedCount;
+	}
+
+	public int getRecentCount() {
+		return recentCount;
+	}
+
+	public void setRecentCount(int recentCount) {
+		this.recentCount = recentCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.threads = threads;
+	}
+
+	public double getReadyRatio() {
+		return readyRatio;
+	}
+
+	public void setReadyRatio(double readyRatio) {
+		this.readyRatio = readyRatio;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+}
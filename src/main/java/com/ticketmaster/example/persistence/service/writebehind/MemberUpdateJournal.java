@@ -0,0 +1,392 @@
+package com.ticketmaster.example.persistence.service.writebehind;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * MemberUpdateJournal -
+ * Append-only file of the member updates acknowledged by the write-behind
+ * service, so none is lost if the process dies before they reach the
+ * database.
+ *
+ * Each record is <code>length, crc32, type, sequence, member id,
+ * payload</code>. An update record holds the fields an update may change; a
+ * flushed record says the update of that member with that sequence is in
+ * the database. On {@link #open()} the file is read up to the first torn or
+ * corrupt record, the updates not followed by their flushed record are
+ * returned, the latest per member, and the file is rewritten with only
+ * those. Appends are forced to disk before they return unless
+ * <code>sync</code> is off.
+ */
+public class MemberUpdateJournal {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberUpdateJournal.class);
+
+	private static final byte UPDATE = 1;
+
+	private static final byte FLUSHED = 2;
+
+	/**
+	 * type, sequence and member id
+	 */
+	private static final int HEADER_BYTES = 1 + 8 + 8;
+
+	private static final int MAX_RECORD_BYTES = 1 << 20;
+
+	private final File file;
+
+	private final boolean sync;
+
+	private RandomAccessFile randomAccessFile;
+
+	private FileChannel channel;
+
+	private long sequence;
+
+	/**
+	 * @param file
+	 *          the journal, created if missing
+	 * @param sync
+	 *          true to force every append to disk before it returns
+	 */
+	public MemberUpdateJournal(final File file, final boolean sync) {
+		this.file = file;
+		this.sync = sync;
+	}
+
+	/**
+	 * Replays and compacts the journal, then opens it for appends.
+	 *
+	 * @return the updates not yet flushed, the latest per member, oldest first
+	 * @throws IOException
+	 *           if the journal cannot be read or written
+	 */
+	public synchronized List<Record> open() throws IOException {
+		final Map<Long, Record> updates = new HashMap<Long, Record>();
+		final Map<Long, Long> flushed = new HashMap<Long, Long>();
+		long validBytes = 0;
+
+		if (file.exists()) {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					final byte[] body = readRecord(in);
+					if (body == null) {
+						break;
+					}
+					validBytes += 8 + body.length;
+					final DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+					final byte type = record.readByte();
+					final long recordSequence = record.readLong();
+					final Long memberId = Long.valueOf(record.readLong());
+					sequence = Math.max(sequence, recordSequence);
+					if (type == UPDATE) {
+						final Record previous = updates.get(memberId);
+						if (previous == null || previous.sequence < recordSequence) {
+							updates.put(memberId, new Record(recordSequence, memberId.longValue(), decode(record)));
+						}
+					} else if (type == FLUSHED) {
+						final Long previous = flushed.get(memberId);
+						if (previous == null || previous.longValue() < recordSequence) {
+							flushed.put(memberId, Long.valueOf(recordSequence));
+						}
+					}
+				}
+			} finally {
+				in.close();
+			}
+			if (validBytes < file.length()) {
+				LOG.warn("open() > Dropped a torn or corrupt tail of {} bytes from {}", file.length() - validBytes, file);
+			}
+		}
+
+		final List<Record> pending = new ArrayList<Record>();
+		for (Record update : updates.values()) {
+			final Long flushedSequence = flushed.get(Long.valueOf(update.memberId));
+			if (flushedSequence == null || flushedSequence.longValue() < update.sequence) {
+				pending.add(update);
+			}
+		}
+		Collections.sort(pending, BY_SEQUENCE);
+
+		rewrite(pending);
+		LOG.info("open() > {} unflushed member updates in {}", pending.size(), file);
+		return pending;
+	}
+
+	/**
+	 * @return the body of the next record, null at the end of the file or of
+	 *         its valid part
+	 */
+	private static byte[] readRecord(final DataInputStream in) throws IOException {
+		try {
+			final int length = in.readInt();
+			final int crc = in.readInt();
+			if (length < HEADER_BYTES || length > MAX_RECORD_BYTES) {
+				return null;
+			}
+			final byte[] body = new byte[length];
+			in.readFully(body);
+			return crc(body, 0, length) == crc ? body : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Appends an update of a member.
+	 *
+	 * @param memberId
+	 *          id of the member
+	 * @param update
+	 *          the new fields of the member
+	 * @return the record, holding a copy of the update as it will be replayed
+	 * @throws IOException
+	 *           if the record could not be written
+	 */
+	public synchronized Record append(final long memberId, final MemberEntity update) throws IOException {
+		final long recordSequence = sequence + 1;
+		final byte[] record = record(UPDATE, recordSequence, memberId, update);
+		write(ByteBuffer.wrap(record));
+		sequence = recordSequence;
+		return new Record(recordSequence, memberId, decode(new DataInputStream(new ByteArrayInputStream(record, 8
+				+ HEADER_BYTES, record.length - 8 - HEADER_BYTES))));
+	}
+
+	/**
+	 * Records that the given updates are in the database, or given up on.
+	 *
+	 * @param records
+	 *          updates previously appended
+	 * @throws IOException
+	 *           if the records could not be written
+	 */
+	public synchronized void appendFlushed(final Collection<Record> records) throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * (8 + HEADER_BYTES));
+		for (Record record : records) {
+			bytes.write(record(FLUSHED, record.sequence, record.memberId, null));
+		}
+		write(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Replaces the journal with one holding only the given updates.
+	 *
+	 * @param pending
+	 *          the updates not yet flushed
+	 * @throws IOException
+	 *           if the new journal could not be written
+	 */
+	public synchronized void rewrite(final Collection<Record> pending) throws IOException {
+		close();
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Cannot create " + parent);
+		}
+		final File temporary = new File(file.getPath() + ".tmp");
+		final RandomAccessFile rewritten = new RandomAccessFile(temporary, "rw");
+		try {
+			rewritten.setLength(0);
+			for (Record record : pending) {
+				rewritten.write(record(UPDATE, record.sequence, record.memberId, record.update));
+			}
+			rewritten.getChannel().force(true);
+		} finally {
+			rewritten.close();
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("Cannot replace " + file + " with " + temporary);
+		}
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		channel.position(channel.size());
+	}
+
+	/**
+	 * @return the size of the journal in bytes
+	 * @throws IOException
+	 *           if the size cannot be read
+	 */
+	public synchronized long size() throws IOException {
+		return channel == null ? 0 : channel.size();
+	}
+
+	/**
+	 * Closes the journal; it can be opened again.
+	 *
+	 * @throws IOException
+	 *           if the file cannot be closed
+	 */
+	public synchronized void close() throws IOException {
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+			channel = null;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private void write(final ByteBuffer buffer) throws IOException {
+		if (channel == null) {
+			throw new IOException("Journal " + file + " is not open");
+		}
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		if (sync) {
+			channel.force(false);
+		}
+	}
+
+	private static byte[] record(final byte type, final long sequence, final long memberId, final MemberEntity update)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(update == null ? 8 + HEADER_BYTES : 256);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeByte(type);
+		out.writeLong(sequence);
+		out.writeLong(memberId);
+		if (update != null) {
+			encode(update, out);
+		}
+		out.flush();
+		final byte[] record = bytes.toByteArray();
+		final int length = record.length - 8;
+		ByteBuffer.wrap(record).putInt(length).putInt(crc(record, 8, length));
+		return record;
+	}
+
+	private static int crc(final byte[] bytes, final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static void encode(final MemberEntity update, final DataOutputStream out) throws IOException {
+		writeString(out, update.getFirst());
+		writeString(out, update.getLast());
+		writeString(out, update.getInitial());
+		writeString(out, update.getPrefix());
+		writeString(out, update.getSuffix());
+		writeString(out, update.getEmail());
+		writeString(out, update.getPhone1());
+		writeString(out, update.getPhone2());
+		out.writeByte(update.getOptOut() == null ? -1 : update.getOptOut().booleanValue() ? 1 : 0);
+		final AddressEntity address = update.getAddress();
+		out.writeBoolean(address != null);
+		if (address != null) {
+			writeString(out, address.getStreet1());
+			writeString(out, address.getStreet2());
+			writeString(out, address.getCity());
+			writeString(out, address.getState());
+			writeString(out, address.getZip());
+		}
+	}
+
+	private static MemberEntity decode(final DataInputStream in) throws IOException {
+		final MemberEntity update = new MemberEntity();
+		update.setFirst(readString(in));
+		update.setLast(readString(in));
+		update.setInitial(readString(in));
+		update.setPrefix(readString(in));
+		update.setSuffix(readString(in));
+		update.setEmail(readString(in));
+		update.setPhone1(readString(in));
+		update.setPhone2(readString(in));
+		final byte optOut = in.readByte();
+		update.setOptOut(optOut < 0 ? null : Boolean.valueOf(optOut == 1));
+		if (in.readBoolean()) {
+			final AddressEntity address = new AddressEntity();
+			address.setStreet1(readString(in));
+			address.setStreet2(readString(in));
+			address.setCity(readString(in));
+			address.setState(readString(in));
+			address.setZip(readString(in));
+			update.setAddress(address);
+		}
+		return update;
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(final DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	static final Comparator<Record> BY_SEQUENCE = new Comparator<Record>() {
+		@Override
+		public int compare(final Record first, final Record second) {
+			return first.sequence < second.sequence ? -1 : first.sequence > second.sequence ? 1 : 0;
+		}
+	};
+
+	/**
+	 * An update of a member, numbered in the order it was acknowledged
+	 */
+	public static final class Record {
+
+		private final long sequence;
+
+		private final long memberId;
+
+		private final MemberEntity update;
+
+		Record(final long sequence, final long memberId, final MemberEntity update) {
+			this.sequence = sequence;
+			this.memberId = memberId;
+			this.update = update;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getMemberId() {
+			return memberId;
+		}
+
+		public MemberEntity getUpdate() {
+			return update;
+		}
+	}
+
+}
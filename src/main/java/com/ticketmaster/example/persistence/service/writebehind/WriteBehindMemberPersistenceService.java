@@ -0,0 +1,638 @@
+package com.ticketmaster.example.persistence.service.writebehind;
+
+import static com.ticketmaster.example.constants.ConstantDataManager.OP_UPDATE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.persistence.service.writebehind.MemberUpdateJournal.Record;
+import com.ticketmaster.example.util.MemberValidator;
+import com.ticketmaster.example.web.model.Address;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberSyncPage;
+
+/**
+ * WriteBehindMemberPersistenceService -
+ * Acknowledges member updates once they are appended to a local
+ * {@link MemberUpdateJournal} and writes them to the database in the
+ * background, in batched transactions. Updates of a member pending in the
+ * queue are coalesced, only the latest is written, so a profile rewritten
+ * several times within a flush interval costs one update.
+ *
+ * Reads see pending updates: members returned by the target are overlaid
+ * with the pending update of their id. Searches match on what the database
+ * holds, so a pending name change is only found by its new name once
+ * flushed. Creates and deletes go straight to the target; a delete drops
+ * the pending update of the member.
+ *
+ * An update is validated and the member's existence checked before it is
+ * acknowledged. One that still fails when written, e.g. because the member
+ * was deleted meanwhile, is logged and dropped rather than retried forever.
+ * When <code>maxPending</code> members are pending, updates of other members
+ * are written synchronously. So is an update changing the email, which the
+ * database only accepts if no other member has it: a conflict fails the
+ * call rather than being dropped at flush.
+ *
+ * On startup the journal is replayed, so updates acknowledged before a crash
+ * are written. With <code>enabled</code> false every call goes straight to
+ * the target, after writing whatever the journal still holds.
+ */
+public class WriteBehindMemberPersistenceService implements ExampleMemberPersistenceService {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBehindMemberPersistenceService.class);
+
+	//
+	// collaborators, these will be injected
+	//
+	private ExampleMemberPersistenceService target;
+
+	private PlatformTransactionManager transactionManager;
+
+	private boolean enabled = true;
+
+	private String journalFile;
+
+	private boolean syncJournal = true;
+
+	private long flushIntervalMillis = 200;
+
+	private int batchSize = 100;
+
+	private int maxPending = 10000;
+
+	private long maxJournalBytes = 64L * 1024 * 1024;
+
+	private boolean flushOnShutdown = true;
+
+	private MemberUpdateJournal journal;
+
+	private ScheduledExecutorService writer;
+
+	private final ConcurrentMap<Long, Record> pending = new ConcurrentHashMap<Long, Record>();
+
+	private final Object flushLock = new Object();
+
+	private final AtomicLong enqueuedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong synchronousCount = new AtomicLong();
+	private final AtomicLong flushedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private volatile int replayedCount;
+
+	private volatile long lastFlushMillis;
+
+	/**
+	 * Replays the journal and starts the background writer; called by the
+	 * container once properties are set.
+	 *
+	 * @throws IOException
+	 *           if the journal cannot be read
+	 */
+	public void start() throws IOException {
+		if (journalFile == null || journalFile.trim().length() == 0) {
+			if (enabled) {
+				throw new IllegalStateException("Write-behind needs a journalFile");
+			}
+			return;
+		}
+		journal = new MemberUpdateJournal(new File(journalFile), syncJournal);
+		for (Record record : journal.open()) {
+			pending.put(Long.valueOf(record.getMemberId()), record);
+		}
+		replayedCount = pending.size();
+
+		if (!enabled) {
+			LOG.info("start() > Write-behind disabled, writing {} replayed updates", replayedCount);
+			flush();
+			journal.close();
+			journal = null;
+			return;
+		}
+
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, "member-write-behind");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		writer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					LOG.warn("flush() > Write-behind flush failed: {}", e);
+				}
+			}
+		}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+		LOG.info("start() > Write-behind of member updates to {}, {} replayed", journalFile, replayedCount);
+	}
+
+	/**
+	 * Stops the background writer and writes the pending updates; called by
+	 * the container before the persistence unit closes.
+	 */
+	public void shutdown() {
+		if (writer != null) {
+			writer.shutdown();
+			try {
+				writer.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (journal == null) {
+			return;
+		}
+		try {
+			if (flushOnShutdown) {
+				flush();
+			}
+			journal.close();
+		} catch (Exception e) {
+			LOG.warn("shutdown() > Write-behind shutdown failed, pending updates stay in the journal: {}", e);
+		}
+	}
+
+	/**
+	 * Writes the updates pending when called to the database, oldest first in
+	 * batches of <code>batchSize</code>, then compacts the journal.
+	 *
+	 * @return the number of updates written or dropped
+	 * @throws IOException
+	 *           if the journal cannot be written
+	 */
+	public int flush() throws IOException {
+		if (journal == null) {
+			return 0;
+		}
+		synchronized (flushLock) {
+			final long start = System.currentTimeMillis();
+			final List<Record> records = new ArrayList<Record>(pending.values());
+			Collections.sort(records, MemberUpdateJournal.BY_SEQUENCE);
+			int written = 0;
+			for (int from = 0; from < records.size(); from += batchSize) {
+				written += write(records.subList(from, Math.min(records.size(), from + batchSize)));
+			}
+			compact();
+			if (written > 0) {
+				lastFlushMillis = System.currentTimeMillis() - start;
+				LOG.debug("flush() > {} member updates written in {}ms", written, lastFlushMillis);
+			}
+			return written;
+		}
+	}
+
+	/**
+	 * Writes a batch in one transaction, or each update in its own if the
+	 * batch fails, and removes them from the queue unless coalesced meanwhile.
+	 */
+	private int write(final List<Record> batch) throws IOException {
+		try {
+			new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(final TransactionStatus status) {
+					for (Record record : batch) {
+						update(record);
+					}
+				}
+			});
+			flushedCount.addAndGet(batch.size());
+		} catch (RuntimeException e) {
+			LOG.warn("write() > Batch of {} member updates failed, writing them one by one: {}", batch.size(), e);
+			for (final Record record : batch) {
+				try {
+					new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+						@Override
+						protected void doInTransactionWithoutResult(final TransactionStatus status) {
+							update(record);
+						}
+					});
+					flushedCount.incrementAndGet();
+				} catch (RuntimeException failure) {
+					failedCount.incrementAndGet();
+					LOG.error("write() > Dropped the update of member {}: {}", record.getMemberId(), failure);
+				}
+			}
+		}
+		batchCount.incrementAndGet();
+
+		journal.appendFlushed(batch);
+		for (Record record : batch) {
+			pending.remove(Long.valueOf(record.getMemberId()), record);
+		}
+		return batch.size();
+	}
+
+	private void update(final Record record) {
+		try {
+			target.updateMember(record.getMemberId(), record.getUpdate());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Empties the journal once nothing is pending, or rewrites it with only the
+	 * pending updates once it outgrows <code>maxJournalBytes</code>.
+	 */
+	private void compact() throws IOException {
+		synchronized (journal) {
+			if (pending.isEmpty()) {
+				if (journal.size() > 0) {
+					journal.rewrite(Collections.<Record> emptyList());
+				}
+			} else if (journal.size() > maxJournalBytes) {
+				final List<Record> records = new ArrayList<Record>(pending.values());
+				Collections.sort(records, MemberUpdateJournal.BY_SEQUENCE);
+				journal.rewrite(records);
+			}
+		}
+	}
+
+	/**
+	 * @param memberId
+	 *          id of the member
+	 * @return true if an update of the member is waiting to be written
+	 */
+	public boolean isPending(final long memberId) {
+		return !pending.isEmpty() && pending.containsKey(Long.valueOf(memberId));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#updateMember(long, com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public MemberEntity updateMember(final long memberId, final MemberEntity inMember) throws Exception {
+		if (journal == null || !enabled) {
+			return target.updateMember(memberId, inMember);
+		}
+
+		MemberValidator.validateMember(inMember, OP_UPDATE);
+		if (target.getMemberVersion(memberId) == null) {
+			throw new Exception("Member id check failed - Could not update member with memberId=(" + memberId + ")");
+		}
+
+		final Long key = Long.valueOf(memberId);
+		if (pending.size() >= maxPending && !pending.containsKey(key)) {
+			synchronousCount.incrementAndGet();
+			return target.updateMember(memberId, inMember);
+		}
+
+		// only the unique email index tells whether a new email is taken, write it now so a conflict fails this call
+		final String email = getMember(memberId).getEmail();
+		if (email == null ? inMember.getEmail() != null : !email.equals(inMember.getEmail())) {
+			synchronousCount.incrementAndGet();
+			return updateSynchronously(memberId, inMember);
+		}
+
+		synchronized (journal) {
+			final Record record = journal.append(memberId, inMember);
+			if (pending.put(key, record) != null) {
+				coalescedCount.incrementAndGet();
+			}
+		}
+		enqueuedCount.incrementAndGet();
+
+		return getMember(memberId);
+	}
+
+	/**
+	 * Writes an update ahead of the queue. The writer is held off meanwhile,
+	 * so an older pending update of the member cannot be written over this
+	 * one; it is dropped instead.
+	 */
+	private MemberEntity updateSynchronously(final long memberId, final MemberEntity inMember) throws Exception {
+		synchronized (flushLock) {
+			final Record stale = pending.get(Long.valueOf(memberId));
+			final MemberEntity updated = target.updateMember(memberId, inMember);
+			if (stale != null && pending.remove(Long.valueOf(memberId), stale)) {
+				journal.appendFlushed(Collections.singletonList(stale));
+			}
+			return updated;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#deleteMember(long)
+	 */
+	@Override
+	public void deleteMember(final long memberId) throws Exception {
+		target.deleteMember(memberId);
+
+		final Record record = pending.remove(Long.valueOf(memberId));
+		if (record != null && journal != null) {
+			journal.appendFlushed(Collections.singletonList(record));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#createMember(com.ticketmaster.example.model.MemberEntity)
+	 */
+	@Override
+	public MemberEntity createMember(final MemberEntity inMember) throws Exception {
+		return target.createMember(inMember);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#upsertMembersByEmail(java.util.List)
+	 */
+	@Override
+	public List<MemberEntity> upsertMembersByEmail(final List<MemberEntity> inMembers) throws Exception {
+		// an older queued update must not overwrite the upsert when it is flushed
+		if (!pending.isEmpty()) {
+			flush();
+		}
+		return target.upsertMembersByEmail(inMembers);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMember(long)
+	 */
+	@Override
+	public MemberEntity getMember(final long memberId) throws Exception {
+		return overlay(target.getMember(memberId));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberCount()
+	 */
+	@Override
+	public long getMemberCount() throws Exception {
+		return target.getMemberCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembers(int, int)
+	 */
+	@Override
+	public List<MemberEntity> getMembers(final int offset, final int limit) throws Exception {
+		return overlay(target.getMembers(offset, limit));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMembersByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<MemberEntity> getMembersByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+		return overlay(target.getMembersByFirstOrLast(first, last, offset, limit));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberVersion(long)
+	 */
+	@Override
+	public Integer getMemberVersion(final long memberId) throws Exception {
+		return target.getMemberVersion(memberId);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberView(long)
+	 */
+	@Override
+	public MemberJdbcReader.Result getMemberView(final long memberId) throws Exception {
+		// the database does not hold a pending update yet, getMember overlays it
+		if (isPending(memberId)) {
+			return null;
+		}
+		return target.getMemberView(memberId);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViews(int, int)
+	 */
+	@Override
+	public List<Member> getMemberViews(final int offset, final int limit) throws Exception {
+		return overlayViews(target.getMemberViews(offset, limit));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberChangesSince(long, long, int)
+	 */
+	@Override
+	public MemberSyncPage getMemberChangesSince(final long since, final long afterId, final int limit) throws Exception {
+		// pending updates are listed once written, with the time of their write
+		return target.getMemberChangesSince(since, afterId, limit);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService#getMemberViewsByFirstOrLast(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<Member> getMemberViewsByFirstOrLast(final String first, final String last, final int offset,
+			final int limit) throws Exception {
+		return overlayViews(target.getMemberViewsByFirstOrLast(first, last, offset, limit));
+	}
+
+	/**
+	 * Applies the pending update of the member to it, the fields copied are
+	 * those the target's update copies.
+	 */
+	private MemberEntity overlay(final MemberEntity member) {
+		if (member == null || pending.isEmpty()) {
+			return member;
+		}
+		final Record record = pending.get(member.getId());
+		if (record == null) {
+			return member;
+		}
+		final MemberEntity update = record.getUpdate();
+		member.setFirst(update.getFirst());
+		member.setLast(update.getLast());
+		member.setInitial(update.getInitial());
+		member.setPrefix(update.getPrefix());
+		member.setSuffix(update.getSuffix());
+		member.setEmail(update.getEmail());
+		member.setPhone1(update.getPhone1());
+		member.setPhone2(update.getPhone2());
+		member.setOptOut(update.getOptOut());
+		final AddressEntity address = update.getAddress();
+		if (address != null && member.getAddress() != null) {
+			member.getAddress().setStreet1(address.getStreet1());
+			member.getAddress().setStreet2(address.getStreet2());
+			member.getAddress().setCity(address.getCity());
+			member.getAddress().setState(address.getState());
+			member.getAddress().setZip(address.getZip());
+		}
+		return member;
+	}
+
+	private List<MemberEntity> overlay(final List<MemberEntity> members) {
+		if (!pending.isEmpty()) {
+			for (MemberEntity member : members) {
+				overlay(member);
+			}
+		}
+		return members;
+	}
+
+	private List<Member> overlayViews(final List<Member> members) {
+		if (pending.isEmpty()) {
+			return members;
+		}
+		for (Member member : members) {
+			final Record record = pending.get(member.getId());
+			if (record == null) {
+				continue;
+			}
+			final MemberEntity update = record.getUpdate();
+			member.setFirst(update.getFirst());
+			member.setLast(update.getLast());
+			member.setInitial(update.getInitial());
+			member.setPrefix(update.getPrefix());
+			member.setSuffix(update.getSuffix());
+			member.setEmail(update.getEmail());
+			member.setPhone1(update.getPhone1());
+			member.setPhone2(update.getPhone2());
+			member.setOptOut(update.getOptOut());
+			final AddressEntity address = update.getAddress();
+			final Address view = member.getAddress();
+			if (address != null && view != null) {
+				view.setStreet1(address.getStreet1());
+				view.setStreet2(address.getStreet2());
+				view.setCity(address.getCity());
+				view.setState(address.getState());
+				view.setZip(address.getZip());
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * @return queue, coalescing and flush statistics keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled && journal != null));
+		statistics.put("pending", Integer.valueOf(pending.size()));
+		statistics.put("enqueued", Long.valueOf(enqueuedCount.get()));
+		statistics.put("coalesced", Long.valueOf(coalescedCount.get()));
+		statistics.put("synchronous", Long.valueOf(synchronousCount.get()));
+		statistics.put("flushed", Long.valueOf(flushedCount.get()));
+		statistics.put("failed", Long.valueOf(failedCount.get()));
+		statistics.put("batches", Long.valueOf(batchCount.get()));
+		statistics.put("replayed", Integer.valueOf(replayedCount));
+		statistics.put("lastFlushMillis", Long.valueOf(lastFlushMillis));
+		try {
+			statistics.put("journalBytes", Long.valueOf(journal == null ? 0 : journal.size()));
+		} catch (IOException e) {
+			statistics.put("journalBytes", Long.valueOf(-1));
+		}
+		return statistics;
+	}
+
+	public ExampleMemberPersistenceService getTarget() {
+		return target;
+	}
+
+	public void setTarget(final ExampleMemberPersistenceService target) {
+		this.target = target;
+	}
+
+	public PlatformTransactionManager getTransactionManager() {
+		return transactionManager;
+	}
+
+	public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public String getJournalFile() {
+		return journalFile;
+	}
+
+	public void setJournalFile(final String journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	public boolean isSyncJournal() {
+		return syncJournal;
+	}
+
+	public void setSyncJournal(final boolean syncJournal) {
+		this.syncJournal = syncJournal;
+	}
+
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	public void setFlushIntervalMillis(final long flushIntervalMillis) {
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public void setMaxPending(final int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	public long getMaxJournalBytes() {
+		return maxJournalBytes;
+	}
+
+	public void setMaxJournalBytes(final long maxJournalBytes) {
+		this.maxJournalBytes = maxJournalBytes;
+	}
+
+	public boolean isFlushOnShutdown() {
+		return flushOnShutdown;
+	}
+
+	public void setFlushOnShutdown(final boolean flushOnShutdown) {
+		this.flushOnShutdown = flushOnShutdown;
+	}
+
+}
@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.xml.XmlMapper;
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
 
 /**
  * 
@@ -21,7 +22,8 @@ import com.fasterxml.jackson.xml.XmlMapper;
  *         This is a Generic class that can be used for mapping most Exceptions
  *         in a RESTful service. In this Generic Service and Exception that is
  *         an instanceof RuntimeException will have an HTTP response code of 500
- *         and all other Exception/Errors will have an HTTP response code of 400
+ *         and all other Exception/Errors will have an HTTP response code of 400.
+ *         A ServiceUnavailableException (overload) is reported as a 503.
  * 
  * @param <T>
  *            The exception Class that this mapper should handle
@@ -141,11 +143,15 @@ public class GenericExceptionMapper implements ExceptionMapper<Throwable> {
 	/**
 	 * This method will return a BAD_REQUEST status for all statuses that are of instance of RuntimeException, 
 	 * For all other Exceptions/Errors the response will be an internal server error
+	 * Overload (ServiceUnavailableException) is reported as SERVICE_UNAVAILABLE
 	 */
 	public Response toResponse(Throwable throwable) {
 
 		ResponseBuilder responseBuilder = null;
-		if (throwable instanceof RuntimeException) {
+		if (throwable instanceof ServiceUnavailableException) {
+			responseBuilder = Response
+					.status(Response.Status.SERVICE_UNAVAILABLE);
+		} else if (throwable instanceof RuntimeException) {
 			responseBuilder = Response
 					.status(Response.Status.INTERNAL_SERVER_ERROR);
 		} else {
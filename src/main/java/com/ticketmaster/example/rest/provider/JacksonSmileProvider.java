@@ -0,0 +1,149 @@
+package com.ticketmaster.example.rest.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.jaxrs.JacksonJsonProvider;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.smile.SmileGenerator;
+
+/**
+ * JacksonSmileProvider -
+ * Reads and writes entities as Smile, the binary encoding of the JSON data
+ * model, for callers that send <code>Content-Type</code> or
+ * <code>Accept: application/x-jackson-smile</code>. The same Jackson
+ * bindings as the JSON provider apply, so a payload decodes to the same
+ * objects in either format; Smile is smaller and cheaper to parse.
+ * <p>
+ * Property names, and string values shorter than 64 bytes, are written once
+ * per payload and referred back to afterwards, which shrinks lists of
+ * members sharing cities and states.
+ */
+@Provider
+@Consumes(JacksonSmileProvider.APPLICATION_SMILE)
+@Produces(JacksonSmileProvider.APPLICATION_SMILE)
+public class JacksonSmileProvider extends JacksonJsonProvider {
+
+	public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+	public static final MediaType APPLICATION_SMILE_TYPE = new MediaType("application", "x-jackson-smile");
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final SmileFactory SMILE_FACTORY = smileFactory();
+
+	public JacksonSmileProvider() {
+		super(new ObjectMapper(smileFactory()));
+	}
+
+	private static SmileFactory smileFactory() {
+		final SmileFactory factory = new SmileFactory();
+		factory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		return factory;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.codehaus.jackson.jaxrs.JacksonJsonProvider#isJsonType(javax.ws.rs.core.MediaType)
+	 */
+	@Override
+	protected boolean isJsonType(final MediaType mediaType) {
+		return mediaType != null && APPLICATION_SMILE_TYPE.isCompatible(mediaType) && !mediaType.isWildcardType()
+				&& !mediaType.isWildcardSubtype();
+	}
+
+	/**
+	 * Re-encodes a JSON document as Smile without binding it to objects, for
+	 * responses rendered as JSON bytes ahead of time.
+	 *
+	 * @param json
+	 *          a JSON document
+	 * @return the same document as Smile
+	 * @throws IOException
+	 *           if the document is not valid JSON
+	 */
+	public static byte[] toSmile(final byte[] json) throws IOException {
+		final ByteArrayOutputStream smile = new ByteArrayOutputStream(json.length);
+		final JsonParser parser = JSON_FACTORY.createJsonParser(json);
+		final JsonGenerator generator = SMILE_FACTORY.createJsonGenerator(smile);
+		try {
+			parser.nextToken();
+			generator.copyCurrentStructure(parser);
+		} finally {
+			generator.close();
+			parser.close();
+		}
+		return smile.toByteArray();
+	}
+
+	/**
+	 * Chooses Smile only if the Accept header ranks it above JSON: by quality,
+	 * then by how specifically each is named. A request without Accept, or
+	 * accepting both equally, gets JSON.
+	 *
+	 * @param accept
+	 *          the Accept header of the request, may be null
+	 * @return true if the response should be written as Smile
+	 */
+	public static boolean prefersSmile(final String accept) {
+		if (accept == null || accept.indexOf("smile") < 0) {
+			return false;
+		}
+		final Preference smile = new Preference();
+		final Preference json = new Preference();
+		for (String range : accept.split(",")) {
+			final String[] parts = range.split(";");
+			final String[] type = parts[0].trim().split("/");
+			if (type.length != 2) {
+				continue;
+			}
+			final MediaType mediaType = new MediaType(type[0].trim(), type[1].trim());
+			double quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				final String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			smile.offer(mediaType, quality, APPLICATION_SMILE_TYPE);
+			json.offer(mediaType, quality, MediaType.APPLICATION_JSON_TYPE);
+		}
+		return smile.quality > 0 && (smile.quality > json.quality
+				|| smile.quality == json.quality && smile.specificity > json.specificity);
+	}
+
+	/**
+	 * Quality of the most specific Accept range matching a media type
+	 */
+	private static final class Preference {
+
+		private int specificity = -1;
+
+		private double quality;
+
+		void offer(final MediaType range, final double rangeQuality, final MediaType mediaType) {
+			if (!range.isCompatible(mediaType)) {
+				return;
+			}
+			final int rangeSpecificity = range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+			if (rangeSpecificity <= specificity) {
+				return;
+			}
+			specificity = rangeSpecificity;
+			quality = rangeQuality;
+		}
+	}
+
+}
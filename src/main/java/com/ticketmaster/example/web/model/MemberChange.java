@@ -0,0 +1,98 @@
+package com.ticketmaster.example.web.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * MemberChange -
+ * A compact record of a member that was created, updated or deleted, for
+ * consumers that track changes instead of reading every member.
+ */
+public class MemberChange implements Serializable {
+
+	private static final long serialVersionUID = -2219543318409733410L;
+
+	private Long offset;
+
+	private String type;
+
+	private Long memberId;
+
+	private Integer version;
+
+	private Date timestamp;
+
+	public MemberChange() {
+	}
+
+	/**
+	 * @param offset
+	 *          position in the change feed
+	 * @param type
+	 *          CREATED, UPDATED or DELETED
+	 * @param memberId
+	 *          id of the changed member
+	 * @param version
+	 *          persistence version after the change, null for a deletion
+	 * @param timestamp
+	 *          time of the change
+	 */
+	public MemberChange(final Long offset, final String type, final Long memberId, final Integer version,
+			final Date timestamp) {
+		this.offset = offset;
+		this.type = type;
+		this.memberId = memberId;
+		this.version = version;
+		this.timestamp = timestamp;
+	}
+
+	public Long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(final Long offset) {
+		this.offset = offset;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(final String type) {
+		this.type = type;
+	}
+
+	public Long getMemberId() {
+		return memberId;
+	}
+
+	public void setMemberId(final Long memberId) {
+		this.memberId = memberId;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	public void setVersion(final Integer version) {
+		this.version = version;
+	}
+
+	public Date getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(final Date timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MemberChange [offset=" + offset + ", type=" + type + ", memberId=" + memberId + ", version=" + version
+				+ "]";
+	}
+
+}
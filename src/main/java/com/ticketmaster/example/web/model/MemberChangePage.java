@@ -0,0 +1,63 @@
+package com.ticketmaster.example.web.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MemberChangePage -
+ * A page of member changes and where the next page starts.
+ */
+public class MemberChangePage implements Serializable {
+
+	private static final long serialVersionUID = 6157338437307616255L;
+
+	private List<MemberChange> changes = new ArrayList<MemberChange>();
+
+	private long nextOffset;
+
+	private boolean truncated;
+
+	public MemberChangePage() {
+	}
+
+	/**
+	 * @param changes
+	 *          the changes of the page, oldest first
+	 * @param nextOffset
+	 *          offset to ask for the following changes
+	 * @param truncated
+	 *          true if changes between the offset asked for and the first
+	 *          change of the page are no longer kept
+	 */
+	public MemberChangePage(final List<MemberChange> changes, final long nextOffset, final boolean truncated) {
+		this.changes = changes;
+		this.nextOffset = nextOffset;
+		this.truncated = truncated;
+	}
+
+	public List<MemberChange> getChanges() {
+		return changes;
+	}
+
+	public void setChanges(final List<MemberChange> changes) {
+		this.changes = changes;
+	}
+
+	public long getNextOffset() {
+		return nextOffset;
+	}
+
+	public void setNextOffset(final long nextOffset) {
+		this.nextOffset = nextOffset;
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(final boolean truncated) {
+		this.truncated = truncated;
+	}
+
+}
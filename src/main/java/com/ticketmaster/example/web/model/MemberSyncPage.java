@@ -0,0 +1,76 @@
+package com.ticketmaster.example.web.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MemberSyncPage -
+ * A page of the members changed since a watermark, and the watermark to ask
+ * for the following page with.
+ */
+public class MemberSyncPage implements Serializable {
+
+	private static final long serialVersionUID = -3542260791519383874L;
+
+	private List<MemberChange> changes = new ArrayList<MemberChange>();
+
+	private long since;
+
+	private long afterId;
+
+	private boolean more;
+
+	public MemberSyncPage() {
+	}
+
+	/**
+	 * @param changes
+	 *          the changes of the page, oldest first
+	 * @param since
+	 *          time of the last change of the page in epoch millis
+	 * @param afterId
+	 *          member id of the last change of the page
+	 * @param more
+	 *          true if the page is full and more changes may follow
+	 */
+	public MemberSyncPage(final List<MemberChange> changes, final long since, final long afterId, final boolean more) {
+		this.changes = changes;
+		this.since = since;
+		this.afterId = afterId;
+		this.more = more;
+	}
+
+	public List<MemberChange> getChanges() {
+		return changes;
+	}
+
+	public void setChanges(final List<MemberChange> changes) {
+		this.changes = changes;
+	}
+
+	public long getSince() {
+		return since;
+	}
+
+	public void setSince(final long since) {
+		this.since = since;
+	}
+
+	public long getAfterId() {
+		return afterId;
+	}
+
+	public void setAfterId(final long afterId) {
+		this.afterId = afterId;
+	}
+
+	public boolean isMore() {
+		return more;
+	}
+
+	public void setMore(final boolean more) {
+		this.more = more;
+	}
+
+}
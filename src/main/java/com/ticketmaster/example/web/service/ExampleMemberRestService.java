@@ -1,22 +1,34 @@
 package com.ticketmaster.example.web.service;
 
+import java.util.List;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
+import com.ticketmaster.example.rest.provider.JacksonSmileProvider;
 import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChangePage;
+import com.ticketmaster.example.web.model.MemberSyncPage;
 
 
 @Path("/")
 public interface ExampleMemberRestService {
 
     static final String ID = "id";
+
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
     
     
 	
@@ -25,29 +37,44 @@ public interface ExampleMemberRestService {
      *
      * @param id
      *            the unique identifier of the member to be looked up
-     * @return Member
+     * @param ifNoneMatch
+     *            entity tags of copies the client holds, may be null
+     * @param accept
+     *            media types the client accepts, may be null; Smile is
+     *            returned only when ranked above JSON
+     * @return the Member serialized as JSON, written as is from the member
+     *         JSON cache when present and tagged with its persistence version,
+     *         or 304 Not Modified if the client's copy is current
      * @throws Exception
      *             an error that occured during retrieving the member
      */
     @GET
     @Path("/{id}")
-	@Consumes({ MediaType.APPLICATION_JSON })
-    @Produces({ MediaType.APPLICATION_JSON })	
-    Member getMember(@PathParam(ID) final long memberId) throws Exception;
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
+    Response getMember(@PathParam(ID) final long memberId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+            @HeaderParam(HttpHeaders.ACCEPT) final String accept) throws Exception;
 
     /**
      * Creates a permanent record of the given Member object
      *
+     * @param idempotencyKey
+     *            key chosen by the client for this creation, may be null; a
+     *            retry with the same key and Member gets the member created
+     *            by the first request
      * @param inMember
      *            the Member object to be stored/created
      * @return the Member object that was successfully stored/created
      * @throws Exception
-     *             an error that occurred during the creation of the member
+     *             an error that occurred during the creation of the member,
+     *             or the key was used with a different Member
      */
     @POST
-	@Consumes({ MediaType.APPLICATION_JSON })
-    @Produces({ MediaType.APPLICATION_JSON })	
-    Member createMember(final Member inMember) throws Exception;
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
+    Member createMember(@HeaderParam(IDEMPOTENCY_KEY) final String idempotencyKey, final Member inMember)
+            throws Exception;
 
     /**
      * Deletes the record associated with the given Member unique identifier
@@ -60,8 +87,8 @@ public interface ExampleMemberRestService {
      */
     @DELETE
     @Path("/{id}")
-	@Consumes({ MediaType.APPLICATION_JSON })
-    @Produces({ MediaType.APPLICATION_JSON })	
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
     void deleteMember(@PathParam(ID) final long memberId) throws Exception;
 
 
@@ -78,10 +105,26 @@ public interface ExampleMemberRestService {
      */
     @PUT
     @Path("/{id}")
-	@Consumes({ MediaType.APPLICATION_JSON })
-    @Produces({ MediaType.APPLICATION_JSON })	
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
     Member updateMember(@PathParam(ID) final long memberId, final Member inMember) throws Exception;
 
+    /**
+     * Creates the members whose email is not known yet and updates the
+     * others, with their addresses, in one transaction
+     *
+     * @param inMembers
+     *          the members to be stored, each with a distinct email
+     * @return the members stored, with their ids, in the same order
+     * @throws Exception
+     *             a member is invalid, or an error occurred while storing them
+     */
+    @PUT
+    @Path("/byemail")
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    List<Member> upsertMembersByEmail(final List<Member> inMembers) throws Exception;
+
 
     /**
      * Looks up the total number of Member records in the system.
@@ -90,9 +133,103 @@ public interface ExampleMemberRestService {
      */
     @GET
     @Path("/count")
-	@Consumes({ MediaType.APPLICATION_JSON })
-    @Produces({ MediaType.APPLICATION_JSON })	
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
     long getMemberCount() throws Exception;
 
 
+    /**
+     * Lists a page of members ordered by id.
+     *
+     * @param offset
+     *          number of members to skip
+     * @param limit
+     *          maximum number of members to return
+     * @return the members of the page
+     * @throws Exception
+     *             if the page is out of range
+     */
+    @GET
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
+    List<Member> getMembers(@QueryParam("offset") @DefaultValue("0") final int offset,
+            @QueryParam("limit") @DefaultValue("20") final int limit) throws Exception;
+
+
+    /**
+     * Lists a page of the members matching a first or last name ordered by id.
+     *
+     * @param first
+     *          LIKE pattern of the first name
+     * @param last
+     *          LIKE pattern of the last name
+     * @param offset
+     *          number of members to skip
+     * @param limit
+     *          maximum number of members to return
+     * @return the members of the page
+     * @throws Exception
+     *             if neither name is given or the page is out of range
+     */
+    @GET
+    @Path("/search")
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })	
+    List<Member> searchMembers(@QueryParam("first") final String first, @QueryParam("last") final String last,
+            @QueryParam("offset") @DefaultValue("0") final int offset,
+            @QueryParam("limit") @DefaultValue("20") final int limit) throws Exception;
+
+    /**
+     * Lists the members created or updated since a watermark, oldest first,
+     * for incremental replication. A consumer passes the since and afterId of
+     * each page to ask for the following one; deletions are only in the
+     * change feed.
+     *
+     * @param since
+     *          time of the last change of the previous page in epoch millis,
+     *          0 for the first page
+     * @param afterId
+     *          member id of the last change of the previous page, 0 for the
+     *          first page
+     * @param limit
+     *          maximum number of changes to return
+     * @return the changes and the watermark of the next page
+     * @throws Exception
+     *             if the limit is out of range
+     */
+    @GET
+    @Path("/changes")
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    MemberSyncPage getMemberChangesSince(@QueryParam("since") @DefaultValue("0") final long since,
+            @QueryParam("afterId") @DefaultValue("0") final long afterId,
+            @QueryParam("limit") @DefaultValue("100") final int limit) throws Exception;
+
+    /**
+     * Reads the members created, updated or deleted since an offset of the
+     * change feed, oldest first. A consumer keeps the nextOffset of each page
+     * to ask for the following one, across restarts of either side.
+     *
+     * @param offset
+     *          offset of the first change wanted, negative to only get the
+     *          offset of the next change
+     * @param limit
+     *          maximum number of changes to return
+     * @param waitMillis
+     *          how long to wait for a change if there is none yet, 0 to
+     *          return right away
+     * @return the changes, and whether changes since the offset were missed
+     *          because they are no longer kept
+     * @throws Exception
+     *             if the limit is out of range
+     */
+    @GET
+    @Path("/feed")
+	@Consumes({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    @Produces({ MediaType.APPLICATION_JSON, JacksonSmileProvider.APPLICATION_SMILE })
+    MemberChangePage getMemberChanges(@QueryParam("offset") @DefaultValue("-1") final long offset,
+            @QueryParam("limit") @DefaultValue("100") final int limit,
+            @QueryParam("waitMillis") @DefaultValue("0") final long waitMillis) throws Exception;
+
+
 }
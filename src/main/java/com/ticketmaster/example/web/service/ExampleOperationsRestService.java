@@ -0,0 +1,235 @@
+package com.ticketmaster.example.web.service;
+
+import java.util.Map;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Operational endpoints reporting the live state of the service
+ * (bulkheads, worker pools, ...) for monitoring and tuning.
+ */
+@Path("/")
+public interface ExampleOperationsRestService {
+
+    /**
+     * Reports the limits, in-flight calls and wait queues of the
+     * persistence service bulkheads.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/admission")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getAdmissionStatistics();
+
+    /**
+     * Reports the state of the worker pool serving the member endpoints.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/executor")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getRequestExecutorStatistics();
+
+    /**
+     * Reports borrow latency, lease time, active/idle/waiting counts and
+     * sizing of the database connection pool.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/datasource")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getDataSourceStatistics();
+
+    /**
+     * Reports hits, misses and evictions of the per-connection prepared
+     * statement caches.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/statementcache")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getStatementCacheStatistics();
+
+    /**
+     * Reports how connections were routed between the primary and the read
+     * replicas.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/routing")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getRoutingStatistics();
+
+    /**
+     * Reports executions, latency, rows and errors of the SQL statements,
+     * grouped by shape, the top ones first.
+     *
+     * @param top
+     *          number of statement shapes reported
+     * @param orderBy
+     *          total, count, mean, max, rows or errors
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/sql")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getSqlStatistics(@QueryParam("top") @DefaultValue("20") int top,
+            @QueryParam("orderBy") @DefaultValue("total") String orderBy);
+
+    /**
+     * Reports the statements executed per request, and the statements
+     * repeated within a request that suggest an N+1 select.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/sql/requests")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getStatementCountStatistics();
+
+    /**
+     * Reports hits, misses and invalidations of the member JSON cache.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/jsoncache")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getMemberJsonCacheStatistics();
+
+    /**
+     * Reports reads, misses, failures and the mean read time of the JDBC
+     * fast path of member lookups.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/fastpath")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getMemberFastPathStatistics();
+
+    /**
+     * Reports the member updates waiting in the write-behind queue, how many
+     * were coalesced, written and dropped, and the size of the journal.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/writebehind")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getWriteBehindStatistics();
+
+    /**
+     * Reports the member creations run, replayed to retries and coalesced
+     * with a running duplicate by Idempotency-Key.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/idempotency")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getIdempotencyStatistics();
+
+    /**
+     * Reports the offsets kept by the member change feed, its segment files
+     * and the consumers waiting for the next change.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/feed")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getMemberChangeFeedStatistics();
+
+    /**
+     * Reports the invalidations sent to and received from the other nodes,
+     * and how long after their commit the received ones were applied.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/invalidation")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getCacheInvalidationStatistics();
+
+    /**
+     * Reports the size, memory use and false positive rate of the member id
+     * filter, and how many lookups it refused.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/idfilter")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getMemberIdFilterStatistics();
+
+    /**
+     * Reports hits and misses of every cached method.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/methodcache")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getMethodCacheStatistics();
+
+    /**
+     * Reports the size, configuration, hits, misses and evictions of every
+     * cache region, and the query, entity load and second-level cache
+     * statistics of Hibernate.
+     *
+     * @return statistics keyed by name
+     */
+    @GET
+    @Path("/caches")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Map<String, Object> getCacheStatistics();
+
+    /**
+     * Resizes a cache region until the next restart. Parameters left out keep
+     * their value.
+     *
+     * @param region
+     *          name of the region
+     * @param maxEntries
+     *          entries kept on the heap, 0 for no limit
+     * @param timeToLiveSeconds
+     *          seconds an entry is kept after its creation, 0 for no limit
+     * @param timeToIdleSeconds
+     *          seconds an entry is kept after its last access, 0 for no limit
+     * @return the statistics of the resized region, 404 if there is no such
+     *         region, 400 if a value is invalid
+     */
+    @POST
+    @Path("/caches/{region}")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Response resizeCache(@PathParam("region") String region, @QueryParam("maxEntries") Long maxEntries,
+            @QueryParam("timeToLiveSeconds") Long timeToLiveSeconds,
+            @QueryParam("timeToIdleSeconds") Long timeToIdleSeconds);
+
+    /**
+     * Readiness check for the load balancer: 503 until the member cache
+     * warm-up has reached its target, 200 afterwards. The body reports the
+     * warm-up progress.
+     *
+     * @return warm-up statistics keyed by name
+     */
+    @GET
+    @Path("/ready")
+    @Produces({ MediaType.APPLICATION_JSON })
+    Response getReadiness();
+
+}
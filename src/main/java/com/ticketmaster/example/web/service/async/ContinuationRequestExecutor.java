@@ -0,0 +1,366 @@
+package com.ticketmaster.example.web.service.async;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.continuations.Continuation;
+import org.apache.cxf.continuations.ContinuationProvider;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.PhaseInterceptorChain;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
+
+/**
+ * ContinuationRequestExecutor -
+ * Runs the work of a JAX-RS resource method on a bounded worker pool.
+ *
+ * When enabled and the CXF transport supports continuations (Servlet 3 async),
+ * the container thread is released: the request is suspended, the work runs on
+ * one of <code>poolSize</code> workers and the request is resumed once the
+ * work is done. CXF then invokes the resource method a second time, which
+ * picks up the result from the continuation.
+ *
+ * If no continuation is available the calling thread waits for the worker,
+ * which still bounds the number of concurrent database round trips.
+ *
+ * A full queue, or a request that does not complete within
+ * <code>timeoutMillis</code>, is rejected with a
+ * {@link ServiceUnavailableException} (HTTP 503). Work still queued is then
+ * dropped, but work already running is left to finish: interrupting a worker
+ * in the middle of a transaction could leave its pooled connection
+ * interrupted, and a write may still commit after the 503.
+ */
+public class ContinuationRequestExecutor {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ContinuationRequestExecutor.class);
+
+	/**
+	 * true if work should be handed off to the worker pool
+	 */
+	private boolean enabled = false;
+	/**
+	 * Number of workers, normally the size of the connection pool
+	 */
+	private int poolSize = 10;
+	/**
+	 * Number of requests allowed to wait for a worker
+	 */
+	private int queueCapacity = 100;
+	/**
+	 * Maximum time a request may be suspended before it is rejected
+	 */
+	private long timeoutMillis = 30000;
+
+	private ThreadPoolExecutor executor;
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong timedOutCount = new AtomicLong();
+
+	/**
+	 * Creates the worker pool; called by the container once properties are set.
+	 */
+	public void start() {
+		if (!enabled) {
+			LOG.info("start() > Asynchronous request execution is disabled");
+			return;
+		}
+
+		LOG.info("start() > poolSize={}, queueCapacity={}, timeoutMillis={}",
+				new Object[] { poolSize, queueCapacity, timeoutMillis });
+
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory(),
+				new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Stops accepting work and waits briefly for in-flight requests.
+	 */
+	public void shutdown() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Executes the given work for the current request.
+	 *
+	 * @param task
+	 *          the work of the resource method
+	 * @return the result of the task, or null if the request has been suspended
+	 *          and the result will be delivered when CXF re-invokes the resource
+	 * @throws Exception
+	 *          any exception thrown by the task, or ServiceUnavailableException
+	 *          when the request is rejected or times out
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V execute(final Callable<V> task) throws Exception {
+
+		if (executor == null) {
+			return task.call();
+		}
+
+		final Continuation continuation = getContinuation();
+		if (continuation == null) {
+			return executeAndWait(task);
+		}
+
+		synchronized (continuation) {
+
+			if (continuation.isNew()) {
+
+				final FutureTask<V> future = new FutureTask<V>(task) {
+					@Override
+					protected void done() {
+						synchronized (continuation) {
+							continuation.resume();
+						}
+					}
+				};
+				submit(future);
+
+				continuation.setObject(future);
+				continuation.suspend(timeoutMillis);
+				return null;
+			}
+
+			// re-invoked by CXF, either resumed or timed out
+			final FutureTask<V> future = (FutureTask<V>) continuation.getObject();
+			if (future == null || !future.isDone()) {
+				if (future != null) {
+					future.cancel(false);
+				}
+				timedOutCount.incrementAndGet();
+				throw new ServiceUnavailableException("Request timed out after " + timeoutMillis + "ms waiting for a worker");
+			}
+			return getResult(future);
+		}
+	}
+
+	/**
+	 * Waits for a signal without holding a worker, for long polling.
+	 *
+	 * With a continuation the request is suspended until the signal fires or
+	 * <code>waitMillis</code> elapses and this returns false; CXF then invokes
+	 * the resource method a second time, for which this returns true. Without
+	 * one the calling thread waits.
+	 *
+	 * @param signal
+	 *          what the request waits for
+	 * @param waitMillis
+	 *          maximum time to wait
+	 * @return true if the resource method should go on, false if the request
+	 *          has been suspended
+	 * @throws InterruptedException
+	 *          if the calling thread is interrupted while waiting
+	 */
+	public boolean await(final Signal signal, final long waitMillis) throws InterruptedException {
+		if (waitMillis <= 0) {
+			return true;
+		}
+
+		final Continuation continuation = getContinuation();
+		if (continuation == null) {
+			final CountDownLatch latch = new CountDownLatch(1);
+			final Runnable callback = new Runnable() {
+				@Override
+				public void run() {
+					latch.countDown();
+				}
+			};
+			if (signal.register(callback, waitMillis)) {
+				latch.await(waitMillis, TimeUnit.MILLISECONDS);
+			}
+			return true;
+		}
+
+		synchronized (continuation) {
+			if (!continuation.isNew()) {
+				// re-invoked by CXF, either signalled or timed out
+				return true;
+			}
+			final Runnable callback = new Runnable() {
+				@Override
+				public void run() {
+					synchronized (continuation) {
+						continuation.resume();
+					}
+				}
+			};
+			if (!signal.register(callback, waitMillis)) {
+				return true;
+			}
+			continuation.suspend(waitMillis);
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the task on the worker pool and blocks the calling thread until it completes.
+	 */
+	private <V> V executeAndWait(final Callable<V> task) throws Exception {
+		final FutureTask<V> future = new FutureTask<V>(task);
+		submit(future);
+		try {
+			future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			timedOutCount.incrementAndGet();
+			throw new ServiceUnavailableException("Request timed out after " + timeoutMillis + "ms waiting for a worker", e);
+		} catch (ExecutionException e) {
+			// reported by getResult
+		}
+		return getResult(future);
+	}
+
+	private void submit(final FutureTask<?> future) {
+		try {
+			executor.execute(future);
+			submittedCount.incrementAndGet();
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			LOG.warn("submit() > Request rejected, active={}, queued={}", executor.getActiveCount(), executor.getQueue().size());
+			throw new ServiceUnavailableException("Too many concurrent requests, please retry later", e);
+		}
+	}
+
+	private <V> V getResult(final FutureTask<V> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Looks up the continuation of the request being processed on this thread.
+	 * Package visible so tests can stand in for the CXF transport.
+	 * @return Continuation or null if the transport does not support continuations
+	 */
+	Continuation getContinuation() {
+		final Message message = PhaseInterceptorChain.getCurrentMessage();
+		if (message == null) {
+			return null;
+		}
+		final ContinuationProvider provider = (ContinuationProvider) message.get(ContinuationProvider.class.getName());
+		return provider == null ? null : provider.getContinuation();
+	}
+
+	/**
+	 * Live statistics of the worker pool.
+	 * @return map of statistic name to value
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(executor != null));
+		statistics.put("poolSize", Integer.valueOf(poolSize));
+		statistics.put("queueCapacity", Integer.valueOf(queueCapacity));
+		statistics.put("timeoutMillis", Long.valueOf(timeoutMillis));
+		if (executor != null) {
+			statistics.put("active", Integer.valueOf(executor.getActiveCount()));
+			statistics.put("queued", Integer.valueOf(executor.getQueue().size()));
+		}
+		statistics.put("submitted", Long.valueOf(submittedCount.get()));
+		statistics.put("rejected", Long.valueOf(rejectedCount.get()));
+		statistics.put("timedOut", Long.valueOf(timedOutCount.get()));
+		return statistics;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Something a request can wait for without holding a thread
+	 */
+	public interface Signal {
+
+		/**
+		 * @param callback
+		 *          to run once, when the request should go on
+		 * @param waitMillis
+		 *          how long the request waits, the callback may be dropped after
+		 * @return false, and the callback is not registered, if the request
+		 *         should go on right away
+		 */
+		boolean register(Runnable callback, long waitMillis);
+	}
+
+	/**
+	 * Names the worker threads so they can be told apart in thread dumps.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "member-request-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
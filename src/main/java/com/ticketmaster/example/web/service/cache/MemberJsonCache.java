@@ -0,0 +1,233 @@
+package com.ticketmaster.example.web.service.cache;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.commons.cache.invalidation.Invalidation;
+import com.ticketmaster.example.commons.cache.invalidation.InvalidationListener;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.persistence.service.event.MemberChangeListener;
+
+/**
+ * MemberJsonCache -
+ * Holds the serialized JSON of a member together with the persistence version
+ * it was rendered from, so a hot member is served without loading the entity,
+ * mapping it and running Jackson.
+ *
+ * Every committed create, update and delete replaces the entry with a
+ * tombstone carrying the new version. A render is only stored if its version
+ * is not older than what the cache has seen, so a read racing with an update
+ * cannot put the previous JSON back. Members changed on other nodes arrive
+ * as invalidations from the cache invalidation bus.
+ */
+public class MemberJsonCache implements MemberChangeListener, InvalidationListener {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(MemberJsonCache.class);
+
+	/**
+	 * Version of the tombstone left by a deletion, newer than any render
+	 */
+	private static final int DELETED = Integer.MAX_VALUE;
+
+	/**
+	 * Entity name of members on the invalidation bus
+	 */
+	private static final String MEMBER_ENTITY = MemberEntity.class.getName();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+	private final AtomicLong rejectedPutCount = new AtomicLong();
+	private final AtomicLong invalidationCount = new AtomicLong();
+
+	private Ehcache cache;
+
+	private boolean enabled = true;
+
+	/**
+	 * @param memberId
+	 *          id of the member
+	 * @return the cached JSON, or null on a miss
+	 */
+	public byte[] get(final long memberId) {
+		final Entry entry = getEntry(memberId);
+		return entry == null ? null : entry.json;
+	}
+
+	/**
+	 * @param memberId
+	 *          id of the member
+	 * @return the cached JSON with the version it was rendered from, which is
+	 *         the current version of the member, or null on a miss
+	 */
+	public Entry getEntry(final long memberId) {
+		if (!enabled) {
+			return null;
+		}
+		final Element element = cache.get(Long.valueOf(memberId));
+		final Entry entry = element == null ? null : (Entry) element.getObjectValue();
+		if (entry == null || entry.json == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Stores the JSON rendered from the given version of a member, unless a
+	 * newer version or a deletion has been seen meanwhile.
+	 *
+	 * @param memberId
+	 *          id of the member
+	 * @param version
+	 *          persistence version the JSON was rendered from
+	 * @param json
+	 *          serialized member
+	 * @return true if stored
+	 */
+	public boolean put(final long memberId, final Integer version, final byte[] json) {
+		if (!enabled || version == null || json == null) {
+			return false;
+		}
+		final Long key = Long.valueOf(memberId);
+		final Element replacement = new Element(key, new Entry(version.intValue(), json));
+		while (true) {
+			final Element current = cache.putIfAbsent(replacement);
+			if (current == null) {
+				putCount.incrementAndGet();
+				return true;
+			}
+			final Entry existing = (Entry) current.getObjectValue();
+			if (existing.version > version.intValue() || existing.version == version.intValue() && existing.json != null) {
+				rejectedPutCount.incrementAndGet();
+				return false;
+			}
+			if (cache.replace(current, replacement)) {
+				putCount.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Drops the JSON of a member and fences off renders older than the given
+	 * version.
+	 *
+	 * @param memberId
+	 *          id of the member
+	 * @param version
+	 *          version after the change, null once the member is deleted
+	 */
+	public void invalidate(final long memberId, final Integer version) {
+		final Long key = Long.valueOf(memberId);
+		final int fence = version == null ? DELETED : version.intValue();
+		invalidationCount.incrementAndGet();
+		while (true) {
+			final Element tombstone = new Element(key, new Entry(fence, null));
+			final Element current = cache.putIfAbsent(tombstone);
+			if (current == null) {
+				return;
+			}
+			final Entry existing = (Entry) current.getObjectValue();
+			if (existing.version > fence) {
+				return;
+			}
+			if (cache.replace(current, tombstone)) {
+				return;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.persistence.service.event.MemberChangeListener#onMemberChange(com.ticketmaster.example.persistence.service.event.MemberChangeEvent)
+	 */
+	@Override
+	public void onMemberChange(final MemberChangeEvent event) {
+		LOG.debug("onMemberChange() > {}", event);
+		invalidate(event.getMemberId(), event.getType() == MemberChangeEvent.Type.DELETED ? null : event.getVersion());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.commons.cache.invalidation.InvalidationListener#onInvalidations(java.util.List)
+	 */
+	@Override
+	public void onInvalidations(final List<Invalidation> invalidations) {
+		for (Invalidation invalidation : invalidations) {
+			if (MEMBER_ENTITY.equals(invalidation.getEntityName()) && invalidation.getId() instanceof Long) {
+				invalidate(((Long) invalidation.getId()).longValue(), invalidation.isDeleted() ? null : invalidation
+						.getVersion());
+			}
+		}
+	}
+
+	/**
+	 * @return hit, miss, put and invalidation counts keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("entries", Integer.valueOf(cache.getSize()));
+		statistics.put("hits", Long.valueOf(hitCount.get()));
+		statistics.put("misses", Long.valueOf(missCount.get()));
+		statistics.put("puts", Long.valueOf(putCount.get()));
+		statistics.put("rejectedPuts", Long.valueOf(rejectedPutCount.get()));
+		statistics.put("invalidations", Long.valueOf(invalidationCount.get()));
+		return statistics;
+	}
+
+	public Ehcache getCache() {
+		return cache;
+	}
+
+	public void setCache(final Ehcache cache) {
+		this.cache = cache;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Rendered JSON of one version of a member, a tombstone if json is null
+	 */
+	public static final class Entry implements Serializable {
+
+		private static final long serialVersionUID = -2905367263390858411L;
+
+		private final int version;
+
+		private final byte[] json;
+
+		private Entry(final int version, final byte[] json) {
+			this.version = version;
+			this.json = json;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public byte[] getJson() {
+			return json;
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+package com.ticketmaster.example.web.service.idempotency;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
+
+/**
+ * IdempotencyStore -
+ * Remembers the results of recent requests by the client's
+ * <code>Idempotency-Key</code>, so a retried request gets the original result
+ * without running again. Results are kept in a cache region, which bounds
+ * their number and how long they are kept.
+ * <p>
+ * A request is run at most once per key at a time: a duplicate arriving
+ * while the first is running waits for its result, up to
+ * <code>maxWaitMillis</code>. Only successful results are kept, a failed
+ * request may be retried with the same key. A key reused for a request with
+ * a different fingerprint, e.g. another body, is refused.
+ * <p>
+ * Results are local to the node, a retry routed to another node runs again.
+ */
+public class IdempotencyStore {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(IdempotencyStore.class);
+
+	private Ehcache cache;
+
+	private boolean enabled = true;
+
+	private int maxKeyLength = 255;
+
+	private long maxWaitMillis = 30000;
+
+	private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<String, InFlight>();
+
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong replayedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong conflictCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * @param key
+	 *          the client's idempotency key, null if none was sent
+	 * @param fingerprint
+	 *          identifies the request the key was sent with
+	 * @return the result kept for the key, null if there is none
+	 * @throws Exception
+	 *           if the key is invalid or was used for another request
+	 */
+	public <V> V get(final String key, final String fingerprint) throws Exception {
+		if (!enabled || key == null) {
+			return null;
+		}
+		validate(key);
+		final Element element = cache.get(key);
+		if (element == null) {
+			return null;
+		}
+		final Entry entry = (Entry) element.getObjectValue();
+		checkFingerprint(key, entry.fingerprint, fingerprint);
+		replayedCount.incrementAndGet();
+		@SuppressWarnings("unchecked")
+		final V result = (V) entry.result;
+		return result;
+	}
+
+	/**
+	 * Runs the request unless a result is kept for the key, or waits for the
+	 * duplicate already running with the key.
+	 *
+	 * @param key
+	 *          the client's idempotency key, null to simply run the request
+	 * @param fingerprint
+	 *          identifies the request the key was sent with
+	 * @param request
+	 *          the work to run at most once per key
+	 * @return the result of the request or of its first run
+	 * @throws Exception
+	 *           if the request failed, or the key is invalid or was used for
+	 *           another request
+	 */
+	public <V extends Serializable> V execute(final String key, final String fingerprint, final Callable<V> request)
+			throws Exception {
+		if (!enabled || key == null) {
+			return request.call();
+		}
+
+		final V kept = get(key, fingerprint);
+		if (kept != null) {
+			return kept;
+		}
+
+		final InFlight running = new InFlight(fingerprint, request);
+		final InFlight first = inFlight.putIfAbsent(key, running);
+		if (first != null) {
+			checkFingerprint(key, first.fingerprint, fingerprint);
+			coalescedCount.incrementAndGet();
+			return this.<V> await(key, first);
+		}
+
+		try {
+			// the first run may have completed between the lookup and the registration
+			final V completed = get(key, fingerprint);
+			if (completed != null) {
+				return completed;
+			}
+			running.run();
+			final V result = this.<V> await(key, running);
+			executedCount.incrementAndGet();
+			if (result != null) {
+				cache.put(new Element(key, new Entry(fingerprint, result)));
+			}
+			return result;
+		} finally {
+			inFlight.remove(key, running);
+		}
+	}
+
+	private <V> V await(final String key, final InFlight running) throws Exception {
+		try {
+			@SuppressWarnings("unchecked")
+			final V result = (V) running.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+			return result;
+		} catch (ExecutionException e) {
+			failedCount.incrementAndGet();
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		} catch (TimeoutException e) {
+			throw new ServiceUnavailableException("Request with Idempotency-Key " + key + " is still running");
+		}
+	}
+
+	private void validate(final String key) throws Exception {
+		if (key.length() == 0 || key.length() > maxKeyLength) {
+			throw new Exception("Idempotency-Key check failed - The key must have 1 to " + maxKeyLength + " characters");
+		}
+	}
+
+	private void checkFingerprint(final String key, final String expected, final String fingerprint) throws Exception {
+		if (expected == null ? fingerprint != null : !expected.equals(fingerprint)) {
+			conflictCount.incrementAndGet();
+			LOG.info("Idempotency-Key {} reused for a different request", key);
+			throw new Exception("Idempotency-Key check failed - The key was used for a different request");
+		}
+	}
+
+	/**
+	 * @return executed, replayed, coalesced, conflicting and failed request
+	 *         counts keyed by name
+	 */
+	public Map<String, Object> getStatistics() {
+		final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", Boolean.valueOf(enabled));
+		statistics.put("entries", Integer.valueOf(cache.getSize()));
+		statistics.put("inFlight", Integer.valueOf(inFlight.size()));
+		statistics.put("executed", Long.valueOf(executedCount.get()));
+		statistics.put("replayed", Long.valueOf(replayedCount.get()));
+		statistics.put("coalesced", Long.valueOf(coalescedCount.get()));
+		statistics.put("conflicts", Long.valueOf(conflictCount.get()));
+		statistics.put("failed", Long.valueOf(failedCount.get()));
+		return statistics;
+	}
+
+	public Ehcache getCache() {
+		return cache;
+	}
+
+	public void setCache(final Ehcache cache) {
+		this.cache = cache;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxKeyLength() {
+		return maxKeyLength;
+	}
+
+	public void setMaxKeyLength(final int maxKeyLength) {
+		this.maxKeyLength = maxKeyLength;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(final long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * A request running with a key, run by the first caller
+	 */
+	private static final class InFlight extends FutureTask<Object> {
+
+		private final String fingerprint;
+
+		@SuppressWarnings("unchecked")
+		InFlight(final String fingerprint, final Callable<?> request) {
+			super((Callable<Object>) request);
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * Result kept for a key and the fingerprint of its request
+	 */
+	private static final class Entry implements Serializable {
+
+		private static final long serialVersionUID = 4387212504093116471L;
+
+		private final String fingerprint;
+
+		private final Serializable result;
+
+		private Entry(final String fingerprint, final Serializable result) {
+			this.fingerprint = fingerprint;
+			this.result = result;
+		}
+	}
+
+}
@@ -1,5 +1,16 @@
 package com.ticketmaster.example.web.service.impl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.schema.JsonSchema;
@@ -7,10 +18,20 @@ import org.dozer.DozerBeanMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
 import com.ticketmaster.example.model.MemberEntity;
 import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.persistence.service.feed.MemberChangeFeed;
+import com.ticketmaster.example.persistence.service.writebehind.WriteBehindMemberPersistenceService;
+import com.ticketmaster.example.rest.provider.JacksonSmileProvider;
 import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
+import com.ticketmaster.example.web.model.MemberChangePage;
+import com.ticketmaster.example.web.model.MemberSyncPage;
 import com.ticketmaster.example.web.service.ExampleMemberRestService;
+import com.ticketmaster.example.web.service.async.ContinuationRequestExecutor;
+import com.ticketmaster.example.web.service.cache.MemberJsonCache;
+import com.ticketmaster.example.web.service.idempotency.IdempotencyStore;
 
 public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 
@@ -40,6 +61,99 @@ public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 		this.dozerBeanMapper = dozerBeanMapper;
 	}	
 
+	private ContinuationRequestExecutor requestExecutor;
+
+	public ContinuationRequestExecutor getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	public void setRequestExecutor(final ContinuationRequestExecutor requestExecutor) {
+		this.requestExecutor = requestExecutor;
+	}
+
+	private MemberJsonCache memberJsonCache;
+
+	public MemberJsonCache getMemberJsonCache() {
+		return memberJsonCache;
+	}
+
+	public void setMemberJsonCache(final MemberJsonCache memberJsonCache) {
+		this.memberJsonCache = memberJsonCache;
+	}
+
+	private WriteBehindMemberPersistenceService memberWriteBehind;
+
+	public WriteBehindMemberPersistenceService getMemberWriteBehind() {
+		return memberWriteBehind;
+	}
+
+	public void setMemberWriteBehind(final WriteBehindMemberPersistenceService memberWriteBehind) {
+		this.memberWriteBehind = memberWriteBehind;
+	}
+
+	private IdempotencyStore idempotencyStore;
+
+	public IdempotencyStore getIdempotencyStore() {
+		return idempotencyStore;
+	}
+
+	public void setIdempotencyStore(final IdempotencyStore idempotencyStore) {
+		this.idempotencyStore = idempotencyStore;
+	}
+
+	private MemberChangeFeed memberChangeFeed;
+
+	public MemberChangeFeed getMemberChangeFeed() {
+		return memberChangeFeed;
+	}
+
+	public void setMemberChangeFeed(final MemberChangeFeed memberChangeFeed) {
+		this.memberChangeFeed = memberChangeFeed;
+	}
+
+	// most changes returned by one getMemberChanges
+	private int maxChangePageSize = 1000;
+
+	public int getMaxChangePageSize() {
+		return maxChangePageSize;
+	}
+
+	public void setMaxChangePageSize(final int maxChangePageSize) {
+		this.maxChangePageSize = maxChangePageSize;
+	}
+
+	// longest a getMemberChanges may wait for a change
+	private long maxChangeWaitMillis = 30000;
+
+	public long getMaxChangeWaitMillis() {
+		return maxChangeWaitMillis;
+	}
+
+	public void setMaxChangeWaitMillis(final long maxChangeWaitMillis) {
+		this.maxChangeWaitMillis = maxChangeWaitMillis;
+	}
+
+	// serializes getMember responses, configured like the JacksonJsonProvider's
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	public ObjectMapper getObjectMapper() {
+		return objectMapper;
+	}
+
+	public void setObjectMapper(final ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Runs the given work on the request executor, or on the calling thread if none is configured.
+	 */
+	private <V> V execute(final Callable<V> task) throws Exception {
+		if (requestExecutor == null) {
+			return task.call();
+		}
+		return requestExecutor.execute(task);
+	}
+
 	// TODO: Keep this commented out for production!
 	// This is only needed to generate the JSON schema
 	/*
@@ -51,43 +165,157 @@ public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 	*/
 	
 	/* (non-Javadoc)
-	 * @see com.ticketmaster.example.web.service.ExampleRestService#getMember(long)
+	 * @see com.ticketmaster.example.web.service.ExampleRestService#getMember(long, java.lang.String, java.lang.String)
 	 */
 	@Override
-	public Member getMember(final long memberId) throws Exception {
+	public Response getMember(final long memberId, final String ifNoneMatch, final String accept) throws Exception {
 
-    	LOG.debug("getMember() > Arguments: memberId={}", memberId );
+    	LOG.debug("getMember() > Arguments: memberId={}, ifNoneMatch={}, accept={}", new Object[] { memberId, ifNoneMatch, accept } );
+
+		// JSON is cached and rendered ahead of time, a Smile response is transcoded from it
+		final boolean smile = JacksonSmileProvider.prefersSmile(accept);
 		
 		//try { generateAddressSchema(Member.class); } catch (JsonMappingException e) {e.printStackTrace();}
+
+		// an update waiting to be written is only visible through the service, and has no version yet
+		if (memberWriteBehind != null && memberWriteBehind.isPending(memberId)) {
+			return execute(new Callable<Response>() {
+				@Override
+				public Response call() throws Exception {
+					final MemberEntity memberEntity = exampleMemberPersistenceService.getMember(memberId);
+					final byte[] json = objectMapper.writeValueAsBytes(dozerBeanMapper.map(memberEntity, Member.class));
+					return render(null, json, null, smile);
+				}
+			});
+		}
+
+		// hot members are written straight from the cache, skipping the entity, Dozer and Jackson
+		final MemberJsonCache.Entry cached = memberJsonCache == null ? null : memberJsonCache.getEntry(memberId);
+		if (cached != null) {
+			return render(Integer.valueOf(cached.getVersion()), cached.getJson(), ifNoneMatch, smile);
+		}
     	
-    	
-    	final MemberEntity memberEntity = exampleMemberPersistenceService.getMember(memberId);
+    	return execute(new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
 
-    	final Member returnMember = dozerBeanMapper.map(memberEntity, Member.class);
+				// one join straight into the web model, Hibernate handles failures
+				final MemberJdbcReader.Result read = exampleMemberPersistenceService.getMemberView(memberId);
+				if (read != null) {
+					final byte[] json = objectMapper.writeValueAsBytes(read.getMember());
+					if (memberJsonCache != null) {
+						memberJsonCache.put(memberId, read.getVersion(), json);
+					}
+					return render(read.getVersion(), json, ifNoneMatch, smile);
+				}
 
-    	return returnMember;
+				// a revalidation only reads the version, the member is loaded if it changed
+				if (ifNoneMatch != null) {
+					final Integer version = exampleMemberPersistenceService.getMemberVersion(memberId);
+					if (version != null && matches(ifNoneMatch, version.intValue())) {
+						return Response.notModified(tag(version.intValue())).build();
+					}
+				}
+
+		    	final MemberEntity memberEntity = exampleMemberPersistenceService.getMember(memberId);
+
+		    	final Member returnMember = dozerBeanMapper.map(memberEntity, Member.class);
+
+		    	final byte[] json = objectMapper.writeValueAsBytes(returnMember);
+		    	if (memberJsonCache != null) {
+		    		memberJsonCache.put(memberId, memberEntity.getPersistenceVersion(), json);
+		    	}
+
+		    	return render(memberEntity.getPersistenceVersion(), json, ifNoneMatch, smile);
+			}
+		});
 
 	}
 
+	private static Response render(final Integer version, final byte[] json, final String ifNoneMatch,
+			final boolean smile) throws IOException {
+		if (version != null && ifNoneMatch != null && matches(ifNoneMatch, version.intValue())) {
+			return Response.notModified(tag(version.intValue())).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+		}
+		final ResponseBuilder response = smile
+				? Response.ok(JacksonSmileProvider.toSmile(json), JacksonSmileProvider.APPLICATION_SMILE_TYPE)
+				: Response.ok(json, MediaType.APPLICATION_JSON_TYPE);
+		if (version != null) {
+			response.tag(tag(version.intValue()));
+		}
+		return response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+	}
+
+	private static EntityTag tag(final int version) {
+		return new EntityTag(String.valueOf(version));
+	}
+
+	/**
+	 * @return true if the If-None-Match header lists the tag of the version,
+	 *         weak or strong, or is a wildcard
+	 */
+	private static boolean matches(final String ifNoneMatch, final int version) {
+		final String value = String.valueOf(version);
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if ("*".equals(tag)) {
+				return true;
+			}
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.length() >= 2 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"') {
+				tag = tag.substring(1, tag.length() - 1);
+			}
+			if (value.equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/* (non-Javadoc)
-	 * @see com.ticketmaster.example.web.service.ExampleRestService#createMember(com.ticketmaster.example.web.model.Member)
+	 * @see com.ticketmaster.example.web.service.ExampleRestService#createMember(java.lang.String, com.ticketmaster.example.web.model.Member)
 	 */
 	@Override
-	public Member createMember(final Member inMember) throws Exception {
-		
-    	LOG.debug("createMember() > Arguments: inMember={}", inMember);
+	public Member createMember(final String idempotencyKey, final Member inMember) throws Exception {
 		
-    	final MemberEntity createMemberEntity = dozerBeanMapper.map(inMember, MemberEntity.class);
+    	LOG.debug("createMember() > Arguments: idempotencyKey={}, inMember={}", idempotencyKey, inMember);
 
-    	LOG.debug("createMember() > createMemberEntity={}", createMemberEntity);
-    	
-    	final MemberEntity createdMemberEntity = exampleMemberPersistenceService.createMember(createMemberEntity);
+    	// a retry is answered from the store, before validation and without a worker
+    	final String fingerprint = idempotencyKey == null || idempotencyStore == null ? null : objectMapper
+    			.writeValueAsString(inMember);
+    	final Member created = idempotencyStore == null ? null : idempotencyStore.<Member> get(idempotencyKey,
+    			fingerprint);
+    	if (created != null) {
+    		return created;
+    	}
 
-    	LOG.debug("createMember() > createdMemberEntity={}", createdMemberEntity);
-    	
-    	final Member returnMember = dozerBeanMapper.map(createdMemberEntity, Member.class);
+    	final Callable<Member> create = new Callable<Member>() {
+			@Override
+			public Member call() throws Exception {
 
-    	return returnMember;		
+		    	final MemberEntity createMemberEntity = dozerBeanMapper.map(inMember, MemberEntity.class);
+
+		    	LOG.debug("createMember() > createMemberEntity={}", createMemberEntity);
+		    	
+		    	final MemberEntity createdMemberEntity = exampleMemberPersistenceService.createMember(createMemberEntity);
+
+		    	LOG.debug("createMember() > createdMemberEntity={}", createdMemberEntity);
+		    	
+		    	final Member returnMember = dozerBeanMapper.map(createdMemberEntity, Member.class);
+
+		    	return returnMember;
+			}
+		};
+
+    	return execute(new Callable<Member>() {
+			@Override
+			public Member call() throws Exception {
+				return idempotencyStore == null ? create.call() : idempotencyStore.execute(idempotencyKey, fingerprint,
+						create);
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -98,7 +326,13 @@ public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 
     	LOG.debug("getMember() > Arguments: memberId={}", memberId );
     	
-		exampleMemberPersistenceService.deleteMember(memberId);
+    	execute(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				exampleMemberPersistenceService.deleteMember(memberId);
+				return null;
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -110,13 +344,48 @@ public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 
 		LOG.debug("updateMember() > Arguments: memberId={}, inMember={}", memberId, inMember );
 		
-    	final MemberEntity updateMemberEntity = dozerBeanMapper.map(inMember, MemberEntity.class);
+		return execute(new Callable<Member>() {
+			@Override
+			public Member call() throws Exception {
 
-    	final MemberEntity updatedMemberEntity = exampleMemberPersistenceService.updateMember(memberId, updateMemberEntity);
+		    	final MemberEntity updateMemberEntity = dozerBeanMapper.map(inMember, MemberEntity.class);
 
-    	final Member returnMember = dozerBeanMapper.map(updatedMemberEntity, Member.class);
-		
-		return returnMember;
+		    	final MemberEntity updatedMemberEntity = exampleMemberPersistenceService.updateMember(memberId, updateMemberEntity);
+
+		    	final Member returnMember = dozerBeanMapper.map(updatedMemberEntity, Member.class);
+				
+				return returnMember;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleMemberRestService#upsertMembersByEmail(java.util.List)
+	 */
+	@Override
+	public List<Member> upsertMembersByEmail(final List<Member> inMembers) throws Exception {
+
+		LOG.debug("upsertMembersByEmail() > Arguments: {} members", inMembers.size());
+
+		return execute(new Callable<List<Member>>() {
+			@Override
+			public List<Member> call() throws Exception {
+
+				final List<MemberEntity> upsertMemberEntities = new ArrayList<MemberEntity>(inMembers.size());
+				for (Member inMember : inMembers) {
+					upsertMemberEntities.add(dozerBeanMapper.map(inMember, MemberEntity.class));
+				}
+
+				final List<MemberEntity> upsertedMemberEntities = exampleMemberPersistenceService
+						.upsertMembersByEmail(upsertMemberEntities);
+
+				final List<Member> returnMembers = new ArrayList<Member>(upsertedMemberEntities.size());
+				for (MemberEntity upsertedMemberEntity : upsertedMemberEntities) {
+					returnMembers.add(dozerBeanMapper.map(upsertedMemberEntity, Member.class));
+				}
+				return returnMembers;
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -127,9 +396,102 @@ public class ExampleMemberRestServiceImpl implements ExampleMemberRestService {
 
 		LOG.debug("getMemberCount() >" );
 		
-		return exampleMemberPersistenceService.getMemberCount();
+		final Long count = execute(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				return Long.valueOf(exampleMemberPersistenceService.getMemberCount());
+			}
+		});
+
+		// null while the request is suspended, the count is returned when it is resumed
+		return count == null ? 0 : count.longValue();
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleMemberRestService#getMembers(int, int)
+	 */
+	@Override
+	public List<Member> getMembers(final int offset, final int limit) throws Exception {
+
+		LOG.debug("getMembers() > Arguments: offset={}, limit={}", offset, limit);
 
+		return execute(new Callable<List<Member>>() {
+			@Override
+			public List<Member> call() throws Exception {
+				return exampleMemberPersistenceService.getMemberViews(offset, limit);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleMemberRestService#searchMembers(java.lang.String, java.lang.String, int, int)
+	 */
+	@Override
+	public List<Member> searchMembers(final String first, final String last, final int offset, final int limit)
+			throws Exception {
+
+		LOG.debug("searchMembers() > Arguments: first={}, last={}, offset={}, limit={}",
+				new Object[] { first, last, offset, limit });
+
+		return execute(new Callable<List<Member>>() {
+			@Override
+			public List<Member> call() throws Exception {
+				return exampleMemberPersistenceService.getMemberViewsByFirstOrLast(first, last, offset, limit);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleMemberRestService#getMemberChangesSince(long, long, int)
+	 */
+	@Override
+	public MemberSyncPage getMemberChangesSince(final long since, final long afterId, final int limit)
+			throws Exception {
+
+		LOG.debug("getMemberChangesSince() > Arguments: since={}, afterId={}, limit={}",
+				new Object[] { since, afterId, limit });
+
+		return execute(new Callable<MemberSyncPage>() {
+			@Override
+			public MemberSyncPage call() throws Exception {
+				return exampleMemberPersistenceService.getMemberChangesSince(since, afterId, limit);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleMemberRestService#getMemberChanges(long, int, long)
+	 */
+	@Override
+	public MemberChangePage getMemberChanges(final long offset, final int limit, final long waitMillis)
+			throws Exception {
+
+		LOG.debug("getMemberChanges() > Arguments: offset={}, limit={}, waitMillis={}",
+				new Object[] { offset, limit, waitMillis });
+
+		if (limit < 1 || limit > maxChangePageSize) {
+			throw new Exception("Page check failed - limit must be between 1 and " + maxChangePageSize + " (limit="
+					+ limit + ")");
+		}
+		if (offset < 0) {
+			return new MemberChangePage(new ArrayList<MemberChange>(), memberChangeFeed.getTail(), false);
+		}
+
+		final MemberChangePage page = memberChangeFeed.read(offset, limit);
+		if (!page.getChanges().isEmpty() || page.isTruncated() || waitMillis <= 0 || requestExecutor == null) {
+			return page;
+		}
+
+		// nothing yet, wait for the next change without holding a worker
+		final boolean ready = requestExecutor.await(new ContinuationRequestExecutor.Signal() {
+			@Override
+			public boolean register(final Runnable callback, final long wait) {
+				return memberChangeFeed.register(offset, callback, wait);
+			}
+		}, Math.min(waitMillis, maxChangeWaitMillis));
+
+		// not ready while the request is suspended, the changes are read when it is resumed
+		return ready ? memberChangeFeed.read(offset, limit) : page;
+	}
 
 }
@@ -0,0 +1,423 @@
+package com.ticketmaster.example.web.service.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ticketmaster.example.commons.cache.CacheRegionAdministrator;
+import com.ticketmaster.example.commons.cache.invalidation.InvalidationBus;
+import com.ticketmaster.example.commons.cache.method.MethodCacheAspect;
+import com.ticketmaster.example.commons.persistence.datasource.InstrumentedDataSource;
+import com.ticketmaster.example.commons.persistence.datasource.ProfilingDataSource;
+import com.ticketmaster.example.commons.persistence.datasource.ReadWriteRoutingDataSource;
+import com.ticketmaster.example.commons.persistence.datasource.StatementCachingDataSource;
+import com.ticketmaster.example.commons.persistence.datasource.StatementCounter;
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
+import com.ticketmaster.example.persistence.service.admission.AdmissionControlledMemberPersistenceService;
+import com.ticketmaster.example.persistence.service.feed.MemberChangeFeed;
+import com.ticketmaster.example.persistence.service.filter.MemberIdFilter;
+import com.ticketmaster.example.persistence.service.warmup.MemberCacheWarmer;
+import com.ticketmaster.example.persistence.service.writebehind.WriteBehindMemberPersistenceService;
+import com.ticketmaster.example.web.service.ExampleOperationsRestService;
+import com.ticketmaster.example.web.service.async.ContinuationRequestExecutor;
+import com.ticketmaster.example.web.service.cache.MemberJsonCache;
+import com.ticketmaster.example.web.service.idempotency.IdempotencyStore;
+
+public class ExampleOperationsRestServiceImpl implements ExampleOperationsRestService {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger LOG = LoggerFactory.getLogger(ExampleOperationsRestServiceImpl.class);
+
+	private AdmissionControlledMemberPersistenceService admissionControlledMemberPersistenceService;
+
+	public AdmissionControlledMemberPersistenceService getAdmissionControlledMemberPersistenceService() {
+		return admissionControlledMemberPersistenceService;
+	}
+
+	public void setAdmissionControlledMemberPersistenceService(
+			final AdmissionControlledMemberPersistenceService admissionControlledMemberPersistenceService) {
+		this.admissionControlledMemberPersistenceService = admissionControlledMemberPersistenceService;
+	}
+
+	private ContinuationRequestExecutor requestExecutor;
+
+	public ContinuationRequestExecutor getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	public void setRequestExecutor(final ContinuationRequestExecutor requestExecutor) {
+		this.requestExecutor = requestExecutor;
+	}
+
+	private InstrumentedDataSource instrumentedDataSource;
+
+	public InstrumentedDataSource getInstrumentedDataSource() {
+		return instrumentedDataSource;
+	}
+
+	public void setInstrumentedDataSource(final InstrumentedDataSource instrumentedDataSource) {
+		this.instrumentedDataSource = instrumentedDataSource;
+	}
+
+	private StatementCachingDataSource statementCachingDataSource;
+
+	public StatementCachingDataSource getStatementCachingDataSource() {
+		return statementCachingDataSource;
+	}
+
+	public void setStatementCachingDataSource(final StatementCachingDataSource statementCachingDataSource) {
+		this.statementCachingDataSource = statementCachingDataSource;
+	}
+
+	private ReadWriteRoutingDataSource routingDataSource;
+
+	public ReadWriteRoutingDataSource getRoutingDataSource() {
+		return routingDataSource;
+	}
+
+	public void setRoutingDataSource(final ReadWriteRoutingDataSource routingDataSource) {
+		this.routingDataSource = routingDataSource;
+	}
+
+	private ProfilingDataSource profilingDataSource;
+
+	public ProfilingDataSource getProfilingDataSource() {
+		return profilingDataSource;
+	}
+
+	public void setProfilingDataSource(final ProfilingDataSource profilingDataSource) {
+		this.profilingDataSource = profilingDataSource;
+	}
+
+	private StatementCounter statementCounter;
+
+	public StatementCounter getStatementCounter() {
+		return statementCounter;
+	}
+
+	public void setStatementCounter(final StatementCounter statementCounter) {
+		this.statementCounter = statementCounter;
+	}
+
+	private MemberJsonCache memberJsonCache;
+
+	public MemberJsonCache getMemberJsonCache() {
+		return memberJsonCache;
+	}
+
+	public void setMemberJsonCache(final MemberJsonCache memberJsonCache) {
+		this.memberJsonCache = memberJsonCache;
+	}
+
+	private MemberJdbcReader memberJdbcReader;
+
+	public MemberJdbcReader getMemberJdbcReader() {
+		return memberJdbcReader;
+	}
+
+	public void setMemberJdbcReader(final MemberJdbcReader memberJdbcReader) {
+		this.memberJdbcReader = memberJdbcReader;
+	}
+
+	private WriteBehindMemberPersistenceService memberWriteBehind;
+
+	public WriteBehindMemberPersistenceService getMemberWriteBehind() {
+		return memberWriteBehind;
+	}
+
+	public void setMemberWriteBehind(final WriteBehindMemberPersistenceService memberWriteBehind) {
+		this.memberWriteBehind = memberWriteBehind;
+	}
+
+	private IdempotencyStore idempotencyStore;
+
+	public IdempotencyStore getIdempotencyStore() {
+		return idempotencyStore;
+	}
+
+	public void setIdempotencyStore(final IdempotencyStore idempotencyStore) {
+		this.idempotencyStore = idempotencyStore;
+	}
+
+	private MemberChangeFeed memberChangeFeed;
+
+	public MemberChangeFeed getMemberChangeFeed() {
+		return memberChangeFeed;
+	}
+
+	public void setMemberChangeFeed(final MemberChangeFeed memberChangeFeed) {
+		this.memberChangeFeed = memberChangeFeed;
+	}
+
+	private MemberCacheWarmer memberCacheWarmer;
+
+	public MemberCacheWarmer getMemberCacheWarmer() {
+		return memberCacheWarmer;
+	}
+
+	public void setMemberCacheWarmer(final MemberCacheWarmer memberCacheWarmer) {
+		this.memberCacheWarmer = memberCacheWarmer;
+	}
+
+	private InvalidationBus cacheInvalidationBus;
+
+	public InvalidationBus getCacheInvalidationBus() {
+		return cacheInvalidationBus;
+	}
+
+	public void setCacheInvalidationBus(final InvalidationBus cacheInvalidationBus) {
+		this.cacheInvalidationBus = cacheInvalidationBus;
+	}
+
+	private MemberIdFilter memberIdFilter;
+
+	public MemberIdFilter getMemberIdFilter() {
+		return memberIdFilter;
+	}
+
+	public void setMemberIdFilter(final MemberIdFilter memberIdFilter) {
+		this.memberIdFilter = memberIdFilter;
+	}
+
+	private MethodCacheAspect methodCacheAspect;
+
+	public MethodCacheAspect getMethodCacheAspect() {
+		return methodCacheAspect;
+	}
+
+	public void setMethodCacheAspect(final MethodCacheAspect methodCacheAspect) {
+		this.methodCacheAspect = methodCacheAspect;
+	}
+
+	private CacheRegionAdministrator cacheRegionAdministrator;
+
+	public CacheRegionAdministrator getCacheRegionAdministrator() {
+		return cacheRegionAdministrator;
+	}
+
+	public void setCacheRegionAdministrator(final CacheRegionAdministrator cacheRegionAdministrator) {
+		this.cacheRegionAdministrator = cacheRegionAdministrator;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getAdmissionStatistics()
+	 */
+	@Override
+	public Map<String, Object> getAdmissionStatistics() {
+
+		LOG.debug("getAdmissionStatistics() >");
+
+		return admissionControlledMemberPersistenceService.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getRequestExecutorStatistics()
+	 */
+	@Override
+	public Map<String, Object> getRequestExecutorStatistics() {
+
+		LOG.debug("getRequestExecutorStatistics() >");
+
+		return requestExecutor.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getDataSourceStatistics()
+	 */
+	@Override
+	public Map<String, Object> getDataSourceStatistics() {
+
+		LOG.debug("getDataSourceStatistics() >");
+
+		return instrumentedDataSource.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getStatementCacheStatistics()
+	 */
+	@Override
+	public Map<String, Object> getStatementCacheStatistics() {
+
+		LOG.debug("getStatementCacheStatistics() >");
+
+		return statementCachingDataSource.getStatementCacheStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getRoutingStatistics()
+	 */
+	@Override
+	public Map<String, Object> getRoutingStatistics() {
+
+		LOG.debug("getRoutingStatistics() >");
+
+		return routingDataSource.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getSqlStatistics(int, java.lang.String)
+	 */
+	@Override
+	public Map<String, Object> getSqlStatistics(final int top, final String orderBy) {
+
+		LOG.debug("getSqlStatistics() > top={}, orderBy={}", top, orderBy);
+
+		return profilingDataSource.getStatistics(top, orderBy);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getStatementCountStatistics()
+	 */
+	@Override
+	public Map<String, Object> getStatementCountStatistics() {
+
+		LOG.debug("getStatementCountStatistics() >");
+
+		return statementCounter.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getMemberJsonCacheStatistics()
+	 */
+	@Override
+	public Map<String, Object> getMemberJsonCacheStatistics() {
+
+		LOG.debug("getMemberJsonCacheStatistics() >");
+
+		return memberJsonCache.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getMemberFastPathStatistics()
+	 */
+	@Override
+	public Map<String, Object> getMemberFastPathStatistics() {
+
+		LOG.debug("getMemberFastPathStatistics() >");
+
+		return memberJdbcReader.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getWriteBehindStatistics()
+	 */
+	@Override
+	public Map<String, Object> getWriteBehindStatistics() {
+
+		LOG.debug("getWriteBehindStatistics() >");
+
+		return memberWriteBehind.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getIdempotencyStatistics()
+	 */
+	@Override
+	public Map<String, Object> getIdempotencyStatistics() {
+
+		LOG.debug("getIdempotencyStatistics() >");
+
+		return idempotencyStore.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getMemberChangeFeedStatistics()
+	 */
+	@Override
+	public Map<String, Object> getMemberChangeFeedStatistics() {
+
+		LOG.debug("getMemberChangeFeedStatistics() >");
+
+		return memberChangeFeed.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getCacheInvalidationStatistics()
+	 */
+	@Override
+	public Map<String, Object> getCacheInvalidationStatistics() {
+
+		LOG.debug("getCacheInvalidationStatistics() >");
+
+		return cacheInvalidationBus.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getMemberIdFilterStatistics()
+	 */
+	@Override
+	public Map<String, Object> getMemberIdFilterStatistics() {
+
+		LOG.debug("getMemberIdFilterStatistics() >");
+
+		return memberIdFilter.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getMethodCacheStatistics()
+	 */
+	@Override
+	public Map<String, Object> getMethodCacheStatistics() {
+
+		LOG.debug("getMethodCacheStatistics() >");
+
+		return methodCacheAspect.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getCacheStatistics()
+	 */
+	@Override
+	public Map<String, Object> getCacheStatistics() {
+
+		LOG.debug("getCacheStatistics() >");
+
+		return cacheRegionAdministrator.getStatistics();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#resizeCache(java.lang.String, java.lang.Long, java.lang.Long, java.lang.Long)
+	 */
+	@Override
+	public Response resizeCache(final String region, final Long maxEntries, final Long timeToLiveSeconds,
+			final Long timeToIdleSeconds) {
+
+		LOG.debug("resizeCache() > region={}", region);
+
+		if (!cacheRegionAdministrator.hasRegion(region)) {
+			return Response.status(Response.Status.NOT_FOUND)
+					.entity(Collections.singletonMap("error", "No cache region named " + region))
+					.type(MediaType.APPLICATION_JSON_TYPE).build();
+		}
+		try {
+			return Response.ok(cacheRegionAdministrator.resize(region, maxEntries, timeToLiveSeconds, timeToIdleSeconds),
+					MediaType.APPLICATION_JSON_TYPE).build();
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST)
+					.entity(Collections.singletonMap("error", e.getMessage())).type(MediaType.APPLICATION_JSON_TYPE)
+					.build();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ticketmaster.example.web.service.ExampleOperationsRestService#getReadiness()
+	 */
+	@Override
+	public Response getReadiness() {
+
+		LOG.debug("getReadiness() >");
+
+		final Map<String, Object> statistics = memberCacheWarmer.getStatistics();
+		final Response.Status status = Boolean.TRUE.equals(statistics.get("ready")) ? Response.Status.OK
+				: Response.Status.SERVICE_UNAVAILABLE;
+		return Response.status(status).entity(statistics).type(MediaType.APPLICATION_JSON_TYPE).build();
+	}
+
+}
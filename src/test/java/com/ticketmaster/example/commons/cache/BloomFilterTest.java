@@ -0,0 +1,47 @@
+package com.ticketmaster.example.commons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks a Bloom filter of sequential ids for false negatives and its false
+ * positive rate.
+ */
+public class BloomFilterTest {
+
+  @Test
+  public void testHasNoFalseNegativesAndKeepsTheFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(100000, 0.01);
+    for (long id = 1; id <= 100000; id++) {
+      filter.put(id);
+    }
+    for (long id = 1; id <= 100000; id++) {
+      assertTrue(filter.mightContain(id));
+    }
+
+    int falsePositives = 0;
+    for (long id = 100001; id <= 200000; id++) {
+      if (filter.mightContain(id)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("false positives " + falsePositives, falsePositives < 1500);
+    assertTrue(filter.getCurrentFalsePositiveRate() < 0.015);
+    assertEquals(100000, filter.getApproximateCount(), 2000);
+  }
+
+  @Test
+  public void testSizesBitsAndHashesForTheRate() {
+    BloomFilter filter = new BloomFilter(1000000, 0.01);
+    // 9.6 bits and 7 hashes per id
+    assertEquals(9585088, filter.getBitCount());
+    assertEquals(7, filter.getHashCount());
+    assertEquals(1198136, filter.getSizeInBytes());
+    assertFalse(filter.mightContain(42));
+    assertEquals(0.0, filter.getCurrentFalsePositiveRate(), 0.0);
+  }
+
+}
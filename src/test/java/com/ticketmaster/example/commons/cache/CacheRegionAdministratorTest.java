@@ -0,0 +1,112 @@
+package com.ticketmaster.example.commons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reports and resizes the regions of a cache manager without Hibernate.
+ */
+public class CacheRegionAdministratorTest {
+
+  private CacheManager cacheManager;
+  private Cache members;
+  private CacheRegionAdministrator administrator;
+
+  @Before
+  public void setUp() {
+    Configuration configuration = new Configuration();
+    configuration.setName("cacheRegionAdministratorTest");
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    cacheManager = new CacheManager(configuration);
+    members = new Cache(new CacheConfiguration("members", 4).timeToLiveSeconds(120));
+    cacheManager.addCache(members);
+    cacheManager.addCache(new Cache(new CacheConfiguration("timestamps", 10).eternal(true)));
+
+    administrator = new CacheRegionAdministrator();
+    administrator.setCacheManager(cacheManager);
+    administrator.start();
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testReportsEveryRegion() {
+    for (int id = 1; id <= 6; id++) {
+      members.put(new Element(Integer.valueOf(id), "member" + id));
+    }
+    members.get(Integer.valueOf(6));
+    members.get(Integer.valueOf(99));
+
+    Map<String, Object> statistics = administrator.getStatistics();
+    assertNull(statistics.get("hibernate"));
+    Map<String, Object> regions = (Map<String, Object>) statistics.get("regions");
+    assertEquals(2, regions.size());
+
+    Map<String, Object> region = (Map<String, Object>) regions.get("members");
+    assertEquals(Long.valueOf(4), region.get("maxEntries"));
+    assertEquals(Integer.valueOf(4), region.get("size"));
+    assertEquals(Long.valueOf(1), region.get("hits"));
+    assertEquals(Long.valueOf(1), region.get("misses"));
+    assertEquals(Long.valueOf(6), region.get("puts"));
+    assertEquals(Long.valueOf(2), region.get("evictions"));
+  }
+
+  @Test
+  public void testResizesCapacityAndLifespan() {
+    Map<String, Object> region = administrator.resize("members", Long.valueOf(100), Long.valueOf(30), null);
+    assertEquals(Long.valueOf(100), region.get("maxEntries"));
+    assertEquals(Long.valueOf(30), region.get("timeToLiveSeconds"));
+    assertEquals(Long.valueOf(0), region.get("timeToIdleSeconds"));
+
+    for (int id = 1; id <= 50; id++) {
+      members.put(new Element(Integer.valueOf(id), "member" + id));
+    }
+    assertEquals(50, members.getSize());
+    assertEquals(30, members.getCacheConfiguration().getTimeToLiveSeconds());
+  }
+
+  @Test
+  public void testRefusesInvalidResizes() {
+    assertFalse(administrator.hasRegion("unknown"));
+    assertTrue(administrator.hasRegion("members"));
+    try {
+      administrator.resize("unknown", Long.valueOf(10), null, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      administrator.resize("members", Long.valueOf(-1), null, null);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      administrator.resize("timestamps", null, Long.valueOf(60), null);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(4, members.getCacheConfiguration().getMaxEntriesLocalHeap());
+    administrator.resize("timestamps", Long.valueOf(20), null, null);
+    assertEquals(20, cacheManager.getCache("timestamps").getCacheConfiguration().getMaxEntriesLocalHeap());
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.ticketmaster.example.commons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.hibernate.EntityMode;
+import org.hibernate.cache.CacheKey;
+import org.hibernate.type.StandardBasicTypes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes a snapshot of two regions and restores it into fresh caches.
+ */
+public class CacheSnapshotTest {
+
+  private static final String MEMBERS = "Member";
+  private static final String PLAIN = "plain";
+
+  private File file;
+  private CacheManager cacheManager;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("cache", ".snapshot");
+    file.delete();
+    cacheManager = newCacheManager("cacheSnapshotTest");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheManager.shutdown();
+    file.delete();
+  }
+
+  private static CacheManager newCacheManager(String name) {
+    Configuration configuration = new Configuration();
+    configuration.setName(name);
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    CacheManager cacheManager = new CacheManager(configuration);
+    cacheManager.addCache(new Cache(new CacheConfiguration(MEMBERS, 100).timeToLiveSeconds(120)));
+    cacheManager.addCache(new Cache(new CacheConfiguration(PLAIN, 100).eternal(true)));
+    return cacheManager;
+  }
+
+  private static CacheKey key(long id) {
+    return new CacheKey(Long.valueOf(id), StandardBasicTypes.LONG, MEMBERS, EntityMode.POJO, null);
+  }
+
+  private CacheSnapshot snapshot(CacheManager cacheManager) {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    snapshot.setCacheManager(cacheManager);
+    snapshot.setRegions(Arrays.asList(MEMBERS, PLAIN));
+    snapshot.setFile(file.getPath());
+    snapshot.setCheckpointIntervalSeconds(0);
+    return snapshot;
+  }
+
+  @Test
+  public void testRestoresLiveEntriesWithTheirRemainingTimeToLive() throws Exception {
+    Cache members = cacheManager.getCache(MEMBERS);
+    members.put(new Element(key(1), "member1"));
+    members.put(new Element(key(2), "member2"));
+    cacheManager.getCache(PLAIN).put(new Element(Long.valueOf(7), "plain7"));
+    assertEquals(3, snapshot(cacheManager).checkpoint());
+    assertTrue(file.length() > 0);
+
+    CacheManager restarted = newCacheManager("cacheSnapshotTestRestarted");
+    try {
+      // loaded before the snapshot is restored, must be kept
+      restarted.getCache(MEMBERS).put(new Element(key(2), "member2 reloaded"));
+
+      CacheSnapshot snapshot = snapshot(restarted);
+      snapshot.start();
+
+      Element restored = restarted.getCache(MEMBERS).get(key(1));
+      assertEquals("member1", restored.getObjectValue());
+      assertTrue(restored.getTimeToLive() > 100 && restored.getTimeToLive() <= 120);
+      assertEquals("member2 reloaded", restarted.getCache(MEMBERS).get(key(2)).getObjectValue());
+      assertEquals("plain7", restarted.getCache(PLAIN).get(Long.valueOf(7)).getObjectValue());
+      assertTrue(restarted.getCache(PLAIN).get(Long.valueOf(7)).isEternal());
+      assertEquals(1, snapshot.getRestoredIds(MEMBERS).size());
+      assertTrue(snapshot.getHotIds(MEMBERS).isEmpty());
+    } finally {
+      restarted.shutdown();
+    }
+  }
+
+  @Test
+  public void testKeepsIdsOfExpiringEntriesByHitCount() throws Exception {
+    Cache members = cacheManager.getCache(MEMBERS);
+    Element cold = new Element(key(3), "member3");
+    cold.setTimeToLive(1);
+    members.put(cold);
+    Element hot = new Element(key(4), "member4");
+    hot.setTimeToLive(1);
+    members.put(hot);
+    for (int i = 0; i < 5; i++) {
+      members.get(key(4));
+    }
+    members.get(key(3));
+    snapshot(cacheManager).checkpoint();
+
+    CacheManager restarted = newCacheManager("cacheSnapshotTestRestarted");
+    try {
+      CacheSnapshot snapshot = snapshot(restarted);
+      snapshot.start();
+
+      assertNull(restarted.getCache(MEMBERS).get(key(3)));
+      assertEquals(Arrays.asList(Long.valueOf(4), Long.valueOf(3)), snapshot.getHotIds(MEMBERS));
+      assertEquals(Integer.valueOf(2), snapshot.getStatistics().get("expired"));
+    } finally {
+      restarted.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.ticketmaster.example.commons.cache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Random;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+/**
+ * Compares GC cost and hit ratio of member caching on the heap against the
+ * off-heap tier. Not a unit test; run one mode per JVM with the heap settings
+ * of start.sh:
+ *
+ * <pre>
+ * java -Xmx1536m -XX:MaxDirectMemorySize=1g ... OffHeapCacheBenchmark heap|small|tiered [members]
+ * </pre>
+ *
+ * <ul>
+ * <li>heap - every member in an on-heap cache</li>
+ * <li>small - a 10000 element on-heap cache</li>
+ * <li>tiered - the same small heap cache over an off-heap tier for all members</li>
+ * </ul>
+ *
+ * The workload reads with 80% of requests on 20% of the members and reloads
+ * misses; entries mimic Hibernate's disassembled member state.
+ */
+public class OffHeapCacheBenchmark {
+
+	private static final int HEAP_TIER = 10000;
+
+	public static void main(final String[] args) throws Exception {
+		final String mode = args.length > 0 ? args[0] : "tiered";
+		final int members = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		final int reads = members * 2;
+
+		final Configuration configuration = new Configuration();
+		configuration.setName("offHeapCacheBenchmark");
+		configuration.setUpdateCheck(false);
+		configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+		final CacheManager cacheManager = new CacheManager(configuration);
+
+		final Cache heap = new Cache(new CacheConfiguration("members", "heap".equals(mode) ? members : HEAP_TIER)
+				.eternal(true));
+		cacheManager.addCache(heap);
+		Ehcache cache = heap;
+		if ("tiered".equals(mode)) {
+			cache = new OffHeapTieredEhcache(heap, new OffHeapStore((long) members * 512 * 5 / 4, 512, 16),
+					new SerializationCacheValueCodec());
+		}
+
+		long start = System.nanoTime();
+		for (long id = 1; id <= members; id++) {
+			cache.put(new net.sf.ehcache.Element(Long.valueOf(id), member(id)));
+		}
+		final long loadMillis = (System.nanoTime() - start) / 1000000;
+
+		final long fullGcMillis = fullGc();
+		final long[] gcBefore = gcTotals();
+
+		final Random random = new Random(17);
+		final int hot = members / 5;
+		long hits = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			final long id = 1 + (random.nextInt(10) < 8 ? random.nextInt(hot) : hot + random.nextInt(members - hot));
+			if (cache.get(Long.valueOf(id)) != null) {
+				hits++;
+			} else {
+				cache.put(new net.sf.ehcache.Element(Long.valueOf(id), member(id)));
+			}
+		}
+		final long readMillis = (System.nanoTime() - start) / 1000000;
+		final long[] gcAfter = gcTotals();
+
+		System.out.println(String.format(
+				"%s members=%d load=%dms reads=%d in %dms hitRatio=%.3f fullGcPause=%dms gcDuringReads=%d collections/%dms heapUsed=%dMB",
+				mode, members, loadMillis, reads, readMillis, (double) hits / reads, fullGcMillis, gcAfter[0] - gcBefore[0],
+				gcAfter[1] - gcBefore[1], usedHeapMegabytes()));
+		cacheManager.shutdown();
+	}
+
+	/**
+	 * Disassembled state of a member row, as Hibernate caches it.
+	 */
+	private static Object[] member(final long id) {
+		return new Object[] { "First" + id, "Last" + id, "M", "Mr", "", "member" + id + "@example.com", "3105550" + id % 1000,
+				null, Boolean.FALSE, new Date(1300000000000L + id), new Date(1300000000000L + id * 2), Long.valueOf(id),
+				Integer.valueOf(0) };
+	}
+
+	private static long fullGc() {
+		final long start = System.nanoTime();
+		System.gc();
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long[] gcTotals() {
+		long count = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+			millis += Math.max(0, bean.getCollectionTime());
+		}
+		return new long[] { count, millis };
+	}
+
+	private static long usedHeapMegabytes() {
+		final Runtime runtime = Runtime.getRuntime();
+		return (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.ticketmaster.example.commons.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class OffHeapStoreTest {
+
+  private static byte[] bytes(long key, int length) {
+    byte[] value = new byte[length];
+    for (int i = 0; i < length; i++) {
+      value[i] = (byte) (key + i);
+    }
+    return value;
+  }
+
+  @Test
+  public void testPutGetRemove() throws Exception {
+    OffHeapStore store = new OffHeapStore(64 * 1024, 64, 4);
+    assertTrue(store.put(42L, bytes(42, 10)));
+    assertArrayEquals(bytes(42, 10), store.get(42L));
+
+    store.put(42L, bytes(7, 64));
+    assertArrayEquals(bytes(7, 64), store.get(42L));
+    assertEquals(1, store.size());
+    assertEquals(64, store.usedBytes());
+
+    assertTrue(store.remove(42L));
+    assertNull(store.get(42L));
+    assertFalse(store.remove(42L));
+    assertEquals(0, store.size());
+    assertEquals(0, store.usedBytes());
+  }
+
+  @Test
+  public void testOversizedRecordIsNotStored() throws Exception {
+    OffHeapStore store = new OffHeapStore(1024, 32, 1);
+    store.put(1L, bytes(1, 32));
+    assertFalse(store.put(1L, bytes(1, 33)));
+    assertNull(store.get(1L));
+    assertEquals(Long.valueOf(1), store.getStatistics().get("oversized"));
+  }
+
+  @Test
+  public void testClockEvictionSparesReadRecords() throws Exception {
+    OffHeapStore store = new OffHeapStore(4 * 16, 16, 1);
+    for (long key = 1; key <= 4; key++) {
+      store.put(key, bytes(key, 16));
+    }
+    assertNotNull(store.get(1L));
+    assertNotNull(store.get(3L));
+
+    store.put(5L, bytes(5, 16));
+    assertEquals(4, store.size());
+    assertNotNull(store.get(1L));
+    assertNull(store.get(2L));
+    assertNotNull(store.get(3L));
+    assertNotNull(store.get(5L));
+    assertEquals(Long.valueOf(1), store.getStatistics().get("evictions"));
+  }
+
+  @Test
+  public void testMatchesMapUnderRandomOperations() throws Exception {
+    OffHeapStore store = new OffHeapStore(100000 * 8, 8, 3);
+    Map<Long, byte[]> expected = new HashMap<Long, byte[]>();
+    Random random = new Random(7);
+    for (int i = 0; i < 200000; i++) {
+      long key = random.nextInt(5000) * 1000003L;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key) != null, store.remove(key));
+      } else {
+        byte[] value = bytes(random.nextLong(), 1 + random.nextInt(8));
+        store.put(key, value);
+        expected.put(key, value);
+      }
+    }
+    assertEquals(expected.size(), store.size());
+    for (Map.Entry<Long, byte[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getValue(), store.get(entry.getKey()));
+    }
+
+    store.clear();
+    assertEquals(0, store.size());
+    assertNull(store.get(expected.keySet().iterator().next()));
+  }
+
+}
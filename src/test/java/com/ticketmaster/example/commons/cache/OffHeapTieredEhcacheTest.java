@@ -0,0 +1,124 @@
+package com.ticketmaster.example.commons.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.hibernate.EntityMode;
+import org.hibernate.cache.CacheKey;
+import org.hibernate.type.StandardBasicTypes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tiers a two element heap cache over a small off-heap store.
+ */
+public class OffHeapTieredEhcacheTest {
+
+  private CacheManager cacheManager;
+  private Cache heap;
+  private OffHeapTieredEhcache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setName("offHeapTieredEhcacheTest");
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    cacheManager = new CacheManager(configuration);
+
+    heap = new Cache(new CacheConfiguration("tiered", 2).timeToLiveSeconds(120));
+    cacheManager.addCache(heap);
+    cache = new OffHeapTieredEhcache(heap, new OffHeapStore(64 * 1024, 1024, 2), new SerializationCacheValueCodec());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheManager.shutdown();
+  }
+
+  private static CacheKey key(long id) {
+    return new CacheKey(Long.valueOf(id), StandardBasicTypes.LONG, "Member", EntityMode.POJO, null);
+  }
+
+  @Test
+  public void testEntriesEvictedFromHeapAreServedOffHeap() throws Exception {
+    for (long id = 1; id <= 10; id++) {
+      cache.put(new Element(key(id), "member" + id));
+    }
+    assertEquals(2, heap.getSize());
+
+    for (long id = 1; id <= 10; id++) {
+      Element element = cache.get(key(id));
+      assertNotNull(element);
+      assertEquals("member" + id, element.getObjectValue());
+      assertTrue(cache.isKeyInCache(key(id)));
+    }
+    assertTrue(((Number) cache.getTierStatistics().get("promotions")).longValue() >= 8);
+  }
+
+  @Test
+  public void testPromotionKeepsRemainingTimeToLive() throws Exception {
+    Element written = new Element(key(1), "member1");
+    written.setTimeToLive(60);
+    cache.put(written);
+    heap.removeAll();
+
+    Element promoted = cache.get(key(1));
+    assertNotNull(promoted);
+    assertTrue(promoted.getTimeToLive() <= 60);
+    assertTrue(promoted.getExpirationTime() <= written.getExpirationTime() + 1000);
+  }
+
+  @Test
+  public void testExpiredEntriesAreDropped() throws Exception {
+    Element written = new Element(key(1), "member1");
+    written.setTimeToLive(1);
+    cache.put(written);
+    heap.removeAll();
+    Thread.sleep(1100);
+
+    assertNull(cache.get(key(1)));
+    assertEquals(Long.valueOf(1), cache.getTierStatistics().get("expired"));
+  }
+
+  @Test
+  public void testRemoveAppliesToBothTiers() throws Exception {
+    cache.put(new Element(key(1), "member1"));
+    cache.put(new Element(key(2), "member2"));
+    assertTrue(cache.remove(key(1)));
+    assertNull(cache.get(key(1)));
+    assertFalse(cache.getStore().containsKey(1L));
+
+    cache.put(new Element(key(3), "member3"));
+    cache.removeAll();
+    assertNull(cache.get(key(2)));
+    assertNull(cache.get(key(3)));
+    assertEquals(0, cache.getStore().size());
+  }
+
+  @Test
+  public void testUpdateReplacesOffHeapCopy() throws Exception {
+    cache.put(new Element(key(1), "old"));
+    cache.put(new Element(key(1), "new"));
+    heap.removeAll();
+    assertEquals("new", cache.get(key(1)).getObjectValue());
+  }
+
+  @Test
+  public void testNonNumericKeysStayOnHeap() throws Exception {
+    cache.put(new Element("query", "result"));
+    assertEquals("result", cache.get("query").getObjectValue());
+    assertEquals(0, cache.getStore().size());
+  }
+
+}
@@ -0,0 +1,233 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.dao.hibernate.MemberHibernateDao;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.service.cache.MemberJsonCache;
+
+/**
+ * Publishes a committed member update from one bus and evicts it through a
+ * second bus on the same session factory, standing in for a peer.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/testApplicationContext.xml" })
+public class HibernateCacheInvalidatorTest {
+
+  private static final Long MEMBER_ID = Long.valueOf(12);
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  private InvalidationBus local;
+  private InvalidationBus peer;
+  private HibernateCacheInvalidator publisher;
+  private MemberJsonCache peerJsonCache;
+  private final List<Invalidation> peerReceived = new CopyOnWriteArrayList<Invalidation>();
+
+  @Before
+  public void setUp() {
+    local = bus("local");
+    publisher = new HibernateCacheInvalidator();
+    publisher.setEntityManagerFactory(entityManagerFactory);
+    publisher.setBus(local);
+    publisher.start();
+
+    peer = bus("peer");
+    HibernateCacheInvalidator evictor = new HibernateCacheInvalidator();
+    evictor.setEntityManagerFactory(entityManagerFactory);
+    evictor.setBus(peer);
+    peer.addListener(evictor);
+
+    if (!cacheManager.cacheExists("hibernateCacheInvalidatorTest")) {
+      cacheManager.addCache(new Cache(new CacheConfiguration("hibernateCacheInvalidatorTest", 100)));
+    }
+    cacheManager.getCache("hibernateCacheInvalidatorTest").removeAll();
+    peerJsonCache = new MemberJsonCache();
+    peerJsonCache.setCache(cacheManager.getCache("hibernateCacheInvalidatorTest"));
+    peer.addListener(peerJsonCache);
+    peer.addListener(new InvalidationListener() {
+      @Override
+      public void onInvalidations(List<Invalidation> invalidations) {
+        peerReceived.addAll(invalidations);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    publisher.shutdown();
+    local.shutdown();
+    peer.shutdown();
+  }
+
+  private static InvalidationBus bus(String nodeId) {
+    LoopbackInvalidationTransport transport = new LoopbackInvalidationTransport();
+    transport.setChannel("hibernateCacheInvalidatorTest");
+    InvalidationBus bus = new InvalidationBus();
+    bus.setNodeId(nodeId);
+    bus.setTransport(transport);
+    bus.start();
+    return bus;
+  }
+
+  private void updatePhone(final String phone, final boolean rollback) {
+    new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        EntityManager entityManager = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+        entityManager.find(MemberEntity.class, MEMBER_ID).setPhone2(phone);
+        entityManager.flush();
+        if (rollback) {
+          status.setRollbackOnly();
+        }
+      }
+    });
+  }
+
+  private void load() {
+    new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).find(MemberEntity.class, MEMBER_ID);
+      }
+    });
+  }
+
+  @Test
+  public void testCommittedUpdateIsEvictedOnPeer() throws Exception {
+    load();
+    assertTrue(entityManagerFactory.getCache().contains(MemberEntity.class, MEMBER_ID));
+
+    updatePhone("5550001111", false);
+    // the peer evicts before it counts the batch as applied
+    for (int i = 0; i < 100 && !Long.valueOf(1).equals(peer.getStatistics().get("applied")); i++) {
+      Thread.sleep(20);
+    }
+
+    assertFalse(entityManagerFactory.getCache().contains(MemberEntity.class, MEMBER_ID));
+    assertEquals(Long.valueOf(1), local.getStatistics().get("published"));
+    assertEquals(Long.valueOf(1), peer.getStatistics().get("applied"));
+  }
+
+  @Test
+  public void testRolledBackUpdateIsNotPublished() throws Exception {
+    updatePhone("5550002222", true);
+    Thread.sleep(100);
+
+    assertEquals(Long.valueOf(0), local.getStatistics().get("published"));
+    assertEquals(Long.valueOf(0), peer.getStatistics().get("batchesReceived"));
+  }
+
+  @Test
+  public void testUnsupportedIdEvictsTheWholeEntityOnPeer() throws Exception {
+    load();
+    assertTrue(entityManagerFactory.getCache().contains(MemberEntity.class, MEMBER_ID));
+
+    local.publish(new Invalidation(MemberEntity.class.getName(), new Date(), null, false, System.currentTimeMillis()));
+    for (int i = 0; i < 100 && !Long.valueOf(1).equals(peer.getStatistics().get("applied")); i++) {
+      Thread.sleep(20);
+    }
+
+    assertFalse(entityManagerFactory.getCache().contains(MemberEntity.class, MEMBER_ID));
+    assertNull(peerReceived.get(0).getId());
+  }
+
+  @Test
+  public void testUpsertIsEvictedOnPeer() throws Exception {
+    final MemberEntity stored = new TransactionTemplate(transactionManager).execute(
+        new TransactionCallback<MemberEntity>() {
+          @Override
+          public MemberEntity doInTransaction(TransactionStatus status) {
+            MemberEntity member = new MemberEntity();
+            member.setFirst("Wanda");
+            member.setLast("Maximoff");
+            member.setEmail("wanda@invalidator.example");
+            member.setOptOut(Boolean.FALSE);
+            member.setAddress(new AddressEntity());
+            member.getAddress().setCity("Westview");
+            EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).persist(member);
+            return member;
+          }
+        });
+    for (int i = 0; i < 100 && peerReceived.size() < 2; i++) {
+      Thread.sleep(20);
+    }
+    peerReceived.clear();
+    final Long memberId = stored.getId();
+    peerJsonCache.put(memberId.longValue(), stored.getPersistenceVersion(), "{}".getBytes());
+
+    final MemberHibernateDao dao = new MemberHibernateDao();
+    dao.setEntityManagerFactory(entityManagerFactory);
+    dao.setCacheInvalidator(publisher);
+    final MemberEntity upsert = new MemberEntity();
+    upsert.setFirst("Wanda");
+    upsert.setLast("Maximoff");
+    upsert.setEmail("wanda@invalidator.example");
+    upsert.setOptOut(Boolean.FALSE);
+    upsert.setAddress(new AddressEntity());
+    upsert.getAddress().setCity("Sokovia");
+    new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        dao.upsertMembersByEmail(Arrays.asList(upsert));
+      }
+    });
+    assertEquals(memberId, upsert.getId());
+
+    // written with JDBC, announced once committed: the member and its address
+    for (int i = 0; i < 100 && peerReceived.size() < 2; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(2, peerReceived.size());
+    Invalidation member = peerReceived.get(0);
+    assertEquals(MemberEntity.class.getName(), member.getEntityName());
+    assertEquals(memberId, member.getId());
+    assertEquals(upsert.getPersistenceVersion(), member.getVersion());
+    assertFalse(member.isDeleted());
+    assertEquals(AddressEntity.class.getName(), peerReceived.get(1).getEntityName());
+    assertEquals(stored.getAddress().getId(), peerReceived.get(1).getId());
+
+    // the peer no longer serves the JSON of the old version
+    assertNull(peerJsonCache.get(memberId.longValue()));
+    assertFalse(peerJsonCache.put(memberId.longValue(), stored.getPersistenceVersion(), "{}".getBytes()));
+  }
+
+}
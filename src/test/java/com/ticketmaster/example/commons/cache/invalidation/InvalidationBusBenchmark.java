@@ -0,0 +1,110 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures throughput and lag of invalidations between two buses. Not a unit
+ * test; run with:
+ *
+ * <pre>
+ * java ... InvalidationBusBenchmark [loopback|multicast] [invalidations] [writers] [flushIntervalMillis] [perSecond]
+ * </pre>
+ *
+ * Writers publish distinct member ids as fast as they can, or at perSecond in
+ * total if given; lag is the time from the commit timestamp of an
+ * invalidation to its delivery on the peer.
+ */
+public class InvalidationBusBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		final String mode = args.length > 0 ? args[0] : "loopback";
+		final int invalidations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		final int writers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		final long flushIntervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 20;
+		final long perSecond = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+		final long[] lags = new long[invalidations];
+		final AtomicInteger received = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		final InvalidationBus publisher = bus(mode, "publisher", flushIntervalMillis);
+		final InvalidationBus peer = bus(mode, "peer", flushIntervalMillis);
+		peer.addListener(new InvalidationListener() {
+			@Override
+			public void onInvalidations(final List<Invalidation> batch) {
+				final long now = System.currentTimeMillis();
+				for (Invalidation invalidation : batch) {
+					final int index = received.getAndIncrement();
+					if (index < lags.length) {
+						lags[index] = now - invalidation.getCommitMillis();
+					}
+				}
+				if (received.get() >= invalidations) {
+					done.countDown();
+				}
+			}
+		});
+		publisher.setMaxPending(invalidations);
+		publisher.start();
+		peer.start();
+
+		final long start = System.nanoTime();
+		final Thread[] threads = new Thread[writers];
+		for (int writer = 0; writer < writers; writer++) {
+			final int first = writer;
+			threads[writer] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (long id = first; id < invalidations; id += writers) {
+						if (perSecond > 0) {
+							// pace to the writer's share of the rate
+							final long due = start + id * 1000000000L / perSecond;
+							while (System.nanoTime() < due) {
+								Thread.yield();
+							}
+						}
+						publisher.publish(new Invalidation("com.ticketmaster.example.model.MemberEntity", Long.valueOf(id),
+								Integer.valueOf(1), false, System.currentTimeMillis()));
+					}
+				}
+			});
+			threads[writer].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		final long publishMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		done.await();
+		final long totalMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+		final int count = Math.min(received.get(), lags.length);
+		final long[] sorted = Arrays.copyOf(lags, count);
+		Arrays.sort(sorted);
+		System.out.println(String.format(
+				"%s invalidations=%d writers=%d flush=%dms rate=%s publish=%d/s delivered=%d/s batches=%s lag p50=%dms p99=%dms max=%dms",
+				mode, invalidations, writers, flushIntervalMillis, perSecond > 0 ? perSecond + "/s" : "max",
+				invalidations * 1000L / publishMillis, count * 1000L / totalMillis, peer.getStatistics().get("batchesReceived"),
+				sorted[count / 2], sorted[(int) (count * 0.99)], sorted[count - 1]));
+
+		publisher.shutdown();
+		peer.shutdown();
+	}
+
+	private static InvalidationBus bus(final String mode, final String nodeId, final long flushIntervalMillis) {
+		final InvalidationBus bus = new InvalidationBus();
+		bus.setNodeId(nodeId);
+		bus.setFlushIntervalMillis(flushIntervalMillis);
+		if ("multicast".equals(mode)) {
+			bus.setTransport(new MulticastInvalidationTransport());
+		} else {
+			final LoopbackInvalidationTransport transport = new LoopbackInvalidationTransport();
+			transport.setChannel("invalidationBusBenchmark");
+			bus.setTransport(transport);
+		}
+		return bus;
+	}
+
+}
@@ -0,0 +1,156 @@
+package com.ticketmaster.example.commons.cache.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Connects two buses over the loopback transport.
+ */
+public class InvalidationBusTest {
+
+  private static final String MEMBER = "com.ticketmaster.example.model.MemberEntity";
+
+  private InvalidationBus first;
+  private InvalidationBus second;
+  private RecordingListener firstListener;
+  private RecordingListener secondListener;
+
+  @Before
+  public void setUp() {
+    firstListener = new RecordingListener();
+    secondListener = new RecordingListener();
+    first = bus("first", firstListener);
+    second = bus("second", secondListener);
+  }
+
+  @After
+  public void tearDown() {
+    first.shutdown();
+    second.shutdown();
+  }
+
+  private static InvalidationBus bus(String nodeId, InvalidationListener listener) {
+    LoopbackInvalidationTransport transport = new LoopbackInvalidationTransport();
+    transport.setChannel("invalidationBusTest");
+    InvalidationBus bus = new InvalidationBus();
+    bus.setNodeId(nodeId);
+    bus.setTransport(transport);
+    bus.setFlushIntervalMillis(50);
+    bus.addListener(listener);
+    bus.start();
+    return bus;
+  }
+
+  private static void awaitApplied(InvalidationBus bus, long applied) throws InterruptedException {
+    for (int i = 0; i < 100 && ((Long) bus.getStatistics().get("applied")).longValue() < applied; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(Long.valueOf(applied), bus.getStatistics().get("applied"));
+  }
+
+  @Test
+  public void testCoalescesChangesOfOneEntityIntoABatch() throws Exception {
+    long now = System.currentTimeMillis();
+    first.publish(new Invalidation(MEMBER, Long.valueOf(1), Integer.valueOf(3), false, now));
+    first.publish(new Invalidation(MEMBER, Long.valueOf(2), Integer.valueOf(7), false, now));
+    first.publish(new Invalidation(MEMBER, Long.valueOf(1), Integer.valueOf(4), false, now + 1));
+    awaitApplied(second, 2);
+
+    List<Invalidation> received = secondListener.received;
+    assertEquals(Long.valueOf(1), received.get(0).getId());
+    assertEquals(Integer.valueOf(4), received.get(0).getVersion());
+    assertEquals(now, received.get(0).getCommitMillis());
+    assertEquals(Long.valueOf(2), received.get(1).getId());
+    assertEquals(Long.valueOf(1), second.getStatistics().get("batchesReceived"));
+    assertEquals(Long.valueOf(3), first.getStatistics().get("published"));
+    assertEquals(Long.valueOf(2), first.getStatistics().get("sent"));
+  }
+
+  @Test
+  public void testIgnoresOwnBatches() throws Exception {
+    second.publish(new Invalidation(MEMBER, Long.valueOf(5), null, true, System.currentTimeMillis()));
+    awaitApplied(first, 1);
+
+    assertTrue(secondListener.received.isEmpty());
+    assertTrue(firstListener.received.get(0).isDeleted());
+    assertNull(firstListener.received.get(0).getVersion());
+  }
+
+  @Test
+  public void testBatchRoundTrip() throws Exception {
+    InvalidationBatch batch = new InvalidationBatch("node", 42, 1000, Arrays.asList(
+        new Invalidation(MEMBER, Long.valueOf(1), Integer.valueOf(2), false, 900),
+        new Invalidation("Other", "key", null, true, 901),
+        new Invalidation(MEMBER, Integer.valueOf(3), Integer.valueOf(0), false, 902)));
+
+    InvalidationBatch decoded = InvalidationBatch.decode(batch.encode());
+
+    assertEquals("node", decoded.getOrigin());
+    assertEquals(42, decoded.getSequence());
+    assertEquals(1000, decoded.getSentMillis());
+    assertEquals(3, decoded.getInvalidations().size());
+    assertEquals(MEMBER, decoded.getInvalidations().get(2).getEntityName());
+    assertEquals(Integer.valueOf(3), decoded.getInvalidations().get(2).getId());
+    assertEquals("key", decoded.getInvalidations().get(1).getId());
+    assertNull(decoded.getInvalidations().get(1).getVersion());
+    assertTrue(decoded.getInvalidations().get(1).isDeleted());
+    assertFalse(decoded.getInvalidations().get(0).isDeleted());
+    assertEquals(902, decoded.getInvalidations().get(2).getCommitMillis());
+  }
+
+  @Test
+  public void testUnsupportedIdIsSentAsTheWholeEntity() throws Exception {
+    InvalidationBatch batch = new InvalidationBatch("node", 7, 1000, Arrays.asList(
+        new Invalidation(MEMBER, Long.valueOf(1), Integer.valueOf(2), false, 900),
+        new Invalidation("Other", new Date(5), Integer.valueOf(1), true, 901),
+        new Invalidation(MEMBER, Long.valueOf(3), null, false, 902)));
+
+    InvalidationBatch decoded = InvalidationBatch.decode(batch.encode());
+
+    assertEquals(3, decoded.getInvalidations().size());
+    assertEquals(Long.valueOf(1), decoded.getInvalidations().get(0).getId());
+    assertEquals("Other", decoded.getInvalidations().get(1).getEntityName());
+    assertNull(decoded.getInvalidations().get(1).getId());
+    assertEquals(Integer.valueOf(1), decoded.getInvalidations().get(1).getVersion());
+    assertTrue(decoded.getInvalidations().get(1).isDeleted());
+    assertEquals(Long.valueOf(3), decoded.getInvalidations().get(2).getId());
+  }
+
+  @Test
+  public void testUnsupportedIdDoesNotDropTheBatch() throws Exception {
+    long now = System.currentTimeMillis();
+    first.publish(new Invalidation(MEMBER, Long.valueOf(1), Integer.valueOf(3), false, now));
+    first.publish(new Invalidation("Other", new Date(now), null, false, now));
+    first.publish(new Invalidation(MEMBER, Long.valueOf(2), Integer.valueOf(7), false, now));
+    awaitApplied(second, 3);
+
+    List<Invalidation> received = secondListener.received;
+    assertEquals(Long.valueOf(1), received.get(0).getId());
+    assertNull(received.get(1).getId());
+    assertEquals(Long.valueOf(2), received.get(2).getId());
+    assertEquals(Long.valueOf(0), first.getStatistics().get("sendFailures"));
+  }
+
+  private static class RecordingListener implements InvalidationListener {
+
+    private final List<Invalidation> received = new CopyOnWriteArrayList<Invalidation>();
+
+    @Override
+    public void onInvalidations(List<Invalidation> invalidations) {
+      received.addAll(new ArrayList<Invalidation>(invalidations));
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.ticketmaster.example.commons.cache.method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ElementValueComparatorConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Proxies a counting lookup with the method cache aspect.
+ */
+public class MethodCacheAspectTest {
+
+  private CacheManager cacheManager;
+  private MethodCacheAspect aspect;
+  private CountingLookup target;
+  private Lookup lookup;
+
+  public interface Lookup {
+    ArrayList<String> find(String name, int limit);
+    long count();
+    Object unserializable();
+    void save(String name);
+  }
+
+  public static class CountingLookup implements Lookup {
+    private int calls;
+
+    @CachedResult(group = "names")
+    public ArrayList<String> find(String name, int limit) {
+      calls++;
+      return new ArrayList<String>(Arrays.asList(name + limit));
+    }
+
+    @CachedResult(group = "names", timeToLiveSeconds = 1)
+    public long count() {
+      return ++calls;
+    }
+
+    @CachedResult(group = "other")
+    public Object unserializable() {
+      calls++;
+      return new Object();
+    }
+
+    @EvictCachedResults(groups = "names")
+    public void save(String name) {
+    }
+  }
+
+  @Before
+  public void setUp() {
+    Configuration configuration = new Configuration();
+    configuration.setName("methodCacheAspectTest");
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    cacheManager = new CacheManager(configuration);
+    CacheConfiguration cacheConfiguration = new CacheConfiguration("methods", 100).timeToLiveSeconds(120)
+        .copyOnRead(true).copyOnWrite(true);
+    cacheConfiguration.addElementValueComparator(new ElementValueComparatorConfiguration());
+    Cache cache = new Cache(cacheConfiguration);
+    cacheManager.addCache(cache);
+
+    aspect = new MethodCacheAspect();
+    aspect.setCache(cache);
+    target = new CountingLookup();
+    AspectJProxyFactory factory = new AspectJProxyFactory(target);
+    factory.addAspect(aspect);
+    lookup = factory.getProxy();
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> statistics(String method) {
+    return (Map<String, Object>) ((Map<String, Object>) aspect.getStatistics().get("methods")).get(method);
+  }
+
+  @Test
+  public void testCachesResultsByArguments() {
+    List<String> first = lookup.find("Clark", 1);
+    List<String> second = lookup.find("Clark", 1);
+    assertEquals(first, second);
+    assertNotSame(first, second);
+    lookup.find("Clark", 2);
+    lookup.find("Bruce", 1);
+    assertEquals(3, target.calls);
+
+    Map<String, Object> statistics = statistics(Lookup.class.getName() + ".find(String,int)");
+    assertEquals(Long.valueOf(1), statistics.get("hits"));
+    assertEquals(Long.valueOf(3), statistics.get("misses"));
+  }
+
+  @Test
+  public void testEvictsGroupOnWrite() {
+    lookup.find("Clark", 1);
+    lookup.unserializable();
+    lookup.save("Clark");
+    lookup.find("Clark", 1);
+    assertEquals(3, target.calls);
+    assertEquals(Long.valueOf(1), aspect.getStatistics().get("groupEvictions"));
+  }
+
+  @Test
+  public void testKeepsResultsForTheirTimeToLive() throws Exception {
+    assertEquals(1, lookup.count());
+    assertEquals(1, lookup.count());
+    Thread.sleep(1100);
+    assertEquals(2, lookup.count());
+  }
+
+  @Test
+  public void testSkipsUnserializableResultsAndReadWriteTransactions() {
+    lookup.unserializable();
+    lookup.unserializable();
+    assertEquals(Long.valueOf(2), statistics(Lookup.class.getName() + ".unserializable()").get("uncacheable"));
+
+    TransactionSynchronizationManager.setActualTransactionActive(true);
+    try {
+      lookup.find("Clark", 1);
+      lookup.find("Clark", 1);
+    } finally {
+      TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+    assertEquals(4, target.calls);
+    assertEquals(Long.valueOf(2), statistics(Lookup.class.getName() + ".find(String,int)").get("bypassed"));
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.ticketmaster.example.commons.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks the bucketing and the percentile math of the histogram.
+ */
+public class LatencyHistogramTest {
+
+  private static final double DELTA = 0.0000001;
+
+  private static void record(LatencyHistogram histogram, int times, long micros) {
+    for (int i = 0; i < times; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0d, histogram.getMeanMillis(), DELTA);
+    assertEquals(0d, histogram.getPercentileMillis(99), DELTA);
+    assertEquals(0d, histogram.getMaxMillis(), DELTA);
+  }
+
+  @Test
+  public void testPercentilesReportTheUpperBoundOfTheirBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 100us falls in (64us, 128us], 10ms in (8192us, 16384us]
+    record(histogram, 90, 100);
+    record(histogram, 10, 10000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals((90 * 0.1 + 10 * 10) / 100, histogram.getMeanMillis(), DELTA);
+    assertEquals(0.128, histogram.getPercentileMillis(50), DELTA);
+    assertEquals(0.128, histogram.getPercentileMillis(90), DELTA);
+    // capped by the maximum rather than 16.384
+    assertEquals(10d, histogram.getPercentileMillis(91), DELTA);
+    assertEquals(10d, histogram.getPercentileMillis(99), DELTA);
+    assertEquals(10d, histogram.getMaxMillis(), DELTA);
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    record(histogram, 1, 2);
+    record(histogram, 1, 3);
+    record(histogram, 1, 4);
+    record(histogram, 1, 5);
+    // upper bounds are inclusive: 2us -> 2us, 3us and 4us -> 4us, 5us -> 8us
+    assertEquals(0.002, histogram.getPercentileMillis(25), DELTA);
+    assertEquals(0.004, histogram.getPercentileMillis(50), DELTA);
+    assertEquals(0.004, histogram.getPercentileMillis(75), DELTA);
+    assertEquals(0.005, histogram.getPercentileMillis(100), DELTA);
+
+    LatencyHistogram small = new LatencyHistogram();
+    // negative samples count as 0, and both fall in the first bucket
+    small.record(-5);
+    small.record(500);
+    assertEquals(2, small.getCount());
+    assertEquals(0.00025, small.getMeanMillis(), DELTA);
+    assertEquals(0.0005, small.getPercentileMillis(50), DELTA);
+    assertEquals(0.0005, small.getPercentileMillis(100), DELTA);
+  }
+
+  @Test
+  public void testSlowSamplesGoToTheOverflowBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // the last bounded bucket ends at 2^25us, about 33.5s
+    record(histogram, 1, TimeUnit.SECONDS.toMicros(20));
+    record(histogram, 1, TimeUnit.SECONDS.toMicros(100));
+
+    assertEquals((1L << 25) / 1000d, histogram.getPercentileMillis(50), DELTA);
+    assertEquals(100000d, histogram.getPercentileMillis(100), DELTA);
+    assertEquals(100000d, histogram.getMaxMillis(), DELTA);
+  }
+
+}
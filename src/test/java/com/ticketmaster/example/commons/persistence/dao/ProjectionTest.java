@@ -0,0 +1,58 @@
+package com.ticketmaster.example.commons.persistence.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Maps rows shaped like query results to web model members.
+ */
+public class ProjectionTest {
+
+  private final Projection<Member> projection = new Projection<Member>(Member.class, "id", "first", "optOut",
+      "address.city", "address.zip");
+
+  @Test
+  public void testMapsColumnsToNestedProperties() {
+    Member member = projection.map(new Object[] { BigInteger.valueOf(7), "Clark", Boolean.TRUE, "Smallville", "66002" });
+    assertEquals(Long.valueOf(7), member.getId());
+    assertEquals("Clark", member.getFirst());
+    assertEquals(Boolean.TRUE, member.getOptOut());
+    assertEquals("Smallville", member.getAddress().getCity());
+    assertEquals("66002", member.getAddress().getZip());
+  }
+
+  @Test
+  public void testLeavesNestedBeanNullWithoutValues() {
+    List<Member> members = projection.map(Arrays.asList(new Object[] { Long.valueOf(1), "Peter", null, null, null },
+        new Object[] { Long.valueOf(2), "Bruce", Boolean.FALSE, "Gotham", null }));
+    assertNull(members.get(0).getAddress());
+    assertNull(members.get(0).getOptOut());
+    assertEquals("Gotham", members.get(1).getAddress().getCity());
+    assertNull(members.get(1).getAddress().getZip());
+  }
+
+  @Test
+  public void testRejectsUnknownPropertiesAndShortRows() {
+    try {
+      new Projection<Member>(Member.class, "id", "address.nothing");
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      projection.map(new Object[] { Long.valueOf(1), "Peter" });
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(Long.valueOf(3), new Projection<Member>(Member.class, "id").map(Integer.valueOf(3)).getId());
+  }
+
+}
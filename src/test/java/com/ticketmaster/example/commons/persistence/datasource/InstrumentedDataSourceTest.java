@@ -0,0 +1,177 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the borrow and lease statistics and the pool size tuner against a
+ * DBCP pool on HSQL; the tuner is driven by calling tune() directly.
+ */
+public class InstrumentedDataSourceTest {
+
+  private BasicDataSource pool;
+
+  private InstrumentedDataSource dataSource;
+
+  @Before
+  public void setUp() {
+    pool = new BasicDataSource();
+    pool.setDriverClassName("org.hsqldb.jdbcDriver");
+    pool.setUrl("jdbc:hsqldb:mem:instrumented");
+    pool.setUsername("sa");
+    pool.setPassword("");
+    pool.setMaxActive(4);
+    pool.setMaxIdle(4);
+
+    dataSource = new InstrumentedDataSource();
+    dataSource.setTargetDataSource(pool);
+    dataSource.setMinPoolSize(2);
+    dataSource.setMaxPoolSize(6);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dataSource.shutdown();
+    pool.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> histogram(String name) {
+    return (Map<String, Object>) dataSource.getStatistics().get(name);
+  }
+
+  private int maxActive() {
+    return ((Integer) dataSource.getStatistics().get("maxActive")).intValue();
+  }
+
+  private void borrowAndClose() throws SQLException {
+    dataSource.getConnection().close();
+  }
+
+  @Test
+  public void testRecordsBorrowWaitsAndLeases() throws Exception {
+    pool.setMaxActive(1);
+    pool.setMaxWait(5000);
+    final Connection held = dataSource.getConnection();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(200);
+          held.close();
+        } catch (Exception e) {
+        }
+      }
+    }).start();
+
+    Connection connection = dataSource.getConnection();
+    assertEquals(Long.valueOf(2), histogram("borrowLatency").get("count"));
+    assertTrue(((Double) histogram("borrowLatency").get("maxMillis")).doubleValue() >= 100);
+    assertTrue(((Double) histogram("borrowLatency").get("p99Millis")).doubleValue() >= 100);
+    assertEquals(Long.valueOf(1), histogram("leaseTime").get("count"));
+    assertEquals(Integer.valueOf(1), dataSource.getStatistics().get("maxWaiting"));
+    assertEquals(Integer.valueOf(0), dataSource.getStatistics().get("waiting"));
+
+    // closing twice only records one lease
+    connection.close();
+    connection.close();
+    assertEquals(Long.valueOf(2), histogram("leaseTime").get("count"));
+    assertEquals(Integer.valueOf(0), dataSource.getStatistics().get("active"));
+  }
+
+  @Test
+  public void testCountsFailedBorrows() throws Exception {
+    pool.setMaxActive(1);
+    pool.setMaxWait(50);
+    Connection held = dataSource.getConnection();
+    try {
+      dataSource.getConnection();
+      fail("the pool is exhausted");
+    } catch (SQLException e) {
+      //expect this exception to be thrown
+    } finally {
+      held.close();
+    }
+    assertEquals(Long.valueOf(1), dataSource.getStatistics().get("borrowFailures"));
+    assertEquals(Long.valueOf(1), histogram("borrowLatency").get("count"));
+  }
+
+  @Test
+  public void testTuneGrowsThePoolOnSlowBorrows() throws Exception {
+    // every borrow takes longer than 0ms
+    dataSource.setWaitThresholdMillis(0);
+    dataSource.setMaxPoolSize(5);
+
+    borrowAndClose();
+    dataSource.tune();
+    assertEquals(5, maxActive());
+    assertEquals(5, pool.getMaxIdle());
+    assertEquals(Long.valueOf(1), dataSource.getStatistics().get("resizes"));
+
+    borrowAndClose();
+    dataSource.tune();
+    assertEquals(5, maxActive());
+    assertEquals(Long.valueOf(1), dataSource.getStatistics().get("resizes"));
+  }
+
+  @Test
+  public void testTuneNeedsMoreSlowBorrowsThanTheRatio() throws Exception {
+    dataSource.setWaitThresholdMillis(0);
+    dataSource.setSlowBorrowRatio(1);
+    Connection held = dataSource.getConnection();
+    Connection other = dataSource.getConnection();
+    try {
+      dataSource.tune();
+      assertEquals(4, maxActive());
+    } finally {
+      held.close();
+      other.close();
+    }
+  }
+
+  @Test
+  public void testTuneShrinksAnIdlePoolDownToTheMinimum() throws Exception {
+    dataSource.setWaitThresholdMillis(10000);
+    borrowAndClose();
+
+    dataSource.tune();
+    assertEquals(3, maxActive());
+    dataSource.tune();
+    assertEquals(2, maxActive());
+    dataSource.tune();
+    assertEquals(2, maxActive());
+    assertEquals(Long.valueOf(2), dataSource.getStatistics().get("resizes"));
+  }
+
+  @Test
+  public void testTuneKeepsThePoolWhileHalfOfItIsUsed() throws Exception {
+    dataSource.setWaitThresholdMillis(10000);
+    Connection held = dataSource.getConnection();
+    Connection other = dataSource.getConnection();
+    try {
+      dataSource.tune();
+      assertEquals(4, maxActive());
+      // the peak of the next interval starts from the connections still active
+      dataSource.tune();
+      assertEquals(4, maxActive());
+    } finally {
+      held.close();
+      other.close();
+    }
+    dataSource.tune();
+    assertEquals(4, maxActive());
+    dataSource.tune();
+    assertEquals(3, maxActive());
+  }
+
+}
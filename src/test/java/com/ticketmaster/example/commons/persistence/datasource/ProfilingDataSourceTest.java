@@ -0,0 +1,160 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Profiles statements against an in-memory HSQL table.
+ */
+public class ProfilingDataSourceTest {
+
+  private static final int ROWS = 20;
+
+  private ProfilingDataSource dataSource;
+
+  @Before
+  public void setUp() throws Exception {
+    DriverManagerDataSource target = new DriverManagerDataSource("jdbc:hsqldb:mem:profiling", "sa", "");
+    target.setDriverClassName("org.hsqldb.jdbcDriver");
+    dataSource = new ProfilingDataSource();
+    dataSource.setTargetDataSource(target);
+
+    Connection connection = target.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("create table tbl_profiling (id integer primary key, name varchar(50))");
+      for (int i = 0; i < ROWS; i++) {
+        statement.executeUpdate("insert into tbl_profiling values (" + i + ", 'name" + i + "')");
+      }
+      statement.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Connection connection = dataSource.getTargetDataSource().getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("drop table tbl_profiling");
+      statement.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> top(String orderBy) {
+    return (List<Map<String, Object>>) dataSource.getStatistics(10, orderBy).get("top");
+  }
+
+  @Test
+  public void testNormalizesLiteralsListsAndWhitespace() {
+    assertEquals("select * from tbl_profiling where id = ? and name = ?",
+        ProfilingDataSource.normalize("select *\n  from tbl_profiling where id = 42 and name = 'O''Brien'"));
+    assertEquals("select member0_.id from tbl_member member0_ where member0_.id in (?...)",
+        ProfilingDataSource.normalize("select member0_.id from tbl_member member0_ where member0_.id in (?, ?, ?)"));
+    assertEquals("insert into t values (?...), ...",
+        ProfilingDataSource.normalize("insert into t values (1, 'a'), (2, 'b'), (3, 'c')"));
+    assertEquals("select t1.id from t1 where x = -? limit ?",
+        ProfilingDataSource.normalize("select t1.id from t1 where x = -1.5 limit 10"));
+  }
+
+  @Test
+  public void testAggregatesExecutionsAndRowsByShape() throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement select = connection.prepareStatement("select name from tbl_profiling where id < ?");
+      for (int i = 1; i <= 3; i++) {
+        select.setInt(1, i * 5);
+        ResultSet resultSet = select.executeQuery();
+        while (resultSet.next()) {
+          resultSet.getString(1);
+        }
+        resultSet.close();
+      }
+      select.close();
+
+      Statement statement = connection.createStatement();
+      assertEquals(1, statement.executeUpdate("update tbl_profiling set name = 'x' where id = 1"));
+      assertEquals(1, statement.executeUpdate("update tbl_profiling set name = 'y' where id = 2"));
+      statement.close();
+    } finally {
+      connection.close();
+    }
+
+    Map<String, Object> statistics = dataSource.getStatistics(10, "count");
+    assertEquals(Long.valueOf(5), statistics.get("executions"));
+    assertEquals(Integer.valueOf(2), statistics.get("statements"));
+
+    Map<String, Object> select = top("count").get(0);
+    assertEquals("select name from tbl_profiling where id < ?", select.get("sql"));
+    assertEquals(Long.valueOf(3), select.get("count"));
+    assertEquals(Long.valueOf(5 + 10 + 15), select.get("rows"));
+
+    Map<String, Object> update = top("count").get(1);
+    assertEquals("update tbl_profiling set name = ? where id = ?", update.get("sql"));
+    assertEquals(Long.valueOf(2), update.get("rows"));
+  }
+
+  @Test
+  public void testCountsSlowStatementsAndErrors() throws Exception {
+    dataSource.setSlowThresholdMillis(-1);
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement select = connection.prepareStatement("select name from tbl_profiling where id = ?");
+      select.setInt(1, 3);
+      select.executeQuery().close();
+      select.close();
+      try {
+        connection.createStatement().executeQuery("select nothing from tbl_missing");
+      } catch (Exception e) {
+      }
+    } finally {
+      connection.close();
+    }
+
+    Map<String, Object> statistics = dataSource.getStatistics(10, "errors");
+    assertEquals(Long.valueOf(2), statistics.get("slow"));
+    assertEquals(Long.valueOf(1), statistics.get("errors"));
+    assertEquals(Long.valueOf(1), top("errors").get(0).get("errors"));
+  }
+
+  @Test
+  public void testLimitsTrackedShapes() throws Exception {
+    dataSource.setMaxStatements(2);
+    Connection connection = dataSource.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.executeQuery("select id from tbl_profiling").close();
+      statement.executeQuery("select name from tbl_profiling").close();
+      statement.executeQuery("select count(*) from tbl_profiling").close();
+      statement.executeQuery("select max(id) from tbl_profiling").close();
+      statement.close();
+    } finally {
+      connection.close();
+    }
+
+    Map<String, Object> statistics = dataSource.getStatistics(10, "count");
+    assertEquals(Integer.valueOf(3), statistics.get("statements"));
+    boolean other = false;
+    for (Map<String, Object> statement : top("count")) {
+      other |= ProfilingDataSource.OTHER.equals(statement.get("sql")) && Long.valueOf(2).equals(statement.get("count"));
+    }
+    assertTrue(other);
+  }
+
+}
@@ -0,0 +1,220 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Routes against three in-memory HSQL databases, a primary and two replicas,
+ * each holding a single row naming itself.
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+	private DataSource primary;
+	private DataSource replica0;
+	private DataSource replica1;
+
+	private ReadWriteRoutingDataSource router;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate readTemplate;
+	private TransactionTemplate writeTemplate;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = createNode("primary");
+		replica0 = createNode("replica0");
+		replica1 = createNode("replica1");
+
+		router = new ReadWriteRoutingDataSource();
+		router.setPrimaryDataSource(primary);
+		router.setReplicaDataSources(Arrays.asList(replica0, replica1));
+		router.setReadYourWritesMillis(0);
+
+		LazyConnectionDataSourceProxy lazy = new LazyConnectionDataSourceProxy(router);
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(lazy);
+		jdbcTemplate = new JdbcTemplate(lazy);
+		writeTemplate = new TransactionTemplate(transactionManager);
+		readTemplate = new TransactionTemplate(transactionManager);
+		readTemplate.setReadOnly(true);
+	}
+
+	private static DataSource createNode(String name) {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:rw" + name, "sa", "");
+		dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+		JdbcTemplate template = new JdbcTemplate(dataSource);
+		template.execute("drop table tbl_node if exists");
+		template.execute("create table tbl_node (name varchar(20))");
+		template.update("insert into tbl_node values (?)", new Object[] { name });
+		return dataSource;
+	}
+
+	private String read() {
+		return readTemplate.execute(new TransactionCallback<String>() {
+			@Override
+			public String doInTransaction(TransactionStatus status) {
+				return jdbcTemplate.queryForObject("select name from tbl_node", String.class);
+			}
+		});
+	}
+
+	private String write() {
+		return writeTemplate.execute(new TransactionCallback<String>() {
+			@Override
+			public String doInTransaction(TransactionStatus status) {
+				jdbcTemplate.update("update tbl_node set name = name");
+				return jdbcTemplate.queryForObject("select name from tbl_node", String.class);
+			}
+		});
+	}
+
+	@Test
+	public void testWritesGoToPrimary() throws Exception {
+		assertEquals("primary", write());
+		assertEquals("primary", write());
+	}
+
+	@Test
+	public void testReadsAreSpreadRoundRobin() throws Exception {
+		List<String> nodes = new ArrayList<String>();
+		for (int i = 0; i < 4; i++) {
+			nodes.add(read());
+		}
+		assertEquals(Arrays.asList("replica0", "replica1", "replica0", "replica1"), nodes);
+	}
+
+	@Test
+	public void testLeastLoadedReplicaIsChosen() throws Exception {
+		router.setSelection(ReadWriteRoutingDataSource.SELECTION_LEAST_LOADED);
+
+		// keep one connection open on whichever replica gets it
+		final Connection busy = readTemplate.execute(new TransactionCallback<Connection>() {
+			@Override
+			public Connection doInTransaction(TransactionStatus status) {
+				try {
+					return router.getConnection();
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		try {
+			String busyNode = new JdbcTemplate(new SingleConnectionDataSource(busy, true)).queryForObject(
+					"select name from tbl_node", String.class);
+			String idleNode = "replica0".equals(busyNode) ? "replica1" : "replica0";
+			for (int i = 0; i < 4; i++) {
+				assertEquals(idleNode, read());
+			}
+		} finally {
+			busy.close();
+		}
+	}
+
+	@Test
+	public void testReadYourWritesGoesToPrimary() throws Exception {
+		router.setReadYourWritesMillis(60000);
+		write();
+		assertEquals("primary", read());
+		assertEquals(Long.valueOf(1), router.getStatistics().get("stickyReads"));
+	}
+
+	private String readOnAnotherThread(final Object writer) throws Exception {
+		final String[] node = new String[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (writer != null) {
+					ReadWriteRoutingDataSource.bindWriter(writer);
+				}
+				node[0] = read();
+			}
+		});
+		thread.start();
+		thread.join();
+		return node[0];
+	}
+
+	@Test
+	public void testReadWriteTransactionWithoutWritesIsNotSticky() throws Exception {
+		router.setReadYourWritesMillis(60000);
+		assertEquals("primary", writeTemplate.execute(new TransactionCallback<String>() {
+			@Override
+			public String doInTransaction(TransactionStatus status) {
+				return jdbcTemplate.queryForObject("select name from tbl_node", String.class);
+			}
+		}));
+		assertEquals("replica0", read());
+		assertEquals(Long.valueOf(0), router.getStatistics().get("writes"));
+	}
+
+	@Test
+	public void testRolledBackWriteIsNotSticky() throws Exception {
+		router.setReadYourWritesMillis(60000);
+		writeTemplate.execute(new TransactionCallback<String>() {
+			@Override
+			public String doInTransaction(TransactionStatus status) {
+				jdbcTemplate.update("update tbl_node set name = name");
+				status.setRollbackOnly();
+				return null;
+			}
+		});
+		assertEquals("replica0", read());
+	}
+
+	@Test
+	public void testReadYourWritesIsScopedToTheWriter() throws Exception {
+		router.setReadYourWritesMillis(60000);
+		write();
+		assertEquals("replica0", readOnAnotherThread(null));
+		assertEquals("primary", read());
+		assertEquals(Integer.valueOf(1), router.getStatistics().get("stickyWriters"));
+	}
+
+	@Test
+	public void testBoundWriterIsStickyOnEveryThread() throws Exception {
+		router.setReadYourWritesMillis(60000);
+		ReadWriteRoutingDataSource.bindWriter("session-1");
+		try {
+			write();
+		} finally {
+			ReadWriteRoutingDataSource.unbindWriter();
+		}
+		assertEquals("replica0", read());
+		assertEquals("primary", readOnAnotherThread("session-1"));
+		assertEquals("replica1", readOnAnotherThread("session-2"));
+	}
+
+	@Test
+	public void testUnavailableReplicaIsSkipped() throws Exception {
+		DriverManagerDataSource broken = new DriverManagerDataSource("jdbc:hsqldb:file:/nonexistent/dir/db;ifexists=true", "sa", "");
+		broken.setDriverClassName("org.hsqldb.jdbcDriver");
+		router.setReplicaDataSources(Arrays.<DataSource> asList(broken, replica1));
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals("replica1", read());
+		}
+	}
+
+	@Test
+	public void testNoReplicasReadsFromPrimary() throws Exception {
+		router.setReplicaDataSources(new ArrayList<DataSource>());
+		assertEquals("primary", read());
+	}
+
+}
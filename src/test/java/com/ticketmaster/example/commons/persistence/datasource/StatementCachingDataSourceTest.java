@@ -0,0 +1,209 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks reuse, eviction and discard of cached statements, and compares
+ * primary key lookups with and without the cache on HSQL.
+ */
+public class StatementCachingDataSourceTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StatementCachingDataSourceTest.class);
+
+  private static final String SELECT_BY_PK = "select name from tbl_statement_cache where id = ?";
+
+  private static final int ROWS = 100;
+  private static final int LOOKUPS = 5000;
+
+  private StatementCachingDataSource dataSource;
+
+  @Before
+  public void setUp() throws Exception {
+    dataSource = createDataSource(true, 2);
+
+    StatementCachingDataSource setup = createDataSource(false, 0);
+    Connection connection = setup.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("create table tbl_statement_cache (id integer primary key, name varchar(50))");
+      statement.close();
+      PreparedStatement insert = connection.prepareStatement("insert into tbl_statement_cache values (?, ?)");
+      for (int i = 0; i < ROWS; i++) {
+        insert.setInt(1, i);
+        insert.setString(2, "name" + i);
+        insert.executeUpdate();
+      }
+      insert.close();
+    } finally {
+      connection.close();
+      setup.close();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dataSource.close();
+
+    StatementCachingDataSource setup = createDataSource(false, 0);
+    Connection connection = setup.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute("drop table tbl_statement_cache");
+      statement.close();
+    } finally {
+      connection.close();
+      setup.close();
+    }
+  }
+
+  private static StatementCachingDataSource createDataSource(boolean enabled, int size) {
+    StatementCachingDataSource dataSource = new StatementCachingDataSource();
+    dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+    dataSource.setUrl("jdbc:hsqldb:mem:statementcache");
+    dataSource.setUsername("sa");
+    dataSource.setPassword("");
+    dataSource.setMaxActive(1);
+    dataSource.setStatementCacheEnabled(enabled);
+    dataSource.setStatementCacheSize(size);
+    return dataSource;
+  }
+
+  @Test
+  public void testStatementIsReused() throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      assertEquals("name1", lookup(connection, 1));
+      assertEquals("name2", lookup(connection, 2));
+    } finally {
+      connection.close();
+    }
+    Map<String, Object> statistics = dataSource.getStatementCacheStatistics();
+    assertEquals(Long.valueOf(1), statistics.get("hits"));
+  }
+
+  @Test
+  public void testStatementIsReusedAcrossBorrows() throws Exception {
+    Connection connection = dataSource.getConnection();
+    assertEquals("name1", lookup(connection, 1));
+    connection.close();
+
+    connection = dataSource.getConnection();
+    assertEquals("name3", lookup(connection, 3));
+    connection.close();
+
+    assertEquals(Long.valueOf(1), dataSource.getStatementCacheStatistics().get("hits"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      connection.prepareStatement("select id from tbl_statement_cache where id = ?").close();
+      connection.prepareStatement("select name from tbl_statement_cache where id = ?").close();
+      connection.prepareStatement("select count(*) from tbl_statement_cache").close();
+    } finally {
+      connection.close();
+    }
+    Map<String, Object> statistics = dataSource.getStatementCacheStatistics();
+    assertEquals(Long.valueOf(1), statistics.get("evictions"));
+    assertEquals(Integer.valueOf(2), statistics.get("cachedStatements"));
+  }
+
+  @Test
+  public void testModifiedStatementIsNotCached() throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement statement = connection.prepareStatement(SELECT_BY_PK);
+      statement.setMaxRows(1);
+      statement.close();
+      connection.prepareStatement(SELECT_BY_PK).close();
+    } finally {
+      connection.close();
+    }
+    Map<String, Object> statistics = dataSource.getStatementCacheStatistics();
+    assertEquals(Long.valueOf(1), statistics.get("discarded"));
+    assertEquals(Long.valueOf(0), statistics.get("hits"));
+  }
+
+  @Test
+  public void testStatementInUseIsNotShared() throws Exception {
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement first = connection.prepareStatement(SELECT_BY_PK);
+      PreparedStatement second = connection.prepareStatement(SELECT_BY_PK);
+      assertTrue(first != second);
+      first.close();
+      second.close();
+    } finally {
+      connection.close();
+    }
+    assertEquals(Integer.valueOf(1), dataSource.getStatementCacheStatistics().get("cachedStatements"));
+  }
+
+  /**
+   * Not a strict assertion on timing, only logs the per lookup cost with and without the cache.
+   */
+  @Test
+  public void testLookupWithAndWithoutCache() throws Exception {
+    StatementCachingDataSource uncached = createDataSource(false, 0);
+    try {
+      // warm up both
+      time(uncached, LOOKUPS);
+      time(dataSource, LOOKUPS);
+
+      long uncachedNanos = time(uncached, LOOKUPS);
+      long cachedNanos = time(dataSource, LOOKUPS);
+
+      LOG.info("testLookupWithAndWithoutCache() > {} lookups: uncached {} us/query, cached {} us/query",
+          new Object[] { LOOKUPS, uncachedNanos / LOOKUPS / 1000d, cachedNanos / LOOKUPS / 1000d });
+    } finally {
+      uncached.close();
+    }
+
+    Map<String, Object> statistics = dataSource.getStatementCacheStatistics();
+    assertTrue(((Double) statistics.get("hitRate")).doubleValue() > 0.99d);
+  }
+
+  private static long time(StatementCachingDataSource dataSource, int lookups) throws SQLException {
+    Connection connection = dataSource.getConnection();
+    try {
+      long start = System.nanoTime();
+      for (int i = 0; i < lookups; i++) {
+        lookup(connection, i % ROWS);
+      }
+      return System.nanoTime() - start;
+    } finally {
+      connection.close();
+    }
+  }
+
+  private static String lookup(Connection connection, int id) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(SELECT_BY_PK);
+    try {
+      statement.setInt(1, id);
+      ResultSet resultSet = statement.executeQuery();
+      try {
+        return resultSet.next() ? resultSet.getString(1) : null;
+      } finally {
+        resultSet.close();
+      }
+    } finally {
+      statement.close();
+    }
+  }
+
+}
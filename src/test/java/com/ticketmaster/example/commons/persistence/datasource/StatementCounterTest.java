@@ -0,0 +1,81 @@
+package com.ticketmaster.example.commons.persistence.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts the statements of nested scopes and flags the repeated ones.
+ */
+public class StatementCounterTest {
+
+  private static final String MEMBERS = "select o.id from tbl_purchaser o";
+  private static final String ADDRESS = "select a.id from tbl_household a where a.id = ?";
+
+  private StatementCounter counter;
+
+  @Before
+  public void setUp() {
+    counter = new StatementCounter();
+    counter.setThreshold(5);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> suspects() {
+    return (List<Map<String, Object>>) counter.getStatistics().get("suspects");
+  }
+
+  @Test
+  public void testFlagsStatementsRepeatedInAScope() {
+    for (int request = 0; request < 2; request++) {
+      counter.begin("listMembers");
+      counter.record(MEMBERS);
+      for (int row = 0; row < 5 + request; row++) {
+        counter.record(ADDRESS);
+      }
+      assertEquals(6 + request, counter.end());
+    }
+
+    Map<String, Object> statistics = counter.getStatistics();
+    assertEquals(Long.valueOf(2), statistics.get("scopes"));
+    assertEquals(Long.valueOf(13), statistics.get("statements"));
+    assertEquals(Long.valueOf(7), statistics.get("maxStatementsPerScope"));
+    assertEquals(Long.valueOf(2), statistics.get("suspectedScopes"));
+    assertEquals(1, suspects().size());
+    assertEquals("listMembers", suspects().get(0).get("scope"));
+    assertEquals(ADDRESS, suspects().get(0).get("sql"));
+    assertEquals(Long.valueOf(2), suspects().get(0).get("occurrences"));
+    assertEquals(Long.valueOf(6), suspects().get(0).get("maxExecutions"));
+  }
+
+  @Test
+  public void testNestedScopesCountTowardsTheOutermost() {
+    counter.begin("outer");
+    counter.record(MEMBERS);
+    counter.begin("inner");
+    counter.record(MEMBERS);
+    assertEquals(2, counter.end());
+    counter.record(MEMBERS);
+    assertEquals(3, counter.end());
+    assertEquals(0, counter.end());
+
+    counter.record(MEMBERS);
+    assertEquals(Long.valueOf(1), counter.getStatistics().get("scopes"));
+    assertEquals(Long.valueOf(3), counter.getStatistics().get("statements"));
+    assertEquals(0, suspects().size());
+  }
+
+  @Test
+  public void testCountsNothingWhenDisabled() {
+    counter.setEnabled(false);
+    counter.begin("listMembers");
+    counter.record(MEMBERS);
+    assertEquals(0, counter.end());
+    assertEquals(Long.valueOf(0), counter.getStatistics().get("scopes"));
+  }
+
+}
@@ -7,15 +7,30 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TemporalType;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.dozer.DozerBeanMapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.ticketmaster.example.commons.persistence.datasource.StatementCounter;
 import com.ticketmaster.example.model.AddressEntity;
 import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.model.MemberChange;
 
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -29,6 +44,19 @@ public class MemberDaoTest {
   public void setMemberDao(MemberDao inMemberDao){
     memberDao = inMemberDao;
   }
+
+  @Autowired
+  private StatementCounter statementCounter;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private int countStatements(List<MemberEntity> members) {
+    for (MemberEntity member : members) {
+      assertNotNull(member.getAddress().getCity());
+    }
+    return statementCounter.end();
+  }
   
   @Test
   public void testGetMemberById() throws Exception {
@@ -129,4 +157,153 @@ public class MemberDaoTest {
       
   }
 
+  @Test
+  public void testGetMemberIdsByEmails() {
+    MemberEntity member = memberDao.getMemberById(3);
+    member.setEmail("blue@cape.com");
+    memberDao.updateMember(member);
+    Map<String, Long> ids = memberDao.getMemberIdsByEmails(Arrays.asList("blue@cape.com", "nobody@cape.com"));
+    assertEquals(1, ids.size());
+    assertEquals(Long.valueOf(3), ids.get("blue@cape.com"));
+  }
+
+  @Test
+  public void testGetMembersByIds() {
+      List<MemberEntity> members = memberDao.getMembersByIds(Arrays.asList(Long.valueOf(2), Long.valueOf(5), Long.valueOf(999)));
+      assertEquals(2, members.size());
+      for (MemberEntity member : members) {
+          assertTrue(member.getId().longValue() == 2 || member.getId().longValue() == 5);
+          assertNotNull(member.getAddress());
+      }
+
+      List<Long> ids = memberDao.getMemberIdsByNativeQuery("SELECT PurchaserID FROM tbl_purchaser WHERE PurchaserID <= 11 ORDER BY PurchaserID DESC", 3);
+      assertEquals(Arrays.asList(Long.valueOf(11), Long.valueOf(10), Long.valueOf(8)), ids);
+      assertEquals(4, memberDao.getRecentlyUpdatedMemberIds(4).size());
+  }
+
+  @Test
+  public void testJoinFetchPlanLoadsAPageInOneStatement() {
+    entityManagerFactory.getCache().evictAll();
+    statementCounter.begin("testJoinFetchPlanLoadsAPageInOneStatement");
+    List<MemberEntity> members = memberDao.getMembers(0, 0, FetchPlan.JOIN);
+    assertEquals(11, members.size());
+    assertEquals(1, countStatements(members));
+    assertEquals(Long.valueOf(1), members.get(0).getId());
+  }
+
+  @Test
+  public void testBatchFetchPlanLoadsAddressesByBatches() {
+    entityManagerFactory.getCache().evictAll();
+    statementCounter.begin("testBatchFetchPlanLoadsAddressesByBatches");
+    List<MemberEntity> members = memberDao.getMembers(2, 5, FetchPlan.BATCH);
+    assertEquals(5, members.size());
+    assertEquals(2, countStatements(members));
+    assertEquals(Long.valueOf(3), members.get(0).getId());
+  }
+
+  @Test
+  public void testGetMembersByFirstOrLast() {
+    // batch first, the joined select does not depend on what the persistence context holds
+    for (FetchPlan fetchPlan : new FetchPlan[] { FetchPlan.BATCH, FetchPlan.JOIN }) {
+      entityManagerFactory.getCache().evictAll();
+      statementCounter.begin("testGetMembersByFirstOrLast");
+      List<MemberEntity> members = memberDao.getMembersByFirstOrLast("Clark", "W%", 0, 10, fetchPlan);
+      assertEquals(fetchPlan == FetchPlan.JOIN ? 1 : 2, countStatements(members));
+      assertEquals(Long.valueOf(2), members.get(0).getId());
+      assertEquals(Long.valueOf(3), members.get(1).getId());
+    }
+    assertEquals(1, memberDao.getMembersByFirstOrLast(null, "W%", 1, 10, FetchPlan.JOIN).size());
+  }
+
+  @Test
+  public void testGetMemberIds() {
+      List<Long> first = memberDao.getMemberIds(0, 3);
+      assertEquals(Arrays.asList(Long.valueOf(1), Long.valueOf(2), Long.valueOf(3)), first);
+      List<Long> next = memberDao.getMemberIds(8, 2);
+      assertEquals(Arrays.asList(Long.valueOf(10), Long.valueOf(11)), next);
+  }
+
+  @Test
+  public void testMemberViewsMatchMappedEntities() throws Exception {
+    ObjectMapper objectMapper = new ObjectMapper();
+    DozerBeanMapper dozerBeanMapper = new DozerBeanMapper();
+    List<MemberEntity> entities = memberDao.getMembers(1, 4, FetchPlan.JOIN);
+    statementCounter.begin("testMemberViewsMatchMappedEntities");
+    List<Member> views = memberDao.getMemberViews(1, 4);
+    assertEquals(1, statementCounter.end());
+    assertEquals(entities.size(), views.size());
+    for (int i = 0; i < views.size(); i++) {
+      assertEquals(objectMapper.writeValueAsString(dozerBeanMapper.map(entities.get(i), Member.class)),
+          objectMapper.writeValueAsString(views.get(i)));
+    }
+
+    List<Member> found = memberDao.getMemberViewsByFirstOrLast("Clark", "W%", 0, 10);
+    assertEquals(Long.valueOf(2), found.get(0).getId());
+    assertEquals(Long.valueOf(3), found.get(1).getId());
+    assertEquals("El Segundo", found.get(1).getAddress().getCity());
+  }
+
+  @Test
+  public void testGetMemberVersion() throws Exception {
+    assertEquals(memberDao.getMemberById(1).getPersistenceVersion(), memberDao.getMemberVersion(1));
+    assertNull(memberDao.getMemberVersion(999));
+  }
+
+  @Test
+  public void testGetMemberChangesSinceWatermark() throws Exception {
+    Date until = new Date(System.currentTimeMillis() + 3600000);
+    List<MemberChange> first = memberDao.getMemberChangesSince(new Date(0), 0, until, 3);
+    assertEquals(3, first.size());
+    assertEquals(Long.valueOf(1), first.get(0).getMemberId());
+    assertEquals("CREATED", first.get(0).getType());
+    MemberChange last = first.get(2);
+    List<MemberChange> next = memberDao.getMemberChangesSince(last.getTimestamp(), last.getMemberId(), until, 3);
+    assertEquals(Long.valueOf(4), next.get(0).getMemberId());
+    assertEquals(Long.valueOf(6), next.get(2).getMemberId());
+
+    // a change of the member row, and one of the address row only
+    MemberEntity member = memberDao.getMemberById(5);
+    member.setFirst("Diana");
+    memberDao.updateMember(member);
+    member = memberDao.getMemberById(2);
+    member.getAddress().setCity("Gotham");
+    memberDao.updateMember(member);
+
+    List<MemberChange> changed = memberDao.getMemberChangesSince(new Date(System.currentTimeMillis() - 60000), 0,
+        until, 10);
+    assertEquals(2, changed.size());
+    assertEquals(Arrays.asList(Long.valueOf(2), Long.valueOf(5)),
+        Arrays.asList(changed.get(0).getMemberId(), changed.get(1).getMemberId()));
+    assertEquals("UPDATED", changed.get(0).getType());
+    assertEquals(memberDao.getMemberVersion(5), changed.get(1).getVersion());
+    assertTrue(memberDao.getMemberChangesSince(new Date(0), 0, new Date(0), 10).isEmpty());
+  }
+
+  @Test
+  public void testGetMemberChangesSinceListsACreatedAddressAsCreated() throws Exception {
+    MemberEntity member = new MemberEntity();
+    member.setAddress(new AddressEntity());
+    member.setFirst("Barbara");
+    member.setLast("Gordon");
+    member.setEmail("barbara@example.com");
+    member.setOptOut(false);
+    member.getAddress().setCity("Gotham");
+    memberDao.createMember(member);
+
+    // the member row stamped a second before its address row, as by a slow insert
+    EntityManager entityManager = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+    entityManager.flush();
+    Date created = new Date(member.getAddress().getDateTimeUpdated().getTime() - 1000);
+    entityManager.createQuery("update MemberEntity set dateTimeCreated = :created, dateTimeUpdated = :created where id = :id")
+        .setParameter("created", created, TemporalType.TIMESTAMP).setParameter("id", member.getId()).executeUpdate();
+
+    List<MemberChange> changes = memberDao.getMemberChangesSince(new Date(created.getTime() - 1), 0,
+        new Date(System.currentTimeMillis() + 3600000), 10);
+    assertEquals(2, changes.size());
+    for (MemberChange change : changes) {
+      assertEquals(member.getId(), change.getMemberId());
+      assertEquals("CREATED", change.getType());
+    }
+  }
+
 }
@@ -0,0 +1,363 @@
+package com.ticketmaster.example.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.ticketmaster.example.dao.sharding.MemberShard;
+import com.ticketmaster.example.dao.sharding.ShardedMemberDao;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.web.model.MemberChange;
+
+/**
+ * Runs the sharded DAO against three in-memory HSQL databases with a block
+ * size of one million ids per shard.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:/shardedTestApplicationContext.xml"})
+public class ShardedMemberDaoTest {
+
+  private ShardedMemberDao memberDao;
+
+  private final List<MemberEntity> created = new ArrayList<MemberEntity>();
+
+  @Autowired
+  public void setMemberDao(ShardedMemberDao inMemberDao){
+    memberDao = inMemberDao;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (MemberEntity member : created) {
+      memberDao.deleteMemberById(member.getId());
+    }
+    created.clear();
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_HASH);
+  }
+
+  private MemberEntity createMember(String name) {
+    MemberEntity member = new MemberEntity();
+    member.setAddress(new AddressEntity());
+    member.setFirst(name);
+    member.setLast(name + "son");
+    member.setEmail(name + "@example.com");
+    member.setOptOut(false);
+    member.getAddress().setCity("LA");
+    member.getAddress().setState("CA");
+    memberDao.createMember(member);
+    created.add(member);
+    return member;
+  }
+
+  @Test
+  public void testIdsEncodeTheirShard() throws Exception {
+    for (int i = 0; i < 12; i++) {
+      MemberEntity member = createMember("hash" + i);
+      assertNotNull(member.getId());
+      int shard = memberDao.shardOf(member.getId());
+      assertTrue(shard >= 0);
+      assertEquals((("hash" + i + "@example.com").hashCode() & Integer.MAX_VALUE) % 3, shard);
+    }
+  }
+
+  @Test
+  public void testRoundRobinSpreadsMembers() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    Set<Integer> shards = new HashSet<Integer>();
+    for (int i = 0; i < 3; i++) {
+      shards.add(Integer.valueOf(memberDao.shardOf(createMember("rr" + i).getId())));
+    }
+    assertEquals(3, shards.size());
+  }
+
+  @Test
+  public void testGetMemberByIdIsRouted() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 3; i++) {
+      MemberEntity member = createMember("byid" + i);
+      MemberEntity found = memberDao.getMemberById(member.getId());
+      assertNotNull(found);
+      assertEquals(member.getEmail(), found.getEmail());
+    }
+    assertNull(memberDao.getMemberById(memberDao.getBlockSize() * 3 + 1));
+  }
+
+  @Test
+  public void testCountIsGatheredFromAllShards() throws Exception {
+    long before = memberDao.getMemberCount().longValue();
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 5; i++) {
+      createMember("count" + i);
+    }
+    assertEquals(before + 5, memberDao.getMemberCount().longValue());
+  }
+
+  @Test
+  public void testEmailLookupSearchesAllShards() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 3; i++) {
+      MemberEntity member = createMember("email" + i);
+      assertEquals(member.getId(), memberDao.getMemberByEmail("email" + i + "@example.com").getId());
+      assertEquals(member.getId(), memberDao.getMemberByFirstOrLast("email" + i, "nobody").getId());
+    }
+    try {
+      memberDao.getMemberByEmail("nobody@example.com");
+      fail("no shard holds nobody@example.com");
+    } catch (javax.persistence.NoResultException e){
+      //expect this exception to be thrown
+    }
+  }
+
+  @Test
+  public void testListingPagesAcrossShardsInIdOrder() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 7; i++) {
+      createMember("page" + i);
+    }
+
+    List<MemberEntity> all = memberDao.getMembers(0, 0);
+    assertEquals(memberDao.getMemberCount().longValue(), all.size());
+    for (int i = 1; i < all.size(); i++) {
+      assertTrue(all.get(i - 1).getId().longValue() < all.get(i).getId().longValue());
+    }
+
+    List<MemberEntity> paged = new ArrayList<MemberEntity>();
+    for (int offset = 0; offset < all.size(); offset += 2) {
+      List<MemberEntity> page = memberDao.getMembers(offset, 2);
+      assertTrue(page.size() <= 2);
+      paged.addAll(page);
+    }
+    assertEquals(all.size(), paged.size());
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(all.get(i).getId(), paged.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testChangesMergeShardsInWatermarkOrder() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    Date since = new Date(System.currentTimeMillis() - 60000);
+    Date until = new Date(System.currentTimeMillis() + 3600000);
+    for (int i = 0; i < 5; i++) {
+      createMember("sync" + i);
+    }
+
+    List<MemberChange> all = memberDao.getMemberChangesSince(since, 0, until, 10);
+    assertEquals(5, all.size());
+    List<MemberChange> paged = new ArrayList<MemberChange>();
+    Date watermark = since;
+    long afterId = 0;
+    for (int page = 0; page < 3; page++) {
+      List<MemberChange> changes = memberDao.getMemberChangesSince(watermark, afterId, until, 2);
+      paged.addAll(changes);
+      watermark = changes.get(changes.size() - 1).getTimestamp();
+      afterId = changes.get(changes.size() - 1).getMemberId().longValue();
+    }
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(all.get(i).getMemberId(), paged.get(i).getMemberId());
+      assertEquals("CREATED", all.get(i).getType());
+      if (i > 0) {
+        assertTrue(MemberChangeOrder.COMPARATOR.compare(all.get(i - 1), all.get(i)) < 0);
+      }
+    }
+  }
+
+  @Test
+  public void testSearchMergesShardsInIdOrder() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 5; i++) {
+      createMember("search" + i);
+    }
+
+    List<Long> ids = new ArrayList<Long>();
+    for (MemberEntity member : created) {
+      ids.add(member.getId());
+    }
+    Collections.sort(ids);
+
+    List<MemberEntity> all = memberDao.getMembersByFirstOrLast("search%", null, 0, 0, FetchPlan.JOIN);
+    assertEquals(5, all.size());
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(ids.get(i), all.get(i).getId());
+      assertEquals("LA", all.get(i).getAddress().getCity());
+    }
+
+    List<MemberEntity> page = memberDao.getMembersByFirstOrLast(null, "search%son", 3, 10, FetchPlan.BATCH);
+    assertEquals(2, page.size());
+    assertEquals(all.get(3).getId(), page.get(0).getId());
+  }
+
+  @Test
+  public void testUpdateAndDeleteAreRouted() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    for (int i = 0; i < 3; i++) {
+      MemberEntity member = createMember("update" + i);
+      member.setPhone1("1112223333");
+      memberDao.updateMember(member);
+      assertEquals("1112223333", memberDao.getMemberById(member.getId()).getPhone1());
+
+      memberDao.deleteMemberById(member.getId());
+      assertNull(memberDao.getMemberById(member.getId()));
+    }
+  }
+
+  @Test
+  public void testUpsertKeepsKnownMembersOnTheirShard() throws Exception {
+    memberDao.setPlacement(ShardedMemberDao.PLACEMENT_ROUND_ROBIN);
+    MemberEntity known = createMember("upsertKnown");
+
+    MemberEntity update = new MemberEntity();
+    update.setFirst("Renamed");
+    update.setLast("upsertKnownson");
+    update.setEmail("upsertKnown@example.com");
+    update.setOptOut(false);
+    MemberEntity create = new MemberEntity();
+    create.setFirst("upsertNew");
+    create.setLast("upsertNewson");
+    create.setEmail("upsertNew@example.com");
+    create.setOptOut(false);
+    List<MemberEntity> members = new ArrayList<MemberEntity>();
+    members.add(update);
+    members.add(create);
+
+    List<Long> createdIds = memberDao.upsertMembersByEmail(members);
+    created.add(create);
+    assertEquals(Collections.singletonList(create.getId()), createdIds);
+    assertEquals(known.getId(), update.getId());
+    assertEquals("Renamed", memberDao.getMemberById(known.getId()).getFirst());
+    assertEquals("LA", memberDao.getMemberById(known.getId()).getAddress().getCity());
+    assertEquals("upsertNew", memberDao.getMemberByEmail("upsertNew@example.com").getFirst());
+  }
+
+  private static String emailOnShard(String name, int shard) {
+    for (int i = 0;; i++) {
+      String email = name + i + "@example.com";
+      if ((email.hashCode() & Integer.MAX_VALUE) % 3 == shard) {
+        return email;
+      }
+    }
+  }
+
+  private static void restartIdentity(MemberShard shard, long next) throws Exception {
+    Connection connection = shard.getDataSource().getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      statement.execute(shard.getIdentityRestartSql().replace("{0}", Long.toString(next)));
+      statement.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testCreateBeyondTheShardRangeIsRolledBack() throws Exception {
+    MemberShard shard = memberDao.getShards().get(2);
+    long count = memberDao.getMemberCount().longValue();
+    restartIdentity(shard, memberDao.getBlockSize() * 3);
+    try {
+      MemberEntity member = new MemberEntity();
+      member.setFirst("Overflow");
+      member.setLast("Overflowson");
+      member.setEmail(emailOnShard("overflow", 2));
+      member.setOptOut(false);
+      try {
+        memberDao.createMember(member);
+        fail("id " + member.getId() + " is routed to no shard");
+      } catch (IllegalStateException e) {
+        //expect this exception to be thrown
+      }
+      assertEquals(count, memberDao.getMemberCount().longValue());
+    } finally {
+      long next = memberDao.getBlockSize() * 2;
+      for (Long id : memberDao.getMemberIds(next - 1, Integer.MAX_VALUE)) {
+        next = Math.max(next, id.longValue() + 1);
+      }
+      restartIdentity(shard, next);
+    }
+  }
+
+  @Test
+  public void testStartChecksTheRangeOfTheFirstShard() throws Exception {
+    String email = emailOnShard("first", 0);
+    MemberEntity member = createMember(email.substring(0, email.indexOf('@')));
+    assertEquals(0, memberDao.shardOf(member.getId()));
+
+    ShardedMemberDao narrow = new ShardedMemberDao();
+    narrow.setShards(Collections.singletonList(memberDao.getShards().get(0)));
+    narrow.setBlockSize(member.getId().longValue());
+    try {
+      narrow.start();
+      fail("shard 0 holds id " + member.getId() + " beyond its range");
+    } catch (IllegalStateException e) {
+      //expect this exception to be thrown
+    } finally {
+      narrow.shutdown();
+    }
+  }
+
+  @Test
+  public void testUpsertFindsAMemberWhoseEmailHashesElsewhere() throws Exception {
+    String email = emailOnShard("moved", 0);
+    MemberEntity known = createMember(email.substring(0, email.indexOf('@')));
+    String changed = emailOnShard("movedTo", 1);
+    known.setEmail(changed);
+    memberDao.updateMember(known);
+
+    MemberEntity update = new MemberEntity();
+    update.setFirst("Moved");
+    update.setLast("Movedson");
+    update.setEmail(changed);
+    update.setOptOut(false);
+    long count = memberDao.getMemberCount().longValue();
+    assertTrue(memberDao.upsertMembersByEmail(Collections.singletonList(update)).isEmpty());
+    assertEquals(known.getId(), update.getId());
+    assertEquals(count, memberDao.getMemberCount().longValue());
+    assertEquals("Moved", memberDao.getMemberById(known.getId()).getFirst());
+  }
+
+  @Test
+  public void testUpsertFailingOnOneShardWritesNone() throws Exception {
+    MemberEntity valid = new MemberEntity();
+    valid.setFirst("Valid");
+    valid.setLast("Validson");
+    valid.setEmail(emailOnShard("valid", 0));
+    valid.setOptOut(false);
+    MemberEntity invalid = new MemberEntity();
+    invalid.setFirst("Invalid");
+    invalid.setEmail(emailOnShard("invalid", 2));
+    invalid.setOptOut(false);
+    List<MemberEntity> members = new ArrayList<MemberEntity>();
+    members.add(valid);
+    members.add(invalid);
+
+    long count = memberDao.getMemberCount().longValue();
+    try {
+      memberDao.upsertMembersByEmail(members);
+      fail("shard 2 refuses a member without a last name");
+    } catch (RuntimeException e) {
+      //expect this exception to be thrown
+    }
+    assertEquals(count, memberDao.getMemberCount().longValue());
+    assertTrue(memberDao.getMemberIdsByEmails(Collections.singletonList(valid.getEmail())).isEmpty());
+  }
+
+}
@@ -0,0 +1,85 @@
+package com.ticketmaster.example.dao.hibernate;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.sql.Timestamp;
+
+import org.hibernate.cache.entry.CacheEntry;
+
+import com.ticketmaster.example.commons.cache.CacheValueCodec;
+import com.ticketmaster.example.commons.cache.SerializationCacheValueCodec;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * Compares encode and decode time and record size of
+ * {@link MemberCacheValueCodec} against Java serialization on cache items
+ * shaped like a member's. Not a unit test; run with
+ *
+ * <pre>
+ * java ... MemberCacheValueCodecBenchmark [records]
+ * </pre>
+ */
+public class MemberCacheValueCodecBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		final int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		final Object[] items = new Object[records];
+		for (int i = 0; i < records; i++) {
+			items[i] = item(i + 1);
+		}
+
+		final CacheValueCodec[] codecs = { new SerializationCacheValueCodec(), new MemberCacheValueCodec() };
+		for (int round = 0; round < 3; round++) {
+			for (CacheValueCodec codec : codecs) {
+				run(codec, items, round == 2);
+			}
+		}
+	}
+
+	private static void run(final CacheValueCodec codec, final Object[] items, final boolean report) {
+		final byte[][] encoded = new byte[items.length][];
+		long bytes = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < items.length; i++) {
+			encoded[i] = codec.encode(items[i]);
+			bytes += encoded[i].length;
+		}
+		final long encodeNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < items.length; i++) {
+			if (codec.decode(encoded[i]) == null) {
+				throw new IllegalStateException();
+			}
+		}
+		final long decodeNanos = System.nanoTime() - start;
+
+		if (report) {
+			System.out.println(String.format("%-30s bytes/record=%d encode=%dns decode=%dns", codec.getClass().getSimpleName(),
+					bytes / items.length, encodeNanos / items.length, decodeNanos / items.length));
+		}
+	}
+
+	/**
+	 * A read-write strategy item holding a member's disassembled state.
+	 */
+	private static Object item(final long id) throws Exception {
+		final Serializable[] state = { Long.valueOf(id + 1000000), Timestamp.valueOf("2012-05-01 10:15:30.0"), null,
+				"member" + id + "@example.com", "First" + id, "M", "Last" + id, Boolean.FALSE, Integer.valueOf(3),
+				"3105550" + id % 10000, null, "Mr", "", Timestamp.valueOf("2013-02-11 08:01:02.0") };
+
+		final Constructor<CacheEntry> entryConstructor = CacheEntry.class.getDeclaredConstructor(Serializable[].class,
+				String.class, boolean.class, Object.class);
+		entryConstructor.setAccessible(true);
+		final CacheEntry entry = entryConstructor.newInstance(state, MemberEntity.class.getName(), Boolean.FALSE,
+				Integer.valueOf(3));
+
+		final Constructor<?> itemConstructor = Class.forName(
+				"net.sf.ehcache.hibernate.strategy.AbstractReadWriteEhcacheAccessStrategy$Item").getDeclaredConstructor(
+				Object.class, Object.class, long.class);
+		itemConstructor.setAccessible(true);
+		return itemConstructor.newInstance(entry, Integer.valueOf(3), Long.valueOf(System.currentTimeMillis() << 12));
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.ticketmaster.example.dao.hibernate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.hibernate.cache.CacheKey;
+import org.hibernate.cache.entry.CacheEntry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticketmaster.example.commons.cache.SerializationCacheValueCodec;
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * Round trips the second-level cache entries Hibernate writes for members.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:/testApplicationContext.xml"})
+public class MemberCacheValueCodecTest {
+
+  private final MemberCacheValueCodec codec = new MemberCacheValueCodec();
+
+  @Autowired
+  private MemberDao memberDao;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private MemberEntity load(final long id) {
+    return new TransactionTemplate(transactionManager).execute(new TransactionCallback<MemberEntity>() {
+      @Override
+      public MemberEntity doInTransaction(TransactionStatus status) {
+        return memberDao.getMemberById(id);
+      }
+    });
+  }
+
+  private static Element cached(Ehcache region, long id) {
+    for (Object key : region.getKeys()) {
+      if (Long.valueOf(id).equals(((CacheKey) key).getKey())) {
+        return region.get(key);
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testMemberEntryRoundTrips() throws Exception {
+    MemberEntity member = load(1);
+    Ehcache region = CacheManager.getInstance().getEhcache(MemberEntity.class.getName());
+    Element element = cached(region, 1);
+    assertNotNull(element);
+
+    byte[] compact = codec.encode(element.getObjectValue());
+    byte[] serialized = new SerializationCacheValueCodec().encode(element.getObjectValue());
+    assertEquals(1, compact[0]);
+    assertTrue(compact.length * 4 < serialized.length);
+
+    Object decoded = codec.decode(compact);
+    assertEquals(element.getObjectValue().getClass(), decoded.getClass());
+    Method getValue = decoded.getClass().getMethod("getValue");
+    getValue.setAccessible(true);
+    CacheEntry original = (CacheEntry) getValue.invoke(element.getObjectValue());
+    CacheEntry copy = (CacheEntry) getValue.invoke(decoded);
+    assertArrayEquals(original.getDisassembledState(), copy.getDisassembledState());
+    assertEquals(original.getSubclass(), copy.getSubclass());
+    assertEquals(original.getVersion(), copy.getVersion());
+
+    // Hibernate assembles the member from the decoded entry
+    region.put(new Element(element.getObjectKey(), decoded));
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    try {
+      MemberEntity fromCache = entityManager.find(MemberEntity.class, Long.valueOf(1));
+      assertEquals(member.getFirst(), fromCache.getFirst());
+      assertEquals(member.getEmail(), fromCache.getEmail());
+      assertEquals(member.getDateTimeCreated().getTime(), fromCache.getDateTimeCreated().getTime());
+    } finally {
+      entityManager.close();
+    }
+  }
+
+  @Test
+  public void testOtherValuesFallBackToSerialization() throws Exception {
+    byte[] bytes = codec.encode("query result");
+    assertEquals(0, bytes[0]);
+    assertEquals("query result", codec.decode(bytes));
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.ticketmaster.example.dao.hibernate;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dozer.DozerBeanMapper;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Compares time and bytes allocated per page of members listed as entities
+ * mapped by Dozer against members projected straight into the web model, on
+ * the test database with the second level cache as configured there. Not a
+ * unit test; run with
+ *
+ * <pre>
+ * java ... MemberProjectionBenchmark [members] [pages]
+ * </pre>
+ */
+public class MemberProjectionBenchmark {
+
+	private static final int PAGE_SIZE = 100;
+
+	public static void main(final String[] args) throws Exception {
+		final int members = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int pages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("testApplicationContext.xml");
+		try {
+			final ExampleMemberPersistenceService service = (ExampleMemberPersistenceService) context
+					.getBean("memberPersistenceService");
+			final DozerBeanMapper dozerBeanMapper = new DozerBeanMapper();
+			for (int i = 0; i < members; i++) {
+				service.createMember(member(i));
+			}
+			final int count = (int) service.getMemberCount();
+
+			final Page[] listings = { new Page("entities+dozer") {
+				@Override
+				List<Member> list(final int offset) throws Exception {
+					final List<MemberEntity> entities = service.getMembers(offset, PAGE_SIZE);
+					final List<Member> page = new ArrayList<Member>(entities.size());
+					for (MemberEntity entity : entities) {
+						page.add(dozerBeanMapper.map(entity, Member.class));
+					}
+					return page;
+				}
+			}, new Page("projection") {
+				@Override
+				List<Member> list(final int offset) throws Exception {
+					return service.getMemberViews(offset, PAGE_SIZE);
+				}
+			} };
+			for (int round = 0; round < 3; round++) {
+				for (Page listing : listings) {
+					run(listing, count, pages, round == 2);
+				}
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	private static void run(final Page listing, final int count, final int pages, final boolean report) throws Exception {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		long rows = 0;
+		final long allocated = threads.getThreadAllocatedBytes(thread);
+		final long start = System.nanoTime();
+		for (int i = 0; i < pages; i++) {
+			rows += listing.list(i * PAGE_SIZE % (count - PAGE_SIZE)).size();
+		}
+		final long nanos = System.nanoTime() - start;
+		final long bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		if (report) {
+			System.out.println(String.format("%-16s rows/page=%d time/page=%dus bytes/page=%d bytes/row=%d", listing.name,
+					rows / pages, nanos / pages / 1000, bytes / pages, bytes / rows));
+		}
+	}
+
+	private static MemberEntity member(final int i) {
+		final MemberEntity member = new MemberEntity();
+		member.setFirst("First" + i);
+		member.setLast("Last" + i);
+		member.setEmail("benchmark" + i + "@example.com");
+		member.setPhone1("3105550" + i % 1000);
+		member.setOptOut(false);
+		member.setAddress(new AddressEntity());
+		member.getAddress().setStreet1(i + " Main Street");
+		member.getAddress().setCity("El Segundo");
+		member.getAddress().setState("CA");
+		member.getAddress().setZip("90245");
+		return member;
+	}
+
+	/**
+	 * One way of listing a page of members
+	 */
+	private abstract static class Page {
+
+		private final String name;
+
+		Page(final String name) {
+			this.name = name;
+		}
+
+		abstract List<Member> list(int offset) throws Exception;
+	}
+
+}
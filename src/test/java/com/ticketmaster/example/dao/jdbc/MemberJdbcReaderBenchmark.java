@@ -0,0 +1,106 @@
+package com.ticketmaster.example.dao.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.dozer.DozerBeanMapper;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Compares latency percentiles and bytes allocated per lookup of a member
+ * rendered to JSON through Hibernate and Dozer against the JDBC fast path, on
+ * the test database with the second level cache as configured there. Not a
+ * unit test; run with
+ *
+ * <pre>
+ * java ... MemberJdbcReaderBenchmark [lookups]
+ * </pre>
+ */
+public class MemberJdbcReaderBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		final int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		// the test log4j.xml logs SQL and DEBUG, which would dominate the allocations
+		LogManager.getLoggerRepository().setThreshold(Level.WARN);
+
+		final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("testApplicationContext.xml");
+		try {
+			final ExampleMemberPersistenceService service = (ExampleMemberPersistenceService) context
+					.getBean("memberPersistenceService");
+			final MemberJdbcReader reader = (MemberJdbcReader) context.getBean("memberJdbcReader");
+			final DozerBeanMapper dozerBeanMapper = new DozerBeanMapper();
+			final ObjectMapper objectMapper = new ObjectMapper();
+
+			final List<Member> members = service.getMemberViews(0, 100);
+			final long[] ids = new long[lookups];
+			final Random random = new Random(42);
+			for (int i = 0; i < lookups; i++) {
+				ids[i] = members.get(random.nextInt(members.size())).getId().longValue();
+			}
+
+			final Lookup[] paths = { new Lookup("hibernate+dozer") {
+				@Override
+				byte[] render(final long id) throws Exception {
+					return objectMapper.writeValueAsBytes(dozerBeanMapper.map(service.getMember(id), Member.class));
+				}
+			}, new Lookup("jdbc") {
+				@Override
+				byte[] render(final long id) throws Exception {
+					return objectMapper.writeValueAsBytes(reader.getMember(id).getMember());
+				}
+			} };
+			for (int round = 0; round < 3; round++) {
+				for (Lookup path : paths) {
+					run(path, ids, round == 2);
+				}
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	private static void run(final Lookup path, final long[] ids, final boolean report) throws Exception {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		final long[] nanos = new long[ids.length];
+		final long allocated = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < ids.length; i++) {
+			final long start = System.nanoTime();
+			path.render(ids[i]);
+			nanos[i] = System.nanoTime() - start;
+		}
+		final long bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		if (report) {
+			Arrays.sort(nanos);
+			System.out.println(String.format("%-16s p50=%dus p99=%dus p999=%dus bytes/lookup=%d", path.name,
+					nanos[ids.length / 2] / 1000, nanos[ids.length * 99 / 100] / 1000, nanos[ids.length * 999 / 1000] / 1000,
+					bytes / ids.length));
+		}
+	}
+
+	/**
+	 * One way of rendering a member
+	 */
+	private abstract static class Lookup {
+
+		private final String name;
+
+		Lookup(final String name) {
+			this.name = name;
+		}
+
+		abstract byte[] render(long id) throws Exception;
+	}
+
+}
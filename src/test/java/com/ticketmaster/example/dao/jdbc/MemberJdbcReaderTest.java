@@ -0,0 +1,56 @@
+package com.ticketmaster.example.dao.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.dozer.DozerBeanMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Checks the fast path reads the same members as Hibernate and Dozer.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations={"classpath:/testApplicationContext.xml"})
+public class MemberJdbcReaderTest {
+
+  @Autowired
+  private MemberJdbcReader memberJdbcReader;
+
+  @Autowired
+  private ExampleMemberPersistenceService memberPersistenceService;
+
+  @Test
+  public void testReadsMembersLikeHibernate() throws Exception {
+    ObjectMapper objectMapper = new ObjectMapper();
+    DozerBeanMapper dozerBeanMapper = new DozerBeanMapper();
+    List<Member> members = memberPersistenceService.getMemberViews(0, 100);
+    assertTrue(members.size() >= 11);
+    for (Member member : members) {
+      MemberEntity entity = memberPersistenceService.getMember(member.getId());
+      MemberJdbcReader.Result read = memberJdbcReader.getMember(member.getId());
+      assertEquals(objectMapper.writeValueAsString(dozerBeanMapper.map(entity, Member.class)),
+          objectMapper.writeValueAsString(read.getMember()));
+      assertEquals(entity.getPersistenceVersion(), read.getVersion());
+    }
+  }
+
+  @Test
+  public void testReturnsNullForMissingMember() throws Exception {
+    long notFound = ((Long) memberJdbcReader.getStatistics().get("notFound")).longValue();
+    assertNull(memberJdbcReader.getMember(999));
+    assertEquals(Long.valueOf(notFound + 1), memberJdbcReader.getStatistics().get("notFound"));
+  }
+
+}
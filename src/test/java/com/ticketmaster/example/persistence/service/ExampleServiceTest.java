@@ -6,7 +6,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -15,6 +17,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
 import com.ticketmaster.example.model.AddressEntity;
 import com.ticketmaster.example.model.MemberEntity;
 
@@ -59,6 +62,48 @@ public class ExampleServiceTest {
 
 	}
 
+	@Test
+	public void testGetMemberView() throws Exception {
+
+		// Test reading a valid member in one join
+		MemberJdbcReader.Result read = exampleMemberPersistenceService.getMemberView(5);
+		assertNotNull(read);
+		assertEquals(5, read.getMember().getId().intValue());
+		assertNotNull(read.getVersion());
+
+		// Test reading a member that does not exist
+		try {
+			exampleMemberPersistenceService.getMemberView(25);
+			fail("Member 25 does not exist");
+		} catch (Exception ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGetMembers() throws Exception {
+		List<MemberEntity> members = exampleMemberPersistenceService.getMembers(8, 100);
+		assertEquals(3, members.size());
+		assertEquals(11, members.get(1).getId().intValue());
+		assertNotNull(members.get(1).getAddress());
+
+		members = exampleMemberPersistenceService.getMembersByFirstOrLast("Peter", null, 0, 1);
+		assertEquals(1, members.size());
+		assertEquals(1, members.get(0).getId().intValue());
+
+		// Page out of range, or no name to search for
+		try {
+			exampleMemberPersistenceService.getMembers(0, 101);
+			fail();
+		} catch (Exception ex) {
+		}
+		try {
+			exampleMemberPersistenceService.getMembersByFirstOrLast("", null, 0, 10);
+			fail();
+		} catch (Exception ex) {
+		}
+	}
+
 	@Test
     public void testGetMemberCount() throws Exception {
 	    long count = exampleMemberPersistenceService.getMemberCount();
@@ -108,7 +153,7 @@ public class ExampleServiceTest {
 		member.setInitial("");
 		member.setPrefix("Mr");
 		member.setSuffix("");
-		member.setEmail("a@b.c");
+		member.setEmail("d@b.c");
 		member.setPhone1("1112223333");
 		member.setPhone2("4445556666");
 		member.setOptOut(false);
@@ -171,4 +216,66 @@ public class ExampleServiceTest {
 		assertEquals(member1.getFirst(), "Jane");
 	}
 
+	@Test
+	public void testUpsertMembersByEmail() throws Exception {
+		MemberEntity known = new MemberEntity();
+		known.setFirst("Wade");
+		known.setLast("Wilson");
+		known.setEmail("wade@upsert.example");
+		known.setOptOut(false);
+		known.setAddress(new AddressEntity());
+		known.getAddress().setCity("Regina");
+		known = exampleMemberPersistenceService.createMember(known);
+		long count = exampleMemberPersistenceService.getMemberCount();
+
+		MemberEntity update = new MemberEntity();
+		update.setFirst("Deadpool");
+		update.setLast("Wilson");
+		update.setEmail("wade@upsert.example");
+		update.setAddress(new AddressEntity());
+		update.getAddress().setCity("New York");
+		MemberEntity create = new MemberEntity();
+		create.setFirst("Logan");
+		create.setLast("Howlett");
+		create.setEmail("logan@upsert.example");
+		create.setAddress(new AddressEntity());
+		create.getAddress().setCity("Alberta");
+		MemberEntity createWithoutAddress = new MemberEntity();
+		createWithoutAddress.setFirst("Scott");
+		createWithoutAddress.setLast("Summers");
+		createWithoutAddress.setEmail("scott@upsert.example");
+
+		List<MemberEntity> upserted = exampleMemberPersistenceService.upsertMembersByEmail(Arrays.asList(update,
+				create, createWithoutAddress));
+		assertEquals(3, upserted.size());
+		assertEquals(known.getId(), update.getId());
+		assertEquals(known.getAddress().getId(), update.getAddress().getId());
+		assertEquals(Integer.valueOf(known.getPersistenceVersion().intValue() + 1), update.getPersistenceVersion());
+		assertNotNull(create.getId());
+		assertNotNull(create.getAddress().getId());
+		assertEquals(Integer.valueOf(1), create.getPersistenceVersion());
+		assertEquals(count + 2, exampleMemberPersistenceService.getMemberCount());
+
+		MemberEntity updated = exampleMemberPersistenceService.getMember(known.getId());
+		assertEquals("Deadpool", updated.getFirst());
+		assertEquals("New York", updated.getAddress().getCity());
+		MemberEntity created = exampleMemberPersistenceService.getMember(create.getId());
+		assertEquals("Logan", created.getFirst());
+		assertEquals("Alberta", created.getAddress().getCity());
+		assertEquals(Boolean.FALSE, created.getOptOut());
+		assertNull(exampleMemberPersistenceService.getMember(createWithoutAddress.getId()).getAddress());
+
+		// an email given twice is refused
+		MemberEntity twice = new MemberEntity();
+		twice.setFirst("Logan");
+		twice.setLast("Howlett");
+		twice.setEmail("logan@upsert.example");
+		try {
+			exampleMemberPersistenceService.upsertMembersByEmail(Arrays.asList(twice, twice));
+			fail("repeated email was accepted");
+		} catch (Exception e) {
+			assertEquals(count + 2, exampleMemberPersistenceService.getMemberCount());
+		}
+	}
+
 }
@@ -0,0 +1,186 @@
+package com.ticketmaster.example.persistence.service.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
+
+/**
+ * Drives the limiter with a clock moved by the test, so the latency of every
+ * call is the time the test lets pass between acquire and release.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+  private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+
+  private AdaptiveConcurrencyLimiter limiter;
+
+  @Before
+  public void setUp() {
+    limiter = new AdaptiveConcurrencyLimiter() {
+      @Override
+      long nanoTime() {
+        return clock.get();
+      }
+    };
+    limiter.setName("test");
+    limiter.setMinLimit(1);
+    limiter.setMaxLimit(10);
+    limiter.setTargetLatencyMillis(100);
+    limiter.setBackoffRatio(0.5);
+  }
+
+  private void elapse(long millis) {
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  private Object stat(String name) {
+    return limiter.getStatistics().get(name);
+  }
+
+  private int limit() {
+    return ((Integer) stat("limit")).intValue();
+  }
+
+  @Test
+  public void testAdditiveIncreaseWhileTheLimitIsUsed() {
+    limiter.setInitialLimit(2);
+    limiter.setMaxLimit(3);
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    elapse(10);
+
+    // each fast call completing at the limit adds 1/limit: 2 -> 2.5 -> 2.9 -> 3.2
+    limiter.release(first);
+    assertEquals(2, limit());
+    first = limiter.acquire();
+    limiter.release(first);
+    assertEquals(2, limit());
+    first = limiter.acquire();
+    limiter.release(first);
+    assertEquals(3, limit());
+
+    // capped by maxLimit
+    first = limiter.acquire();
+    long third = limiter.acquire();
+    limiter.release(third);
+    assertEquals(3, limit());
+    limiter.release(first);
+    limiter.release(second);
+    assertEquals(Integer.valueOf(0), stat("inFlight"));
+  }
+
+  @Test
+  public void testNoIncreaseWhileTheLimitIsNotUsed() {
+    limiter.setInitialLimit(4);
+    for (int i = 0; i < 20; i++) {
+      long start = limiter.acquire();
+      elapse(10);
+      limiter.release(start);
+    }
+    assertEquals(4, limit());
+    assertEquals(Double.valueOf(10d).doubleValue(), ((Double) stat("averageLatencyMillis")).doubleValue(), 1.5);
+  }
+
+  @Test
+  public void testMultiplicativeDecreaseOnLatency() {
+    limiter.setInitialLimit(10);
+    long start = limiter.acquire();
+    elapse(200);
+    limiter.release(start);
+    assertEquals(5, limit());
+
+    // a burst of slow calls started before the decrease only backs off once
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    elapse(200);
+    limiter.release(first);
+    assertEquals(2, limit());
+    limiter.release(second);
+    assertEquals(2, limit());
+
+    // a slow call started after it backs off again, down to minLimit
+    start = limiter.acquire();
+    elapse(200);
+    limiter.release(start);
+    assertEquals(1, limit());
+    start = limiter.acquire();
+    elapse(200);
+    limiter.release(start);
+    assertEquals(1, limit());
+
+    // a call within the target does not back off, and at the limit grows it again
+    start = limiter.acquire();
+    elapse(100);
+    limiter.release(start);
+    assertEquals(2, limit());
+  }
+
+  @Test
+  public void testWaitsForASlotAndFailsFastWhenTheQueueIsFull() throws Exception {
+    limiter.setInitialLimit(1);
+    limiter.setMaxQueueSize(1);
+    limiter.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(30));
+    final long start = limiter.acquire();
+
+    final AtomicBoolean admitted = new AtomicBoolean();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        limiter.release(limiter.acquire());
+        admitted.set(true);
+      }
+    });
+    waiter.start();
+    for (int i = 0; i < 500 && ((Integer) stat("waiting")).intValue() < 1; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(Integer.valueOf(1), stat("waiting"));
+
+    long before = System.nanoTime();
+    try {
+      limiter.acquire();
+      fail("the queue is full");
+    } catch (ServiceUnavailableException e) {
+      //expect this exception to be thrown, mapped to a 503
+    }
+    assertTrue(System.nanoTime() - before < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(Long.valueOf(1), stat("rejected"));
+
+    limiter.release(start);
+    waiter.join(TimeUnit.SECONDS.toMillis(5));
+    assertTrue(admitted.get());
+    assertEquals(Long.valueOf(2), stat("accepted"));
+    assertEquals(Integer.valueOf(0), stat("waiting"));
+    assertEquals(Integer.valueOf(0), stat("inFlight"));
+  }
+
+  @Test
+  public void testTimesOutWaitingForASlot() {
+    limiter.setInitialLimit(1);
+    limiter.setMaxWaitMillis(50);
+    long start = limiter.acquire();
+    try {
+      limiter.acquire();
+      fail("no slot became available");
+    } catch (ServiceUnavailableException e) {
+      //expect this exception to be thrown
+    }
+    assertEquals(Long.valueOf(1), stat("timedOut"));
+    assertEquals(Long.valueOf(0), stat("rejected"));
+    assertEquals(Integer.valueOf(0), stat("waiting"));
+
+    limiter.release(start);
+    limiter.release(limiter.acquire());
+    assertEquals(Long.valueOf(2), stat("accepted"));
+  }
+
+}
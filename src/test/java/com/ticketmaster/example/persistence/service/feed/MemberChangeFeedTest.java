@@ -0,0 +1,176 @@
+package com.ticketmaster.example.persistence.service.feed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.web.model.MemberChange;
+import com.ticketmaster.example.web.model.MemberChangePage;
+
+/**
+ * Appends changes to a feed with a small ring and small segments in a
+ * temporary directory, and reads them back across restarts.
+ */
+public class MemberChangeFeedTest {
+
+  private File directory;
+  private MemberChangeFeed feed;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("member-feed", "");
+    directory.delete();
+    feed = newFeed();
+  }
+
+  @After
+  public void tearDown() {
+    feed.shutdown();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private MemberChangeFeed newFeed() throws Exception {
+    MemberChangeFeed newFeed = new MemberChangeFeed();
+    newFeed.setDirectory(directory);
+    newFeed.setCapacity(4);
+    newFeed.setSegmentRecords(5);
+    newFeed.setMaxSegments(3);
+    newFeed.start();
+    return newFeed;
+  }
+
+  private void append(int count) {
+    for (int index = 0; index < count; index++) {
+      long tail = feed.getTail();
+      feed.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.UPDATED, 1000 + tail, Integer.valueOf((int) tail)));
+    }
+  }
+
+  private static void assertChanges(MemberChangePage page, long first, int count) {
+    assertEquals(count, page.getChanges().size());
+    for (int index = 0; index < count; index++) {
+      MemberChange change = page.getChanges().get(index);
+      assertEquals(Long.valueOf(first + index), change.getOffset());
+      assertEquals(Long.valueOf(1000 + first + index), change.getMemberId());
+      assertEquals(Integer.valueOf((int) (first + index)), change.getVersion());
+    }
+    assertEquals(first + count, page.getNextOffset());
+  }
+
+  @Test
+  public void testReadsFromRingAndSegments() {
+    append(8);
+    assertChanges(feed.read(6, 10), 6, 2);
+    assertChanges(feed.read(1, 10), 1, 7);
+    assertChanges(feed.read(0, 2), 0, 2);
+    assertChanges(feed.read(8, 10), 8, 0);
+    assertFalse(feed.read(0, 10).isTruncated());
+    assertEquals(Long.valueOf(3), feed.getStatistics().get("segmentReads"));
+  }
+
+  @Test
+  public void testTruncatesOffsetsNoLongerKept() {
+    append(17);
+    // segments of 5 changes, the 3 latest kept: 5 to 16
+    MemberChangePage page = feed.read(2, 3);
+    assertTrue(page.isTruncated());
+    assertChanges(page, 5, 3);
+    assertEquals(3, directory.listFiles().length);
+
+    page = feed.read(40, 3);
+    assertTrue(page.isTruncated());
+    assertChanges(page, 5, 3);
+  }
+
+  @Test
+  public void testResumesNumberingAfterRestart() throws Exception {
+    append(7);
+    feed.shutdown();
+    feed = newFeed();
+    assertEquals(7, feed.getTail());
+    assertChanges(feed.read(0, 10), 0, 7);
+    append(1);
+    assertChanges(feed.read(6, 10), 6, 2);
+
+    feed.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.DELETED, 42, null));
+    feed.shutdown();
+    feed = newFeed();
+    MemberChange deleted = feed.read(8, 1).getChanges().get(0);
+    assertEquals("DELETED", deleted.getType());
+    assertEquals(Long.valueOf(42), deleted.getMemberId());
+    assertNull(deleted.getVersion());
+  }
+
+  @Test
+  public void testDropsTornTailOnRestart() throws Exception {
+    append(3);
+    feed.shutdown();
+    RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("%020d.log", 0)), "rw");
+    try {
+      segment.setLength(2 * MemberChangeFeed.RECORD_BYTES + 7);
+    } finally {
+      segment.close();
+    }
+    feed = newFeed();
+    assertEquals(2, feed.getTail());
+    append(1);
+    assertChanges(feed.read(0, 10), 0, 3);
+  }
+
+  @Test
+  public void testKeepsChangesInMemoryWithoutDirectory() throws Exception {
+    feed.shutdown();
+    feed = new MemberChangeFeed();
+    feed.setCapacity(4);
+    feed.start();
+    append(6);
+    MemberChangePage page = feed.read(0, 10);
+    assertTrue(page.isTruncated());
+    assertChanges(page, 2, 4);
+  }
+
+  @Test(timeout = 10000)
+  public void testWakesUpWaitingConsumer() throws Exception {
+    append(2);
+    final CountDownLatch woken = new CountDownLatch(1);
+    Runnable callback = new Runnable() {
+      @Override
+      public void run() {
+        woken.countDown();
+      }
+    };
+    assertFalse(feed.register(1, callback, 5000));
+    assertTrue(feed.register(2, callback, 5000));
+    assertEquals(Integer.valueOf(1), feed.getStatistics().get("waiters"));
+
+    Thread appender = new Thread() {
+      @Override
+      public void run() {
+        append(1);
+      }
+    };
+    appender.start();
+    assertTrue(woken.await(5, TimeUnit.SECONDS));
+    appender.join();
+    assertEquals(Integer.valueOf(0), feed.getStatistics().get("waiters"));
+    assertChanges(feed.read(2, 10), 2, 1);
+  }
+
+}
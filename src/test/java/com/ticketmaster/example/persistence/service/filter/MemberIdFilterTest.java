@@ -0,0 +1,160 @@
+package com.ticketmaster.example.persistence.service.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.ticketmaster.example.commons.cache.invalidation.Invalidation;
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.dao.jdbc.MemberJdbcReader;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+import com.ticketmaster.example.persistence.service.hibernate.ExampleMemberPersistenceServiceHibernateImpl;
+
+/**
+ * Builds the member id filter from the test database.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/testApplicationContext.xml" })
+public class MemberIdFilterTest {
+
+  @Autowired
+  private MemberDao memberDao;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private MemberJdbcReader memberJdbcReader;
+
+  private MemberIdFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    if (!cacheManager.cacheExists("memberIdFilterTest")) {
+      cacheManager.addCache(new Cache(new CacheConfiguration("memberIdFilterTest", 100).timeToLiveSeconds(60)));
+    }
+    cacheManager.getCache("memberIdFilterTest").removeAll();
+
+    filter = new MemberIdFilter();
+    filter.setMemberDao(memberDao);
+    filter.setTransactionManager(transactionManager);
+    filter.setMissingCache(cacheManager.getCache("memberIdFilterTest"));
+    filter.setExpectedMembers(1000);
+    filter.setBatchSize(4);
+    assertTrue(filter.mightExist(9));
+    filter.start();
+    awaitBuilds(1);
+    assertEquals(Boolean.TRUE, filter.getStatistics().get("ready"));
+  }
+
+  private void awaitBuilds(long builds) throws InterruptedException {
+    for (int i = 0; i < 100 && (!Long.valueOf(builds).equals(filter.getStatistics().get("builds"))
+        || Boolean.TRUE.equals(filter.getStatistics().get("rebuilding"))); i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(Long.valueOf(builds), filter.getStatistics().get("builds"));
+  }
+
+  @After
+  public void tearDown() {
+    filter.shutdown();
+  }
+
+  @SuppressWarnings("unchecked")
+  private long builtThroughId() {
+    return ((Map<Long, Long>) filter.getStatistics().get("builtThroughIds")).get(Long.valueOf(0)).longValue();
+  }
+
+  @Test
+  public void testRefusesIdsThatWereNeverCreated() throws Exception {
+    for (long id : new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12 }) {
+      assertTrue("member " + id, filter.mightExist(id));
+    }
+    // 9 was never created; with 1000 ids at 1% a collision with 11 ids is unlikely
+    assertFalse(filter.mightExist(9));
+    assertFalse(filter.mightExist(-5));
+    assertEquals(Long.valueOf(2), filter.getStatistics().get("rejected"));
+    assertEquals(1200L, ((Long) filter.getStatistics().get("memoryBytes")).longValue(), 64);
+  }
+
+  @Test
+  public void testIdsAboveTheBuildAreCheckedAgainstMisses() throws Exception {
+    long next = builtThroughId() + 1;
+    assertTrue(filter.mightExist(next));
+    filter.recordMissing(next);
+    assertFalse(filter.mightExist(next));
+
+    // created on a peer
+    filter.onInvalidations(Arrays.asList(new Invalidation(MemberEntity.class.getName(), Long.valueOf(next),
+        Integer.valueOf(1), false, System.currentTimeMillis())));
+    assertTrue(filter.mightExist(next));
+
+    filter.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.CREATED, next + 5, Integer.valueOf(1)));
+    assertTrue(filter.mightExist(next + 5));
+    assertEquals(next - 1, builtThroughId());
+  }
+
+  @Test
+  public void testPeerCreateWithDroppedInvalidationIsLetThrough() throws Exception {
+    long built = builtThroughId();
+    // this node creates a higher id while the invalidation of the peer's create of built + 1 is lost
+    filter.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.CREATED, built + 2, Integer.valueOf(1)));
+    assertTrue(filter.mightExist(built + 1));
+    assertTrue(filter.mightExist(built + 2));
+  }
+
+  @Test
+  public void testNewIdsOfLowerBlocksAreLetThrough() throws Exception {
+    filter.setIdBlockSize(5);
+    filter.rebuild();
+    awaitBuilds(2);
+    // ids 5-9 are one shard's block, 10 and up another's: 9 may still be created there
+    assertTrue(filter.mightExist(9));
+    assertTrue(filter.mightExist(8));
+    filter.setIdBlockSize(4);
+    filter.rebuild();
+    awaitBuilds(3);
+    // within block 8-11 ids are assigned in order, so 9 was never created
+    assertFalse(filter.mightExist(9));
+  }
+
+  @Test
+  public void testFastPathLookupIsRefusedWithoutTheDatabase() throws Exception {
+    ExampleMemberPersistenceServiceHibernateImpl service = new ExampleMemberPersistenceServiceHibernateImpl();
+    service.setMemberDao(memberDao);
+    service.setMemberIdFilter(filter);
+    service.setMemberJdbcReader(memberJdbcReader);
+    assertEquals(Long.valueOf(5), service.getMemberView(5).getMember().getId());
+
+    long reads = ((Long) memberJdbcReader.getStatistics().get("reads")).longValue();
+    try {
+      service.getMemberView(9);
+      fail("member 9 was never created");
+    } catch (Exception e) {
+      // expected
+    }
+    assertEquals(Long.valueOf(reads), memberJdbcReader.getStatistics().get("reads"));
+  }
+
+}
@@ -0,0 +1,95 @@
+package com.ticketmaster.example.persistence.service.warmup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.ticketmaster.example.dao.MemberDao;
+import com.ticketmaster.example.model.MemberEntity;
+
+/**
+ * Warms the second-level cache of the test database from an id file and a
+ * ranking query.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/testApplicationContext.xml" })
+public class MemberCacheWarmerTest {
+
+  @Autowired
+  private MemberDao memberDao;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private MemberCacheWarmer warmer(String sources) {
+    MemberCacheWarmer warmer = new MemberCacheWarmer();
+    warmer.setMemberDao(memberDao);
+    warmer.setTransactionManager(transactionManager);
+    warmer.setSources(sources);
+    warmer.setBatchSize(2);
+    warmer.setReadyRatio(1.0);
+    return warmer;
+  }
+
+  private static void awaitReady(MemberCacheWarmer warmer) throws InterruptedException {
+    for (int i = 0; i < 200 && !warmer.isReady(); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(warmer.isReady());
+  }
+
+  @Test
+  public void testWarmsMembersFromFileAndRanking() throws Exception {
+    entityManagerFactory.getCache().evictAll();
+
+    File idFile = File.createTempFile("warmup-ids", ".txt");
+    idFile.deleteOnExit();
+    FileWriter writer = new FileWriter(idFile);
+    writer.write("# hot members\n3\n\n4 # comment\nnot-an-id\n999\n");
+    writer.close();
+
+    MemberCacheWarmer warmer = warmer("file,ranked");
+    warmer.setIdFile(idFile.getPath());
+    warmer.setRankingSql("SELECT PurchaserID FROM tbl_purchaser WHERE PurchaserID <= 11 ORDER BY PurchaserID DESC");
+    warmer.setRankedCount(3);
+    try {
+      warmer.start();
+      awaitReady(warmer);
+    } finally {
+      warmer.shutdown();
+    }
+
+    assertEquals(Integer.valueOf(6), warmer.getStatistics().get("planned"));
+    assertEquals(Long.valueOf(5), warmer.getStatistics().get("loaded"));
+    assertEquals(Long.valueOf(1), warmer.getStatistics().get("missing"));
+    for (long id : new long[] { 3, 4, 8, 10, 11 }) {
+      assertTrue("member " + id, entityManagerFactory.getCache().contains(MemberEntity.class, Long.valueOf(id)));
+    }
+    assertFalse(entityManagerFactory.getCache().contains(MemberEntity.class, Long.valueOf(1)));
+  }
+
+  @Test
+  public void testDisabledWarmerIsReady() throws Exception {
+    MemberCacheWarmer warmer = warmer("recent");
+    warmer.setEnabled(false);
+    warmer.start();
+    assertTrue(warmer.isReady());
+    assertEquals(Integer.valueOf(0), warmer.getStatistics().get("planned"));
+  }
+
+}
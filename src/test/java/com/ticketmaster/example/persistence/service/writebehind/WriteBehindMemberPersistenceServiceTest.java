@@ -0,0 +1,204 @@
+package com.ticketmaster.example.persistence.service.writebehind;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Queues, coalesces, replays and writes member updates against the test
+ * database, flushing by hand.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/testApplicationContext.xml" })
+public class WriteBehindMemberPersistenceServiceTest {
+
+  @Autowired
+  private ExampleMemberPersistenceService memberPersistenceService;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private File journal;
+
+  private long memberId;
+
+  @Before
+  public void setUp() throws Exception {
+    journal = File.createTempFile("member-updates", ".journal");
+    journal.delete();
+    MemberEntity member = new MemberEntity();
+    member.setAddress(new AddressEntity());
+    member.setFirst("Wally");
+    member.setLast("West");
+    member.setEmail("wally@example.com");
+    member.setOptOut(false);
+    member.getAddress().setCity("Central City");
+    member.getAddress().setState("MO");
+    memberId = memberPersistenceService.createMember(member).getId().longValue();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    journal.delete();
+    try {
+      memberPersistenceService.deleteMember(memberId);
+    } catch (Exception e) {
+    }
+  }
+
+  private WriteBehindMemberPersistenceService writeBehind(boolean flushOnShutdown) throws Exception {
+    WriteBehindMemberPersistenceService writeBehind = new WriteBehindMemberPersistenceService();
+    writeBehind.setTarget(memberPersistenceService);
+    writeBehind.setTransactionManager(transactionManager);
+    writeBehind.setJournalFile(journal.getPath());
+    writeBehind.setFlushIntervalMillis(3600000);
+    writeBehind.setBatchSize(2);
+    writeBehind.setFlushOnShutdown(flushOnShutdown);
+    writeBehind.start();
+    return writeBehind;
+  }
+
+  private static MemberEntity update(String first, String city) {
+    MemberEntity update = new MemberEntity();
+    update.setFirst(first);
+    update.setLast("West");
+    update.setEmail("wally@example.com");
+    update.setOptOut(true);
+    if (city != null) {
+      update.setAddress(new AddressEntity());
+      update.getAddress().setCity(city);
+    }
+    return update;
+  }
+
+  @Test
+  public void testCoalescesUpdatesAndReadsThroughTheQueue() throws Exception {
+    WriteBehindMemberPersistenceService writeBehind = writeBehind(true);
+    try {
+      writeBehind.updateMember(memberId, update("Flash", null));
+      MemberEntity acknowledged = writeBehind.updateMember(memberId, update("Kid Flash", "Keystone City"));
+      assertEquals("Kid Flash", acknowledged.getFirst());
+      assertEquals("Keystone City", acknowledged.getAddress().getCity());
+
+      assertEquals("Wally", memberPersistenceService.getMember(memberId).getFirst());
+      assertEquals("Kid Flash", writeBehind.getMember(memberId).getFirst());
+      for (Member view : writeBehind.getMemberViews(0, 100)) {
+        if (view.getId().longValue() == memberId) {
+          assertEquals("Keystone City", view.getAddress().getCity());
+        }
+      }
+      assertTrue(writeBehind.isPending(memberId));
+      assertEquals(Integer.valueOf(1), writeBehind.getStatistics().get("pending"));
+      assertEquals(Long.valueOf(1), writeBehind.getStatistics().get("coalesced"));
+
+      assertEquals(1, writeBehind.flush());
+      assertFalse(writeBehind.isPending(memberId));
+      MemberEntity written = memberPersistenceService.getMember(memberId);
+      assertEquals("Kid Flash", written.getFirst());
+      assertEquals(Boolean.TRUE, written.getOptOut());
+      assertEquals("Keystone City", written.getAddress().getCity());
+      assertEquals(0, journal.length());
+    } finally {
+      writeBehind.shutdown();
+    }
+  }
+
+  @Test
+  public void testReplaysAcknowledgedUpdatesAfterACrash() throws Exception {
+    WriteBehindMemberPersistenceService crashed = writeBehind(false);
+    crashed.updateMember(memberId, update("Flash", null));
+    crashed.shutdown();
+
+    // a record torn by the crash
+    FileOutputStream out = new FileOutputStream(journal, true);
+    out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+    out.close();
+
+    WriteBehindMemberPersistenceService restarted = writeBehind(true);
+    try {
+      assertEquals(Integer.valueOf(1), restarted.getStatistics().get("replayed"));
+      assertEquals("Flash", restarted.getMember(memberId).getFirst());
+      assertEquals("Wally", memberPersistenceService.getMember(memberId).getFirst());
+      assertEquals(1, restarted.flush());
+      assertEquals("Flash", memberPersistenceService.getMember(memberId).getFirst());
+    } finally {
+      restarted.shutdown();
+    }
+  }
+
+  @Test
+  public void testDropsUpdatesOfDeletedMembers() throws Exception {
+    WriteBehindMemberPersistenceService writeBehind = writeBehind(false);
+    try {
+      writeBehind.updateMember(memberId, update("Flash", null));
+      memberPersistenceService.deleteMember(memberId);
+      assertEquals(1, writeBehind.flush());
+      assertEquals(Long.valueOf(1), writeBehind.getStatistics().get("failed"));
+      assertFalse(writeBehind.isPending(memberId));
+      try {
+        writeBehind.updateMember(memberId, update("Flash", null));
+        fail();
+      } catch (Exception e) {
+      }
+    } finally {
+      writeBehind.shutdown();
+    }
+    WriteBehindMemberPersistenceService restarted = writeBehind(false);
+    assertEquals(Integer.valueOf(0), restarted.getStatistics().get("replayed"));
+    restarted.shutdown();
+  }
+
+  @Test
+  public void testRefusesATakenEmailBeforeAcknowledging() throws Exception {
+    MemberEntity other = new MemberEntity();
+    other.setAddress(new AddressEntity());
+    other.setFirst("Barry");
+    other.setLast("Allen");
+    other.setEmail("barry@example.com");
+    other.setOptOut(false);
+    long otherId = memberPersistenceService.createMember(other).getId().longValue();
+    WriteBehindMemberPersistenceService writeBehind = writeBehind(false);
+    try {
+      writeBehind.updateMember(memberId, update("Flash", null));
+      MemberEntity taken = update("Kid Flash", null);
+      taken.setEmail("barry@example.com");
+      try {
+        writeBehind.updateMember(memberId, taken);
+        fail();
+      } catch (Exception e) {
+      }
+      assertEquals("Flash", writeBehind.getMember(memberId).getFirst());
+
+      MemberEntity changed = update("Kid Flash", null);
+      changed.setEmail("kidflash@example.com");
+      assertEquals("kidflash@example.com", writeBehind.updateMember(memberId, changed).getEmail());
+      assertFalse(writeBehind.isPending(memberId));
+      assertEquals(Long.valueOf(2), writeBehind.getStatistics().get("synchronous"));
+      assertEquals("Kid Flash", memberPersistenceService.getMember(memberId).getFirst());
+      assertEquals(0, writeBehind.flush());
+      assertEquals("kidflash@example.com", memberPersistenceService.getMember(memberId).getEmail());
+    } finally {
+      writeBehind.shutdown();
+      memberPersistenceService.deleteMember(otherId);
+    }
+  }
+
+}
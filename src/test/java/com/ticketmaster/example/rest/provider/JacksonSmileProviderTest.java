@@ -0,0 +1,121 @@
+package com.ticketmaster.example.rest.provider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.Test;
+
+import com.ticketmaster.example.web.model.Address;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Writes members through the Smile provider and reads them back, and checks
+ * which requests get Smile.
+ */
+public class JacksonSmileProviderTest {
+
+  private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+  private static final Type MEMBER_LIST = new TypeReference<List<Member>>() {
+  }.getType();
+
+  private final JacksonSmileProvider provider = new JacksonSmileProvider();
+
+  private final ObjectMapper jsonMapper = new ObjectMapper();
+
+  static Member member(int index) {
+    Member member = new Member();
+    member.setId(Long.valueOf(index));
+    member.setFirst("First" + index);
+    member.setLast("Last" + index);
+    member.setEmail("member" + index + "@example.com");
+    member.setOptOut(Boolean.FALSE);
+    member.setDateTimeCreated(new Date(1300000000000L + index * 1000L));
+    Address address = new Address();
+    address.setStreet1(index + " Main Street");
+    address.setCity("El Segundo");
+    address.setState("CA");
+    address.setZip("90245");
+    member.setAddress(address);
+    return member;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T roundTrip(Object value, Class<?> type, Type genericType) throws Exception {
+    MediaType smile = JacksonSmileProvider.APPLICATION_SMILE_TYPE;
+    assertTrue(provider.isWriteable(type, genericType, NO_ANNOTATIONS, smile));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    provider.writeTo(value, (Class<Object>) type, genericType, NO_ANNOTATIONS, smile, null, out);
+    byte[] bytes = out.toByteArray();
+    assertEquals(':', bytes[0]);
+    assertEquals(')', bytes[1]);
+    assertTrue(provider.isReadable(type, genericType, NO_ANNOTATIONS, smile));
+    return (T) provider.readFrom((Class<Object>) type, genericType, NO_ANNOTATIONS, smile, null,
+        new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  public void testRoundTripsMemberAndPage() throws Exception {
+    Member member = member(7);
+    Member read = roundTrip(member, Member.class, Member.class);
+    assertEquals(jsonMapper.writeValueAsString(member), jsonMapper.writeValueAsString(read));
+
+    List<Member> page = new ArrayList<Member>();
+    for (int index = 0; index < 20; index++) {
+      page.add(member(index));
+    }
+    List<Member> readPage = roundTrip(page, ArrayList.class, MEMBER_LIST);
+    assertEquals(20, readPage.size());
+    assertEquals(jsonMapper.writeValueAsString(page), jsonMapper.writeValueAsString(readPage));
+  }
+
+  @Test
+  public void testHandlesOnlySmile() {
+    assertTrue(provider.isWriteable(Member.class, Member.class, NO_ANNOTATIONS,
+        new MediaType("application", "x-jackson-smile")));
+    assertFalse(provider.isWriteable(Member.class, Member.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE));
+    assertFalse(provider.isWriteable(Member.class, Member.class, NO_ANNOTATIONS, MediaType.WILDCARD_TYPE));
+    assertFalse(provider.isReadable(Member.class, Member.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE));
+  }
+
+  @Test
+  public void testTranscodesJsonToEquivalentSmile() throws Exception {
+    Member member = member(3);
+    byte[] json = jsonMapper.writeValueAsBytes(member);
+    byte[] smile = JacksonSmileProvider.toSmile(json);
+    assertTrue(smile.length < json.length);
+
+    Member read = new ObjectMapper(new SmileFactory()).readValue(smile, Member.class);
+    assertArrayEquals(json, jsonMapper.writeValueAsBytes(read));
+  }
+
+  @Test
+  public void testPrefersSmileOnlyWhenRankedAboveJson() {
+    assertFalse(JacksonSmileProvider.prefersSmile(null));
+    assertFalse(JacksonSmileProvider.prefersSmile("*/*"));
+    assertFalse(JacksonSmileProvider.prefersSmile("application/json"));
+    assertTrue(JacksonSmileProvider.prefersSmile("application/x-jackson-smile"));
+    assertTrue(JacksonSmileProvider.prefersSmile("application/x-jackson-smile, */*;q=0.5"));
+    assertTrue(JacksonSmileProvider.prefersSmile("application/x-jackson-smile, application/*"));
+    assertFalse(JacksonSmileProvider.prefersSmile("application/x-jackson-smile, application/json"));
+    assertFalse(JacksonSmileProvider.prefersSmile("application/x-jackson-smile;q=0.8, application/json"));
+    assertTrue(JacksonSmileProvider.prefersSmile("application/json;q=0.5, application/x-jackson-smile"));
+    assertFalse(JacksonSmileProvider.prefersSmile("application/x-jackson-smile;q=0"));
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.ticketmaster.example.rest.provider;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+import org.codehaus.jackson.smile.SmileGenerator;
+import org.codehaus.jackson.type.TypeReference;
+
+import com.ticketmaster.example.web.model.Address;
+import com.ticketmaster.example.web.model.Member;
+
+/**
+ * Compares payload size, time and bytes allocated to encode and decode a
+ * single member and a page of members as JSON against Smile, with the same
+ * mapper settings as the JSON and Smile providers. Not a unit test; run with
+ *
+ * <pre>
+ * java ... MemberPayloadBenchmark [iterations]
+ * </pre>
+ */
+public class MemberPayloadBenchmark {
+
+	private static final int PAGE_SIZE = 100;
+
+	private static final TypeReference<List<Member>> MEMBER_LIST = new TypeReference<List<Member>>() {
+	};
+
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		final SmileFactory smileFactory = new SmileFactory();
+		smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+		final Codec[] codecs = { new Codec("json", new ObjectMapper()), new Codec("smile", new ObjectMapper(smileFactory)) };
+
+		final Member member = member(0);
+		final List<Member> page = new ArrayList<Member>(PAGE_SIZE);
+		for (int i = 0; i < PAGE_SIZE; i++) {
+			page.add(member(i));
+		}
+
+		for (int round = 0; round < 3; round++) {
+			for (Codec codec : codecs) {
+				run(codec, "member", member, Member.class, null, iterations, round == 2);
+				run(codec, "page", page, null, MEMBER_LIST, iterations / PAGE_SIZE, round == 2);
+			}
+		}
+	}
+
+	private static void run(final Codec codec, final String payload, final Object value, final Class<?> type,
+			final TypeReference<?> typeReference, final int iterations, final boolean report) throws Exception {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		final byte[] encoded = codec.mapper.writeValueAsBytes(value);
+
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			codec.mapper.writeValueAsBytes(value);
+		}
+		final long encodeNanos = System.nanoTime() - start;
+		final long encodeBytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		allocated = threads.getThreadAllocatedBytes(thread);
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			if (type != null) {
+				codec.mapper.readValue(encoded, type);
+			} else {
+				codec.mapper.readValue(encoded, 0, encoded.length, typeReference);
+			}
+		}
+		final long decodeNanos = System.nanoTime() - start;
+		final long decodeBytes = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		if (report) {
+			System.out.println(String.format(
+					"%-6s %-7s size=%d encode=%dns alloc=%d decode=%dns alloc=%d", codec.name, payload, encoded.length,
+					encodeNanos / iterations, encodeBytes / iterations, decodeNanos / iterations, decodeBytes / iterations));
+		}
+	}
+
+	private static Member member(final int i) {
+		final Member member = new Member();
+		member.setId(Long.valueOf(100000 + i));
+		member.setFirst("First" + i);
+		member.setLast("Last" + i);
+		member.setEmail("benchmark" + i + "@example.com");
+		member.setPhone1("3105550" + i % 1000);
+		member.setOptOut(Boolean.FALSE);
+		member.setDateTimeCreated(new Date(1300000000000L + i * 1000L));
+		member.setDateTimeUpdated(new Date(1300000000000L + i * 2000L));
+		member.setAddress(new Address());
+		member.getAddress().setStreet1(i + " Main Street");
+		member.getAddress().setCity("El Segundo");
+		member.getAddress().setState("CA");
+		member.getAddress().setZip("90245");
+		return member;
+	}
+
+	/**
+	 * One encoding of the member payloads
+	 */
+	private static final class Codec {
+
+		private final String name;
+
+		private final ObjectMapper mapper;
+
+		Codec(final String name, final ObjectMapper mapper) {
+			this.name = name;
+			this.mapper = mapper;
+		}
+	}
+
+}
@@ -0,0 +1,370 @@
+package com.ticketmaster.example.web.service.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cxf.continuations.Continuation;
+import org.junit.After;
+import org.junit.Test;
+
+import com.ticketmaster.example.exceptions.ServiceUnavailableException;
+
+/**
+ * Runs work on a small worker pool, with and without a continuation standing
+ * in for the CXF transport; a re-invocation by CXF is a second call.
+ */
+public class ContinuationRequestExecutorTest {
+
+  private TestContinuation continuation;
+
+  private ContinuationRequestExecutor executor;
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private ContinuationRequestExecutor start(int poolSize, int queueCapacity, long timeoutMillis) {
+    executor = new ContinuationRequestExecutor() {
+      @Override
+      Continuation getContinuation() {
+        return continuation;
+      }
+    };
+    executor.setEnabled(true);
+    executor.setPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setTimeoutMillis(timeoutMillis);
+    executor.start();
+    return executor;
+  }
+
+  private Callable<String> threadName() {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return Thread.currentThread().getName();
+      }
+    };
+  }
+
+  /**
+   * Waits for the release of the test, then reports whether it was interrupted.
+   */
+  private Callable<String> blocking(final AtomicBoolean interrupted) {
+    return new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          interrupted.set(true);
+          throw e;
+        }
+        return "released";
+      }
+    };
+  }
+
+  private static Thread inBackground(final ContinuationRequestExecutor executor, final Callable<String> task) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executor.execute(task);
+        } catch (Exception e) {
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitActive(ContinuationRequestExecutor executor, int active) throws InterruptedException {
+    for (int i = 0; i < 500 && ((Integer) executor.getStatistics().get("active")).intValue() < active; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(Integer.valueOf(active), executor.getStatistics().get("active"));
+  }
+
+  @Test
+  public void testRunsInlineWhenDisabled() throws Exception {
+    executor = new ContinuationRequestExecutor();
+    executor.start();
+    assertEquals(Thread.currentThread().getName(), executor.execute(threadName()));
+    assertEquals(Boolean.FALSE, executor.getStatistics().get("enabled"));
+  }
+
+  @Test
+  public void testWaitsForAWorkerWithoutAContinuation() throws Exception {
+    start(2, 2, 5000);
+    assertTrue(executor.execute(threadName()).startsWith("member-request-"));
+    assertEquals(Long.valueOf(1), executor.getStatistics().get("submitted"));
+  }
+
+  @Test
+  public void testUnwrapsTheExceptionOfTheWork() throws Exception {
+    start(1, 1, 5000);
+    final Exception thrown = new Exception("Member check failed");
+    try {
+      executor.execute(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          throw thrown;
+        }
+      });
+      fail();
+    } catch (Exception e) {
+      assertSame(thrown, e);
+    }
+  }
+
+  @Test
+  public void testRejectsWorkWhenTheQueueIsFull() throws Exception {
+    start(1, 1, 5000);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    inBackground(executor, blocking(interrupted));
+    awaitActive(executor, 1);
+    inBackground(executor, blocking(interrupted));
+    for (int i = 0; i < 500 && ((Integer) executor.getStatistics().get("queued")).intValue() < 1; i++) {
+      Thread.sleep(10);
+    }
+
+    try {
+      executor.execute(threadName());
+      fail("no worker and no room in the queue");
+    } catch (ServiceUnavailableException e) {
+      //expect this exception to be thrown, mapped to a 503
+    }
+    assertEquals(Long.valueOf(1), executor.getStatistics().get("rejected"));
+  }
+
+  @Test
+  public void testTimeoutLeavesRunningWorkAndDropsQueuedWork() throws Exception {
+    start(1, 1, 100);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    Thread running = inBackground(executor, blocking(interrupted));
+    awaitActive(executor, 1);
+
+    final AtomicInteger queuedRuns = new AtomicInteger();
+    try {
+      executor.execute(new Callable<String>() {
+        @Override
+        public String call() {
+          queuedRuns.incrementAndGet();
+          return null;
+        }
+      });
+      fail("the only worker is busy");
+    } catch (ServiceUnavailableException e) {
+      //expect this exception to be thrown
+    }
+    running.join();
+    assertFalse(interrupted.get());
+
+    release.countDown();
+    for (int i = 0; i < 500 && ((Integer) executor.getStatistics().get("active")).intValue() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(interrupted.get());
+    assertEquals(0, queuedRuns.get());
+    assertEquals(Long.valueOf(2), executor.getStatistics().get("timedOut"));
+  }
+
+  @Test
+  public void testSuspendsAndPicksUpTheResultWhenResumed() throws Exception {
+    start(1, 1, 5000);
+    continuation = new TestContinuation();
+
+    assertNull(executor.execute(threadName()));
+    assertEquals(5000, continuation.suspendedMillis);
+    assertTrue(continuation.resumed.await(5, TimeUnit.SECONDS));
+
+    assertTrue(executor.execute(threadName()).startsWith("member-request-"));
+  }
+
+  @Test
+  public void testResumedRequestThrowsTheExceptionOfTheWork() throws Exception {
+    start(1, 1, 5000);
+    continuation = new TestContinuation();
+    final IllegalArgumentException thrown = new IllegalArgumentException("Page check failed");
+    Callable<String> failing = new Callable<String>() {
+      @Override
+      public String call() {
+        throw thrown;
+      }
+    };
+
+    assertNull(executor.execute(failing));
+    assertTrue(continuation.resumed.await(5, TimeUnit.SECONDS));
+    try {
+      executor.execute(failing);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertSame(thrown, e);
+    }
+  }
+
+  @Test
+  public void testSuspendedRequestTimesOutWithoutInterruptingTheWork() throws Exception {
+    start(1, 1, 100);
+    continuation = new TestContinuation();
+    AtomicBoolean interrupted = new AtomicBoolean();
+
+    assertNull(executor.execute(blocking(interrupted)));
+    awaitActive(executor, 1);
+    // CXF re-invokes the resource method once the suspension times out
+    try {
+      executor.execute(blocking(interrupted));
+      fail("the work has not completed");
+    } catch (ServiceUnavailableException e) {
+      //expect this exception to be thrown
+    }
+    assertEquals(Long.valueOf(1), executor.getStatistics().get("timedOut"));
+
+    release.countDown();
+    assertTrue(continuation.resumed.await(5, TimeUnit.SECONDS));
+    assertFalse(interrupted.get());
+  }
+
+  @Test
+  public void testAwaitBlocksUntilSignalledWithoutAContinuation() throws Exception {
+    executor = new ContinuationRequestExecutor();
+    TestSignal signal = new TestSignal(true);
+    long start = System.nanoTime();
+    signal.fireIn(50);
+    assertTrue(executor.await(signal, 5000));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(5000, signal.registeredMillis);
+
+    assertTrue(executor.await(new TestSignal(false), 5000));
+    assertTrue(executor.await(new TestSignal(true), 0));
+  }
+
+  @Test
+  public void testAwaitSuspendsUntilSignalled() throws Exception {
+    continuation = new TestContinuation();
+    start(1, 1, 5000);
+    TestSignal signal = new TestSignal(true);
+
+    assertFalse(executor.await(signal, 2000));
+    assertEquals(2000, continuation.suspendedMillis);
+    signal.callback.run();
+    assertTrue(continuation.resumed.await(5, TimeUnit.SECONDS));
+    assertTrue(executor.await(signal, 2000));
+  }
+
+  @Test
+  public void testAwaitGoesOnWhenTheSignalHasFiredAlready() throws Exception {
+    continuation = new TestContinuation();
+    start(1, 1, 5000);
+    assertTrue(executor.await(new TestSignal(false), 2000));
+    assertTrue(continuation.isNew());
+  }
+
+  /**
+   * Records what the executor does with the continuation of a request.
+   */
+  private static class TestContinuation implements Continuation {
+    private boolean suspended;
+    private long suspendedMillis;
+    private Object object;
+    private final CountDownLatch resumed = new CountDownLatch(1);
+
+    @Override
+    public boolean suspend(long timeout) {
+      suspended = true;
+      suspendedMillis = timeout;
+      return true;
+    }
+
+    @Override
+    public void resume() {
+      resumed.countDown();
+    }
+
+    @Override
+    public void reset() {
+      suspended = false;
+      object = null;
+    }
+
+    @Override
+    public boolean isNew() {
+      return !suspended;
+    }
+
+    @Override
+    public boolean isPending() {
+      return suspended && resumed.getCount() > 0;
+    }
+
+    @Override
+    public boolean isResumed() {
+      return resumed.getCount() == 0;
+    }
+
+    @Override
+    public Object getObject() {
+      return object;
+    }
+
+    @Override
+    public void setObject(Object o) {
+      object = o;
+    }
+  }
+
+  /**
+   * A signal fired by the test.
+   */
+  private static class TestSignal implements ContinuationRequestExecutor.Signal {
+    private final boolean wait;
+    private volatile Runnable callback;
+    private volatile long registeredMillis;
+
+    TestSignal(boolean wait) {
+      this.wait = wait;
+    }
+
+    @Override
+    public boolean register(Runnable callback, long waitMillis) {
+      this.callback = callback;
+      registeredMillis = waitMillis;
+      return wait;
+    }
+
+    void fireIn(final long millis) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(millis);
+            while (callback == null) {
+              Thread.sleep(1);
+            }
+          } catch (InterruptedException e) {
+            return;
+          }
+          callback.run();
+        }
+      }).start();
+    }
+  }
+
+}
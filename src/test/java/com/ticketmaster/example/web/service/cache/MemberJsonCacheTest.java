@@ -0,0 +1,114 @@
+package com.ticketmaster.example.web.service.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ticketmaster.example.commons.cache.invalidation.Invalidation;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.event.MemberChangeEvent;
+
+/**
+ * Checks the version fencing of cached member JSON.
+ */
+public class MemberJsonCacheTest {
+
+  private CacheManager cacheManager;
+  private MemberJsonCache memberJsonCache;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setName("memberJsonCacheTest");
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    cacheManager = new CacheManager(configuration);
+
+    Cache cache = new Cache(new CacheConfiguration("memberJson", 100).timeToLiveSeconds(120));
+    cacheManager.addCache(cache);
+    memberJsonCache = new MemberJsonCache();
+    memberJsonCache.setCache(cache);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    cacheManager.shutdown();
+  }
+
+  private static byte[] json(String value) {
+    return ("{\"first\":\"" + value + "\"}").getBytes();
+  }
+
+  @Test
+  public void testServesStoredJsonUntilChanged() throws Exception {
+    assertNull(memberJsonCache.get(5));
+    assertTrue(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertArrayEquals(json("Jason"), memberJsonCache.get(5));
+
+    memberJsonCache.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.UPDATED, 5, Integer.valueOf(2)));
+    assertNull(memberJsonCache.get(5));
+
+    assertTrue(memberJsonCache.put(5, Integer.valueOf(2), json("Jay")));
+    assertArrayEquals(json("Jay"), memberJsonCache.get(5));
+    assertEquals(Long.valueOf(2), memberJsonCache.getStatistics().get("hits"));
+  }
+
+  @Test
+  public void testRejectsJsonOlderThanLastChange() throws Exception {
+    // a read rendered version 1 while an update to version 2 committed
+    memberJsonCache.invalidate(5, Integer.valueOf(2));
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertNull(memberJsonCache.get(5));
+
+    assertTrue(memberJsonCache.put(5, Integer.valueOf(2), json("Jay")));
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(2), json("Jason")));
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertArrayEquals(json("Jay"), memberJsonCache.get(5));
+    assertEquals(Long.valueOf(3), memberJsonCache.getStatistics().get("rejectedPuts"));
+  }
+
+  @Test
+  public void testDeletedMemberIsNotCachedAgain() throws Exception {
+    assertTrue(memberJsonCache.put(5, Integer.valueOf(3), json("Jason")));
+    memberJsonCache.onMemberChange(new MemberChangeEvent(MemberChangeEvent.Type.DELETED, 5, null));
+
+    assertNull(memberJsonCache.get(5));
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(3), json("Jason")));
+    assertNull(memberJsonCache.get(5));
+  }
+
+  @Test
+  public void testMembersChangedOnPeersAreInvalidated() throws Exception {
+    assertTrue(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertTrue(memberJsonCache.put(6, Integer.valueOf(1), json("Jay")));
+    memberJsonCache.onInvalidations(Arrays.asList(
+        new Invalidation(MemberEntity.class.getName(), Long.valueOf(5), Integer.valueOf(2), false, 0),
+        new Invalidation(AddressEntity.class.getName(), Long.valueOf(6), Integer.valueOf(2), false, 0)));
+
+    assertNull(memberJsonCache.get(5));
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertArrayEquals(json("Jay"), memberJsonCache.get(6));
+  }
+
+  @Test
+  public void testDisabledCacheStoresNothing() throws Exception {
+    memberJsonCache.setEnabled(false);
+    assertFalse(memberJsonCache.put(5, Integer.valueOf(1), json("Jason")));
+    assertNull(memberJsonCache.get(5));
+  }
+
+}
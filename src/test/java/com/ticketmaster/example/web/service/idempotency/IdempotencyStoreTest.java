@@ -0,0 +1,154 @@
+package com.ticketmaster.example.web.service.idempotency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs counting requests through an idempotency store backed by a standalone
+ * cache.
+ */
+public class IdempotencyStoreTest {
+
+  private CacheManager cacheManager;
+  private IdempotencyStore store;
+  private final AtomicInteger runs = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    Configuration configuration = new Configuration();
+    configuration.setName("idempotencyStoreTest");
+    configuration.setUpdateCheck(false);
+    configuration.setDefaultCacheConfiguration(new CacheConfiguration("default", 10));
+    cacheManager = new CacheManager(configuration);
+    Cache cache = new Cache(new CacheConfiguration("idempotency", 100).timeToLiveSeconds(120));
+    cacheManager.addCache(cache);
+
+    store = new IdempotencyStore();
+    store.setCache(cache);
+  }
+
+  @After
+  public void tearDown() {
+    cacheManager.shutdown();
+  }
+
+  private Callable<String> counting(final String result) {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return result + runs.incrementAndGet();
+      }
+    };
+  }
+
+  @Test
+  public void testReplaysResultToRetries() throws Exception {
+    assertEquals("created1", store.execute("key", "body", counting("created")));
+    assertEquals("created1", store.execute("key", "body", counting("created")));
+    assertEquals("created1", store.<String> get("key", "body"));
+    assertEquals("created2", store.execute("other", "body", counting("created")));
+    assertEquals("created3", store.execute(null, null, counting("created")));
+    assertNull(store.get(null, null));
+    assertEquals(3, runs.get());
+    assertEquals(Long.valueOf(2), store.getStatistics().get("replayed"));
+    assertEquals(Long.valueOf(2), store.getStatistics().get("executed"));
+  }
+
+  @Test
+  public void testRefusesKeyReusedForAnotherRequest() throws Exception {
+    store.execute("key", "body", counting("created"));
+    try {
+      store.execute("key", "another body", counting("created"));
+      fail("Reused key accepted");
+    } catch (Exception e) {
+      assertEquals(1, runs.get());
+    }
+    try {
+      store.get("", "body");
+      fail("Empty key accepted");
+    } catch (Exception e) {
+      assertEquals(Long.valueOf(1), store.getStatistics().get("conflicts"));
+    }
+  }
+
+  @Test
+  public void testDoesNotKeepFailures() throws Exception {
+    try {
+      store.execute("key", "body", new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          runs.incrementAndGet();
+          throw new IllegalStateException("database down");
+        }
+      });
+      fail("Failure swallowed");
+    } catch (IllegalStateException e) {
+      assertEquals("database down", e.getMessage());
+    }
+    assertEquals("created2", store.execute("key", "body", counting("created")));
+    assertEquals(Long.valueOf(1), store.getStatistics().get("failed"));
+  }
+
+  @Test(timeout = 10000)
+  public void testCoalescesConcurrentDuplicates() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<String> first = executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return store.execute("key", "body", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+              started.countDown();
+              release.await();
+              return "created" + runs.incrementAndGet();
+            }
+          });
+        }
+      });
+      assertEquals(true, started.await(5, TimeUnit.SECONDS));
+
+      Callable<String> duplicate = new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return store.execute("key", "body", counting("duplicate"));
+        }
+      };
+      Future<String> second = executor.submit(duplicate);
+      Future<String> third = executor.submit(duplicate);
+      while (((Long) store.getStatistics().get("coalesced")).longValue() < 2) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+
+      assertEquals("created1", first.get(5, TimeUnit.SECONDS));
+      assertEquals("created1", second.get(5, TimeUnit.SECONDS));
+      assertEquals("created1", third.get(5, TimeUnit.SECONDS));
+      assertEquals(1, runs.get());
+      assertEquals(Integer.valueOf(0), store.getStatistics().get("inFlight"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.ticketmaster.example.web.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.ticketmaster.example.commons.cache.method.MethodCacheAspect;
+import com.ticketmaster.example.model.AddressEntity;
+import com.ticketmaster.example.model.MemberEntity;
+import com.ticketmaster.example.persistence.service.ExampleMemberPersistenceService;
+import com.ticketmaster.example.web.model.Member;
+import com.ticketmaster.example.web.service.ExampleMemberRestService;
+
+/**
+ * Searches members through the REST service and its persistence service,
+ * whose results are kept by the method cache.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath:/testApplicationContext.xml" })
+public class ExampleMemberRestServiceImplTest {
+
+  @Autowired
+  private ExampleMemberRestService memberRestService;
+
+  @Autowired
+  private ExampleMemberPersistenceService memberPersistenceService;
+
+  @Autowired
+  private MethodCacheAspect methodCacheAspect;
+
+  private final List<Long> created = new ArrayList<Long>();
+
+  @After
+  public void tearDown() throws Exception {
+    for (Long id : created) {
+      memberPersistenceService.deleteMember(id.longValue());
+    }
+    created.clear();
+  }
+
+  private void createMember(String first) throws Exception {
+    MemberEntity member = new MemberEntity();
+    member.setAddress(new AddressEntity());
+    member.setFirst(first);
+    member.setLast("Searchson");
+    member.setEmail(first.toLowerCase() + "@search.example.com");
+    member.setOptOut(false);
+    member.getAddress().setCity("Smallville");
+    created.add(memberPersistenceService.createMember(member).getId());
+  }
+
+  @SuppressWarnings("unchecked")
+  private long count(String method, String counter) {
+    Map<String, Object> methods = (Map<String, Object>) methodCacheAspect.getStatistics().get("methods");
+    for (Map.Entry<String, Object> entry : methods.entrySet()) {
+      if (entry.getKey().contains("." + method + "(")) {
+        return ((Long) ((Map<String, Object>) entry.getValue()).get(counter)).longValue();
+      }
+    }
+    return 0;
+  }
+
+  @Test
+  public void testSearchIsCachedUntilAMemberIsWritten() throws Exception {
+    createMember("Cachedsearch");
+    long hits = count("getMemberViewsByFirstOrLast", "hits");
+    long misses = count("getMemberViewsByFirstOrLast", "misses");
+
+    List<Member> first = memberRestService.searchMembers("Cachedsearch%", null, 0, 10);
+    assertEquals(1, first.size());
+    List<Member> again = memberRestService.searchMembers("Cachedsearch%", null, 0, 10);
+    assertEquals(first.get(0).getId(), again.get(0).getId());
+    assertEquals("Smallville", again.get(0).getAddress().getCity());
+    assertEquals(misses + 1, count("getMemberViewsByFirstOrLast", "misses"));
+    assertEquals(hits + 1, count("getMemberViewsByFirstOrLast", "hits"));
+
+    createMember("Cachedsearchtoo");
+    assertEquals(2, memberRestService.searchMembers("Cachedsearch%", null, 0, 10).size());
+    assertEquals(misses + 2, count("getMemberViewsByFirstOrLast", "misses"));
+  }
+
+  @Test
+  public void testEntitySearchIsCached() throws Exception {
+    createMember("Cachedentity");
+    long hits = count("getMembersByFirstOrLast", "hits");
+
+    List<MemberEntity> first = memberPersistenceService.getMembersByFirstOrLast("Cachedentity", null, 0, 10);
+    List<MemberEntity> again = memberPersistenceService.getMembersByFirstOrLast("Cachedentity", null, 0, 10);
+    assertEquals(1, again.size());
+    assertEquals(first.get(0).getId(), again.get(0).getId());
+    assertNotNull(again.get(0).getAddress());
+    assertEquals("Smallville", again.get(0).getAddress().getCity());
+    assertEquals(hits + 1, count("getMembersByFirstOrLast", "hits"));
+  }
+
+}